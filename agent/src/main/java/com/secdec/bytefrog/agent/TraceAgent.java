@@ -19,9 +19,11 @@
 
 package com.secdec.bytefrog.agent;
 
+import com.secdec.bytefrog.agent.bytefrog.MethodRegistry;
 import com.secdec.bytefrog.agent.control.Controller;
 import com.secdec.bytefrog.agent.control.StateManager;
 import com.secdec.bytefrog.agent.message.MessageSenderManager;
+import com.secdec.bytefrog.agent.trace.ClassRetransformer;
 import com.secdec.bytefrog.common.config.RuntimeAgentConfigurationV1;
 import com.secdec.bytefrog.common.config.StaticAgentConfiguration;
 
@@ -57,6 +59,11 @@ public interface TraceAgent
 	 */
 	TraceDataCollector getDataCollector();
 
+	/**
+	 * Returns the registry that assigns ids to instrumented methods.
+	 */
+	MethodRegistry getMethodRegistry();
+
 	/**
 	 * Returns the active trace state manager.
 	 */
@@ -72,6 +79,12 @@ public interface TraceAgent
 	 */
 	MessageSenderManager getSenderManager();
 
+	/**
+	 * Sets the retransformer that applies filter updates from HQ. Until this
+	 * is set, filter updates are ignored.
+	 */
+	void setClassRetransformer(ClassRetransformer retransformer);
+
 	/**
 	 * Finishes preparation/initialization before beginning tracing.
 	 */
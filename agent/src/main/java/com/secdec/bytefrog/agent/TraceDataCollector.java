@@ -40,18 +40,50 @@ public interface TraceDataCollector
 
 	/**
 	 * Reports a exception.
-	 * @param exception the fully qualified name of the exception thrown
+	 * @param exception the class of the exception thrown
 	 * @param methodSig method signature for the method throwing the exception
 	 * @param sourceLine the line number where the exception was thrown
 	 */
-	void exception(String exception, String methodSig, int sourceLine);
+	void exception(Class<? extends Throwable> exception, String methodSig, int sourceLine);
 
 	/**
 	 * Reports a bubbled exception.
-	 * @param exception the fully qualified name of the exception bubbled
+	 * @param exception the class of the exception bubbled
 	 * @param methodSig the method signature for the method that bubbled
 	 */
-	void bubbleException(String exception, String methodSig);
+	void bubbleException(Class<? extends Throwable> exception, String methodSig);
+
+	/**
+	 * Reports a method entry.
+	 * @param methodId the id that was assigned to the method being entered at
+	 *            instrumentation time
+	 */
+	void methodEntry(int methodId);
+
+	/**
+	 * Reports a method exit.
+	 * @param methodId the id that was assigned to the method being exited at
+	 *            instrumentation time
+	 * @param sourceLine the line number where the method exit occurred
+	 */
+	void methodExit(int methodId, int sourceLine);
+
+	/**
+	 * Reports a exception.
+	 * @param exception the class of the exception thrown
+	 * @param methodId the id that was assigned to the method throwing the
+	 *            exception at instrumentation time
+	 * @param sourceLine the line number where the exception was thrown
+	 */
+	void exception(Class<? extends Throwable> exception, int methodId, int sourceLine);
+
+	/**
+	 * Reports a bubbled exception.
+	 * @param exception the class of the exception bubbled
+	 * @param methodId the id that was assigned to the method that bubbled at
+	 *            instrumentation time
+	 */
+	void bubbleException(Class<? extends Throwable> exception, int methodId);
 
 	/**
 	 * Reports a marker event
@@ -21,32 +21,52 @@ package com.secdec.bytefrog.agent.agent;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.List;
 import java.util.concurrent.Semaphore;
 
 import com.secdec.bytefrog.agent.TraceAgent;
 import com.secdec.bytefrog.agent.TraceDataCollector;
+import com.secdec.bytefrog.agent.bytefrog.MethodRegistry;
 import com.secdec.bytefrog.agent.control.ConfigurationHandler;
 import com.secdec.bytefrog.agent.control.Controller;
 import com.secdec.bytefrog.agent.control.HeartbeatInformer;
 import com.secdec.bytefrog.agent.control.ModeChangeListener;
 import com.secdec.bytefrog.agent.control.StateManager;
+import com.secdec.bytefrog.agent.data.AggregatingTraceDataCollector;
+import com.secdec.bytefrog.agent.data.MessageDealerMethodRegistry;
+import com.secdec.bytefrog.agent.data.HotMethodThrottle;
 import com.secdec.bytefrog.agent.data.MessageDealerTraceDataCollector;
+import com.secdec.bytefrog.agent.data.MethodDemotionReporter;
+import com.secdec.bytefrog.agent.data.MethodSampler;
+import com.secdec.bytefrog.agent.data.SamplingTraceDataCollector;
+import com.secdec.bytefrog.agent.data.ThrottlingTraceDataCollector;
 import com.secdec.bytefrog.agent.errors.AgentErrorListener;
 import com.secdec.bytefrog.agent.errors.ErrorHandler;
 import com.secdec.bytefrog.agent.errors.LogListener;
 import com.secdec.bytefrog.agent.message.BufferService;
+import com.secdec.bytefrog.agent.message.EventClock;
 import com.secdec.bytefrog.agent.message.MessageDealer;
 import com.secdec.bytefrog.agent.message.MessageSenderManager;
 import com.secdec.bytefrog.agent.message.PooledBufferService;
+import com.secdec.bytefrog.agent.message.StagingBufferService;
 import com.secdec.bytefrog.agent.protocol.ProtocolVersion;
-import com.secdec.bytefrog.agent.protocol.ProtocolVersion1;
+import com.secdec.bytefrog.agent.protocol.ProtocolVersion2;
+import com.secdec.bytefrog.agent.trace.ClassRetransformer;
 import com.secdec.bytefrog.agent.util.ShutdownHook;
 import com.secdec.bytefrog.agent.util.SocketFactory;
 import com.secdec.bytefrog.common.config.RuntimeAgentConfigurationV1;
 import com.secdec.bytefrog.common.config.StaticAgentConfiguration;
 import com.secdec.bytefrog.common.connect.SocketConnection;
 import com.secdec.bytefrog.common.message.AgentOperationMode;
+import com.secdec.bytefrog.common.message.MessageConstantsV2;
 import com.secdec.bytefrog.common.queue.BufferPool;
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream;
+import com.secdec.bytefrog.common.queue.DirectBufferArena;
+import com.secdec.bytefrog.common.queue.ElasticBufferPool;
+import com.secdec.bytefrog.common.queue.BufferTransport;
+import com.secdec.bytefrog.common.queue.RingBufferTransport;
+import com.secdec.bytefrog.common.queue.SpillFile;
+import com.secdec.bytefrog.common.queue.SpillingBufferTransport;
 
 /**
  * Concrete Agent implementation, manages the entire trace.
@@ -62,15 +82,23 @@ public class DefaultTraceAgent implements TraceAgent
 	private RuntimeAgentConfigurationV1 config;
 
 	private final Semaphore startMutex = new Semaphore(0);
-	private final ProtocolVersion protocol = new ProtocolVersion1();
+	private ProtocolVersion protocol = new ProtocolVersion2();
 	private LogListener logger = null;
 	private TraceDataCollector dataCollector;
+	private MethodRegistry methodRegistry;
 	private StateManager stateManager;
 	private Controller controller;
-	private BufferPool bufferPool;
+	private BufferTransport bufferPool;
+	private ElasticBufferPool elasticPool;
 	private BufferService bufferService;
+	private SpillingBufferTransport spillingTransport;
+	private StagingBufferService stagingBufferService;
 	private MessageDealer messageFactory;
+	private EventClock eventClock;
+	private HotMethodThrottle hotMethodThrottle;
+	private AggregatingTraceDataCollector aggregatingCollector;
 	private MessageSenderManager senderManager;
+	private volatile ClassRetransformer classRetransformer;
 	private boolean isStarted = false;
 	private boolean isKilled = false;
 
@@ -192,6 +220,9 @@ public class DefaultTraceAgent implements TraceAgent
 				return false;
 			}
 
+			// HQ may have settled on an older version than we offered
+			protocol = protocol.getNegotiatedVersion();
+
 			HeartbeatInformer informer = new HeartbeatInformer()
 			{
 				@Override
@@ -208,6 +239,37 @@ public class DefaultTraceAgent implements TraceAgent
 				{
 					return stateManager.getCurrentMode();
 				}
+
+				@Override
+				public long[] getStats()
+				{
+					long[] stats = new long[MessageConstantsV2.HeartbeatStatCount];
+					if (senderManager != null)
+					{
+						stats[MessageConstantsV2.HeartbeatStatBytesBeforeCompression] = senderManager
+								.getBytesBeforeCompression();
+						stats[MessageConstantsV2.HeartbeatStatBytesAfterCompression] = senderManager
+								.getBytesAfterCompression();
+						stats[MessageConstantsV2.HeartbeatStatCompressionTime] = senderManager
+								.getCompressionTime();
+					}
+					if (messageFactory != null)
+						stats[MessageConstantsV2.HeartbeatStatDroppedEvents] = messageFactory
+								.getDroppedEventCount();
+					if (controller != null)
+						stats[MessageConstantsV2.HeartbeatStatDroppedClassReports] = controller
+								.getDroppedClassReportCount();
+					if (elasticPool != null)
+					{
+						stats[MessageConstantsV2.HeartbeatStatBufferMemory] = elasticPool
+								.getAllocatedBytes();
+						stats[MessageConstantsV2.HeartbeatStatBufferCount] = elasticPool
+								.getBufferCount();
+						stats[MessageConstantsV2.HeartbeatStatBuffersInUse] = elasticPool
+								.getBuffersInUse();
+					}
+					return stats;
+				}
 			};
 
 			ConfigurationHandler configHandler = new ConfigurationHandler()
@@ -226,6 +288,21 @@ public class DefaultTraceAgent implements TraceAgent
 					config = newConfig;
 					controller.setHeartbeatInterval(config.getHeartbeatInterval());
 				}
+
+				@Override
+				public void onFilterUpdate(List<String> exclusions, List<String> inclusions)
+				{
+					// before instrumentation is set up, the new filters just
+					// become part of the configuration
+					ClassRetransformer retransformer = classRetransformer;
+					if (retransformer == null)
+					{
+						config.setExclusions(exclusions);
+						config.setInclusions(inclusions);
+					}
+					else
+						retransformer.updateFilters(exclusions, inclusions);
+				}
 			};
 
 			controller = new Controller(controlConnection, protocol, config.getHeartbeatInterval(),
@@ -271,20 +348,124 @@ public class DefaultTraceAgent implements TraceAgent
 	{
 		try
 		{
-			// figure out the buffer count and sizes for the BufferPool
+			// figure out the buffer count and sizes for the buffer transport
 			int memBudget = config.getBufferMemoryBudget();
 			int bufferLength = decideBufferLength(memBudget);
 			int numBuffers = memBudget / bufferLength;
 
+			// only the heap buffer pool can grow past the budget
+			boolean elastic = config.getMaxBufferMemoryBudget() > memBudget;
+			if (elastic && (config.isDirectBuffers() || config.isRingBufferTransport()))
+				throw new IllegalArgumentException(
+						"maxBufferMemoryBudget can't be used with directBuffers or ringBufferTransport");
+
 			// set up the queue/message factory
-			bufferPool = new BufferPool(numBuffers, bufferLength);
+			if (config.isDirectBuffers())
+			{
+				// keep the buffers off the heap, and let the senders write them
+				// out without copying
+				DataBufferOutputStream[] buffers = new DirectBufferArena(numBuffers,
+						bufferLength).getBuffers();
+				if (config.isRingBufferTransport())
+					bufferPool = new RingBufferTransport(buffers, bufferLength);
+				else
+					bufferPool = new BufferPool(buffers, bufferLength);
+			}
+			else if (config.isRingBufferTransport())
+				bufferPool = new RingBufferTransport(numBuffers, bufferLength);
+			else if (elastic)
+			{
+				// start out at the budget, and only take more memory while the
+				// senders can't keep up
+				elasticPool = new ElasticBufferPool(numBuffers, bufferLength,
+						config.getMaxBufferMemoryBudget());
+				bufferPool = elasticPool;
+			}
+			else
+				bufferPool = new BufferPool(numBuffers, bufferLength);
+
+			int spillFileLimit = config.getSpillFileLimit();
+			if (spillFileLimit > 0)
+			{
+				// move waiting data to disk rather than making traced threads
+				// wait for the senders
+				SpillFile spill = new SpillFile(null, Math.min(spillFileLimit,
+						bufferLength * 64), spillFileLimit);
+				spillingTransport = new SpillingBufferTransport(bufferPool, spill, bufferLength);
+				bufferPool = spillingTransport;
+			}
 			bufferService = new PooledBufferService(bufferPool, config.getQueueRetryCount());
-			messageFactory = new MessageDealer(protocol.getMessageProtocol(), bufferService);
-			dataCollector = new MessageDealerTraceDataCollector(messageFactory);
+
+			if (config.isThreadLocalBuffering())
+			{
+				// stage events per thread, and hand them to the pool in chunks
+				// that are small enough for the pool to take as a single write
+				stagingBufferService = new StagingBufferService(bufferService,
+						bufferLength / 10, config.getThreadBufferFlushInterval());
+				stagingBufferService.start();
+				bufferService = stagingBufferService;
+			}
+
+			eventClock = EventClock.create(config.getEventClock(),
+					config.getCoarseClockResolution());
+			eventClock.start();
+
+			MessageDealer.Options dealerOptions = new MessageDealer.Options();
+			dealerOptions.setPerThreadSequencing(config.isPerThreadSequencing());
+			dealerOptions.setClock(eventClock);
+			dealerOptions.setThreadNameCheckInterval(config.getThreadNameCheckInterval());
+			dealerOptions.setSpanMode(config.isSpanMode());
+			dealerOptions.setLossy(config.isLossyBackpressure());
+			messageFactory = new MessageDealer(protocol.getMessageProtocol(), bufferService,
+					dealerOptions);
+			if (config.getAggregationInterval() > 0)
+			{
+				// only send per-method totals every so often, rather than
+				// every single event
+				aggregatingCollector = new AggregatingTraceDataCollector(messageFactory,
+						config.getAggregationInterval());
+				aggregatingCollector.start();
+				dataCollector = aggregatingCollector;
+			}
+			else
+				dataCollector = new MessageDealerTraceDataCollector(messageFactory);
+
+			if (config.getHotMethodThreshold() > 0)
+			{
+				// stop tracing any method that gets called so often that it
+				// drowns out everything else
+				hotMethodThrottle = new HotMethodThrottle(config.getHotMethodThreshold(),
+						config.getHotMethodWindow(), new MethodDemotionReporter(controller,
+								messageFactory));
+				hotMethodThrottle.start();
+				dataCollector = new ThrottlingTraceDataCollector(dataCollector, hotMethodThrottle);
+			}
+
+			MethodSampler sampler = new MethodSampler(config.getSamplingRules());
+			if (sampler.hasRules())
+			{
+				// skip some calls to sampled methods before they get anywhere
+				// near the message dealer
+				dataCollector = new SamplingTraceDataCollector(dataCollector, sampler);
+				methodRegistry = new MessageDealerMethodRegistry(messageFactory, sampler);
+			}
+			else
+				methodRegistry = new MessageDealerMethodRegistry(messageFactory);
+
+			MessageSenderManager.Options senderOptions = new MessageSenderManager.Options();
+			senderOptions.setChannelWrites(config.isDirectBuffers());
+
+			// HQ only expects compressed data, or data through a shared memory
+			// ring, from agents that speak version 2
+			if (protocol.getMessageProtocol().protocolVersion() >= 2)
+			{
+				senderOptions.setCompressionLevel(config.getCompressionLevel());
+				senderOptions.setSharedMemoryRingSize(config.getSharedMemoryRingSize());
+			}
 
 			senderManager = new MessageSenderManager(socketFactory,
 					protocol.getDataConnectionHandshake(), bufferPool, config.getNumDataSenders(),
-					config.getRunId());
+					config.getRunId(), senderOptions);
 			senderManager.start();
 
 			stateManager.addListener(bufferService.getModeChangeListener());
@@ -332,6 +513,18 @@ public class DefaultTraceAgent implements TraceAgent
 		return dataCollector;
 	}
 
+	@Override
+	public MethodRegistry getMethodRegistry()
+	{
+		return methodRegistry;
+	}
+
+	@Override
+	public void setClassRetransformer(ClassRetransformer retransformer)
+	{
+		this.classRetransformer = retransformer;
+	}
+
 	@Override
 	public StateManager getStateManager()
 	{
@@ -433,8 +626,22 @@ public class DefaultTraceAgent implements TraceAgent
 
 	public void closeConnections()
 	{
+		if (aggregatingCollector != null)
+			aggregatingCollector.shutdown();
+		if (stagingBufferService != null)
+			stagingBufferService.shutdown();
+		if (eventClock != null)
+			eventClock.shutdown();
+		if (hotMethodThrottle != null)
+			hotMethodThrottle.shutdown();
+		if (classRetransformer != null)
+			classRetransformer.shutdown();
+
 		senderManager.shutdown();
 		controller.shutdown();
+
+		if (spillingTransport != null)
+			spillingTransport.close();
 	}
 
 	private void waitForSenderManager() throws InterruptedException
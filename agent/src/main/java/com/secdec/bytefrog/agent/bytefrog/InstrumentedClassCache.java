@@ -0,0 +1,547 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.bytefrog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.secdec.bytefrog.asm.ClassWriter;
+
+/**
+ * A cache of instrumented classes that lives on disk, so that classes which
+ * haven't changed since an earlier run can skip instrumentation entirely.
+ * Entries are kept in a subdirectory per options key, which covers the
+ * instrumentation options along with a digest of the agent itself (so that a
+ * rebuilt agent doesn't pick up classes instrumented by an older one). Each
+ * entry is stored in a file named after a hash of the original class bytes
+ * and the class name, and is memory-mapped when it is read back.
+ * 
+ * Instrumented classes have method ids baked into them, so an entry also
+ * records the ids it was instrumented with. When the cache is opened, those
+ * ids are gathered up so that they can be preassigned with
+ * {@link MethodRegistry#preassignMethodIds(Map)}; an entry is only used if the
+ * registry hands out the same ids again. Entries that don't match are simply
+ * instrumented again and overwritten.
+ * 
+ * The cache is pruned when it is opened: entries and the subdirectories of
+ * other options keys that haven't been touched in {@link #StaleAge} are
+ * deleted, so that the cache doesn't keep growing across agent builds and
+ * class changes.
+ */
+public class InstrumentedClassCache
+{
+	private static final int EntryMagic = 0x62666331; // "bfc1"
+	private static final String EntrySuffix = ".bfc";
+
+	/**
+	 * How long an entry, or a whole options key, can go unused before it is
+	 * pruned
+	 */
+	private static final long StaleAge = 30L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * The classes whose code decides what an instrumented class looks like.
+	 * When the agent isn't running from a jar, these are what the agent digest
+	 * is taken over.
+	 */
+	private static final Class<?>[] InstrumentationClasses = { InstrumentedClassCache.class,
+			Instrumentor.class, TraceClassAdapter.class, TraceMethodAdapter.class,
+			TrivialMethodFilter.class, ClassWriter.class };
+
+	private final File directory;
+	private final Map<String, Integer> methodIds;
+	private volatile boolean writable = true;
+
+	/**
+	 * Opens (and if necessary, creates) a cache.
+	 * 
+	 * @param directory the directory that holds the cache
+	 * @param options a description of the instrumentation options; entries
+	 *            made with different options are never used
+	 * @return the cache, or <code>null</code> if the directory can't be used
+	 */
+	public static InstrumentedClassCache open(File directory, String options)
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+			return null;
+
+		String agentDigest = agentDigest();
+		if (agentDigest == null)
+			return null;
+
+		String optionsKey = EntryMagic + ";" + agentDigest + ";" + options;
+		File keyDirectory = new File(directory, hash(optionsKey, new byte[0]));
+		if (!keyDirectory.isDirectory() && !keyDirectory.mkdir())
+			return null;
+
+		// keep this key from looking stale to other JVMs sharing the cache
+		long now = System.currentTimeMillis();
+		keyDirectory.setLastModified(now);
+		pruneOtherKeys(directory, keyDirectory, now);
+
+		return new InstrumentedClassCache(keyDirectory);
+	}
+
+	/**
+	 * Deletes the subdirectories of other options keys that haven't been used
+	 * in {@link #StaleAge}, along with any entries left directly in the cache
+	 * directory by agents that didn't keep a subdirectory per key.
+	 */
+	private static void pruneOtherKeys(File directory, File keyDirectory, long now)
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files)
+		{
+			if (file.isDirectory())
+			{
+				if (!file.equals(keyDirectory) && isStale(file, now))
+				{
+					File[] entries = file.listFiles();
+					if (entries != null)
+					{
+						for (File entry : entries)
+							entry.delete();
+					}
+					file.delete();
+				}
+			}
+			else if (file.getName().endsWith(EntrySuffix))
+				file.delete();
+		}
+	}
+
+	private static boolean isStale(File file, long now)
+	{
+		return now - file.lastModified() > StaleAge;
+	}
+
+	/**
+	 * Takes a digest of the agent jar, or if the agent wasn't loaded from a
+	 * jar, of the instrumentation classes. The jar's version number can't be
+	 * used for this, since it doesn't change between builds.
+	 * 
+	 * @return the digest, or <code>null</code> if the agent couldn't be read
+	 */
+	private static String agentDigest()
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+			File jar = agentJar();
+			if (jar != null)
+				update(digest, new FileInputStream(jar));
+			else
+			{
+				for (Class<?> c : InstrumentationClasses)
+				{
+					String resource = "/" + c.getName().replace('.', '/') + ".class";
+					InputStream in = c.getResourceAsStream(resource);
+					if (in == null)
+						return null;
+					update(digest, in);
+				}
+			}
+
+			return toHex(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return the jar that this class was loaded from, or <code>null</code>
+	 *         if it wasn't loaded from one
+	 */
+	private static File agentJar()
+	{
+		CodeSource source = InstrumentedClassCache.class.getProtectionDomain().getCodeSource();
+		URL location = source == null ? null : source.getLocation();
+		if (location == null || !"file".equals(location.getProtocol()))
+			return null;
+
+		try
+		{
+			File file = new File(location.toURI());
+			return file.isFile() ? file : null;
+		}
+		catch (URISyntaxException e)
+		{
+			return null;
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+
+	private static void update(MessageDigest digest, InputStream in) throws IOException
+	{
+		try
+		{
+			byte[] chunk = new byte[8192];
+			int n;
+			while ((n = in.read(chunk)) != -1)
+				digest.update(chunk, 0, n);
+		}
+		finally
+		{
+			closeQuietly(in);
+		}
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes)
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+					Character.forDigit(b & 0xF, 16));
+		return sb.toString();
+	}
+
+	private InstrumentedClassCache(File directory)
+	{
+		this.directory = directory;
+		this.methodIds = loadMethodIds();
+	}
+
+	/**
+	 * @return the method ids used by the entries in the cache, by method
+	 *         signature. Ids that were given to more than one signature (e.g.
+	 *         by two JVMs sharing the cache) are left out.
+	 */
+	public Map<String, Integer> getMethodIds()
+	{
+		return methodIds;
+	}
+
+	/**
+	 * Returns the instrumented version of a class, from the cache if possible.
+	 * On a cache hit, the class's methods are registered with the registry
+	 * just as if the class had been instrumented. On a miss, the class is
+	 * instrumented and the result is stored for next time.
+	 * 
+	 * @param className the name of the class being instrumented
+	 * @param buffer the original class bytes
+	 * @param registry the registry to get method ids from
+	 * @param filter the filter that picks methods to skip, or
+	 *            <code>null</code> to instrument every method
+	 * @return the instrumented version of the class
+	 */
+	public byte[] instrument(String className, byte[] buffer, MethodRegistry registry,
+			TrivialMethodFilter filter)
+	{
+		File entryFile = new File(directory, hash(className, buffer) + EntrySuffix);
+
+		Entry entry = entryFile.isFile() ? readEntry(entryFile, true) : null;
+		if (entry != null && entry.matches(registry))
+		{
+			// keep the entry from being pruned as stale
+			entryFile.setLastModified(System.currentTimeMillis());
+			registry.registerMethods(className, entry.ids, entry.signatures);
+			return entry.classBytes;
+		}
+
+		RecordingMethodRegistry recorder = new RecordingMethodRegistry(registry);
+		byte[] bytes = Instrumentor.instrument(className, buffer, recorder, filter);
+
+		if (writable)
+			writeEntry(entryFile, new Entry(recorder.ids, recorder.signatures, bytes));
+
+		return bytes;
+	}
+
+	private static String hash(String className, byte[] buffer)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(className.getBytes("UTF-8"));
+			digest.update(buffer);
+			return toHex(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Map<String, Integer> loadMethodIds()
+	{
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		Map<Integer, String> owners = new HashMap<Integer, String>();
+		Set<String> conflicts = new HashSet<String>();
+
+		File[] files = directory.listFiles();
+		if (files == null)
+			return ids;
+
+		long now = System.currentTimeMillis();
+		for (File file : files)
+		{
+			if (!file.getName().endsWith(EntrySuffix))
+				continue;
+
+			if (isStale(file, now))
+			{
+				// most likely a version of a class that has since changed
+				file.delete();
+				continue;
+			}
+
+			Entry entry = readEntry(file, false);
+			if (entry == null)
+				continue;
+
+			for (int i = 0; i < entry.ids.length; i++)
+			{
+				String sig = entry.signatures[i];
+				Integer id = entry.ids[i];
+
+				Integer knownId = ids.get(sig);
+				String knownOwner = owners.get(id);
+				if ((knownId != null && !knownId.equals(id))
+						|| (knownOwner != null && !knownOwner.equals(sig)))
+				{
+					conflicts.add(sig);
+					if (knownOwner != null)
+						conflicts.add(knownOwner);
+				}
+				else
+				{
+					ids.put(sig, id);
+					owners.put(id, sig);
+				}
+			}
+		}
+
+		ids.keySet().removeAll(conflicts);
+		return ids;
+	}
+
+	private Entry readEntry(File file, boolean withClassBytes)
+	{
+		FileInputStream in = null;
+		try
+		{
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+
+			if (mapped.getInt() != EntryMagic)
+				return null;
+
+			int count = mapped.getInt();
+			int[] ids = new int[count];
+			String[] signatures = new String[count];
+			for (int i = 0; i < count; i++)
+			{
+				ids[i] = mapped.getInt();
+				signatures[i] = readString(mapped);
+			}
+
+			byte[] classBytes = null;
+			if (withClassBytes)
+			{
+				classBytes = new byte[mapped.getInt()];
+				mapped.get(classBytes);
+			}
+
+			return new Entry(ids, signatures, classBytes);
+		}
+		catch (Exception e)
+		{
+			// a damaged or half-written entry is just a miss
+			return null;
+		}
+		finally
+		{
+			closeQuietly(in);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) throws UnsupportedEncodingException
+	{
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private void writeEntry(File file, Entry entry)
+	{
+		File temp = null;
+		FileOutputStream out = null;
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+					entry.classBytes.length + 64 * entry.ids.length + 16);
+			DataOutputStream data = new DataOutputStream(bytes);
+			data.writeInt(EntryMagic);
+			data.writeInt(entry.ids.length);
+			for (int i = 0; i < entry.ids.length; i++)
+			{
+				data.writeInt(entry.ids[i]);
+				byte[] sig = entry.signatures[i].getBytes("UTF-8");
+				data.writeShort(sig.length);
+				data.write(sig);
+			}
+			data.writeInt(entry.classBytes.length);
+			data.write(entry.classBytes);
+			data.flush();
+
+			// write the entry off to the side, so that nobody (including
+			// other JVMs) ever sees half of it
+			temp = File.createTempFile("entry", ".tmp", directory);
+			out = new FileOutputStream(temp);
+			bytes.writeTo(out);
+			out.close();
+			out = null;
+
+			if (!temp.renameTo(file))
+			{
+				file.delete();
+				temp.renameTo(file);
+			}
+		}
+		catch (IOException e)
+		{
+			// probably out of space or not allowed; either way, stop trying
+			writable = false;
+		}
+		finally
+		{
+			closeQuietly(out);
+			if (temp != null && temp.exists())
+				temp.delete();
+		}
+	}
+
+	private static void closeQuietly(Closeable c)
+	{
+		if (c == null)
+			return;
+
+		try
+		{
+			c.close();
+		}
+		catch (IOException e)
+		{
+			// nothing to do about it
+		}
+	}
+
+	private static class Entry
+	{
+		public final int[] ids;
+		public final String[] signatures;
+		public final byte[] classBytes;
+
+		public Entry(int[] ids, String[] signatures, byte[] classBytes)
+		{
+			this.ids = ids;
+			this.signatures = signatures;
+			this.classBytes = classBytes;
+		}
+
+		/**
+		 * Checks that the registry gives out the ids baked into the entry.
+		 */
+		public boolean matches(MethodRegistry registry)
+		{
+			for (int i = 0; i < ids.length; i++)
+			{
+				if (registry.getMethodId(signatures[i]) != ids[i])
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Passes everything through to another registry, remembering the methods
+	 * that get registered.
+	 */
+	private static class RecordingMethodRegistry implements MethodRegistry
+	{
+		private final MethodRegistry registry;
+
+		public int[] ids = new int[0];
+		public String[] signatures = new String[0];
+
+		public RecordingMethodRegistry(MethodRegistry registry)
+		{
+			this.registry = registry;
+		}
+
+		@Override
+		public int getMethodId(String methodSignature)
+		{
+			return registry.getMethodId(methodSignature);
+		}
+
+		@Override
+		public void registerMethods(String className, int[] methodIds, String[] methodSignatures)
+		{
+			ids = methodIds;
+			signatures = methodSignatures;
+			registry.registerMethods(className, methodIds, methodSignatures);
+		}
+
+		@Override
+		public void preassignMethodIds(Map<String, Integer> methodIds)
+		{
+			registry.preassignMethodIds(methodIds);
+		}
+	}
+}
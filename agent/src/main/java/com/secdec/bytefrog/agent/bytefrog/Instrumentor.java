@@ -21,6 +21,8 @@ package com.secdec.bytefrog.agent.bytefrog;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
 
 import com.secdec.bytefrog.asm.ClassReader;
 import com.secdec.bytefrog.asm.ClassWriter;
@@ -36,14 +38,20 @@ public class Instrumentor
 	{
 	}
 
-	private static byte[] instrument(String className, ClassReader cr)
+	private static byte[] instrument(String className, ClassReader cr, MethodRegistry registry,
+			TrivialMethodFilter filter)
 	{
+		Set<String> skippedMethods = filter != null ? filter.findTrivialMethods(cr) : Collections
+				.<String> emptySet();
+
 		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-		TraceClassAdapter adapter = new TraceClassAdapter(cw, className);
+		TraceClassAdapter adapter = new TraceClassAdapter(cw, className, registry, skippedMethods);
 
 		cr.accept(adapter, ClassReader.EXPAND_FRAMES);
 
-		return cw.toByteArray();
+		byte[] bytes = cw.toByteArray();
+		adapter.registerMethods();
+		return bytes;
 	}
 
 	/**
@@ -55,7 +63,39 @@ public class Instrumentor
 	 */
 	public static byte[] instrument(String name, byte[] buffer)
 	{
-		return instrument(name, new ClassReader(buffer));
+		return instrument(name, new ClassReader(buffer), null, null);
+	}
+
+	/**
+	 * Instruments the class contained in the given buffer, assigning method
+	 * ids from the given registry.
+	 *
+	 * @param buffer the buffer of bytes representing the class to instrument
+	 * @param name the name of the class being instrumented
+	 * @param registry the registry to get method ids from
+	 * @return the instrumented version of the class
+	 */
+	public static byte[] instrument(String name, byte[] buffer, MethodRegistry registry)
+	{
+		return instrument(name, new ClassReader(buffer), registry, null);
+	}
+
+	/**
+	 * Instruments the class contained in the given buffer, assigning method
+	 * ids from the given registry and leaving out the methods that the given
+	 * filter considers trivial.
+	 *
+	 * @param buffer the buffer of bytes representing the class to instrument
+	 * @param name the name of the class being instrumented
+	 * @param registry the registry to get method ids from
+	 * @param filter the filter that picks methods to skip, or
+	 *            <code>null</code> to instrument every method
+	 * @return the instrumented version of the class
+	 */
+	public static byte[] instrument(String name, byte[] buffer, MethodRegistry registry,
+			TrivialMethodFilter filter)
+	{
+		return instrument(name, new ClassReader(buffer), registry, filter);
 	}
 
 	/**
@@ -67,7 +107,35 @@ public class Instrumentor
 	 */
 	public static byte[] instrument(String name, InputStream is) throws IOException
 	{
-		return instrument(name, new ClassReader(is));
+		return instrument(name, new ClassReader(is), null, null);
+	}
+
+	/**
+	 * Instruments the class contained in the given InputStream, assigning
+	 * method ids from the given registry.
+	 *
+	 * @param is the InputStream containing the class to instrument
+	 * @param name the name of the class being instrumented
+	 * @param registry the registry to get method ids from
+	 * @return the instrumented version of the class
+	 */
+	public static byte[] instrument(String name, InputStream is, MethodRegistry registry)
+			throws IOException
+	{
+		return instrument(name, new ClassReader(is), registry, null);
+	}
+
+	/**
+	 * Instruments the class named, leaving out the methods that the given
+	 * filter considers trivial.
+	 *
+	 * @param name the binary name of the class to instrument
+	 * @param filter the filter that picks methods to skip
+	 * @return the instrumented version of the class
+	 */
+	public static byte[] instrument(String name, TrivialMethodFilter filter) throws IOException
+	{
+		return instrument(name, new ClassReader(name), null, filter);
 	}
 
 	/**
@@ -78,6 +146,6 @@ public class Instrumentor
 	 */
 	public static byte[] instrument(String name) throws IOException
 	{
-		return instrument(name, new ClassReader(name));
+		return instrument(name, new ClassReader(name), null, null);
 	}
 }
@@ -0,0 +1,61 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.bytefrog;
+
+import java.util.Map;
+
+/**
+ * Assigns ids to methods as they are instrumented. The instrumented code passes
+ * the id (rather than the method signature) to the Trace class, so the mapping
+ * from id to signature has to be published before any of it runs.
+ */
+public interface MethodRegistry
+{
+	/**
+	 * Returns the id for the given method signature, assigning a new one if
+	 * the signature hasn't been seen yet. Implementations should always return
+	 * the same id for the same signature (e.g. when a class is retransformed).
+	 * 
+	 * @param methodSignature the signature of the method being instrumented
+	 * @return the method's id
+	 */
+	int getMethodId(String methodSignature);
+
+	/**
+	 * Publishes the id mappings for all of the instrumented methods in a class.
+	 * Called once the class has been instrumented successfully.
+	 * 
+	 * @param className the name of the instrumented class
+	 * @param methodIds the ids assigned to the class's methods
+	 * @param methodSignatures the signatures of the class's methods, in the
+	 *            same order as <code>methodIds</code>
+	 */
+	void registerMethods(String className, int[] methodIds, String[] methodSignatures);
+
+	/**
+	 * Asks for methods to be given particular ids, e.g. so that they match the
+	 * ids in classes that were instrumented by an earlier run. Signatures that
+	 * aren't listed get ids that don't clash with any of these. This only
+	 * works if it is called before any ids are handed out.
+	 * 
+	 * @param methodIds the ids to use, by method signature
+	 */
+	void preassignMethodIds(Map<String, Integer> methodIds);
+}
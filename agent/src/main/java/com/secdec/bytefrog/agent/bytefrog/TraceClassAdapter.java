@@ -19,17 +19,31 @@
 
 package com.secdec.bytefrog.agent.bytefrog;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 import com.secdec.bytefrog.asm.ClassVisitor;
 import com.secdec.bytefrog.asm.MethodVisitor;
 import com.secdec.bytefrog.asm.Opcodes;
 
 /**
- * Adapter for instrumenting methods within a class with trace calls.
+ * Adapter for instrumenting methods within a class with trace calls. If a
+ * {@link MethodRegistry} is given, each instrumented method is assigned an id
+ * from it; the ids are handed back to the registry in one batch by
+ * {@link #registerMethods()} once the class is done. Methods listed as skipped
+ * (see {@link TrivialMethodFilter}) are passed through untouched.
  * @author RobertF
  */
 public class TraceClassAdapter extends ClassVisitor implements Opcodes
 {
 	private final String className;
+	private final MethodRegistry methodRegistry;
+	private final Set<String> skippedMethods;
+
+	private final List<Integer> methodIds = new ArrayList<Integer>();
+	private final List<String> methodSignatures = new ArrayList<String>();
 
 	/**
 	 * Constructor
@@ -37,10 +51,40 @@ public class TraceClassAdapter extends ClassVisitor implements Opcodes
 	 * @param className the name of the class being instrumented
 	 */
 	public TraceClassAdapter(final ClassVisitor cv, String className)
+	{
+		this(cv, className, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param cv the class visitor to delegate to
+	 * @param className the name of the class being instrumented
+	 * @param methodRegistry the registry to get method ids from, or
+	 *            <code>null</code> to have trace calls use method signatures
+	 */
+	public TraceClassAdapter(final ClassVisitor cv, String className,
+			MethodRegistry methodRegistry)
+	{
+		this(cv, className, methodRegistry, Collections.<String> emptySet());
+	}
+
+	/**
+	 * Constructor
+	 * @param cv the class visitor to delegate to
+	 * @param className the name of the class being instrumented
+	 * @param methodRegistry the registry to get method ids from, or
+	 *            <code>null</code> to have trace calls use method signatures
+	 * @param skippedMethods keys of the methods to leave uninstrumented, as
+	 *            built by {@link TrivialMethodFilter#getMethodKey}
+	 */
+	public TraceClassAdapter(final ClassVisitor cv, String className,
+			MethodRegistry methodRegistry, Set<String> skippedMethods)
 	{
 		super(ASM4, cv);
 
 		this.className = className;
+		this.methodRegistry = methodRegistry;
+		this.skippedMethods = skippedMethods;
 	}
 
 	@Override
@@ -48,6 +92,40 @@ public class TraceClassAdapter extends ClassVisitor implements Opcodes
 			String[] exceptions)
 	{
 		MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
-		return mv == null ? null : new TraceMethodAdapter(className, name, desc, access, mv);
+		if (mv == null)
+			return null;
+
+		if (skippedMethods.contains(TrivialMethodFilter.getMethodKey(name, desc)))
+			return mv;
+
+		// abstract and native methods don't get any trace calls, so they
+		// don't need an id
+		if (methodRegistry == null || (access & (ACC_ABSTRACT | ACC_NATIVE)) != 0)
+			return new TraceMethodAdapter(className, name, desc, access, mv);
+
+		String methodSignature = TraceMethodAdapter.getMethodSignature(className, name, desc,
+				access);
+		int methodId = methodRegistry.getMethodId(methodSignature);
+		methodIds.add(methodId);
+		methodSignatures.add(methodSignature);
+
+		return new TraceMethodAdapter(className, name, desc, access, methodId, mv);
+	}
+
+	/**
+	 * Hands the ids of all instrumented methods to the registry. This should
+	 * only be called once the instrumented class has been written out.
+	 */
+	public void registerMethods()
+	{
+		if (methodRegistry == null || methodIds.isEmpty())
+			return;
+
+		int[] ids = new int[methodIds.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = methodIds.get(i);
+
+		methodRegistry.registerMethods(className, ids,
+				methodSignatures.toArray(new String[methodSignatures.size()]));
 	}
 }
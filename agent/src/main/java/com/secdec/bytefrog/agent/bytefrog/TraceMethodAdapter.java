@@ -25,13 +25,18 @@ import com.secdec.bytefrog.asm.Opcodes;
 import com.secdec.bytefrog.asm.commons.AdviceAdapter;
 
 /**
- * Adapter for instrumenting methods with trace calls.
+ * Adapter for instrumenting methods with trace calls. When the method has been
+ * given an id (see {@link MethodRegistry}), the trace calls pass that id along;
+ * otherwise they pass the method's full signature string.
  *
  * @author RobertF
  */
 public class TraceMethodAdapter extends AdviceAdapter implements Opcodes
 {
+	private static final int NoMethodId = -1;
+
 	private final String methodSignature;
+	private final int methodId;
 	private int currentLineNumber = -1;
 
 	private final Label methodBegin = new Label();
@@ -48,9 +53,55 @@ public class TraceMethodAdapter extends AdviceAdapter implements Opcodes
 	 */
 	public TraceMethodAdapter(String className, String methodName, String desc, int access,
 			MethodVisitor mv)
+	{
+		this(className, methodName, desc, access, NoMethodId, mv);
+	}
+
+	/**
+	 * Constructor
+	 * @param className the name of the class the method belongs to
+	 * @param methodName the name of the method being instrumented
+	 * @param desc the method's descriptor
+	 * @param access the method's access flags
+	 * @param methodId the id assigned to the method, or -1 to pass the method
+	 *            signature instead
+	 * @param mv the method visitor to delegate to
+	 */
+	public TraceMethodAdapter(String className, String methodName, String desc, int access,
+			int methodId, MethodVisitor mv)
 	{
 		super(ASM4, mv, access, methodName, desc);
-		this.methodSignature = className + "." + methodName + ";" + access + ";" + desc;
+		this.methodSignature = getMethodSignature(className, methodName, desc, access);
+		this.methodId = methodId;
+	}
+
+	/**
+	 * Builds the signature string that identifies a method to HQ.
+	 */
+	public static String getMethodSignature(String className, String methodName, String desc,
+			int access)
+	{
+		return className + "." + methodName + ";" + access + ";" + desc;
+	}
+
+	// push the method's id or signature, and return its descriptor
+	private String pushMethodRef()
+	{
+		if (methodId == NoMethodId)
+		{
+			mv.visitLdcInsn(methodSignature);
+			return "Ljava/lang/String;";
+		}
+
+		if (methodId <= 5)
+			mv.visitInsn(ICONST_0 + methodId);
+		else if (methodId <= Byte.MAX_VALUE)
+			mv.visitIntInsn(BIPUSH, methodId);
+		else if (methodId <= Short.MAX_VALUE)
+			mv.visitIntInsn(SIPUSH, methodId);
+		else
+			mv.visitLdcInsn(methodId);
+		return "I";
 	}
 
 	@Override
@@ -59,10 +110,10 @@ public class TraceMethodAdapter extends AdviceAdapter implements Opcodes
 		// insert start label for the try block
 		mv.visitLabel(methodBegin);
 
-		// call Trace.methodEntry(methodSignature)
-		mv.visitLdcInsn(methodSignature);
+		// call Trace.methodEntry(methodId or methodSignature)
+		String ref = pushMethodRef();
 		mv.visitMethodInsn(INVOKESTATIC, "com/secdec/bytefrog/agent/trace/Trace", "methodEntry",
-				"(Ljava/lang/String;)V");
+				"(" + ref + ")V");
 	}
 
 	@Override
@@ -70,21 +121,22 @@ public class TraceMethodAdapter extends AdviceAdapter implements Opcodes
 	{
 		if (opcode == ATHROW)
 		{
-			// call Trace.methodThrow(exception, methodSignature,
+			// call Trace.methodThrow(exception, methodId or methodSignature,
 			// currentLineNumber)
 			dup(); // exception is already on stack, dup it since it's not ours
-			mv.visitLdcInsn(methodSignature);
+			String ref = pushMethodRef();
 			mv.visitIntInsn(SIPUSH, currentLineNumber);
 			mv.visitMethodInsn(INVOKESTATIC, "com/secdec/bytefrog/agent/trace/Trace", "methodThrow",
-					"(Ljava/lang/Throwable;Ljava/lang/String;I)V");
+					"(Ljava/lang/Throwable;" + ref + "I)V");
 		}
 		else
 		{
-			// call Trace.methodExit(methodSignature, currentLineNumber)
-			mv.visitLdcInsn(methodSignature);
+			// call Trace.methodExit(methodId or methodSignature,
+			// currentLineNumber)
+			String ref = pushMethodRef();
 			mv.visitIntInsn(SIPUSH, currentLineNumber);
 			mv.visitMethodInsn(INVOKESTATIC, "com/secdec/bytefrog/agent/trace/Trace", "methodExit",
-					"(Ljava/lang/String;I)V");
+					"(" + ref + "I)V");
 		}
 	}
 
@@ -114,11 +166,11 @@ public class TraceMethodAdapter extends AdviceAdapter implements Opcodes
 		// added to the stack
 		mv.visitFrame(F_NEW, 0, null, 1, new Object[] { "java/lang/Throwable" });
 
-		// call Trace.methodBubble(exception, methodSignature)
+		// call Trace.methodBubble(exception, methodId or methodSignature)
 		dup(); // exception is already on stack, dup it so we can rethrow later
-		mv.visitLdcInsn(methodSignature);
+		String ref = pushMethodRef();
 		mv.visitMethodInsn(INVOKESTATIC, "com/secdec/bytefrog/agent/trace/Trace", "methodBubble",
-				"(Ljava/lang/Throwable;Ljava/lang/String;)V");
+				"(Ljava/lang/Throwable;" + ref + ")V");
 
 		// re-throw the exception
 		mv.visitInsn(ATHROW);
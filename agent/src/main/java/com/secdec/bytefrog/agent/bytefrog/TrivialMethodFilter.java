@@ -0,0 +1,248 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.bytefrog;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.secdec.bytefrog.asm.ClassReader;
+import com.secdec.bytefrog.asm.ClassVisitor;
+import com.secdec.bytefrog.asm.Handle;
+import com.secdec.bytefrog.asm.Label;
+import com.secdec.bytefrog.asm.MethodVisitor;
+import com.secdec.bytefrog.asm.Opcodes;
+
+/**
+ * Picks out methods that aren't worth instrumenting, by looking at their
+ * bytecode before the class gets instrumented. Trivial methods are ones that
+ * run straight through (no branches, loops, or exception handlers), make at
+ * most one call, and have no more than <code>maxInstructions</code>
+ * instructions; that covers getters and setters, empty constructors, and
+ * one-line delegating methods. Optionally, compiler-generated (synthetic and
+ * bridge) methods are skipped too.
+ * 
+ * Leaving these methods alone cuts down on the number of events, and lets the
+ * JIT inline them like it would without the agent.
+ */
+public class TrivialMethodFilter implements Opcodes
+{
+	private final int maxInstructions;
+	private final boolean skipSynthetic;
+
+	/**
+	 * @param maxInstructions the largest number of instructions that a trivial
+	 *            method can have, or 0 to instrument methods of any size
+	 * @param skipSynthetic whether to skip synthetic and bridge methods
+	 */
+	public TrivialMethodFilter(int maxInstructions, boolean skipSynthetic)
+	{
+		this.maxInstructions = maxInstructions;
+		this.skipSynthetic = skipSynthetic;
+	}
+
+	/**
+	 * @return <code>true</code> if this filter would ever skip a method
+	 */
+	public boolean isEnabled()
+	{
+		return maxInstructions > 0 || skipSynthetic;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TrivialMethodFilter(maxInstructions=" + maxInstructions + ", skipSynthetic="
+				+ skipSynthetic + ")";
+	}
+
+	/**
+	 * Builds the key that identifies a method within its class.
+	 */
+	public static String getMethodKey(String methodName, String desc)
+	{
+		return methodName + desc;
+	}
+
+	/**
+	 * Finds the methods in a class that shouldn't be instrumented.
+	 * 
+	 * @param cr a reader for the class
+	 * @return the keys (see {@link #getMethodKey(String, String)}) of the
+	 *         trivial methods
+	 */
+	public Set<String> findTrivialMethods(ClassReader cr)
+	{
+		final Set<String> trivialMethods = new HashSet<String>();
+		if (!isEnabled())
+			return trivialMethods;
+
+		cr.accept(new ClassVisitor(ASM5)
+		{
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String desc,
+					String signature, String[] exceptions)
+			{
+				String key = getMethodKey(name, desc);
+
+				if (skipSynthetic && (access & (ACC_SYNTHETIC | ACC_BRIDGE)) != 0)
+				{
+					trivialMethods.add(key);
+					return null;
+				}
+
+				if (maxInstructions <= 0 || (access & (ACC_ABSTRACT | ACC_NATIVE)) != 0)
+					return null;
+
+				return new MethodAnalyzer(key, trivialMethods);
+			}
+		}, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+		return trivialMethods;
+	}
+
+	/**
+	 * Counts a method's instructions and calls, and gives up on it as soon as
+	 * anything makes it non-trivial.
+	 */
+	private class MethodAnalyzer extends MethodVisitor
+	{
+		private final String key;
+		private final Set<String> trivialMethods;
+
+		private int instructions = 0;
+		private int calls = 0;
+		private boolean complex = false;
+
+		public MethodAnalyzer(String key, Set<String> trivialMethods)
+		{
+			super(ASM5);
+			this.key = key;
+			this.trivialMethods = trivialMethods;
+		}
+
+		private void instruction()
+		{
+			if (++instructions > maxInstructions)
+				complex = true;
+		}
+
+		private void call()
+		{
+			instruction();
+			if (++calls > 1)
+				complex = true;
+		}
+
+		@Override
+		public void visitInsn(int opcode)
+		{
+			instruction();
+			if (opcode == ATHROW || opcode == MONITORENTER || opcode == MONITOREXIT)
+				complex = true;
+		}
+
+		@Override
+		public void visitIntInsn(int opcode, int operand)
+		{
+			instruction();
+		}
+
+		@Override
+		public void visitVarInsn(int opcode, int var)
+		{
+			instruction();
+		}
+
+		@Override
+		public void visitTypeInsn(int opcode, String type)
+		{
+			instruction();
+		}
+
+		@Override
+		public void visitFieldInsn(int opcode, String owner, String name, String desc)
+		{
+			instruction();
+		}
+
+		@Override
+		public void visitMethodInsn(int opcode, String owner, String name, String desc,
+				boolean itf)
+		{
+			call();
+		}
+
+		@Override
+		public void visitInvokeDynamicInsn(String name, String desc, Handle bsm,
+				Object... bsmArgs)
+		{
+			call();
+		}
+
+		@Override
+		public void visitJumpInsn(int opcode, Label label)
+		{
+			complex = true;
+		}
+
+		@Override
+		public void visitLdcInsn(Object cst)
+		{
+			instruction();
+		}
+
+		@Override
+		public void visitIincInsn(int var, int increment)
+		{
+			instruction();
+		}
+
+		@Override
+		public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels)
+		{
+			complex = true;
+		}
+
+		@Override
+		public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels)
+		{
+			complex = true;
+		}
+
+		@Override
+		public void visitMultiANewArrayInsn(String desc, int dims)
+		{
+			instruction();
+		}
+
+		@Override
+		public void visitTryCatchBlock(Label start, Label end, Label handler, String type)
+		{
+			complex = true;
+		}
+
+		@Override
+		public void visitEnd()
+		{
+			if (!complex)
+				trivialMethods.add(key);
+		}
+	}
+}
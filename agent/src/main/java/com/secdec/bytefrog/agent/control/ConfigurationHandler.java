@@ -19,6 +19,8 @@
 
 package com.secdec.bytefrog.agent.control;
 
+import java.util.List;
+
 import com.secdec.bytefrog.common.config.RuntimeAgentConfigurationV1;
 
 /**
@@ -28,4 +30,10 @@ import com.secdec.bytefrog.common.config.RuntimeAgentConfigurationV1;
 public interface ConfigurationHandler
 {
 	void onConfig(RuntimeAgentConfigurationV1 config);
+
+	/**
+	 * Called when HQ replaces the inclusion/exclusion rules of a running
+	 * trace.
+	 */
+	void onFilterUpdate(List<String> exclusions, List<String> inclusions);
 }
@@ -21,6 +21,8 @@ package com.secdec.bytefrog.agent.control;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.secdec.bytefrog.agent.errors.ErrorHandler;
 import com.secdec.bytefrog.common.message.MessageConstantsV1;
@@ -71,6 +73,11 @@ public class ControlMessageProcessorV1 implements ControlMessageProcessor
 		case MessageConstantsV1.MsgConfiguration:
 			configHandler.onConfig(configReader.readConfiguration(stream));
 			break;
+		case MessageConstantsV1.MsgFilterUpdate:
+			List<String> exclusions = readStringList(stream);
+			List<String> inclusions = readStringList(stream);
+			configHandler.onFilterUpdate(exclusions, inclusions);
+			break;
 		case MessageConstantsV1.MsgError:
 			handler.onError(stream.readUTF());
 			break;
@@ -78,4 +85,13 @@ public class ControlMessageProcessorV1 implements ControlMessageProcessor
 			ErrorHandler.handleError("unrecognized control message in processIncomingMessage");
 		}
 	}
+
+	private List<String> readStringList(DataInputStream stream) throws IOException
+	{
+		int count = stream.readInt();
+		List<String> strings = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+			strings.add(stream.readUTF());
+		return strings;
+	}
 }
@@ -24,6 +24,9 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.secdec.bytefrog.agent.errors.ErrorHandler;
 import com.secdec.bytefrog.agent.protocol.ProtocolVersion;
@@ -37,12 +40,35 @@ import com.secdec.bytefrog.common.message.AgentOperationMode;
  */
 public class Controller extends Thread
 {
+	/**
+	 * How often (in milliseconds) queued class reports get sent while there
+	 * are any waiting.
+	 */
+	public static final int ClassReportInterval = 100;
+
+	/**
+	 * The most class reports that get sent in a single message.
+	 */
+	public static final int MaxClassReportBatch = 1000;
+
+	/**
+	 * The most class reports that may be waiting to be sent. Reports past this
+	 * are dropped (and counted, see {@link #getDroppedClassReportCount()}), so
+	 * that a controller that can't keep up doesn't hold on to every class
+	 * name.
+	 */
+	public static final int MaxQueuedClassReports = 10000;
+
 	private final SocketConnection controlConnection;
 	private final DataInputStream inStream;
 	private final DataOutputStream outStream;
 	private final ProtocolVersion protocol;
 	private final ControlMessageProcessor messageProcessor;
 	private final HeartbeatInformer heartbeatInformer;
+	private final ConcurrentLinkedQueue<ClassReport> classReports = new ConcurrentLinkedQueue<ClassReport>();
+	private final AtomicInteger numQueuedClassReports = new AtomicInteger();
+	private final AtomicLong numDroppedClassReports = new AtomicLong();
+	private volatile boolean stopped = false;
 	private Boolean isRunning = false;
 	private int heartbeatInterval;
 
@@ -80,6 +106,7 @@ public class Controller extends Thread
 		try
 		{
 			isRunning = false;
+			stopped = true;
 			controlConnection.close();
 		}
 		catch (IOException e)
@@ -124,7 +151,94 @@ public class Controller extends Thread
 		}
 	}
 
-	public void sendDataBreak(int sequence) throws IOException
+	/**
+	 * Queues up a class transformation report, to be sent along with others
+	 * by the controller thread. This never blocks, so it's safe to call while
+	 * a class is being loaded. Reports are dropped once the controller has
+	 * stopped, or while {@link #MaxQueuedClassReports} are already waiting.
+	 * 
+	 * @param reportType one of the ClassTransformed, ClassIgnored, or
+	 *            ClassTransformFailed message type ids
+	 * @param className the name of the class being reported on
+	 */
+	public void queueClassReport(byte reportType, String className)
+	{
+		if (stopped)
+			return;
+
+		if (numQueuedClassReports.incrementAndGet() > MaxQueuedClassReports)
+		{
+			numQueuedClassReports.decrementAndGet();
+			numDroppedClassReports.incrementAndGet();
+			return;
+		}
+
+		classReports.add(new ClassReport(reportType, className));
+	}
+
+	/**
+	 * @return the number of class reports that have been dropped because
+	 *         {@link #MaxQueuedClassReports} were already waiting
+	 */
+	public long getDroppedClassReportCount()
+	{
+		return numDroppedClassReports.get();
+	}
+
+	private void sendQueuedClassReports() throws IOException
+	{
+		byte[] reportTypes = null;
+		String[] classNames = null;
+
+		ClassReport report;
+		while ((report = classReports.peek()) != null)
+		{
+			if (reportTypes == null)
+			{
+				reportTypes = new byte[MaxClassReportBatch];
+				classNames = new String[MaxClassReportBatch];
+			}
+
+			int count = 0;
+			while (count < MaxClassReportBatch && (report = classReports.poll()) != null)
+			{
+				reportTypes[count] = report.type;
+				classNames[count] = report.className;
+				count++;
+			}
+			numQueuedClassReports.addAndGet(-count);
+
+			synchronized (outStream)
+			{
+				protocol.getMessageProtocol().writeClassReports(outStream, reportTypes,
+						classNames, count);
+				outStream.flush();
+			}
+		}
+	}
+
+	public void sendMethodDemoted(int methodId, String signature, int eventRate, long timestamp)
+			throws IOException
+	{
+		synchronized (outStream)
+		{
+			protocol.getMessageProtocol().writeMethodDemoted(outStream, methodId, signature,
+					eventRate, timestamp);
+			outStream.flush();
+		}
+	}
+
+	public void sendRetransformProgress(int classesDone, int classesTotal) throws IOException
+	{
+		synchronized (outStream)
+		{
+			protocol.getMessageProtocol().writeRetransformProgress(outStream, classesDone,
+					classesTotal);
+			outStream.flush();
+		}
+	}
+
+	public void sendDataBreak(long sequence) throws IOException
 	{
 		synchronized (outStream)
 		{
@@ -147,10 +261,11 @@ public class Controller extends Thread
 	{
 		AgentOperationMode mode = heartbeatInformer.getOperationMode();
 		int sendQueueSize = heartbeatInformer.getSendQueueSize();
+		long[] stats = heartbeatInformer.getStats();
 
 		synchronized (outStream)
 		{
-			protocol.getMessageProtocol().writeHeartbeat(outStream, mode, sendQueueSize);
+			protocol.getMessageProtocol().writeHeartbeat(outStream, mode, sendQueueSize, stats);
 			outStream.flush();
 		}
 	}
@@ -190,8 +305,15 @@ public class Controller extends Thread
 					nextHeartbeat = System.currentTimeMillis() + heartbeatInterval;
 				}
 
-				// wait for a message until it's time for the next heartbeat
+				boolean hadReports = !classReports.isEmpty();
+				sendQueuedClassReports();
+
+				// wait for a message until it's time for the next heartbeat;
+				// while classes are being reported, check back more often so
+				// that the reports don't pile up
 				int timeout = (int) (nextHeartbeat - System.currentTimeMillis());
+				if (hadReports)
+					timeout = Math.min(timeout, ClassReportInterval);
 				processIncomingMessage(timeout);
 			}
 		}
@@ -203,6 +325,22 @@ public class Controller extends Thread
 		finally
 		{
 			isRunning = false;
+
+			// nothing will send these now
+			stopped = true;
+			classReports.clear();
+		}
+	}
+
+	private static class ClassReport
+	{
+		public final byte type;
+		public final String className;
+
+		public ClassReport(byte type, String className)
+		{
+			this.type = type;
+			this.className = className;
 		}
 	}
 }
@@ -38,4 +38,11 @@ public interface HeartbeatInformer
 	 * @return current send queue size
 	 */
 	int getSendQueueSize();
+
+	/**
+	 * Answers queries for the running totals that go along with heartbeats
+	 * @return the stats, indexed by the <code>HeartbeatStat</code> constants
+	 *         in MessageConstantsV2, or <code>null</code> if there are none
+	 */
+	long[] getStats();
 }
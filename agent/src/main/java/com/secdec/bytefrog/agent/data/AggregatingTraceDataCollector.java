@@ -0,0 +1,472 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.secdec.bytefrog.agent.TraceDataCollector;
+import com.secdec.bytefrog.agent.errors.ErrorHandler;
+import com.secdec.bytefrog.agent.message.MessageDealer;
+
+/**
+ * A TraceDataCollector that doesn't send individual events at all. Each thread
+ * keeps running totals for the methods it calls (call count, total time, self
+ * time and a latency histogram) in plain arrays indexed by method id, and a
+ * background thread sends what changed across all threads to HQ every
+ * <code>interval</code> milliseconds, as MethodStats messages.
+ * 
+ * A thread's totals are only ever written by that thread, and only ever go up.
+ * The background thread keeps its own copy of what it has already reported,
+ * and sends the difference, so nothing has to be locked on the traced thread.
+ * A call that is being recorded while a snapshot is taken may be left out of
+ * it, but it is picked up by the next one.
+ * 
+ * Times are measured with the message dealer's clock. A method's self time is
+ * its total time minus the time spent in the traced methods it called.
+ * Exceptions that bubble out of a method end its call as usual; other
+ * exceptions aren't counted. Markers are sent through the message dealer.
+ */
+public class AggregatingTraceDataCollector implements TraceDataCollector
+{
+	/**
+	 * The number of latency histogram buckets per method. Bucket 0 counts
+	 * calls that took no time at all, and bucket <code>n</code> counts calls
+	 * that took at least 2^(n-1) clock units. The last bucket is open-ended.
+	 */
+	public static final int HistogramBuckets = 24;
+
+	/**
+	 * The most methods that are sent in a single MethodStats message.
+	 */
+	public static final int MaxMethodsPerMessage = 64;
+
+	private final MessageDealer messageDealer;
+	private final int interval;
+
+	private final ConcurrentLinkedQueue<ThreadStats> threadStats = new ConcurrentLinkedQueue<ThreadStats>();
+	private final ThreadLocal<ThreadStats> currentThreadStats = new ThreadLocal<ThreadStats>()
+	{
+		@Override
+		protected ThreadStats initialValue()
+		{
+			ThreadStats stats = new ThreadStats(Thread.currentThread());
+			threadStats.add(stats);
+			return stats;
+		};
+	};
+
+	// the changes gathered up for the next snapshot; only used by snapshot()
+	private Totals pending = new Totals(1024);
+
+	private final Snapshotter snapshotter = new Snapshotter();
+
+	/**
+	 * @param messageDealer Maps method signatures, and sends the snapshots
+	 * @param interval The time (in milliseconds) between snapshots
+	 */
+	public AggregatingTraceDataCollector(MessageDealer messageDealer, int interval)
+	{
+		this.messageDealer = messageDealer;
+		this.interval = Math.max(interval, 1);
+	}
+
+	/**
+	 * Starts the background snapshot thread.
+	 */
+	public void start()
+	{
+		snapshotter.start();
+	}
+
+	/**
+	 * Stops the background snapshot thread, and sends one last snapshot with
+	 * anything that hasn't been reported yet.
+	 */
+	public void shutdown()
+	{
+		snapshotter.shutdown();
+		try
+		{
+			snapshotter.join(interval);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		snapshot();
+	}
+
+	@Override
+	public void methodEntry(String methodSig)
+	{
+		try
+		{
+			methodEntry(messageDealer.getMethodId(methodSig));
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error mapping method signature", e);
+		}
+	}
+
+	@Override
+	public void methodExit(String methodSig, int sourceLine)
+	{
+		try
+		{
+			methodExit(messageDealer.getMethodId(methodSig), sourceLine);
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error mapping method signature", e);
+		}
+	}
+
+	@Override
+	public void exception(Class<? extends Throwable> exception, String methodSig, int sourceLine)
+	{
+	}
+
+	@Override
+	public void bubbleException(Class<? extends Throwable> exception, String methodSig)
+	{
+		methodExit(methodSig, -1);
+	}
+
+	@Override
+	public void methodEntry(int methodId)
+	{
+		currentThreadStats.get().enter(methodId, messageDealer.getCurrentTime());
+	}
+
+	@Override
+	public void methodExit(int methodId, int sourceLine)
+	{
+		currentThreadStats.get().exit(methodId, messageDealer.getCurrentTime());
+	}
+
+	@Override
+	public void exception(Class<? extends Throwable> exception, int methodId, int sourceLine)
+	{
+	}
+
+	@Override
+	public void bubbleException(Class<? extends Throwable> exception, int methodId)
+	{
+		methodExit(methodId, -1);
+	}
+
+	@Override
+	public void marker(String key, String value)
+	{
+		try
+		{
+			messageDealer.sendMarker(key, value);
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error sending marker", e);
+		}
+	}
+
+	/**
+	 * Sends everything that changed since the last snapshot, and forgets
+	 * about threads that have died. This is normally done by the background
+	 * snapshot thread.
+	 */
+	public synchronized void snapshot()
+	{
+		Iterator<ThreadStats> iter = threadStats.iterator();
+		while (iter.hasNext())
+		{
+			ThreadStats stats = iter.next();
+
+			// once the owner is gone, its totals can't change any more
+			boolean ownerDead = !stats.isOwnerAlive();
+			stats.collectInto(this);
+			if (ownerDead)
+				iter.remove();
+		}
+
+		try
+		{
+			sendPending();
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error sending method stats", e);
+		}
+	}
+
+	private Totals pendingFor(int methodId)
+	{
+		if (methodId >= pending.calls.length)
+			pending = pending.grow(methodId);
+		return pending;
+	}
+
+	private void sendPending() throws Exception
+	{
+		Totals pending = this.pending;
+
+		int[] ids = new int[MaxMethodsPerMessage];
+		int[] calls = new int[MaxMethodsPerMessage];
+		long[] totalTimes = new long[MaxMethodsPerMessage];
+		long[] selfTimes = new long[MaxMethodsPerMessage];
+		int[][] histograms = new int[MaxMethodsPerMessage][];
+		int count = 0;
+
+		for (int methodId = 0; methodId < pending.calls.length; methodId++)
+		{
+			if (pending.calls[methodId] == 0)
+				continue;
+
+			ids[count] = methodId;
+			calls[count] = pending.calls[methodId];
+			totalTimes[count] = pending.totalTimes[methodId];
+			selfTimes[count] = pending.selfTimes[methodId];
+			histograms[count] = pending.histograms[methodId];
+			count++;
+
+			pending.calls[methodId] = 0;
+			pending.totalTimes[methodId] = 0;
+			pending.selfTimes[methodId] = 0;
+			pending.histograms[methodId] = null;
+
+			if (count == MaxMethodsPerMessage)
+			{
+				messageDealer.sendMethodStats(count, ids, calls, totalTimes, selfTimes, histograms);
+				count = 0;
+			}
+		}
+
+		if (count > 0)
+			messageDealer.sendMethodStats(count, ids, calls, totalTimes, selfTimes, histograms);
+	}
+
+	static int bucketOf(long duration)
+	{
+		if (duration <= 0)
+			return 0;
+		return Math.min(64 - Long.numberOfLeadingZeros(duration), HistogramBuckets - 1);
+	}
+
+	/**
+	 * Per-method totals, indexed by method id. A method's histogram is only
+	 * allocated once it has been called.
+	 */
+	private static class Totals
+	{
+		final int[] calls;
+		final long[] totalTimes;
+		final long[] selfTimes;
+		final int[][] histograms;
+
+		Totals(int length)
+		{
+			calls = new int[length];
+			totalTimes = new long[length];
+			selfTimes = new long[length];
+			histograms = new int[length][];
+		}
+
+		private Totals(Totals from, int length)
+		{
+			calls = Arrays.copyOf(from.calls, length);
+			totalTimes = Arrays.copyOf(from.totalTimes, length);
+			selfTimes = Arrays.copyOf(from.selfTimes, length);
+			histograms = Arrays.copyOf(from.histograms, length);
+		}
+
+		Totals grow(int methodId)
+		{
+			return new Totals(this, Math.max(methodId + 1, calls.length * 2));
+		}
+	}
+
+	/**
+	 * The running totals for a single thread, along with the stack of calls
+	 * it is currently in. Everything but <code>reported</code> belongs to the
+	 * owning thread; <code>reported</code> belongs to whoever takes
+	 * snapshots.
+	 */
+	private static class ThreadStats
+	{
+		private final WeakReference<Thread> owner;
+
+		// replaced (never modified in place) when it has to grow
+		private volatile Totals totals = new Totals(256);
+
+		private int[] stackMethods = new int[32];
+		private long[] stackStarts = new long[32];
+		private long[] stackChildTimes = new long[32];
+		private int depth;
+
+		private Totals reported = new Totals(256);
+
+		ThreadStats(Thread owner)
+		{
+			this.owner = new WeakReference<Thread>(owner);
+		}
+
+		boolean isOwnerAlive()
+		{
+			Thread t = owner.get();
+			return t != null && t.isAlive();
+		}
+
+		void enter(int methodId, long now)
+		{
+			if (depth == stackMethods.length)
+			{
+				stackMethods = Arrays.copyOf(stackMethods, depth * 2);
+				stackStarts = Arrays.copyOf(stackStarts, depth * 2);
+				stackChildTimes = Arrays.copyOf(stackChildTimes, depth * 2);
+			}
+
+			stackMethods[depth] = methodId;
+			stackStarts[depth] = now;
+			stackChildTimes[depth] = 0;
+			depth++;
+		}
+
+		void exit(int methodId, long now)
+		{
+			// unwind to the method's call, dropping any calls above it whose
+			// exits were never seen
+			int d = depth - 1;
+			while (d >= 0 && stackMethods[d] != methodId)
+				d--;
+			if (d < 0)
+				return;
+
+			long duration = now - stackStarts[d];
+			long selfTime = duration - stackChildTimes[d];
+			depth = d;
+			if (d > 0)
+				stackChildTimes[d - 1] += duration;
+
+			Totals totals = this.totals;
+			if (methodId >= totals.calls.length)
+				this.totals = totals = totals.grow(methodId);
+
+			int[] histogram = totals.histograms[methodId];
+			if (histogram == null)
+				totals.histograms[methodId] = histogram = new int[HistogramBuckets];
+
+			totals.calls[methodId]++;
+			totals.totalTimes[methodId] += duration;
+			totals.selfTimes[methodId] += selfTime;
+			histogram[bucketOf(duration)]++;
+		}
+
+		/**
+		 * Adds everything that changed since the last call to the collector's
+		 * pending totals. The counters are allowed to wrap around, since only
+		 * their differences matter.
+		 */
+		void collectInto(AggregatingTraceDataCollector collector)
+		{
+			Totals totals = this.totals;
+			if (totals.calls.length > reported.calls.length)
+				reported = reported.grow(totals.calls.length - 1);
+
+			for (int methodId = 0; methodId < totals.calls.length; methodId++)
+			{
+				int calls = totals.calls[methodId];
+				int newCalls = calls - reported.calls[methodId];
+				if (newCalls == 0)
+					continue;
+
+				// the owner allocates a method's histogram with plain writes, so
+				// its calls may be seen here before the histogram is. leave the
+				// method alone until it is; nothing has been reported yet, so
+				// the calls will still be new next time
+				int[] histogram = totals.histograms[methodId];
+				if (histogram == null)
+					continue;
+
+				long totalTime = totals.totalTimes[methodId];
+				long selfTime = totals.selfTimes[methodId];
+
+				Totals pending = collector.pendingFor(methodId);
+				pending.calls[methodId] += newCalls;
+				pending.totalTimes[methodId] += totalTime - reported.totalTimes[methodId];
+				pending.selfTimes[methodId] += selfTime - reported.selfTimes[methodId];
+
+				reported.calls[methodId] = calls;
+				reported.totalTimes[methodId] = totalTime;
+				reported.selfTimes[methodId] = selfTime;
+
+				int[] reportedHistogram = reported.histograms[methodId];
+				if (reportedHistogram == null)
+					reported.histograms[methodId] = reportedHistogram = new int[HistogramBuckets];
+				int[] pendingHistogram = pending.histograms[methodId];
+				if (pendingHistogram == null)
+					pending.histograms[methodId] = pendingHistogram = new int[HistogramBuckets];
+
+				for (int bucket = 0; bucket < HistogramBuckets; bucket++)
+				{
+					int count = histogram[bucket];
+					pendingHistogram[bucket] += count - reportedHistogram[bucket];
+					reportedHistogram[bucket] = count;
+				}
+			}
+		}
+	}
+
+	private class Snapshotter extends Thread
+	{
+		private volatile boolean running = true;
+
+		public Snapshotter()
+		{
+			super("bytefrog method stats");
+			setDaemon(true);
+		}
+
+		public void shutdown()
+		{
+			running = false;
+			interrupt();
+		}
+
+		@Override
+		public void run()
+		{
+			while (running)
+			{
+				try
+				{
+					Thread.sleep(interval);
+				}
+				catch (InterruptedException e)
+				{
+					continue;
+				}
+
+				snapshot();
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data;
+
+import java.util.Arrays;
+
+/**
+ * A stack of yes/no decisions, one for each call that a thread is in the
+ * middle of, packed into bits. Collectors that decide at entry time whether a
+ * call gets traced push the decision here, so that the call's exit is treated
+ * the same way even if the decision would come out differently by then. Each
+ * thread needs its own stack.
+ */
+class CallDecisionStack
+{
+	private long[] decisions = new long[1];
+	private int depth = 0;
+
+	public void push(boolean decision)
+	{
+		int word = depth >>> 6;
+		if (word >= decisions.length)
+			decisions = Arrays.copyOf(decisions, decisions.length * 2);
+
+		long bit = 1L << (depth & 63);
+		if (decision)
+			decisions[word] |= bit;
+		else
+			decisions[word] &= ~bit;
+		depth++;
+	}
+
+	/**
+	 * @return the decision for the innermost call, or <code>true</code> if
+	 *         the stack is empty
+	 */
+	public boolean peek()
+	{
+		if (depth == 0)
+			return true;
+
+		int top = depth - 1;
+		return (decisions[top >>> 6] & (1L << (top & 63))) != 0;
+	}
+
+	/**
+	 * Ends the innermost call.
+	 * 
+	 * @return the decision that was made for it, or <code>true</code> if the
+	 *         stack is empty
+	 */
+	public boolean pop()
+	{
+		boolean decision = peek();
+		if (depth > 0)
+			depth--;
+		return decision;
+	}
+}
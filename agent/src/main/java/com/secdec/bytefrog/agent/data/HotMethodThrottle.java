@@ -0,0 +1,197 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data;
+
+import java.util.Arrays;
+
+import com.secdec.bytefrog.agent.errors.ErrorHandler;
+
+/**
+ * Keeps an eye on how often each method gets called, and stops tracing
+ * ("demotes") any method that is called more than <code>threshold</code> times
+ * per second. A handful of tiny, hot methods can otherwise produce so many
+ * events that everything else gets stuck waiting for buffers.
+ * 
+ * Calls are counted in a plain array indexed by method id. The counts aren't
+ * synchronized, so some calls may go uncounted when a method is called from
+ * many threads at once; that only makes the throttle a little more lenient.
+ * A background thread checks the counts every <code>window</code>
+ * milliseconds. Demotion is permanent for the rest of the trace.
+ */
+public class HotMethodThrottle
+{
+	private final int threshold;
+	private final int window;
+	private final MethodDemotionListener listener;
+
+	private volatile int[] counts = new int[1024];
+	private volatile boolean[] demoted = new boolean[1024];
+
+	private final Checker checker = new Checker();
+
+	/**
+	 * @param threshold The number of calls per second above which a method
+	 *            is demoted
+	 * @param window The length of time (in milliseconds) that calls are
+	 *            counted over before checking them
+	 * @param listener Gets told about each demoted method
+	 */
+	public HotMethodThrottle(int threshold, int window, MethodDemotionListener listener)
+	{
+		this.threshold = threshold;
+		this.window = Math.max(window, 1);
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts the background checker thread.
+	 */
+	public void start()
+	{
+		checker.start();
+	}
+
+	/**
+	 * Stops the background checker thread.
+	 */
+	public void shutdown()
+	{
+		checker.shutdown();
+	}
+
+	/**
+	 * Counts a call to the given method.
+	 * 
+	 * @return <code>false</code> if the method has been demoted, and the call
+	 *         shouldn't be traced
+	 */
+	public boolean admit(int methodId)
+	{
+		int[] counts = this.counts;
+		if (methodId >= counts.length)
+			counts = grow(methodId);
+		else if (demoted[methodId])
+			return false;
+
+		counts[methodId]++;
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the given method is no longer traced
+	 */
+	public boolean isDemoted(int methodId)
+	{
+		boolean[] demoted = this.demoted;
+		return methodId < demoted.length && demoted[methodId];
+	}
+
+	private synchronized int[] grow(int methodId)
+	{
+		if (methodId >= counts.length)
+		{
+			int length = Math.max(methodId + 1, counts.length * 2);
+			demoted = Arrays.copyOf(demoted, length);
+			counts = Arrays.copyOf(counts, length);
+		}
+		return counts;
+	}
+
+	// flags the method under the lock, so that a concurrent grow can't lose it
+	private synchronized boolean demote(int methodId)
+	{
+		if (demoted[methodId])
+			return false;
+
+		demoted[methodId] = true;
+		return true;
+	}
+
+	/**
+	 * Demotes every method that was called too often since the last check,
+	 * and starts counting over. This is normally done by the background
+	 * checker thread.
+	 * 
+	 * @param elapsed the time (in milliseconds) since the last check
+	 */
+	public void check(long elapsed)
+	{
+		long limit = (long) threshold * elapsed / 1000;
+
+		int[] counts = this.counts;
+		for (int methodId = 0; methodId < counts.length; methodId++)
+		{
+			int count = counts[methodId];
+			if (count == 0)
+				continue;
+			counts[methodId] = 0;
+
+			if (count > limit && demote(methodId))
+			{
+				try
+				{
+					listener.onMethodDemoted(methodId, (int) (count * 1000L / elapsed));
+				}
+				catch (Exception e)
+				{
+					ErrorHandler.handleError("error reporting method demotion", e);
+				}
+			}
+		}
+	}
+
+	private class Checker extends Thread
+	{
+		private volatile boolean running = true;
+
+		public Checker()
+		{
+			super("bytefrog method throttle");
+			setDaemon(true);
+		}
+
+		public void shutdown()
+		{
+			running = false;
+			interrupt();
+		}
+
+		@Override
+		public void run()
+		{
+			long lastCheck = System.currentTimeMillis();
+			while (running)
+			{
+				try
+				{
+					Thread.sleep(window);
+				}
+				catch (InterruptedException e)
+				{
+					continue;
+				}
+
+				long now = System.currentTimeMillis();
+				check(Math.max(now - lastCheck, 1));
+				lastCheck = now;
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data;
+
+import java.util.Map;
+
+import com.secdec.bytefrog.agent.bytefrog.MethodRegistry;
+import com.secdec.bytefrog.agent.errors.ErrorHandler;
+import com.secdec.bytefrog.agent.message.MessageDealer;
+
+/**
+ * Concrete implementation of MethodRegistry that gets its ids from a
+ * MessageDealer, and sends each class's mappings to HQ as a single message. If
+ * a {@link MethodSampler} is given, each method's sampling interval is worked
+ * out as it gets its id, and sampled methods have their interval sent to HQ
+ * along with the mappings.
+ */
+public class MessageDealerMethodRegistry implements MethodRegistry
+{
+	private final MessageDealer messageDealer;
+	private final MethodSampler sampler;
+
+	public MessageDealerMethodRegistry(MessageDealer messageDealer)
+	{
+		this(messageDealer, null);
+	}
+
+	public MessageDealerMethodRegistry(MessageDealer messageDealer, MethodSampler sampler)
+	{
+		this.messageDealer = messageDealer;
+		this.sampler = sampler;
+	}
+
+	@Override
+	public int getMethodId(String methodSignature)
+	{
+		int methodId = messageDealer.reserveMethodId(methodSignature);
+		if (sampler != null)
+			sampler.resolve(methodId, methodSignature);
+		return methodId;
+	}
+
+	@Override
+	public void preassignMethodIds(Map<String, Integer> methodIds)
+	{
+		messageDealer.preassignMethodIds(methodIds);
+	}
+
+	@Override
+	public void registerMethods(String className, int[] methodIds, String[] methodSignatures)
+	{
+		try
+		{
+			messageDealer.sendMapClassMethods(className, methodIds, methodSignatures);
+
+			if (sampler != null)
+			{
+				for (int i = 0; i < methodIds.length; i++)
+				{
+					int interval = sampler.resolve(methodIds[i], methodSignatures[i]);
+					if (interval > 1)
+						messageDealer.sendMapMethodSampling(methodIds[i], interval);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error sending class method mappings", e);
+		}
+	}
+}
@@ -64,7 +64,7 @@ public class MessageDealerTraceDataCollector implements TraceDataCollector
 	}
 
 	@Override
-	public void exception(String exception, String methodSig, int sourceLine)
+	public void exception(Class<? extends Throwable> exception, String methodSig, int sourceLine)
 	{
 		try
 		{
@@ -77,7 +77,7 @@ public class MessageDealerTraceDataCollector implements TraceDataCollector
 	}
 
 	@Override
-	public void bubbleException(String exception, String methodSig)
+	public void bubbleException(Class<? extends Throwable> exception, String methodSig)
 	{
 		try
 		{
@@ -89,6 +89,58 @@ public class MessageDealerTraceDataCollector implements TraceDataCollector
 		}
 	}
 
+	@Override
+	public void methodEntry(int methodId)
+	{
+		try
+		{
+			messageDealer.sendMethodEntry(methodId);
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error sending method entry", e);
+		}
+	}
+
+	@Override
+	public void methodExit(int methodId, int sourceLine)
+	{
+		try
+		{
+			messageDealer.sendMethodExit(methodId, sourceLine);
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error sending method exit", e);
+		}
+	}
+
+	@Override
+	public void exception(Class<? extends Throwable> exception, int methodId, int sourceLine)
+	{
+		try
+		{
+			messageDealer.sendException(exception, methodId, sourceLine);
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error sending exception", e);
+		}
+	}
+
+	@Override
+	public void bubbleException(Class<? extends Throwable> exception, int methodId)
+	{
+		try
+		{
+			messageDealer.sendExceptionBubble(exception, methodId);
+		}
+		catch (Exception e)
+		{
+			ErrorHandler.handleError("error sending exception bubble", e);
+		}
+	}
+
 	@Override
 	public void marker(String key, String value)
 	{
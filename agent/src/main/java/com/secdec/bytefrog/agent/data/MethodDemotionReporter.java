@@ -0,0 +1,60 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data;
+
+import java.io.IOException;
+
+import com.secdec.bytefrog.agent.control.Controller;
+import com.secdec.bytefrog.agent.errors.ErrorHandler;
+import com.secdec.bytefrog.agent.message.MessageDealer;
+
+/**
+ * A MethodDemotionListener that reports demoted methods to HQ with a
+ * MethodDemoted message on the control connection. The message carries the
+ * method's signature, and the current event timestamp, so that HQ can tell
+ * which of the method's calls are never going to exit.
+ */
+public class MethodDemotionReporter implements MethodDemotionListener
+{
+	private final Controller controller;
+	private final MessageDealer messageDealer;
+
+	public MethodDemotionReporter(Controller controller, MessageDealer messageDealer)
+	{
+		this.controller = controller;
+		this.messageDealer = messageDealer;
+	}
+
+	@Override
+	public void onMethodDemoted(int methodId, int eventRate)
+	{
+		String signature = messageDealer.getMethodSignature(methodId);
+		try
+		{
+			if (controller.isRunning())
+				controller.sendMethodDemoted(methodId, signature == null ? "" : signature,
+						eventRate, messageDealer.getCurrentTime());
+		}
+		catch (IOException e)
+		{
+			ErrorHandler.handleError("Failed to send MethodDemoted message", e);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.secdec.bytefrog.common.config.SamplingRule;
+
+/**
+ * Decides which calls to a method get traced, according to a list of
+ * {@link SamplingRule}s. Each method's sampling interval is worked out once,
+ * when the method is given its id (see {@link MessageDealerMethodRegistry}),
+ * so that the per-call check is a single array lookup for methods that aren't
+ * sampled at all.
+ * 
+ * Methods with a plain 1-in-N rule share a call counter between all threads.
+ * The counter isn't synchronized, so the interval is only approximate when a
+ * method is called from many threads at once. Methods with a random rule use a
+ * per-thread xorshift generator instead.
+ */
+public class MethodSampler
+{
+	private final List<CompiledRule> rules = new ArrayList<CompiledRule>();
+
+	// sampling intervals by method id; 0 and 1 both mean "trace every call",
+	// and negative intervals are random
+	private volatile int[] intervals = new int[0];
+	private volatile int[] counters = new int[0];
+
+	private final ThreadLocal<SamplingState> samplingState = new ThreadLocal<SamplingState>()
+	{
+		@Override
+		protected SamplingState initialValue()
+		{
+			return new SamplingState();
+		};
+	};
+
+	public MethodSampler(List<SamplingRule> rules)
+	{
+		for (SamplingRule rule : rules)
+		{
+			if (rule.getInterval() > 1)
+				this.rules.add(new CompiledRule(rule));
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if there are any rules that could sample a
+	 *         method
+	 */
+	public boolean hasRules()
+	{
+		return !rules.isEmpty();
+	}
+
+	/**
+	 * Works out the sampling interval for a method, and remembers it for the
+	 * method's id.
+	 * 
+	 * @param methodId the id assigned to the method
+	 * @param methodSignature the method's signature
+	 * @return the sampling interval, or 1 if every call should be traced
+	 */
+	public int resolve(int methodId, String methodSignature)
+	{
+		for (CompiledRule rule : rules)
+		{
+			if (rule.pattern.matcher(methodSignature).lookingAt())
+			{
+				setInterval(methodId, rule.random ? -rule.interval : rule.interval);
+				return rule.interval;
+			}
+		}
+		return 1;
+	}
+
+	private synchronized void setInterval(int methodId, int interval)
+	{
+		if (methodId >= intervals.length)
+		{
+			int length = Math.max(methodId + 1, intervals.length * 2);
+			counters = Arrays.copyOf(counters, length);
+			intervals = Arrays.copyOf(intervals, length);
+		}
+		intervals[methodId] = interval;
+	}
+
+	/**
+	 * @return <code>true</code> if only some of the calls to the given method
+	 *         are traced
+	 */
+	public boolean isSampled(int methodId)
+	{
+		int[] intervals = this.intervals;
+		if (methodId >= intervals.length)
+			return false;
+
+		int interval = intervals[methodId];
+		return interval > 1 || interval < -1;
+	}
+
+	/**
+	 * Decides whether a call to a sampled method should be traced, and
+	 * remembers the decision until the call ends.
+	 */
+	public boolean enter(int methodId)
+	{
+		int interval = intervals[methodId];
+		SamplingState state = samplingState.get();
+
+		boolean trace;
+		if (interval < 0)
+		{
+			trace = state.nextRandom() % -interval == 0;
+		}
+		else
+		{
+			int[] counters = this.counters;
+			trace = counters[methodId]++ % interval == 0;
+		}
+
+		state.push(trace);
+		return trace;
+	}
+
+	/**
+	 * @return whether the current call to a sampled method is being traced
+	 */
+	public boolean isTraced()
+	{
+		return samplingState.get().peek();
+	}
+
+	/**
+	 * Ends the current call to a sampled method.
+	 * 
+	 * @return whether the call was being traced
+	 */
+	public boolean exit()
+	{
+		return samplingState.get().pop();
+	}
+
+	private static class CompiledRule
+	{
+		public final Pattern pattern;
+		public final int interval;
+		public final boolean random;
+
+		public CompiledRule(SamplingRule rule)
+		{
+			this.pattern = Pattern.compile(rule.getPattern());
+			this.interval = rule.getInterval();
+			this.random = rule.isRandom();
+		}
+	}
+
+	/**
+	 * A thread's random number generator, along with a stack of the decisions
+	 * made for the sampled calls it is in the middle of, so that a call's exit
+	 * is only traced if its entry was.
+	 */
+	private static class SamplingState extends CallDecisionStack
+	{
+		private int seed = (System.identityHashCode(Thread.currentThread()) ^ (int) System
+				.nanoTime()) | 1;
+
+		public int nextRandom()
+		{
+			int x = seed;
+			x ^= x << 13;
+			x ^= x >>> 17;
+			x ^= x << 5;
+			seed = x;
+			return x >>> 1;
+		}
+	}
+}
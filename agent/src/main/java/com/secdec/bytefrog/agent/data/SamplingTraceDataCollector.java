@@ -0,0 +1,98 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data;
+
+import com.secdec.bytefrog.agent.TraceDataCollector;
+
+/**
+ * A TraceDataCollector that only passes some of the calls to sampled methods
+ * on to its delegate, as decided by a {@link MethodSampler}. A call's exit,
+ * along with any exceptions thrown or bubbled by it, only gets through if its
+ * entry did. Calls that go by signature rather than id are never sampled.
+ */
+public class SamplingTraceDataCollector implements TraceDataCollector
+{
+	private final TraceDataCollector delegate;
+	private final MethodSampler sampler;
+
+	public SamplingTraceDataCollector(TraceDataCollector delegate, MethodSampler sampler)
+	{
+		this.delegate = delegate;
+		this.sampler = sampler;
+	}
+
+	@Override
+	public void methodEntry(String methodSig)
+	{
+		delegate.methodEntry(methodSig);
+	}
+
+	@Override
+	public void methodExit(String methodSig, int sourceLine)
+	{
+		delegate.methodExit(methodSig, sourceLine);
+	}
+
+	@Override
+	public void exception(Class<? extends Throwable> exception, String methodSig, int sourceLine)
+	{
+		delegate.exception(exception, methodSig, sourceLine);
+	}
+
+	@Override
+	public void bubbleException(Class<? extends Throwable> exception, String methodSig)
+	{
+		delegate.bubbleException(exception, methodSig);
+	}
+
+	@Override
+	public void methodEntry(int methodId)
+	{
+		if (!sampler.isSampled(methodId) || sampler.enter(methodId))
+			delegate.methodEntry(methodId);
+	}
+
+	@Override
+	public void methodExit(int methodId, int sourceLine)
+	{
+		if (!sampler.isSampled(methodId) || sampler.exit())
+			delegate.methodExit(methodId, sourceLine);
+	}
+
+	@Override
+	public void exception(Class<? extends Throwable> exception, int methodId, int sourceLine)
+	{
+		if (!sampler.isSampled(methodId) || sampler.isTraced())
+			delegate.exception(exception, methodId, sourceLine);
+	}
+
+	@Override
+	public void bubbleException(Class<? extends Throwable> exception, int methodId)
+	{
+		if (!sampler.isSampled(methodId) || sampler.exit())
+			delegate.bubbleException(exception, methodId);
+	}
+
+	@Override
+	public void marker(String key, String value)
+	{
+		delegate.marker(key, value);
+	}
+}
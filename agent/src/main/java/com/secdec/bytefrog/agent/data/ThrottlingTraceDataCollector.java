@@ -0,0 +1,111 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data;
+
+import com.secdec.bytefrog.agent.TraceDataCollector;
+
+/**
+ * A TraceDataCollector that counts calls for a {@link HotMethodThrottle}, and
+ * stops passing along events for methods that the throttle has demoted. The
+ * decision is made once per call, at its entry: a call that got in before its
+ * method was demoted still has its exit (and any exceptions) passed along, so
+ * that HQ never sees an entry without an exit. Calls that go by signature
+ * rather than id are never throttled.
+ */
+public class ThrottlingTraceDataCollector implements TraceDataCollector
+{
+	private final TraceDataCollector delegate;
+	private final HotMethodThrottle throttle;
+
+	private final ThreadLocal<CallDecisionStack> admitted = new ThreadLocal<CallDecisionStack>()
+	{
+		@Override
+		protected CallDecisionStack initialValue()
+		{
+			return new CallDecisionStack();
+		};
+	};
+
+	public ThrottlingTraceDataCollector(TraceDataCollector delegate, HotMethodThrottle throttle)
+	{
+		this.delegate = delegate;
+		this.throttle = throttle;
+	}
+
+	@Override
+	public void methodEntry(String methodSig)
+	{
+		delegate.methodEntry(methodSig);
+	}
+
+	@Override
+	public void methodExit(String methodSig, int sourceLine)
+	{
+		delegate.methodExit(methodSig, sourceLine);
+	}
+
+	@Override
+	public void exception(Class<? extends Throwable> exception, String methodSig, int sourceLine)
+	{
+		delegate.exception(exception, methodSig, sourceLine);
+	}
+
+	@Override
+	public void bubbleException(Class<? extends Throwable> exception, String methodSig)
+	{
+		delegate.bubbleException(exception, methodSig);
+	}
+
+	@Override
+	public void methodEntry(int methodId)
+	{
+		boolean admit = throttle.admit(methodId);
+		admitted.get().push(admit);
+		if (admit)
+			delegate.methodEntry(methodId);
+	}
+
+	@Override
+	public void methodExit(int methodId, int sourceLine)
+	{
+		if (admitted.get().pop())
+			delegate.methodExit(methodId, sourceLine);
+	}
+
+	@Override
+	public void exception(Class<? extends Throwable> exception, int methodId, int sourceLine)
+	{
+		if (admitted.get().peek())
+			delegate.exception(exception, methodId, sourceLine);
+	}
+
+	@Override
+	public void bubbleException(Class<? extends Throwable> exception, int methodId)
+	{
+		if (admitted.get().pop())
+			delegate.bubbleException(exception, methodId);
+	}
+
+	@Override
+	public void marker(String key, String value)
+	{
+		delegate.marker(key, value);
+	}
+}
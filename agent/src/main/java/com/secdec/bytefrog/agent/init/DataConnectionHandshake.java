@@ -26,4 +26,15 @@ import com.secdec.bytefrog.common.connect.Connection;
 public interface DataConnectionHandshake
 {
 	public boolean performHandshake(byte runId, Connection connection) throws IOException;
+
+	/**
+	 * Performs a handshake that asks HQ to read the connection's data from the
+	 * shared memory ring in the file at <code>ringPath</code>, rather than from
+	 * the connection itself.
+	 * @return <code>true</code> if HQ has mapped the ring; <code>false</code>
+	 *         if it can't, or the protocol doesn't support it. The connection
+	 *         can't be used for a plain handshake afterwards.
+	 */
+	public boolean performMappedHandshake(byte runId, Connection connection, String ringPath)
+			throws IOException;
 }
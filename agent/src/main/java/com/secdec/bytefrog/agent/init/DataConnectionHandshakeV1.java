@@ -68,4 +68,12 @@ public class DataConnectionHandshakeV1 implements DataConnectionHandshake
 		return success;
 	}
 
+	@Override
+	public boolean performMappedHandshake(byte runId, Connection connection, String ringPath)
+			throws IOException
+	{
+		// version 1 only knows about data sent over the connection
+		return false;
+	}
+
 }
@@ -0,0 +1,72 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.init;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.secdec.bytefrog.agent.errors.ErrorHandler;
+import com.secdec.bytefrog.common.connect.Connection;
+import com.secdec.bytefrog.common.message.MessageConstantsV1;
+import com.secdec.bytefrog.common.message.MessageProtocolV2;
+
+/**
+ * The data connection handshake for protocol version 2, which can also ask HQ
+ * to read data from a shared memory ring. HQ turning that down (with an
+ * Error) isn't treated as an error, since the caller can fall back to a plain
+ * data connection.
+ */
+public class DataConnectionHandshakeV2 extends DataConnectionHandshakeV1
+{
+	private final MessageProtocolV2 protocol;
+
+	public DataConnectionHandshakeV2(MessageProtocolV2 protocol)
+	{
+		super(protocol);
+		this.protocol = protocol;
+	}
+
+	@Override
+	public boolean performMappedHandshake(byte runId, Connection connection, String ringPath)
+			throws IOException
+	{
+		DataOutputStream out = connection.output();
+		DataInputStream in = connection.input();
+
+		protocol.writeDataHelloMapped(out, runId, ringPath);
+		out.flush();
+
+		byte reply = in.readByte();
+
+		switch (reply)
+		{
+		case MessageConstantsV1.MsgDataHelloReply:
+			return true;
+		// HQ couldn't map the ring
+		case MessageConstantsV1.MsgError:
+			in.readUTF();
+			return false;
+		default:
+			ErrorHandler.handleError("protocol error: invalid or unexpected control message");
+			return false;
+		}
+	}
+}
@@ -24,63 +24,84 @@ import java.io.IOException;
 import com.secdec.bytefrog.agent.control.Controller;
 import com.secdec.bytefrog.agent.errors.ErrorHandler;
 import com.secdec.bytefrog.agent.trace.ClassTransformationListener;
+import com.secdec.bytefrog.common.message.MessageConstantsV1;
 
 /**
  * A ClassTransformationListener implementation that will handle classes being
- * transformed and ignored by sending ClassTransformed and ClassIgnored messages
- * through a control connection, respectively.
+ * transformed and ignored by reporting them to HQ through a control
+ * connection. Reports are queued up on the controller, which sends them in
+ * batches from its own thread, so class loading never waits on the network.
  * @author DylanH
  */
 public class ClassTransformationReporter extends ClassTransformationListener
 {
 
 	private final Controller controller;
+	private final boolean reportIgnored;
 
 	public ClassTransformationReporter(Controller controller)
+	{
+		this(controller, true);
+	}
+
+	/**
+	 * @param controller the controller to report through
+	 * @param reportIgnored whether ignored classes get reported at all
+	 */
+	public ClassTransformationReporter(Controller controller, boolean reportIgnored)
 	{
 		this.controller = controller;
+		this.reportIgnored = reportIgnored;
 	}
 
 	@Override
 	public void classTransformed(String className, ClassLoader loader)
 	{
-		try
-		{
-			if (controller.isRunning())
-				controller.sendClassTransformed(className);
-		}
-		catch (IOException e)
-		{
-			ErrorHandler.handleError("Failed to send ClassTransformed message", e);
-		}
+		controller.queueClassReport(MessageConstantsV1.MsgClassTransformed, className);
 	}
 
 	@Override
 	public void classTransformFailed(String className, ClassLoader loader, Throwable cause,
 			String message)
 	{
-		try
-		{
-			if (controller.isRunning())
-				controller.sendClassTransformFailed(className);
-		}
-		catch (IOException e)
+		// failures that aren't tied to a particular class (like a whole
+		// retransformation going wrong) don't fit in a ClassTransformFailed
+		// message, so they're sent as errors
+		if (className == null)
 		{
-			ErrorHandler.handleError("Failed to send ClassTransformed message", e);
+			try
+			{
+				if (controller.isRunning())
+					controller.sendError(cause == null ? message : message + ": " + cause);
+			}
+			catch (IOException e)
+			{
+				ErrorHandler.handleError("Failed to send Error message", e);
+			}
+			return;
 		}
+
+		controller.queueClassReport(MessageConstantsV1.MsgClassTransformFailed, className);
 	}
 
 	@Override
 	public void classIgnored(String className, ClassLoader loader)
+	{
+		if (reportIgnored)
+			controller.queueClassReport(MessageConstantsV1.MsgClassIgnored, className);
+	}
+
+	@Override
+	public void retransformProgress(int classesDone, int classesTotal)
 	{
 		try
 		{
 			if (controller.isRunning())
-				controller.sendClassIgnored(className);
+				controller.sendRetransformProgress(classesDone, classesTotal);
 		}
 		catch (IOException e)
 		{
-			ErrorHandler.handleError("Failed to send ClassIgnored message", e);
+			ErrorHandler.handleError("Failed to send RetransformProgress message", e);
 		}
 	}
 
@@ -19,11 +19,15 @@
 
 package com.secdec.bytefrog.agent.javaagent;
 
+import java.io.File;
 import java.lang.instrument.Instrumentation;
 
 import com.secdec.bytefrog.agent.TraceAgent;
 import com.secdec.bytefrog.agent.agent.DefaultTraceAgent;
+import com.secdec.bytefrog.agent.bytefrog.InstrumentedClassCache;
+import com.secdec.bytefrog.agent.bytefrog.TrivialMethodFilter;
 import com.secdec.bytefrog.agent.errors.ErrorHandler;
+import com.secdec.bytefrog.agent.trace.ClassRetransformer;
 import com.secdec.bytefrog.agent.trace.ClassTransformationListener;
 import com.secdec.bytefrog.agent.trace.Trace;
 import com.secdec.bytefrog.agent.trace.TraceClassFileTransformer;
@@ -101,10 +105,35 @@ public class JavaAgent
 
 		// set up tracer instrumentation
 		ClassTransformationListener ctListener = new ClassTransformationReporter(
-				agent.getControlController());
+				agent.getControlController(), config.isReportIgnoredClasses());
 
+		TrivialMethodFilter trivialMethodFilter = new TrivialMethodFilter(
+				config.getTrivialMethodSize(), config.isSkipSyntheticMethods());
 		TraceClassFileTransformer transformer = new TraceClassFileTransformer(
-				config.getExclusions(), config.getInclusions(), ctListener);
+				config.getExclusions(), config.getInclusions(), ctListener,
+				agent.getMethodRegistry(), trivialMethodFilter);
+
+		// reuse classes instrumented by earlier runs, if there's a cache
+		if (staticConfig.getClassCacheDirectory() != null)
+		{
+			InstrumentedClassCache cache = InstrumentedClassCache.open(new File(
+					staticConfig.getClassCacheDirectory()), trivialMethodFilter.toString());
+			if (cache != null)
+			{
+				agent.getMethodRegistry().preassignMethodIds(cache.getMethodIds());
+				transformer.setClassCache(cache);
+			}
+		}
+
 		instrumentation.addTransformer(transformer, true);
+
+		// let HQ change the filters later on, if this JVM allows it
+		if (instrumentation.isRetransformClassesSupported())
+		{
+			ClassRetransformer retransformer = new ClassRetransformer(instrumentation,
+					transformer, ctListener, ClassRetransformer.DefaultBatchSize);
+			retransformer.start();
+			agent.setClassRetransformer(retransformer);
+		}
 	}
 }
@@ -67,6 +67,11 @@ public abstract class BufferService
 		this.suspended = suspended;
 	}
 
+	protected boolean isSuspended()
+	{
+		return suspended;
+	}
+
 	public DataBufferOutputStream obtainBuffer() throws FailedToObtainBufferException
 	{
 		blockWhilePaused();
@@ -80,12 +85,53 @@ public abstract class BufferService
 		}
 	}
 
+	/**
+	 * Like {@link #obtainBuffer()}, but never waits for a buffer to become
+	 * available (it does still wait while the service is paused).
+	 * 
+	 * @return a buffer, or <code>null</code> if the service is suspended or
+	 *         no buffer can be had right now
+	 * @throws FailedToObtainBufferException
+	 */
+	public DataBufferOutputStream tryObtainBuffer() throws FailedToObtainBufferException
+	{
+		blockWhilePaused();
+		if (suspended)
+		{
+			return null;
+		}
+		else
+		{
+			return innerTryObtain();
+		}
+	}
+
+	/**
+	 * Obtains a buffer without waiting for one. Services whose
+	 * {@link #innerObtain()} never waits don't need to override this.
+	 */
+	protected DataBufferOutputStream innerTryObtain() throws FailedToObtainBufferException
+	{
+		return innerObtain();
+	}
+
 	public void sendBuffer(DataBufferOutputStream buffer) throws FailedToSendBufferException
 	{
 		if (buffer != null)
 			innerSend(buffer);
 	}
 
+	/**
+	 * Pushes along any data that the current thread has sent, but which is
+	 * still being held back by this service. Services that send every buffer
+	 * right away have nothing to do here.
+	 * 
+	 * @throws FailedToSendBufferException
+	 */
+	public void flush() throws FailedToSendBufferException
+	{
+	}
+
 	private void blockWhilePaused()
 	{
 		// get and clear the "interrupted" flag in one shot
@@ -0,0 +1,159 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.message;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.secdec.bytefrog.common.config.EventClockMode;
+
+/**
+ * The source of the relative timestamps that {@link MessageDealer} puts on
+ * events. Timestamps count up from the time the clock was created; their unit
+ * depends on the kind of clock (see {@link EventClockMode}).
+ */
+public abstract class EventClock
+{
+	/**
+	 * @return the time since this clock was created
+	 */
+	public abstract long getTime();
+
+	/**
+	 * Starts any background work this clock needs. Does nothing by default.
+	 */
+	public void start()
+	{
+	}
+
+	/**
+	 * Stops any background work this clock needs. Does nothing by default.
+	 */
+	public void shutdown()
+	{
+	}
+
+	/**
+	 * Creates a clock for the given mode.
+	 * 
+	 * @param mode
+	 * @param coarseResolution For {@link EventClockMode#CoarseMicros}, the
+	 *            number of microseconds between updates of the published time
+	 */
+	public static EventClock create(EventClockMode mode, int coarseResolution)
+	{
+		switch (mode)
+		{
+		case Micros:
+			return new MicrosecondClock();
+		case CoarseMicros:
+			return new CoarseMicrosecondClock(coarseResolution);
+		default:
+			return new MillisecondClock();
+		}
+	}
+
+	/**
+	 * Milliseconds, from the wall clock.
+	 */
+	public static class MillisecondClock extends EventClock
+	{
+		private final long startTime = System.currentTimeMillis();
+
+		@Override
+		public long getTime()
+		{
+			return System.currentTimeMillis() - startTime;
+		}
+	}
+
+	/**
+	 * Microseconds, from <code>System.nanoTime</code>. Unlike the wall clock,
+	 * this never jumps backwards.
+	 */
+	public static class MicrosecondClock extends EventClock
+	{
+		private final long startTime = System.nanoTime();
+
+		@Override
+		public long getTime()
+		{
+			return (System.nanoTime() - startTime) / 1000;
+		}
+	}
+
+	/**
+	 * Microseconds, as last published by a background thread. Reading the
+	 * time is just a volatile read, at the cost of the timestamps being up to
+	 * <code>resolution</code> microseconds behind (plus however long the clock
+	 * thread takes to get scheduled).
+	 */
+	public static class CoarseMicrosecondClock extends EventClock
+	{
+		private final MicrosecondClock source = new MicrosecondClock();
+		private final long resolutionNanos;
+		private volatile long time = 0;
+		private volatile boolean running = false;
+		private Thread ticker;
+
+		public CoarseMicrosecondClock(int resolution)
+		{
+			this.resolutionNanos = Math.max(resolution, 1) * 1000L;
+		}
+
+		@Override
+		public long getTime()
+		{
+			// until the ticker runs, fall back to reading the clock every time
+			return running ? time : source.getTime();
+		}
+
+		@Override
+		public synchronized void start()
+		{
+			if (ticker != null)
+				return;
+
+			time = source.getTime();
+			running = true;
+			ticker = new Thread("bytefrog event clock")
+			{
+				@Override
+				public void run()
+				{
+					while (running)
+					{
+						time = source.getTime();
+						LockSupport.parkNanos(resolutionNanos);
+					}
+				}
+			};
+			ticker.setDaemon(true);
+			ticker.start();
+		}
+
+		@Override
+		public synchronized void shutdown()
+		{
+			running = false;
+			if (ticker != null)
+				LockSupport.unpark(ticker);
+		}
+	}
+}
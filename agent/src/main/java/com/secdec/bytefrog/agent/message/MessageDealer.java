@@ -20,9 +20,11 @@
 package com.secdec.bytefrog.agent.message;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.secdec.bytefrog.common.message.MessageProtocol;
 import com.secdec.bytefrog.common.queue.DataBufferOutputStream;
@@ -33,9 +35,23 @@ import com.secdec.bytefrog.common.queue.DataBufferOutputStream;
  * {@link BufferService}, then sent via the same BufferService. For events that
  * require mapped ids for the current thread and method signature, those ids
  * (along with the appropriate secondary "map" events) will be automatically
- * generated by an internal {@link MethodId} and {@link ThreadId}. The time of
- * MessageFactory's construction will be saved, and used to calculate the
- * "relative timestamp" for each event that requires one.
+ * generated by an internal {@link MethodId}, or by the thread's
+ * {@link ThreadContext}. The "relative timestamp" for each event that requires
+ * one comes from an {@link EventClock}, which counts from the time it was
+ * created.
+ * 
+ * A thread's name is only checked every <code>threadNameCheckInterval</code>
+ * events (and on its first event), so a rename shows up on HQ's side a little
+ * late, in exchange for keeping a string comparison off of every event.
+ * 
+ * Method signature and exception mappings are shared between threads, so they
+ * are flushed through the BufferService as soon as they are sent, even if the
+ * service would otherwise hold on to them (see {@link StagingBufferService}).
+ * 
+ * In lossy mode, a thread's events are dropped instead of waiting for a
+ * buffer. The thread counts what it dropped, and sends it as an EventGap
+ * ahead of its next event that does get through. Mapping messages, markers and
+ * stats always wait, since HQ can't do without them.
  * 
  * @author dylanh
  */
@@ -44,11 +60,30 @@ public class MessageDealer
 	private final MessageProtocol messageProtocol;
 	private final BufferService bufferService;
 
-	private final long startTime = System.currentTimeMillis();
+	private final EventClock clock;
 	private final MethodId methodIdMapper = new MethodId();
 	private final ExceptionId exceptionIdMapper = new ExceptionId();
-	private final ThreadId threadIdMapper = new ThreadId();
-	private final Sequencer sequencer = new Sequencer();
+	private final Sequencer sequencer;
+	private final Sequencer markerSequencer;
+	private final int threadNameCheckInterval;
+	private final boolean spanMode;
+	private final boolean lossy;
+	private final AtomicLong droppedEventCount = new AtomicLong();
+
+	private final AtomicInteger threadIdGen = new AtomicInteger(0);
+	private final ThreadLocal<ThreadContext> threadContext = new ThreadLocal<ThreadContext>()
+	{
+		@Override
+		protected ThreadContext initialValue()
+		{
+			return new ThreadContext(threadIdGen.getAndIncrement());
+		};
+	};
+
+	/**
+	 * The default number of events between checks of a thread's name.
+	 */
+	public static final int DefaultThreadNameCheckInterval = 1000;
 
 	/**
 	 * 
@@ -57,26 +92,156 @@ public class MessageDealer
 	 */
 	public MessageDealer(MessageProtocol messageProtocol, BufferService bufferService)
 	{
+		this(messageProtocol, bufferService, new Options());
+	}
+
+	/**
+	 * @param messageProtocol
+	 * @param bufferService
+	 * @param options How events are sequenced, timestamped and sent
+	 */
+	public MessageDealer(MessageProtocol messageProtocol, BufferService bufferService,
+			Options options)
+	{
+		this.spanMode = options.isSpanMode();
+		this.lossy = options.isLossy();
+		this.threadNameCheckInterval = Math.max(options.getThreadNameCheckInterval(), 1);
 		this.messageProtocol = messageProtocol;
 		this.bufferService = bufferService;
+		this.clock = options.getClock() != null ? options.getClock()
+				: new EventClock.MillisecondClock();
+
+		if (options.isPerThreadSequencing())
+		{
+			sequencer = new PerThreadSequencer();
+			markerSequencer = new Sequencer();
+		}
+		else
+		{
+			sequencer = new Sequencer();
+			markerSequencer = sequencer;
+		}
 	}
 
 	// just a helper method, used internally
-	protected int getTimeOffset()
+	protected long getTimeOffset()
+	{
+		return clock.getTime();
+	}
+
+	/**
+	 * @return the context for the currently-running thread, which is created
+	 *         if the thread hasn't had one yet
+	 */
+	public ThreadContext getCurrentThreadContext()
+	{
+		return threadContext.get();
+	}
+
+	/**
+	 * Looks up the context for the currently-running thread. Every so often,
+	 * this also checks whether the thread has a new name, and if it does,
+	 * sends a MapThreadName message.
+	 */
+	private ThreadContext getThreadContext() throws IOException, FailedToObtainBufferException,
+			FailedToSendBufferException
+	{
+		ThreadContext context = threadContext.get();
+		if (--context.nameCheckCountdown <= 0)
+		{
+			context.nameCheckCountdown = threadNameCheckInterval;
+			checkThreadName(context);
+		}
+		return context;
+	}
+
+	private void checkThreadName(ThreadContext context) throws IOException,
+			FailedToObtainBufferException, FailedToSendBufferException
+	{
+		String nowName = Thread.currentThread().getName();
+		if (nowName == null)
+			nowName = "";
+
+		if (!context.hasFlag(ThreadContext.FLAG_NAME_MAPPED) || !nowName.equals(context.name))
+		{
+			context.name = nowName;
+			context.setFlag(ThreadContext.FLAG_NAME_MAPPED);
+			sendMapThreadName(nowName, context.id);
+		}
+	}
+
+	/**
+	 * @return the current event timestamp, in the same units as the ones sent
+	 *         with events
+	 */
+	public long getCurrentTime()
 	{
-		return (int) (System.currentTimeMillis() - startTime);
+		return getTimeOffset();
 	}
 
 	/**
-	 * Observes (returns) the next sequencer ID, without incrementing.
+	 * Observes (returns) the next sequencer ID, without incrementing. With
+	 * per-thread sequencing there is no such thing as a global "next" ID, so
+	 * the current time offset is returned instead; HQ places data breaks by
+	 * timestamp in that case.
 	 * 
 	 * @returns the next sequencer ID
 	 */
-	public int getCurrentSequence()
+	public long getCurrentSequence()
 	{
 		return sequencer.observeSequence();
 	}
 
+	/**
+	 * @return the number of events that have been dropped in lossy mode
+	 */
+	public long getDroppedEventCount()
+	{
+		return droppedEventCount.get();
+	}
+
+	/**
+	 * Gets a buffer to write one of the current thread's events into. In lossy
+	 * mode, this won't wait for one; if none is available, the event is
+	 * counted as dropped, <code>depthChange</code> is applied to the thread's
+	 * call depth (as sending the event would have), and <code>null</code> is
+	 * returned.
+	 */
+	private DataBufferOutputStream obtainEventBuffer(int depthChange)
+			throws FailedToObtainBufferException
+	{
+		if (!lossy)
+			return bufferService.obtainBuffer();
+
+		DataBufferOutputStream buffer = bufferService.tryObtainBuffer();
+		if (buffer == null && !bufferService.isSuspended())
+		{
+			ThreadContext context = threadContext.get();
+			if (context.droppedEvents++ == 0)
+				context.droppedFromSequence = sequencer.peekSequence(context);
+			context.callDepth += depthChange;
+			droppedEventCount.incrementAndGet();
+		}
+		return buffer;
+	}
+
+	/**
+	 * EVENT GAP MESSAGE, for the events that the current thread dropped since
+	 * it last got one through. This goes ahead of the event that's about to be
+	 * written to <code>buffer</code>. The caller clears
+	 * <code>context.droppedEvents</code> once that event is written too, since
+	 * a failed write truncates the gap away along with it.
+	 */
+	private void writeDroppedEvents(DataBufferOutputStream buffer, long timestamp,
+			ThreadContext context) throws IOException
+	{
+		if (context.droppedEvents > 0)
+		{
+			messageProtocol.writeEventGap(buffer, timestamp, sequencer.getSequence(context),
+					context.droppedFromSequence, context.droppedEvents, context.id);
+		}
+	}
+
 	// ===============================
 	// API METHODS:
 	// ===============================
@@ -96,6 +261,7 @@ public class MessageDealer
 		DataBufferOutputStream buffer = bufferService.obtainBuffer();
 		if (buffer != null)
 		{
+			int start = buffer.size();
 			boolean wrote = false;
 			try
 			{
@@ -105,9 +271,141 @@ public class MessageDealer
 			finally
 			{
 				if (!wrote)
-					buffer.reset();
+					buffer.truncate(start);
+				bufferService.sendBuffer(buffer);
+			}
+
+			// other threads may start using the new id right away, so the
+			// mapping can't be held back with the rest of this thread's data
+			bufferService.flush();
+		}
+	}
+
+	/**
+	 * Returns the id for the given method signature, assigning one if needed.
+	 * Unlike the signature-based event methods, this never sends a
+	 * MapMethodSignature message; new ids are expected to be announced with
+	 * {@link #sendMapClassMethods(String, int[], String[])}.
+	 * 
+	 * @param sig
+	 * @return the method's id
+	 */
+	public int reserveMethodId(String sig)
+	{
+		return methodIdMapper.reserveId(sig);
+	}
+
+	/**
+	 * Returns the id for the given method signature. If the signature hasn't
+	 * been seen before, it is given a new id, which gets announced with a
+	 * MapMethodSignature message.
+	 * 
+	 * @param sig
+	 * @return the method's id
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	public int getMethodId(String sig) throws IOException, FailedToObtainBufferException,
+			FailedToSendBufferException
+	{
+		return methodIdMapper.getId(sig);
+	}
+
+	/**
+	 * Sets aside ids for the given method signatures, so that each of them
+	 * gets the id it is mapped to when it is first seen. Other signatures are
+	 * given ids above all of the preassigned ones. This must be called before
+	 * any method ids are handed out.
+	 * 
+	 * @param methodIds
+	 */
+	public void preassignMethodIds(Map<String, Integer> methodIds)
+	{
+		methodIdMapper.preassign(methodIds);
+	}
+
+	/**
+	 * Looks up the signature that was given the specified id. This searches
+	 * through all of the known methods, so it isn't meant for the hot path.
+	 * 
+	 * @param id
+	 * @return the method's signature, or <code>null</code> if no method has
+	 *         that id
+	 */
+	public String getMethodSignature(int id)
+	{
+		return methodIdMapper.getSignature(id);
+	}
+
+	/**
+	 * MAP CLASS METHODS (EVENT) MESSAGE
+	 * 
+	 * @param className
+	 * @param ids
+	 * @param sigs
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	public void sendMapClassMethods(String className, int[] ids, String[] sigs)
+			throws IOException, FailedToObtainBufferException, FailedToSendBufferException
+	{
+		DataBufferOutputStream buffer = bufferService.obtainBuffer();
+		if (buffer != null)
+		{
+			int start = buffer.size();
+			boolean wrote = false;
+			try
+			{
+				messageProtocol.writeMapClassMethods(buffer, className, ids, sigs);
+				wrote = true;
+			}
+			finally
+			{
+				if (!wrote)
+					buffer.truncate(start);
+				bufferService.sendBuffer(buffer);
+			}
+
+			// other threads may start using the new ids right away, so the
+			// mappings can't be held back with the rest of this thread's data
+			bufferService.flush();
+		}
+	}
+
+	/**
+	 * MAP METHOD SAMPLING (EVENT) MESSAGE
+	 * 
+	 * @param id
+	 * @param interval
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	public void sendMapMethodSampling(int id, int interval) throws IOException,
+			FailedToObtainBufferException, FailedToSendBufferException
+	{
+		DataBufferOutputStream buffer = bufferService.obtainBuffer();
+		if (buffer != null)
+		{
+			int start = buffer.size();
+			boolean wrote = false;
+			try
+			{
+				messageProtocol.writeMapMethodSampling(buffer, id, interval);
+				wrote = true;
+			}
+			finally
+			{
+				if (!wrote)
+					buffer.truncate(start);
 				bufferService.sendBuffer(buffer);
 			}
+
+			// like the method's mapping, this has to get to HQ before any
+			// other thread's events for the method do
+			bufferService.flush();
 		}
 	}
 
@@ -126,6 +424,7 @@ public class MessageDealer
 		DataBufferOutputStream buffer = bufferService.obtainBuffer();
 		if (buffer != null)
 		{
+			int start = buffer.size();
 			boolean wrote = false;
 			try
 			{
@@ -135,9 +434,13 @@ public class MessageDealer
 			finally
 			{
 				if (!wrote)
-					buffer.reset();
+					buffer.truncate(start);
 				bufferService.sendBuffer(buffer);
 			}
+
+			// other threads may start using the new id right away, so the
+			// mapping can't be held back with the rest of this thread's data
+			bufferService.flush();
 		}
 	}
 
@@ -156,6 +459,7 @@ public class MessageDealer
 		DataBufferOutputStream buffer = bufferService.obtainBuffer();
 		if (buffer != null)
 		{
+			int start = buffer.size();
 			boolean wrote = false;
 			try
 			{
@@ -165,7 +469,7 @@ public class MessageDealer
 			finally
 			{
 				if (!wrote)
-					buffer.reset();
+					buffer.truncate(start);
 				bufferService.sendBuffer(buffer);
 			}
 		}
@@ -182,23 +486,33 @@ public class MessageDealer
 	public void sendMethodEntry(String methodSig) throws IOException,
 			FailedToObtainBufferException, FailedToSendBufferException
 	{
-		DataBufferOutputStream buffer = bufferService.obtainBuffer();
+		if (spanMode)
+		{
+			openSpan(methodIdMapper.getId(methodSig));
+			return;
+		}
+
+		DataBufferOutputStream buffer = obtainEventBuffer(1);
 		if (buffer != null)
 		{
+			int start = buffer.size();
 			boolean wrote = false;
 			try
 			{
-				int timestamp = getTimeOffset();
-				int threadId = threadIdMapper.getCurrent();
+				long timestamp = getTimeOffset();
+				ThreadContext context = getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
 				int methodId = methodIdMapper.getId(methodSig);
-				messageProtocol.writeMethodEntry(buffer, timestamp, sequencer.getSequence(),
-						methodId, threadId);
+				messageProtocol.writeMethodEntry(buffer, timestamp, sequencer.getSequence(context),
+						methodId, context.id);
+				context.callDepth++;
+				context.droppedEvents = 0;
 				wrote = true;
 			}
 			finally
 			{
 				if (!wrote)
-					buffer.reset();
+					buffer.truncate(start);
 				bufferService.sendBuffer(buffer);
 			}
 		}
@@ -216,23 +530,33 @@ public class MessageDealer
 	public void sendMethodExit(String methodSig, int sourceLine) throws IOException,
 			FailedToObtainBufferException, FailedToSendBufferException
 	{
-		DataBufferOutputStream buffer = bufferService.obtainBuffer();
+		if (spanMode)
+		{
+			sendMethodSpan(methodIdMapper.getId(methodSig), sourceLine);
+			return;
+		}
+
+		DataBufferOutputStream buffer = obtainEventBuffer(-1);
 		if (buffer != null)
 		{
+			int start = buffer.size();
 			boolean wrote = false;
 			try
 			{
-				int timestamp = getTimeOffset();
-				int threadId = threadIdMapper.getCurrent();
+				long timestamp = getTimeOffset();
+				ThreadContext context = getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
 				int methodId = methodIdMapper.getId(methodSig);
-				messageProtocol.writeMethodExit(buffer, timestamp, sequencer.getSequence(),
-						methodId, sourceLine, threadId);
+				messageProtocol.writeMethodExit(buffer, timestamp, sequencer.getSequence(context),
+						methodId, sourceLine, context.id);
+				context.callDepth--;
+				context.droppedEvents = 0;
 				wrote = true;
 			}
 			finally
 			{
 				if (!wrote)
-					buffer.reset();
+					buffer.truncate(start);
 				bufferService.sendBuffer(buffer);
 			}
 		}
@@ -248,27 +572,30 @@ public class MessageDealer
 	 * @throws FailedToObtainBufferException
 	 * @throws FailedToSendBufferException
 	 */
-	public void sendException(String exception, String methodSig, int sourceLine)
+	public void sendException(Class<?> exception, String methodSig, int sourceLine)
 			throws IOException, FailedToObtainBufferException, FailedToSendBufferException
 	{
-		DataBufferOutputStream buffer = bufferService.obtainBuffer();
+		DataBufferOutputStream buffer = obtainEventBuffer(0);
 		if (buffer != null)
 		{
+			int start = buffer.size();
 			boolean wrote = false;
 			try
 			{
-				int timestamp = getTimeOffset();
-				int threadId = threadIdMapper.getCurrent();
+				long timestamp = getTimeOffset();
+				ThreadContext context = getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
 				int methodId = methodIdMapper.getId(methodSig);
-				int exceptionId = exceptionIdMapper.getId(exception);
-				messageProtocol.writeException(buffer, timestamp, sequencer.getSequence(),
-						methodId, exceptionId, sourceLine, threadId);
+				int exceptionId = exceptionIdMapper.getId(exception, context);
+				messageProtocol.writeException(buffer, timestamp, sequencer.getSequence(context),
+						methodId, exceptionId, sourceLine, context.id);
+				context.droppedEvents = 0;
 				wrote = true;
 			}
 			finally
 			{
 				if (!wrote)
-					buffer.reset();
+					buffer.truncate(start);
 				bufferService.sendBuffer(buffer);
 			}
 		}
@@ -283,30 +610,305 @@ public class MessageDealer
 	 * @throws FailedToObtainBufferException
 	 * @throws FailedToSendBufferException
 	 */
-	public void sendExceptionBubble(String exception, String methodSig) throws IOException,
+	public void sendExceptionBubble(Class<?> exception, String methodSig) throws IOException,
 			FailedToObtainBufferException, FailedToSendBufferException
 	{
-		DataBufferOutputStream buffer = bufferService.obtainBuffer();
+		if (spanMode)
+		{
+			sendExceptionBubble(exception, methodIdMapper.getId(methodSig));
+			return;
+		}
+
+		DataBufferOutputStream buffer = obtainEventBuffer(-1);
 		if (buffer != null)
 		{
+			int start = buffer.size();
 			boolean wrote = false;
 			try
 			{
-				int timestamp = getTimeOffset();
-				int threadId = threadIdMapper.getCurrent();
+				long timestamp = getTimeOffset();
+				ThreadContext context = getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
 				int methodId = methodIdMapper.getId(methodSig);
-				int exceptionId = exceptionIdMapper.getId(exception);
-				messageProtocol.writeExceptionBubble(buffer, timestamp, sequencer.getSequence(),
-						methodId, exceptionId, threadId);
+				int exceptionId = exceptionIdMapper.getId(exception, context);
+				messageProtocol.writeExceptionBubble(buffer, timestamp,
+						sequencer.getSequence(context), methodId, exceptionId, context.id);
+				context.callDepth--;
+				context.droppedEvents = 0;
+				wrote = true;
+			}
+			finally
+			{
+				if (!wrote)
+					buffer.truncate(start);
+				bufferService.sendBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * METHOD ENTRY (EVENT) MESSAGE, for a method with a pre-assigned id
+	 * 
+	 * @param methodId
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	public void sendMethodEntry(int methodId) throws IOException, FailedToObtainBufferException,
+			FailedToSendBufferException
+	{
+		if (spanMode)
+		{
+			openSpan(methodId);
+			return;
+		}
+
+		DataBufferOutputStream buffer = obtainEventBuffer(1);
+		if (buffer != null)
+		{
+			int start = buffer.size();
+			boolean wrote = false;
+			try
+			{
+				long timestamp = getTimeOffset();
+				ThreadContext context = getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
+				messageProtocol.writeMethodEntry(buffer, timestamp, sequencer.getSequence(context),
+						methodId, context.id);
+				context.callDepth++;
+				context.droppedEvents = 0;
+				wrote = true;
+			}
+			finally
+			{
+				if (!wrote)
+					buffer.truncate(start);
+				bufferService.sendBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * METHOD EXIT (EVENT) MESSAGE, for a method with a pre-assigned id
+	 * 
+	 * @param methodId
+	 * @param sourceLine
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	public void sendMethodExit(int methodId, int sourceLine) throws IOException,
+			FailedToObtainBufferException, FailedToSendBufferException
+	{
+		if (spanMode)
+		{
+			sendMethodSpan(methodId, sourceLine);
+			return;
+		}
+
+		DataBufferOutputStream buffer = obtainEventBuffer(-1);
+		if (buffer != null)
+		{
+			int start = buffer.size();
+			boolean wrote = false;
+			try
+			{
+				long timestamp = getTimeOffset();
+				ThreadContext context = getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
+				messageProtocol.writeMethodExit(buffer, timestamp, sequencer.getSequence(context),
+						methodId, sourceLine, context.id);
+				context.callDepth--;
+				context.droppedEvents = 0;
+				wrote = true;
+			}
+			finally
+			{
+				if (!wrote)
+					buffer.truncate(start);
+				bufferService.sendBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * EXCEPTION (EVENT) MESSAGE, for a method with a pre-assigned id
+	 * 
+	 * @param exception
+	 * @param methodId
+	 * @param sourceLine
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	public void sendException(Class<?> exception, int methodId, int sourceLine)
+			throws IOException, FailedToObtainBufferException, FailedToSendBufferException
+	{
+		DataBufferOutputStream buffer = obtainEventBuffer(0);
+		if (buffer != null)
+		{
+			int start = buffer.size();
+			boolean wrote = false;
+			try
+			{
+				long timestamp = getTimeOffset();
+				ThreadContext context = getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
+				int exceptionId = exceptionIdMapper.getId(exception, context);
+				messageProtocol.writeException(buffer, timestamp, sequencer.getSequence(context),
+						methodId, exceptionId, sourceLine, context.id);
+				context.droppedEvents = 0;
+				wrote = true;
+			}
+			finally
+			{
+				if (!wrote)
+					buffer.truncate(start);
+				bufferService.sendBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * EXCEPTION BUBBLE (EVENT) MESSAGE, for a method with a pre-assigned id
+	 * 
+	 * @param exception
+	 * @param methodId
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	public void sendExceptionBubble(Class<?> exception, int methodId) throws IOException,
+			FailedToObtainBufferException, FailedToSendBufferException
+	{
+		// in span mode, the method's span gets closed off first (with no line)
+		if (spanMode)
+			sendMethodSpan(methodId, -1);
+
+		DataBufferOutputStream buffer = obtainEventBuffer(spanMode ? 0 : -1);
+		if (buffer != null)
+		{
+			int start = buffer.size();
+			boolean wrote = false;
+			try
+			{
+				long timestamp = getTimeOffset();
+				ThreadContext context = getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
+				int exceptionId = exceptionIdMapper.getId(exception, context);
+				messageProtocol.writeExceptionBubble(buffer, timestamp,
+						sequencer.getSequence(context), methodId, exceptionId, context.id);
+				if (!spanMode)
+					context.callDepth--;
+				context.droppedEvents = 0;
+				wrote = true;
+			}
+			finally
+			{
+				if (!wrote)
+					buffer.truncate(start);
+				bufferService.sendBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Starts a span for the given method on the current thread. Nothing gets
+	 * sent until the span is closed, so this happens even while the buffer
+	 * service is paused, to keep the thread's stack in step with its calls.
+	 */
+	private void openSpan(int methodId)
+	{
+		threadContext.get().pushSpan(methodId, getTimeOffset());
+	}
+
+	/**
+	 * METHOD SPAN (EVENT) MESSAGE. Closes the current thread's span for the
+	 * given method. If the method has no open span (e.g. it was entered before
+	 * tracing started), it gets sent as a span of no length.
+	 * 
+	 * @param methodId
+	 * @param sourceLine
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	private void sendMethodSpan(int methodId, int sourceLine) throws IOException,
+			FailedToObtainBufferException, FailedToSendBufferException
+	{
+		long timestamp = getTimeOffset();
+		ThreadContext context = threadContext.get();
+		long startTime = context.popSpan(methodId);
+		if (startTime < 0)
+			startTime = timestamp;
+		int depth = context.callDepth;
+
+		DataBufferOutputStream buffer = obtainEventBuffer(0);
+		if (buffer != null)
+		{
+			int start = buffer.size();
+			boolean wrote = false;
+			try
+			{
+				// same context as above, but this lets it check the thread's name
+				getThreadContext();
+				writeDroppedEvents(buffer, timestamp, context);
+				messageProtocol.writeMethodSpan(buffer, startTime,
+						sequencer.getSequence(context), methodId, timestamp - startTime, depth,
+						sourceLine, context.id);
+				context.droppedEvents = 0;
+				wrote = true;
+			}
+			finally
+			{
+				if (!wrote)
+					buffer.truncate(start);
+				bufferService.sendBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * METHOD STATS MESSAGE
+	 * 
+	 * @param count the number of methods (from the start of each array) to
+	 *            send
+	 * @param methodIds
+	 * @param calls
+	 * @param totalTimes
+	 * @param selfTimes
+	 * @param histograms
+	 * @throws IOException
+	 * @throws FailedToObtainBufferException
+	 * @throws FailedToSendBufferException
+	 */
+	public void sendMethodStats(int count, int[] methodIds, int[] calls, long[] totalTimes,
+			long[] selfTimes, int[][] histograms) throws IOException,
+			FailedToObtainBufferException, FailedToSendBufferException
+	{
+		DataBufferOutputStream buffer = bufferService.obtainBuffer();
+		if (buffer != null)
+		{
+			int start = buffer.size();
+			boolean wrote = false;
+			try
+			{
+				long timestamp = getTimeOffset();
+				messageProtocol.writeMethodStats(buffer, timestamp, count, methodIds, calls,
+						totalTimes, selfTimes, histograms);
 				wrote = true;
 			}
 			finally
 			{
 				if (!wrote)
-					buffer.reset();
+					buffer.truncate(start);
 				bufferService.sendBuffer(buffer);
 			}
 		}
+
+		// snapshots come from a background thread that won't be sending
+		// anything else for a while, so don't leave them staged
+		bufferService.flush();
 	}
 
 	/**
@@ -324,17 +926,19 @@ public class MessageDealer
 		DataBufferOutputStream buffer = bufferService.obtainBuffer();
 		if (buffer != null)
 		{
+			int start = buffer.size();
 			boolean wrote = false;
 			try
 			{
-				int timestamp = getTimeOffset();
-				messageProtocol.writeMarker(buffer, key, value, timestamp, sequencer.getSequence());
+				long timestamp = getTimeOffset();
+				messageProtocol.writeMarker(buffer, key, value, timestamp,
+						markerSequencer.getSequence());
 				wrote = true;
 			}
 			finally
 			{
 				if (!wrote)
-					buffer.reset();
+					buffer.truncate(start);
 				bufferService.sendBuffer(buffer);
 			}
 		}
@@ -344,6 +948,30 @@ public class MessageDealer
 	{
 		private final AtomicInteger idGen = new AtomicInteger(1);
 		private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+		private volatile Map<String, Integer> preassignedIds = null;
+
+		public void preassign(Map<String, Integer> methodIds)
+		{
+			int maxId = 0;
+			for (Integer id : methodIds.values())
+				maxId = Math.max(maxId, id);
+
+			preassignedIds = methodIds;
+			idGen.set(maxId + 1);
+		}
+
+		private int nextId(String methodSignature)
+		{
+			Map<String, Integer> preassigned = preassignedIds;
+			if (preassigned != null)
+			{
+				Integer id = preassigned.get(methodSignature);
+				if (id != null)
+					return id;
+			}
+
+			return idGen.getAndIncrement();
+		}
 
 		public int getId(String methodSignature) throws IOException, FailedToObtainBufferException,
 				FailedToSendBufferException
@@ -351,7 +979,7 @@ public class MessageDealer
 			Integer id = ids.putIfAbsent(methodSignature, 0);
 			if (id == null || id == 0)
 			{
-				id = idGen.getAndIncrement();
+				id = nextId(methodSignature);
 				if (ids.replace(methodSignature, 0, id))
 				{
 					sendMapMethodSignature(methodSignature, id);
@@ -359,6 +987,32 @@ public class MessageDealer
 			}
 			return ids.get(methodSignature);
 		}
+
+		/**
+		 * Like {@link #getId(String)}, but never sends a MapMethodSignature
+		 * message. The caller is responsible for making sure the mapping gets
+		 * to HQ.
+		 */
+		public int reserveId(String methodSignature)
+		{
+			Integer id = ids.putIfAbsent(methodSignature, 0);
+			if (id == null || id == 0)
+			{
+				id = nextId(methodSignature);
+				ids.replace(methodSignature, 0, id);
+			}
+			return ids.get(methodSignature);
+		}
+
+		public String getSignature(int id)
+		{
+			for (Map.Entry<String, Integer> entry : ids.entrySet())
+			{
+				if (entry.getValue() == id)
+					return entry.getKey();
+			}
+			return null;
+		}
 	}
 
 	private class ExceptionId
@@ -380,132 +1034,201 @@ public class MessageDealer
 			}
 			return ids.get(exception);
 		}
+
+		/**
+		 * Like {@link #getId(String)}, but looks the exception class up in the
+		 * thread's own cache first, so that the class name only has to be
+		 * built (and hashed) once per thread for each exception type.
+		 */
+		public int getId(Class<?> exception, ThreadContext context) throws IOException,
+				FailedToObtainBufferException, FailedToSendBufferException
+		{
+			Integer id = context.getExceptionId(exception);
+			if (id == null)
+			{
+				id = getId(exception.getName());
+				context.putExceptionId(exception, id);
+			}
+			return id;
+		}
 	}
 
 	/**
-	 * Creates a monotonically-incrementing unique id for each thread. The id
-	 * for the currently-running thread is available via {@link #getCurrent()}
+	 * Provides an incrementing sequence counter for events.
 	 * 
-	 * @author dylanh
+	 * @author RobertF
 	 * 
 	 */
-	private class ThreadId
+	private class Sequencer
 	{
+		private final AtomicInteger sequenceId = new AtomicInteger();
+
 		/**
-		 * Creates a new, unique id for each thread, on demand.
+		 * Get a new (unique) sequence identifier.
+		 * 
+		 * @return current sequence value
 		 */
-		private final ThreadLocal<Integer> threadId = new ThreadLocal<Integer>()
+		public int getSequence()
 		{
-			private final AtomicInteger uniqueId = new AtomicInteger(0);
-
-			@Override
-			protected Integer initialValue()
-			{
-				return uniqueId.getAndIncrement();
-			};
-		};
+			return sequenceId.getAndIncrement();
+		}
 
 		/**
-		 * Per-thread storage of whether or not a thread has a `threadId`
-		 * association. The `getCurrent` method will perform a check and update
-		 * using this.
+		 * Get a new sequence identifier for an event from the given thread.
+		 * 
+		 * @param context the context of the thread that the event belongs to
+		 * @return current sequence value
 		 */
-		private final ThreadLocal<Boolean> threadHasId = new ThreadLocal<Boolean>()
+		public int getSequence(ThreadContext context)
 		{
-			@Override
-			protected Boolean initialValue()
-			{
-				return false;
-			};
-		};
+			return getSequence();
+		}
 
 		/**
-		 * Stores the latest known name of a thread. Updated by `getCurrent`.
+		 * Observes the current sequence identifier, without modifying it.
+		 * 
+		 * @return the next sequence value
 		 */
-		private final ThreadLocal<String> threadName = new ThreadLocal<String>()
+		public long observeSequence()
 		{
-			@Override
-			protected String initialValue()
-			{
-				return Thread.currentThread().getName();
-			};
-		};
+			return sequenceId.get();
+		}
 
 		/**
-		 * Get the unique id of the currently-running thread. When necessary,
-		 * this method will automatically send a MapMethodName message to the
-		 * message queue.
+		 * Observes the sequence identifier that the given thread's next event
+		 * would get, without modifying it.
 		 * 
-		 * @return The unique id for the currently-running thread.
-		 * @throws InterruptedException
-		 * @throws IOException
-		 * @throws FailedToSendBufferException
-		 * @throws FailedToObtainBufferException
+		 * @param context the context of the thread in question
+		 * @return the next sequence value
 		 */
-		public int getCurrent() throws IOException, FailedToObtainBufferException,
-				FailedToSendBufferException
+		public int peekSequence(ThreadContext context)
 		{
-			boolean updated = false;
-			int id = threadId.get();
-
-			// check if the id is "new"
-			if (!threadHasId.get())
-			{
-				threadHasId.set(true);
-				updated = true;
-			}
-
-			// check if the name has changed
-			String oldName = threadName.get();
-			if (oldName == null)
-				oldName = "";
-			String nowName = Thread.currentThread().getName();
-			if (nowName == null)
-				nowName = "";
-
-			if (!nowName.equals(oldName))
-			{
-				threadName.set(nowName);
-				updated = true;
-			}
-
-			// when updated, send a MapThreadName message
-			if (updated)
-			{
-				sendMapThreadName(nowName, id);
-			}
-			return id;
+			return sequenceId.get();
 		}
 	}
 
 	/**
-	 * Provides an incrementing sequence counter for events.
+	 * Provides a separate sequence counter for each thread, so that threads
+	 * don't all contend on the same counter. Sequence identifiers are only
+	 * unique in combination with the thread id. The counters live in each
+	 * thread's {@link ThreadContext}.
 	 * 
 	 * @author RobertF
 	 * 
 	 */
-	private class Sequencer
+	private class PerThreadSequencer extends Sequencer
 	{
-		private final AtomicInteger sequenceId = new AtomicInteger();
+		@Override
+		public int getSequence(ThreadContext context)
+		{
+			return context.sequence++;
+		}
+
+		@Override
+		public int peekSequence(ThreadContext context)
+		{
+			return context.sequence;
+		}
+
+		@Override
+		public long observeSequence()
+		{
+			return getTimeOffset();
+		}
+	}
+
+	/**
+	 * Options for a {@link MessageDealer}. The defaults share one sequence
+	 * counter between all threads, timestamp events with a
+	 * {@link EventClock.MillisecondClock}, and send every method entry and exit
+	 * without ever dropping events.
+	 */
+	public static class Options
+	{
+		private boolean perThreadSequencing = false;
+		private EventClock clock = null;
+		private int threadNameCheckInterval = DefaultThreadNameCheckInterval;
+		private boolean spanMode = false;
+		private boolean lossy = false;
+
+		public boolean isPerThreadSequencing()
+		{
+			return perThreadSequencing;
+		}
 
 		/**
-		 * Get a new (unique) sequence identifier.
-		 * 
-		 * @return current sequence value
+		 * @param perThreadSequencing If <code>true</code>, each thread numbers
+		 *            its own events, starting from 0, instead of all threads
+		 *            sharing one counter. Markers (which don't belong to a
+		 *            thread) get a counter of their own. HQ then has to put
+		 *            events back in order per thread, and merge the threads by
+		 *            timestamp.
 		 */
-		public int getSequence()
+		public void setPerThreadSequencing(boolean perThreadSequencing)
 		{
-			return sequenceId.getAndIncrement();
+			this.perThreadSequencing = perThreadSequencing;
+		}
+
+		public EventClock getClock()
+		{
+			return clock;
 		}
 
 		/**
-		 * Observes the current sequence identifier, without modifying it.
-		 * 
-		 * @return the next sequence value
+		 * @param clock The clock that timestamps events, or <code>null</code>
+		 *            for a new MillisecondClock. Its lifecycle is up to the
+		 *            caller.
 		 */
-		public int observeSequence()
+		public void setClock(EventClock clock)
 		{
-			return sequenceId.get();
+			this.clock = clock;
+		}
+
+		public int getThreadNameCheckInterval()
+		{
+			return threadNameCheckInterval;
+		}
+
+		/**
+		 * @param threadNameCheckInterval The number of events a thread sends
+		 *            between checks for a new thread name
+		 */
+		public void setThreadNameCheckInterval(int threadNameCheckInterval)
+		{
+			this.threadNameCheckInterval = threadNameCheckInterval;
+		}
+
+		public boolean isSpanMode()
+		{
+			return spanMode;
+		}
+
+		/**
+		 * @param spanMode If <code>true</code>, method entries aren't sent at
+		 *            all. Each thread keeps a stack of entry times instead, and
+		 *            every method exit (or exception bubble) is sent as a
+		 *            single MethodSpan message that carries the start time,
+		 *            duration and call depth of the call.
+		 */
+		public void setSpanMode(boolean spanMode)
+		{
+			this.spanMode = spanMode;
+		}
+
+		public boolean isLossy()
+		{
+			return lossy;
+		}
+
+		/**
+		 * @param lossy If <code>true</code>, events are dropped (and later
+		 *            reported as an EventGap) whenever no buffer is available
+		 *            right away, so that traced threads never wait on the
+		 *            agent.
+		 */
+		public void setLossy(boolean lossy)
+		{
+			this.lossy = lossy;
 		}
 	}
 }
@@ -19,15 +19,18 @@
 
 package com.secdec.bytefrog.agent.message;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
 
 import com.secdec.bytefrog.agent.errors.ErrorHandler;
 import com.secdec.bytefrog.agent.init.DataConnectionHandshake;
 import com.secdec.bytefrog.agent.util.SocketFactory;
+import com.secdec.bytefrog.common.connect.BlockCompressor;
 import com.secdec.bytefrog.common.connect.Connection;
+import com.secdec.bytefrog.common.connect.MappedRing;
 import com.secdec.bytefrog.common.connect.SocketConnection;
-import com.secdec.bytefrog.common.queue.BufferPool;
+import com.secdec.bytefrog.common.queue.BufferTransport;
 
 /**
  * An object that manages multiple {@link PooledMessageSender} threads. Each
@@ -35,6 +38,11 @@ import com.secdec.bytefrog.common.queue.BufferPool;
  * thread. No connections or threads will be allocated (or started) until
  * <code>start</code> is called. Calling <code>shutdown</code> will end the
  * senders and close connections.
+ * 
+ * If a shared memory ring size is given, each sender writes into a ring file
+ * that HQ maps, instead of into its socket; the socket is then only used for
+ * the handshake, and stays open for as long as the sender runs. Senders whose
+ * ring HQ can't map fall back to writing into their socket.
  * @author DylanH
  * 
  */
@@ -42,11 +50,15 @@ public class MessageSenderManager
 {
 	private final SocketFactory connector;
 	private final DataConnectionHandshake handshaker;
-	private final BufferPool pool;
+	private final BufferTransport pool;
 	private final byte runId;
+	private final boolean channelWrites;
+	private final int compressionLevel;
+	private final int sharedMemoryRingSize;
 
 	private final int numSenders;
 	private final Connection[] connections;
+	private final MappedRing[] rings;
 	private final PooledMessageSender[] senders;
 	private final Thread[] senderThreads;
 
@@ -67,8 +79,23 @@ public class MessageSenderManager
 	 *            take from the MessageQueue at once.
 	 */
 	public MessageSenderManager(SocketFactory connector, DataConnectionHandshake handshaker,
-			BufferPool pool, int numSenders, byte runId)
+			BufferTransport pool, int numSenders, byte runId)
+	{
+		this(connector, handshaker, pool, numSenders, runId, new Options());
+	}
+
+	/**
+	 * Creates a new MessageSenderManager
+	 * @param options How the senders write their data
+	 * @see #MessageSenderManager(SocketFactory, DataConnectionHandshake,
+	 *      BufferTransport, int, byte)
+	 */
+	public MessageSenderManager(SocketFactory connector, DataConnectionHandshake handshaker,
+			BufferTransport pool, int numSenders, byte runId, Options options)
 	{
+		this.channelWrites = options.isChannelWrites();
+		this.compressionLevel = options.getCompressionLevel();
+		this.sharedMemoryRingSize = options.getSharedMemoryRingSize();
 		this.connector = connector;
 		this.handshaker = handshaker;
 		this.numSenders = numSenders;
@@ -76,6 +103,7 @@ public class MessageSenderManager
 		this.runId = runId;
 
 		connections = new Connection[numSenders];
+		rings = new MappedRing[numSenders];
 		senders = new PooledMessageSender[numSenders];
 		senderThreads = new Thread[numSenders];
 	}
@@ -95,6 +123,44 @@ public class MessageSenderManager
 		return true;
 	}
 
+	/**
+	 * @return the total number of bytes that went into compression, across all
+	 *         senders
+	 */
+	public long getBytesBeforeCompression()
+	{
+		long total = 0;
+		for (PooledMessageSender sender : senders)
+			if (sender != null && sender.getCompressor() != null)
+				total += sender.getCompressor().getBytesIn();
+		return total;
+	}
+
+	/**
+	 * @return the total number of bytes that came out of compression, across
+	 *         all senders
+	 */
+	public long getBytesAfterCompression()
+	{
+		long total = 0;
+		for (PooledMessageSender sender : senders)
+			if (sender != null && sender.getCompressor() != null)
+				total += sender.getCompressor().getBytesOut();
+		return total;
+	}
+
+	/**
+	 * @return the total time (in nanoseconds) that senders spent compressing
+	 */
+	public long getCompressionTime()
+	{
+		long total = 0;
+		for (PooledMessageSender sender : senders)
+			if (sender != null && sender.getCompressor() != null)
+				total += sender.getCompressor().getCompressionTime();
+		return total;
+	}
+
 	/**
 	 * Open and initialize sockets and threads that will be responsible for
 	 * taking items out of the MessageQueue.
@@ -114,12 +180,44 @@ public class MessageSenderManager
 		{
 			for (int i = 0; i < numSenders; i++)
 			{
-				Connection c = openAndHandshake();
+				MappedRing ring = null;
+				SocketConnection c = null;
+				if (sharedMemoryRingSize > 0)
+				{
+					ring = createRing();
+					if (ring != null)
+					{
+						c = openAndHandshake(ring);
+
+						// HQ can't read from the ring, so use the socket after all
+						if (c == null)
+						{
+							ring.getFile().delete();
+							ring = null;
+						}
+					}
+				}
+
+				if (c == null)
+					c = openAndHandshake(null);
 				if (c == null)
 					throw new Exception("Failed to open HQ Data connection");
 
 				connections[i] = c;
-				senders[i] = new PooledMessageSender(pool, c.output());
+				rings[i] = ring;
+				PooledMessageSender.Options senderOptions;
+				if (ring != null)
+					senderOptions = new PooledMessageSender.Options(ring);
+				else
+				{
+					if (channelWrites)
+						senderOptions = new PooledMessageSender.Options(c.socket().getChannel());
+					else
+						senderOptions = new PooledMessageSender.Options(c.output());
+					if (compressionLevel > 0)
+						senderOptions.setCompressor(new BlockCompressor(compressionLevel));
+				}
+				senders[i] = new PooledMessageSender(pool, senderOptions);
 				senderThreads[i] = new Thread(senders[i]);
 				senderThreads[i].setDaemon(true);
 			}
@@ -166,20 +264,61 @@ public class MessageSenderManager
 			{
 			}
 		}
+
+		// senders close their rings when they stop, which tells HQ that the
+		// data is over; the sockets that went with the rings can go now
+		for (int i = 0; i < numSenders; i++)
+		{
+			if (rings[i] != null)
+			{
+				try
+				{
+					connections[i].close();
+				}
+				catch (IOException e)
+				{
+				}
+				rings[i].getFile().delete();
+			}
+		}
+	}
+
+	/**
+	 * Creates a shared memory ring in a new temporary file.
+	 * 
+	 * @return the ring, or <code>null</code> if it couldn't be created, in
+	 *         which case the sender will write into its socket instead
+	 */
+	private MappedRing createRing()
+	{
+		try
+		{
+			File file = File.createTempFile(MappedRing.FilePrefix, MappedRing.FileSuffix);
+			file.deleteOnExit();
+			return MappedRing.create(file, sharedMemoryRingSize);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
 	}
 
 	/**
 	 * Opens a new HQ Socket connection and attempts to perform the "Data"
 	 * handshake.
 	 * 
+	 * @param ring The shared memory ring that HQ should read the connection's
+	 *            data from, or <code>null</code> for a plain data connection
 	 * @return The opened socket on success. <code>null</code> on failure.
 	 * @throws SecurityException
 	 * @throws IOException
 	 */
-	private Connection openAndHandshake() throws SecurityException, IOException
+	private SocketConnection openAndHandshake(MappedRing ring) throws SecurityException,
+			IOException
 	{
-		Socket s = connector.connect();
-		Connection c = new SocketConnection(s, false, true);
+		Socket s = channelWrites && ring == null ? connector.connectChannel() : connector
+				.connect();
+		SocketConnection c = new SocketConnection(s, false, true);
 		boolean success = false;
 		try
 		{
@@ -187,7 +326,11 @@ public class MessageSenderManager
 			// DataOutputStream(s.getOutputStream());
 			// DataInputStream sIn = new DataInputStream(s.getInputStream());
 
-			success = handshaker.performHandshake(runId, c);
+			if (ring != null)
+				success = handshaker.performMappedHandshake(runId, c, ring.getFile()
+						.getAbsolutePath());
+			else
+				success = handshaker.performHandshake(runId, c);
 		}
 		finally
 		{
@@ -201,4 +344,62 @@ public class MessageSenderManager
 		else
 			return null;
 	}
+
+	/**
+	 * Options for a {@link MessageSenderManager}, covering how its senders
+	 * write their data. The defaults send uncompressed data through a buffered
+	 * stream on each socket.
+	 */
+	public static class Options
+	{
+		private boolean channelWrites = false;
+		private int compressionLevel = 0;
+		private int sharedMemoryRingSize = 0;
+
+		public boolean isChannelWrites()
+		{
+			return channelWrites;
+		}
+
+		/**
+		 * @param channelWrites If <code>true</code>, each sender writes buffers
+		 *            directly to its socket's channel rather than through a
+		 *            buffered OutputStream. This avoids copying the contents
+		 *            of buffers that live in direct memory.
+		 */
+		public void setChannelWrites(boolean channelWrites)
+		{
+			this.channelWrites = channelWrites;
+		}
+
+		public int getCompressionLevel()
+		{
+			return compressionLevel;
+		}
+
+		/**
+		 * @param compressionLevel The Deflater level that each sender
+		 *            compresses buffers with, or 0 to send them uncompressed
+		 */
+		public void setCompressionLevel(int compressionLevel)
+		{
+			this.compressionLevel = compressionLevel;
+		}
+
+		public int getSharedMemoryRingSize()
+		{
+			return sharedMemoryRingSize;
+		}
+
+		/**
+		 * @param sharedMemoryRingSize The size (in bytes) of the shared memory
+		 *            ring that each sender writes into, or 0 to have senders
+		 *            write into their sockets. Data that goes through a ring
+		 *            isn't compressed.
+		 */
+		public void setSharedMemoryRingSize(int sharedMemoryRingSize)
+		{
+			this.sharedMemoryRingSize = sharedMemoryRingSize;
+		}
+	}
 }
@@ -19,25 +19,25 @@
 
 package com.secdec.bytefrog.agent.message;
 
-import com.secdec.bytefrog.common.queue.BufferPool;
+import com.secdec.bytefrog.common.queue.BufferTransport;
 import com.secdec.bytefrog.common.queue.DataBufferOutputStream;
 
 /**
  * A BufferService implementation that obtains and sends buffers from a
- * BufferPool instance. Each call to <code>obtain</code> will use
- * {@link BufferPool#acquireForWriting()}, and will retry up to a certain
- * maximum number of retries, if it is interrupted while waiting for an
- * available buffer. Sending a buffer is equivalent to releasing it back to the
- * BufferPool.
+ * BufferTransport instance (a BufferPool or a RingBufferTransport). Each call
+ * to <code>obtain</code> will use {@link BufferTransport#acquireForWriting()},
+ * and will retry up to a certain maximum number of retries, if it is
+ * interrupted while waiting for an available buffer. Sending a buffer is
+ * equivalent to releasing it back to the BufferTransport.
  * 
  * @author DylanH
  */
 public class PooledBufferService extends BufferService
 {
-	private final BufferPool pool;
+	private final BufferTransport pool;
 	private final int maxObtainRetries;
 
-	public PooledBufferService(BufferPool pool, int maxObtainRetries)
+	public PooledBufferService(BufferTransport pool, int maxObtainRetries)
 	{
 		this.pool = pool;
 		this.maxObtainRetries = maxObtainRetries;
@@ -94,6 +94,16 @@ public class PooledBufferService extends BufferService
 		throw new FailedToObtainBufferException("Too many retries");
 	}
 
+	/**
+	 * Takes a data buffer from the backing BufferTransport only if one is
+	 * available right away.
+	 */
+	@Override
+	protected DataBufferOutputStream innerTryObtain()
+	{
+		return pool.tryAcquireForWriting();
+	}
+
 	/**
 	 * Sends a data buffer to the backing MessageQueue's
 	 * <code>filledBuffers</code>. If the <code>put</code> operation is
@@ -21,30 +21,82 @@ package com.secdec.bytefrog.agent.message;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import com.secdec.bytefrog.agent.errors.ErrorHandler;
-import com.secdec.bytefrog.common.queue.BufferPool;
+import com.secdec.bytefrog.common.connect.BlockCompressor;
+import com.secdec.bytefrog.common.queue.BufferTransport;
 import com.secdec.bytefrog.common.queue.DataBufferOutputStream;
 
 /**
  * A Runnable that will repeatedly attempt to call
- * {@link BufferPool#acquireForReading()} on the given <code>pool</code>,
+ * {@link BufferTransport#acquireForReading()} on the given <code>pool</code>,
  * sending the entire contents of the acquired buffer to the given OutputStream
- * <code>out</code>, before clearing it and releasing it back to the pool.
+ * <code>out</code> (or WritableByteChannel <code>channel</code>), before
+ * clearing it and releasing it back to the pool. Any other buffers that are
+ * readable at the time are sent along with it: with one gathering write on a
+ * channel, or with a single flush on a stream. Streams are flushed before the
+ * sender waits for more buffers, or once data has gone unflushed for
+ * {@link #MaxFlushDelayNanos}. If the sender has a
+ * {@link BlockCompressor}, each buffer is sent as a compressed block.
  * @author DylanH
  */
 public class PooledMessageSender implements Runnable
 {
+	/**
+	 * The most buffers that are taken from the pool to be sent at once
+	 */
+	public static final int MaxBatchSize = 16;
+
+	/**
+	 * The longest time that data may sit in the output stream unflushed while
+	 * more buffers keep becoming readable
+	 */
+	public static final long MaxFlushDelayNanos = 10 * 1000 * 1000L;
 
 	private final OutputStream out;
-	private final BufferPool pool;
+	private final WritableByteChannel channel;
+	private final BufferTransport pool;
+	private final BlockCompressor compressor;
 	private volatile boolean isShutdown = false;
 	private volatile boolean idle = false;
 
-	public PooledMessageSender(BufferPool pool, OutputStream out)
+	// the buffers being sent, and (for gathering writes) views of their
+	// contents; only touched by the sending thread
+	private final DataBufferOutputStream[] batch = new DataBufferOutputStream[MaxBatchSize];
+	private final ByteBuffer[] contents = new ByteBuffer[MaxBatchSize];
+
+	// whether there's data in the output stream that hasn't been flushed yet,
+	// and since when
+	private boolean unflushed = false;
+	private long unflushedSince;
+
+	public PooledMessageSender(BufferTransport pool, OutputStream out)
+	{
+		this(pool, new Options(out));
+	}
+
+	/**
+	 * @param options Where the sender writes buffers to, and whether it
+	 *            compresses them first
+	 */
+	public PooledMessageSender(BufferTransport pool, Options options)
 	{
 		this.pool = pool;
-		this.out = out;
+		this.out = options.getOutputStream();
+		this.channel = options.getChannel();
+		this.compressor = options.getCompressor();
+	}
+
+	/**
+	 * @return the compressor that this sender sends buffers through, or
+	 *         <code>null</code>
+	 */
+	public BlockCompressor getCompressor()
+	{
+		return compressor;
 	}
 
 	public boolean isIdle()
@@ -81,8 +133,14 @@ public class PooledMessageSender implements Runnable
 		{
 			try
 			{
-				out.close();
+				if (channel != null)
+					channel.close();
+				else
+					out.close();
 				shutdown();
+
+				if (compressor != null)
+					compressor.end();
 			}
 			catch (IOException e)
 			{
@@ -91,32 +149,67 @@ public class PooledMessageSender implements Runnable
 	}
 
 	/**
+	 * Sends the next batch of buffers: the first one that becomes readable,
+	 * plus whatever full buffers are readable at that point. Partially filled
+	 * buffers are left for the pool to hand out once they've waited a while.
+	 * 
 	 * @return <code>true</code> if any items were sent, or <code>false</code>
 	 *         if nothing was sent (i.e. if the queue was empty)
 	 */
 	private boolean doSend()
 	{
-		idle = true;
-		// we are "idle" when we block during the acquire
-		DataBufferOutputStream buffer;
+		int count = 0;
 		try
 		{
-			buffer = pool.acquireForReading();
+			// don't leave written data sitting in the output stream while we
+			// wait for more
+			DataBufferOutputStream first = unflushed ? pool.tryAcquireFullForReading() : null;
+			if (first == null)
+			{
+				flush();
+
+				idle = true;
+				// we are "idle" when we block during the acquire
+				first = pool.acquireForReading();
+				idle = false;
+			}
+
+			batch[count++] = first;
+			while (count < MaxBatchSize)
+			{
+				DataBufferOutputStream next = pool.tryAcquireFullForReading();
+				if (next == null)
+					break;
+				batch[count++] = next;
+			}
 		}
 		catch (InterruptedException e)
 		{
 			return false;
 		}
-		idle = false;
+		catch (IOException e)
+		{
+			ErrorHandler.handleError("Failed to flush data buffers", e);
+			return false;
+		}
 
 		try
 		{
-			// attempt to write each buffer to the output stream
-			buffer.writeTo(out);
+			if (compressor != null)
+				writeCompressed(count);
+			else if (channel != null)
+				writeGathering(count);
+			else
+			{
+				for (int i = 0; i < count; i++)
+					batch[i].writeTo(out);
+				markUnflushed();
+			}
 
-			// make sure to flush after writing the buffer to the output stream,
-			// otherwise data might sit around here forever
-			out.flush();
+			// flush once the batch is written, unless there's more to come
+			// soon and the oldest unflushed data hasn't waited too long
+			if (unflushed && System.nanoTime() - unflushedSince >= MaxFlushDelayNanos)
+				flush();
 		}
 		catch (IOException e)
 		{
@@ -125,10 +218,141 @@ public class PooledMessageSender implements Runnable
 		}
 		finally
 		{
-			buffer.reset();
-			pool.release(buffer);
+			for (int i = 0; i < count; i++)
+			{
+				batch[i].reset();
+				pool.release(batch[i]);
+				batch[i] = null;
+			}
 		}
 
 		return true;
 	}
+
+	/**
+	 * Writes the buffers in the batch with as few channel writes as possible.
+	 * Channel writes aren't buffered, so there's nothing to flush afterwards.
+	 */
+	private void writeGathering(int count) throws IOException
+	{
+		if (!(channel instanceof GatheringByteChannel))
+		{
+			for (int i = 0; i < count; i++)
+				batch[i].writeTo(channel);
+			return;
+		}
+
+		long remaining = 0;
+		for (int i = 0; i < count; i++)
+		{
+			contents[i] = batch[i].contents();
+			remaining += contents[i].remaining();
+		}
+
+		try
+		{
+			GatheringByteChannel gathering = (GatheringByteChannel) channel;
+			while (remaining > 0)
+				remaining -= gathering.write(contents, 0, count);
+		}
+		finally
+		{
+			for (int i = 0; i < count; i++)
+				contents[i] = null;
+		}
+	}
+
+	/**
+	 * Compresses each buffer in the batch into a block, and writes it.
+	 */
+	private void writeCompressed(int count) throws IOException
+	{
+		for (int i = 0; i < count; i++)
+		{
+			int length = compressor.compress(batch[i]);
+			if (channel != null)
+			{
+				ByteBuffer block = ByteBuffer.wrap(compressor.getBlock(), 0, length);
+				while (block.hasRemaining())
+					channel.write(block);
+			}
+			else
+			{
+				out.write(compressor.getBlock(), 0, length);
+				markUnflushed();
+			}
+		}
+	}
+
+	private void markUnflushed()
+	{
+		if (!unflushed)
+		{
+			unflushed = true;
+			unflushedSince = System.nanoTime();
+		}
+	}
+
+	private void flush() throws IOException
+	{
+		if (unflushed)
+		{
+			unflushed = false;
+			out.flush();
+		}
+	}
+
+	/**
+	 * Options for a {@link PooledMessageSender}: the stream or channel that it
+	 * sends buffers to, and the compressor (if any) that it sends them through.
+	 */
+	public static class Options
+	{
+		private final OutputStream out;
+		private final WritableByteChannel channel;
+		private BlockCompressor compressor = null;
+
+		/**
+		 * Sends buffers to a stream.
+		 */
+		public Options(OutputStream out)
+		{
+			this.out = out;
+			this.channel = null;
+		}
+
+		/**
+		 * Sends buffers straight to a channel. Buffers that keep their
+		 * contents in direct memory are written without being copied.
+		 */
+		public Options(WritableByteChannel channel)
+		{
+			this.out = null;
+			this.channel = channel;
+		}
+
+		public OutputStream getOutputStream()
+		{
+			return out;
+		}
+
+		public WritableByteChannel getChannel()
+		{
+			return channel;
+		}
+
+		public BlockCompressor getCompressor()
+		{
+			return compressor;
+		}
+
+		/**
+		 * @param compressor The compressor to send each buffer (as a block)
+		 *            through, or <code>null</code> to send buffers as they are
+		 */
+		public void setCompressor(BlockCompressor compressor)
+		{
+			this.compressor = compressor;
+		}
+	}
 }
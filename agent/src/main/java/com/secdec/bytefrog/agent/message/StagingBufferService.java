@@ -0,0 +1,412 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.message;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.secdec.bytefrog.agent.errors.ErrorHandler;
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream;
+
+/**
+ * A BufferService that gives each thread a private staging buffer, so that
+ * writing an event doesn't have to go through a shared pool. Once a thread's
+ * staging buffer holds at least <code>chunkSize</code> bytes, its contents are
+ * copied into a buffer obtained from the <code>delegate</code> service in one
+ * shot.
+ *
+ * Staged data that sits around for longer than <code>flushInterval</code>
+ * milliseconds, or that was left behind by a thread that has since died, is
+ * pushed along by a background flusher thread. Everything that is staged gets
+ * flushed before this service is paused or suspended (which includes
+ * shutdown).
+ */
+public class StagingBufferService extends BufferService
+{
+	private final BufferService delegate;
+	private final int chunkSize;
+	private final int flushInterval;
+
+	private final ConcurrentLinkedQueue<StagingBuffer> stagingBuffers = new ConcurrentLinkedQueue<StagingBuffer>();
+	private final ThreadLocal<StagingBuffer> currentStagingBuffer = new ThreadLocal<StagingBuffer>()
+	{
+		@Override
+		protected StagingBuffer initialValue()
+		{
+			StagingBuffer staging = new StagingBuffer(Thread.currentThread(), chunkSize);
+			stagingBuffers.add(staging);
+			return staging;
+		};
+	};
+
+	private final Flusher flusher = new Flusher();
+
+	/**
+	 * @param delegate The service that staged data is eventually sent through
+	 * @param chunkSize The number of staged bytes at which a thread hands its
+	 *            data over to the <code>delegate</code>
+	 * @param flushInterval The longest time (in milliseconds) that data may
+	 *            stay staged before the flusher thread sends it
+	 */
+	public StagingBufferService(BufferService delegate, int chunkSize, int flushInterval)
+	{
+		this.delegate = delegate;
+		this.chunkSize = Math.max(chunkSize, 1);
+		this.flushInterval = Math.max(flushInterval, 1);
+	}
+
+	/**
+	 * Starts the background flusher thread.
+	 */
+	public void start()
+	{
+		flusher.start();
+	}
+
+	/**
+	 * Stops the background flusher thread. Anything that is still staged at
+	 * this point is sent along first.
+	 */
+	public void shutdown()
+	{
+		flusher.shutdown();
+		flushAll();
+	}
+
+	@Override
+	public void setPaused(boolean paused)
+	{
+		super.setPaused(paused);
+
+		// make sure everything traced before the pause goes out
+		if (paused)
+			flushAll();
+	}
+
+	@Override
+	public void setSuspended(boolean suspended)
+	{
+		if (suspended)
+		{
+			// stop handing out staging buffers, then flush what's there while
+			// the delegate can still take it
+			super.setSuspended(true);
+			flushAll();
+			delegate.setSuspended(true);
+		}
+		else
+		{
+			delegate.setSuspended(false);
+			super.setSuspended(false);
+		}
+	}
+
+	@Override
+	protected DataBufferOutputStream innerObtain() throws FailedToObtainBufferException
+	{
+		StagingBuffer staging = currentStagingBuffer.get();
+		staging.lock.lock();
+
+		// a suspend may have slipped in before we got the lock; the flush that
+		// came with it has already happened, so there's nothing to write into
+		if (isSuspended())
+		{
+			staging.lock.unlock();
+			return null;
+		}
+
+		staging.setNonBlocking(false);
+		return staging.buffer;
+	}
+
+	/**
+	 * Hands out the current thread's staging buffer only if doing so doesn't
+	 * mean waiting: not on the flusher thread, and not on the delegate. If the
+	 * staged data couldn't be handed over earlier, another (non-blocking)
+	 * attempt is made here before giving up.
+	 */
+	@Override
+	protected DataBufferOutputStream innerTryObtain() throws FailedToObtainBufferException
+	{
+		StagingBuffer staging = currentStagingBuffer.get();
+		if (!staging.lock.tryLock())
+			return null;
+
+		try
+		{
+			if (isSuspended() || (staging.buffer.size() >= chunkSize && !flush(staging, false)))
+			{
+				staging.lock.unlock();
+				return null;
+			}
+		}
+		catch (FailedToSendBufferException e)
+		{
+			staging.lock.unlock();
+			throw new FailedToObtainBufferException("Failed to send staged data", e);
+		}
+
+		staging.setNonBlocking(true);
+		return staging.buffer;
+	}
+
+	@Override
+	protected void innerSend(DataBufferOutputStream buffer) throws FailedToSendBufferException
+	{
+		StagingBuffer staging = currentStagingBuffer.get();
+		try
+		{
+			// a buffer that was obtained without waiting is sent without waiting;
+			// whatever doesn't fit stays staged for the next try
+			if (buffer.size() >= chunkSize)
+				flush(staging, !staging.isNonBlocking());
+		}
+		finally
+		{
+			staging.lock.unlock();
+		}
+	}
+
+	@Override
+	public void flush() throws FailedToSendBufferException
+	{
+		StagingBuffer staging = currentStagingBuffer.get();
+		staging.lock.lock();
+		try
+		{
+			flush(staging, true);
+		}
+		finally
+		{
+			staging.lock.unlock();
+		}
+	}
+
+	/**
+	 * Sends the contents of every staging buffer along, waiting on threads
+	 * that are in the middle of writing an event.
+	 */
+	private void flushAll()
+	{
+		for (StagingBuffer staging : stagingBuffers)
+		{
+			staging.lock.lock();
+			try
+			{
+				flush(staging, true);
+			}
+			catch (FailedToSendBufferException e)
+			{
+				ErrorHandler.handleError("error flushing staged data", e);
+			}
+			finally
+			{
+				staging.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Sends staged data that has been waiting for too long, and cleans up
+	 * after threads that have died. Threads that are busy writing are skipped,
+	 * since they will get to their data soon enough.
+	 */
+	private void flushIdle()
+	{
+		long now = System.currentTimeMillis();
+		Iterator<StagingBuffer> iter = stagingBuffers.iterator();
+		while (iter.hasNext())
+		{
+			StagingBuffer staging = iter.next();
+			boolean ownerDead = !staging.isOwnerAlive();
+
+			if (ownerDead)
+				staging.lock.lock();
+			else if (now - staging.lastFlush < flushInterval || !staging.lock.tryLock())
+				continue;
+
+			try
+			{
+				flush(staging, true);
+			}
+			catch (FailedToSendBufferException e)
+			{
+				ErrorHandler.handleError("error flushing staged data", e);
+			}
+			finally
+			{
+				staging.lock.unlock();
+			}
+
+			if (ownerDead)
+				iter.remove();
+		}
+	}
+
+	// must be called while holding staging.lock. If wait is false and the
+	// delegate has no buffer to spare right now, the data stays staged and
+	// false is returned.
+	private boolean flush(StagingBuffer staging, boolean wait) throws FailedToSendBufferException
+	{
+		DataBufferOutputStream buffer = staging.buffer;
+		if (buffer.size() == 0)
+			return true;
+
+		DataBufferOutputStream target;
+		try
+		{
+			target = wait ? delegate.obtainBuffer() : delegate.tryObtainBuffer();
+		}
+		catch (FailedToObtainBufferException e)
+		{
+			discard(staging);
+			throw new FailedToSendBufferException("Failed to obtain a buffer for staged data", e);
+		}
+
+		if (target == null && !wait && !delegate.isSuspended())
+			return false;
+
+		try
+		{
+			if (target != null)
+			{
+				try
+				{
+					buffer.writeTo(target);
+				}
+				finally
+				{
+					delegate.sendBuffer(target);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new FailedToSendBufferException(e);
+		}
+		finally
+		{
+			discard(staging);
+		}
+
+		return true;
+	}
+
+	private void discard(StagingBuffer staging)
+	{
+		staging.buffer.reset();
+		staging.lastFlush = System.currentTimeMillis();
+	}
+
+	/**
+	 * The staging buffer for a single thread. The owning thread holds the lock
+	 * from <code>obtain</code> until <code>send</code>, so the flusher thread
+	 * will never see a half-written event.
+	 */
+	private static class StagingBuffer
+	{
+		public final ReentrantLock lock = new ReentrantLock();
+		public final DataBufferOutputStream buffer;
+		public volatile long lastFlush = System.currentTimeMillis();
+
+		// for each level of the owner's (reentrant) hold on the lock, whether
+		// it obtained the buffer with tryObtainBuffer; only touched while
+		// holding the lock
+		private long nonBlockingHolds = 0;
+
+		private final WeakReference<Thread> owner;
+
+		public StagingBuffer(Thread owner, int chunkSize)
+		{
+			this.owner = new WeakReference<Thread>(owner);
+
+			// leave some room for the event that pushes us past the chunk size
+			this.buffer = new DataBufferOutputStream(chunkSize + 64);
+		}
+
+		/**
+		 * Records how the owner obtained the buffer at its current level of
+		 * holding the lock, so that a nested obtain doesn't change how the
+		 * outer one gets sent.
+		 */
+		public void setNonBlocking(boolean nonBlocking)
+		{
+			long bit = holdBit();
+			if (nonBlocking)
+				nonBlockingHolds |= bit;
+			else
+				nonBlockingHolds &= ~bit;
+		}
+
+		public boolean isNonBlocking()
+		{
+			return (nonBlockingHolds & holdBit()) != 0;
+		}
+
+		// holds nested more than 64 deep share the last bit
+		private long holdBit()
+		{
+			return 1L << Math.min(lock.getHoldCount() - 1, 63);
+		}
+
+		public boolean isOwnerAlive()
+		{
+			Thread t = owner.get();
+			return t != null && t.isAlive();
+		}
+	}
+
+	private class Flusher extends Thread
+	{
+		private volatile boolean running = true;
+
+		public Flusher()
+		{
+			setDaemon(true);
+		}
+
+		public void shutdown()
+		{
+			running = false;
+			interrupt();
+		}
+
+		@Override
+		public void run()
+		{
+			while (running)
+			{
+				try
+				{
+					Thread.sleep(flushInterval);
+				}
+				catch (InterruptedException e)
+				{
+					continue;
+				}
+
+				flushIdle();
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.message;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Everything that {@link MessageDealer} keeps track of for a single traced
+ * thread, so that it only has to be looked up once per event. A context is only
+ * ever touched by the thread that it belongs to.
+ */
+public final class ThreadContext
+{
+	/**
+	 * Set once the thread's current name has been sent to HQ.
+	 */
+	static final int FLAG_NAME_MAPPED = 1;
+
+	final int id;
+	String name;
+	int sequence;
+	int callDepth;
+	int flags;
+
+	/**
+	 * The number of events left until the thread's name gets checked again.
+	 * Starts at 0, so the first event always maps the thread.
+	 */
+	int nameCheckCountdown;
+
+	/**
+	 * The number of events dropped (in lossy mode) since the thread last got
+	 * one through, and the sequence id that was next in line when the first of
+	 * them was dropped.
+	 */
+	int droppedEvents;
+	int droppedFromSequence;
+
+	/**
+	 * Exception ids by exception class. The classes are only weakly held, so
+	 * this doesn't keep anything from being unloaded.
+	 */
+	private Map<Class<?>, Integer> exceptionIds;
+
+	/**
+	 * The shadow stack used in span mode: the id and entry time of every
+	 * method that the thread is currently in, indexed by call depth.
+	 */
+	private int[] spanMethods;
+	private long[] spanStarts;
+
+	ThreadContext(int id)
+	{
+		this.id = id;
+	}
+
+	/**
+	 * @return the thread's unique id
+	 */
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * @return the name the thread had when it was last checked, or
+	 *         <code>null</code> if it hasn't been checked yet
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the number of traced methods that the thread is currently in
+	 */
+	public int getCallDepth()
+	{
+		return callDepth;
+	}
+
+	/**
+	 * @return the id that the thread has looked up for an exception class, or
+	 *         <code>null</code> if it hasn't looked one up yet
+	 */
+	public Integer getExceptionId(Class<?> exception)
+	{
+		return exceptionIds == null ? null : exceptionIds.get(exception);
+	}
+
+	void putExceptionId(Class<?> exception, int id)
+	{
+		if (exceptionIds == null)
+			exceptionIds = new WeakHashMap<Class<?>, Integer>();
+		exceptionIds.put(exception, id);
+	}
+
+	/**
+	 * Records entry into a method, for span mode.
+	 */
+	void pushSpan(int methodId, long startTime)
+	{
+		if (spanMethods == null)
+		{
+			spanMethods = new int[16];
+			spanStarts = new long[16];
+		}
+		else if (callDepth == spanMethods.length)
+		{
+			spanMethods = Arrays.copyOf(spanMethods, callDepth * 2);
+			spanStarts = Arrays.copyOf(spanStarts, callDepth * 2);
+		}
+
+		spanMethods[callDepth] = methodId;
+		spanStarts[callDepth] = startTime;
+		callDepth++;
+	}
+
+	/**
+	 * Closes the innermost open span for the given method, for span mode. Any
+	 * spans above it (whose exits were never seen) are dropped along with it,
+	 * which leaves <code>callDepth</code> at the depth of the closed span.
+	 * 
+	 * @return the entry time of the span, or -1 if the method has no open span
+	 *         (in which case the stack is left as it was)
+	 */
+	long popSpan(int methodId)
+	{
+		for (int depth = callDepth - 1; depth >= 0; depth--)
+		{
+			if (spanMethods[depth] == methodId)
+			{
+				callDepth = depth;
+				return spanStarts[depth];
+			}
+		}
+		return -1;
+	}
+
+	boolean hasFlag(int flag)
+	{
+		return (flags & flag) != 0;
+	}
+
+	void setFlag(int flag)
+	{
+		flags |= flag;
+	}
+}
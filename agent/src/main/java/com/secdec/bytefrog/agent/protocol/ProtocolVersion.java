@@ -43,4 +43,10 @@ public interface ProtocolVersion
 
 	ControlMessageProcessor getControlMessageProcessor(ControlMessageHandler handler,
 			ConfigurationHandler configHandler);
+
+	/**
+	 * @return the ProtocolVersion to use for the rest of the trace, once the
+	 *         control connection handshake has settled on one
+	 */
+	ProtocolVersion getNegotiatedVersion();
 }
@@ -82,4 +82,10 @@ public class ProtocolVersion1 implements ProtocolVersion
 	{
 		return new ControlMessageProcessorV1(configurationReader, handler, configHandler);
 	}
+
+	@Override
+	public ProtocolVersion getNegotiatedVersion()
+	{
+		return this;
+	}
 }
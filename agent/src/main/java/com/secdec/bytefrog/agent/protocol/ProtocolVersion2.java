@@ -0,0 +1,94 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.protocol;
+
+import com.secdec.bytefrog.agent.control.ConfigurationHandler;
+import com.secdec.bytefrog.agent.control.ConfigurationReader;
+import com.secdec.bytefrog.agent.control.ConfigurationReaderV1;
+import com.secdec.bytefrog.agent.control.ControlMessageHandler;
+import com.secdec.bytefrog.agent.control.ControlMessageProcessor;
+import com.secdec.bytefrog.agent.control.ControlMessageProcessorV1;
+import com.secdec.bytefrog.agent.init.ControlConnectionHandshake;
+import com.secdec.bytefrog.agent.init.ControlConnectionHandshakeV2;
+import com.secdec.bytefrog.agent.init.DataConnectionHandshake;
+import com.secdec.bytefrog.agent.init.DataConnectionHandshakeV2;
+import com.secdec.bytefrog.common.message.MessageProtocol;
+import com.secdec.bytefrog.common.message.MessageProtocolV2;
+
+/**
+ * ProtocolVersion implementation for version 2. Only the message protocol
+ * and the handshakes differ from version 1.
+ */
+public class ProtocolVersion2 implements ProtocolVersion
+{
+	private final MessageProtocol messageProtocol;
+	private final ConfigurationReader configurationReader;
+	private final ControlConnectionHandshakeV2 controlConnectionHandshake;
+	private final DataConnectionHandshake dataConnectionHandshake;
+
+	public ProtocolVersion2()
+	{
+		MessageProtocolV2 messageProtocol = new MessageProtocolV2();
+		this.messageProtocol = messageProtocol;
+		configurationReader = new ConfigurationReaderV1();
+		controlConnectionHandshake = new ControlConnectionHandshakeV2(messageProtocol,
+				configurationReader);
+		dataConnectionHandshake = new DataConnectionHandshakeV2(messageProtocol);
+	}
+
+	@Override
+	public MessageProtocol getMessageProtocol()
+	{
+		return messageProtocol;
+	}
+
+	@Override
+	public ConfigurationReader getConfigurationReader()
+	{
+		return configurationReader;
+	}
+
+	@Override
+	public ControlConnectionHandshake getControlConnectionHandshake()
+	{
+		return controlConnectionHandshake;
+	}
+
+	@Override
+	public DataConnectionHandshake getDataConnectionHandshake()
+	{
+		return dataConnectionHandshake;
+	}
+
+	@Override
+	public ControlMessageProcessor getControlMessageProcessor(ControlMessageHandler handler,
+			ConfigurationHandler configHandler)
+	{
+		return new ControlMessageProcessorV1(configurationReader, handler, configHandler);
+	}
+
+	@Override
+	public ProtocolVersion getNegotiatedVersion()
+	{
+		if (controlConnectionHandshake.getNegotiatedVersion() == 1)
+			return new ProtocolVersion1();
+		return this;
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which classes get traced, based on a set of inclusion and exclusion
+ * regexes. A class is traced unless it matches an exclusion and none of the
+ * inclusions; bytefrog's own classes are never traced. Filters are immutable,
+ * so a new one is built whenever the rules change.
+ * 
+ * Most rules are really just package prefixes (e.g. <code>^java/</code>), so
+ * those are compiled into a prefix trie that is walked once per class name.
+ * Only rules that use actual regex features are matched as patterns. When no
+ * such rules are around, and no prefix rule reaches past the package name,
+ * every class in a package gets the same decision, so decisions are cached by
+ * package.
+ */
+public class ClassFilter
+{
+	private static final String selfPrefix = "com/secdec/bytefrog/";
+
+	// bits describing which kinds of rule matched
+	private static final int Include = 1;
+	private static final int Exclude = 2;
+
+	private final TrieNode prefixRules = new TrieNode();
+	private final List<Pattern> exclusions = new ArrayList<Pattern>();
+	private final List<Pattern> inclusions = new ArrayList<Pattern>();
+
+	private final ConcurrentHashMap<String, Boolean> packageDecisions = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Constructor
+	 * @param exclusions type exclusion regexes
+	 * @param inclusions type inclusion regexes, which take priority over the
+	 *            exclusions
+	 */
+	public ClassFilter(Iterable<String> exclusions, Iterable<String> inclusions)
+	{
+		for (String exclusion : exclusions)
+			addRule(exclusion, Exclude, this.exclusions);
+
+		for (String inclusion : inclusions)
+			addRule(inclusion, Include, this.inclusions);
+	}
+
+	private void addRule(String regex, int kind, List<Pattern> patterns)
+	{
+		String prefix = getLiteralPrefix(regex);
+		if (prefix != null)
+			prefixRules.add(prefix, kind);
+		else
+			patterns.add(Pattern.compile(regex));
+	}
+
+	/**
+	 * Works out whether a regex (as matched with <code>lookingAt</code>) just
+	 * matches names that start with some literal string, e.g.
+	 * <code>^com/foo/</code> or <code>com/foo/.*</code>.
+	 * 
+	 * @return the literal prefix, or <code>null</code> if the regex needs to
+	 *         be matched as a regex
+	 */
+	static String getLiteralPrefix(String regex)
+	{
+		int start = regex.startsWith("^") ? 1 : 0;
+		int end = regex.endsWith(".*") && !regex.endsWith("\\.*") ? regex.length() - 2 : regex
+				.length();
+
+		StringBuilder prefix = new StringBuilder();
+		for (int i = start; i < end; i++)
+		{
+			char c = regex.charAt(i);
+			if (c == '\\')
+			{
+				// an escaped punctuation character stands for itself; escaped
+				// letters and digits are character classes and the like
+				if (++i >= end || Character.isLetterOrDigit(regex.charAt(i)))
+					return null;
+				prefix.append(regex.charAt(i));
+			}
+			else if (".[]{}()*+?^$|".indexOf(c) >= 0)
+				return null;
+			else
+				prefix.append(c);
+		}
+
+		return prefix.toString();
+	}
+
+	/**
+	 * @param className the internal name of a class (e.g. java/lang/Object)
+	 * @return <code>true</code> if the class should not be traced
+	 */
+	public boolean shouldExclude(String className)
+	{
+		if (className.startsWith(selfPrefix))
+			return true;
+
+		int packageEnd = className.lastIndexOf('/') + 1;
+		String packageName = className.substring(0, packageEnd);
+
+		Boolean decision = packageDecisions.get(packageName);
+		if (decision != null)
+			return decision;
+
+		TrieNode packageNode = prefixRules;
+		int matched = 0;
+		for (int i = 0; i < packageEnd && packageNode != null; i++)
+		{
+			matched |= packageNode.kinds;
+			packageNode = packageNode.child(className.charAt(i));
+		}
+
+		// see whether anything past the package name could change the
+		// decision; if not, it applies to the whole package
+		boolean packageWide = inclusions.isEmpty() && exclusions.isEmpty()
+				&& (packageNode == null || packageNode.isLeaf());
+
+		TrieNode node = packageNode;
+		for (int i = packageEnd; node != null; i++)
+		{
+			matched |= node.kinds;
+			node = i < className.length() ? node.child(className.charAt(i)) : null;
+		}
+
+		boolean exclude = decide(className, matched);
+		if (packageWide)
+			packageDecisions.put(packageName, exclude);
+		return exclude;
+	}
+
+	private boolean decide(String className, int matched)
+	{
+		if ((matched & Include) != 0 || matchesAny(inclusions, className))
+			return false;
+
+		return (matched & Exclude) != 0 || matchesAny(exclusions, className);
+	}
+
+	private static boolean matchesAny(List<Pattern> patterns, String className)
+	{
+		for (int i = 0; i < patterns.size(); i++)
+		{
+			if (patterns.get(i).matcher(className).lookingAt())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A node in the prefix trie. <code>kinds</code> says which kinds of rule
+	 * end at this node, i.e. apply to every name that gets this far.
+	 */
+	private static class TrieNode
+	{
+		private char[] keys = new char[0];
+		private TrieNode[] children = new TrieNode[0];
+		private int kinds = 0;
+
+		public void add(String prefix, int kind)
+		{
+			TrieNode node = this;
+			for (int i = 0; i < prefix.length(); i++)
+			{
+				char c = prefix.charAt(i);
+				TrieNode next = node.child(c);
+				if (next == null)
+				{
+					next = new TrieNode();
+					int n = node.keys.length;
+
+					char[] keys = new char[n + 1];
+					System.arraycopy(node.keys, 0, keys, 0, n);
+					keys[n] = c;
+					TrieNode[] children = new TrieNode[n + 1];
+					System.arraycopy(node.children, 0, children, 0, n);
+					children[n] = next;
+
+					node.keys = keys;
+					node.children = children;
+				}
+				node = next;
+			}
+			node.kinds |= kind;
+		}
+
+		public TrieNode child(char c)
+		{
+			char[] keys = this.keys;
+			for (int i = 0; i < keys.length; i++)
+			{
+				if (keys[i] == c)
+					return children[i];
+			}
+			return null;
+		}
+
+		public boolean isLeaf()
+		{
+			return keys.length == 0;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.trace;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which class loaders can see the {@link Trace} class, so that each
+ * loader only has to be probed once. Loaders are only weakly referenced, so
+ * the registry doesn't keep the loaders of undeployed applications alive.
+ * 
+ * This is safe to use from any number of class-loading threads at once. Two
+ * threads that meet a new loader at the same time may both probe it, but
+ * they'll always agree on the answer that gets kept.
+ */
+public class ClassLoaderRegistry
+{
+	private static final String TraceClassName = "com.secdec.bytefrog.agent.trace.Trace";
+
+	private final ConcurrentHashMap<Object, Boolean> traceVisibility = new ConcurrentHashMap<Object, Boolean>();
+	private final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<ClassLoader>();
+
+	/**
+	 * @param loader a (non-bootstrap) class loader
+	 * @return <code>true</code> if classes from the loader can call into
+	 *         {@link Trace}, and so can be instrumented
+	 */
+	public boolean canSeeTrace(ClassLoader loader)
+	{
+		Boolean visible = traceVisibility.get(new LookupKey(loader));
+		if (visible != null)
+			return visible;
+
+		expungeCollectedLoaders();
+
+		visible = probe(loader);
+		Boolean existing = traceVisibility.putIfAbsent(new LoaderKey(loader, collectedLoaders),
+				visible);
+		return existing != null ? existing : visible;
+	}
+
+	/**
+	 * @return the number of loaders currently remembered
+	 */
+	public int size()
+	{
+		expungeCollectedLoaders();
+		return traceVisibility.size();
+	}
+
+	private boolean probe(ClassLoader loader)
+	{
+		try
+		{
+			loader.loadClass(TraceClassName);
+			return true;
+		}
+		catch (ClassNotFoundException e)
+		{
+			return false;
+		}
+		catch (LinkageError e)
+		{
+			return false;
+		}
+	}
+
+	private void expungeCollectedLoaders()
+	{
+		Object key;
+		while ((key = collectedLoaders.poll()) != null)
+			traceVisibility.remove(key);
+	}
+
+	/**
+	 * Weak key for a loader. Keys compare by loader identity; once the loader
+	 * has been collected, a key is only equal to itself.
+	 */
+	private static class LoaderKey extends WeakReference<ClassLoader>
+	{
+		private final int hash;
+
+		public LoaderKey(ClassLoader loader, ReferenceQueue<ClassLoader> queue)
+		{
+			super(loader, queue);
+			this.hash = System.identityHashCode(loader);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (obj == this)
+				return true;
+
+			ClassLoader loader = get();
+			if (loader == null)
+				return false;
+
+			if (obj instanceof LoaderKey)
+				return ((LoaderKey) obj).get() == loader;
+			if (obj instanceof LookupKey)
+				return ((LookupKey) obj).loader == loader;
+			return false;
+		}
+	}
+
+	/**
+	 * Short-lived strong key for looking up a loader, which saves creating a
+	 * weak reference on every lookup.
+	 */
+	private static class LookupKey
+	{
+		private final ClassLoader loader;
+
+		public LookupKey(ClassLoader loader)
+		{
+			this.loader = loader;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(loader);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (obj instanceof LoaderKey)
+				return ((LoaderKey) obj).get() == loader;
+			if (obj instanceof LookupKey)
+				return ((LookupKey) obj).loader == loader;
+			return false;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.trace;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Applies new inclusion/exclusion rules to a running trace. Once the
+ * transformer has been switched over to the new rules, every loaded class
+ * whose fate changed is retransformed, which adds trace calls to classes that
+ * are now included and takes them back out of classes that are now excluded.
+ * 
+ * The work happens on a background thread, in batches of
+ * <code>batchSize</code> classes, with progress reported to the transformer's
+ * {@link ClassTransformationListener} after each batch. If filters change
+ * again while classes are being retransformed, the rest of the batches are
+ * dropped once the current one is done, and only the newest filters are
+ * applied from there on: to the classes they affect, and to the classes that
+ * the dropped batches didn't get to.
+ */
+public class ClassRetransformer extends Thread
+{
+	public static final int DefaultBatchSize = 100;
+
+	private final Instrumentation instrumentation;
+	private final TraceClassFileTransformer transformer;
+	private final ClassTransformationListener listener;
+	private final int batchSize;
+
+	private final LinkedBlockingQueue<ClassFilter> pendingFilters = new LinkedBlockingQueue<ClassFilter>();
+	private volatile boolean running = true;
+
+	// classes that were left behind when newer filters came in, which still
+	// carry the instrumentation from before that; only touched by this thread
+	private final List<Class<?>> unfinished = new ArrayList<Class<?>>();
+
+	/**
+	 * Constructor
+	 * @param instrumentation the instrumentation that <code>transformer</code>
+	 *            has been added to (as a retransformation-capable transformer)
+	 * @param transformer the transformer whose filters get updated
+	 * @param listener the listener that progress is reported to
+	 * @param batchSize the number of classes to retransform at once
+	 */
+	public ClassRetransformer(Instrumentation instrumentation,
+			TraceClassFileTransformer transformer, ClassTransformationListener listener,
+			int batchSize)
+	{
+		super("bytefrog class retransformer");
+		setDaemon(true);
+
+		this.instrumentation = instrumentation;
+		this.transformer = transformer;
+		this.listener = listener;
+		this.batchSize = Math.max(batchSize, 1);
+	}
+
+	/**
+	 * Queues up a change of filters. This returns right away; the affected
+	 * classes are retransformed in the background.
+	 * 
+	 * @param exclusions the new type exclusion regexes
+	 * @param inclusions the new type inclusion regexes
+	 */
+	public void updateFilters(Iterable<String> exclusions, Iterable<String> inclusions)
+	{
+		pendingFilters.add(new ClassFilter(exclusions, inclusions));
+	}
+
+	public void shutdown()
+	{
+		running = false;
+		interrupt();
+	}
+
+	@Override
+	public void run()
+	{
+		while (running)
+		{
+			ClassFilter filter;
+			try
+			{
+				filter = pendingFilters.take();
+			}
+			catch (InterruptedException e)
+			{
+				continue;
+			}
+
+			// skip straight to the newest filters if several came in at once
+			ClassFilter newer;
+			while ((newer = pendingFilters.poll()) != null)
+				filter = newer;
+
+			try
+			{
+				applyFilter(filter);
+			}
+			catch (RuntimeException e)
+			{
+				listener.classTransformFailed(null, null, e,
+						"Error retransforming classes for new filters");
+			}
+		}
+	}
+
+	private void applyFilter(ClassFilter filter)
+	{
+		ClassFilter oldFilter = transformer.getClassFilter();
+		transformer.setClassFilter(filter);
+
+		Set<Class<?>> affectedSet = new LinkedHashSet<Class<?>>(unfinished);
+		unfinished.clear();
+		for (Class<?> c : instrumentation.getAllLoadedClasses())
+		{
+			// classes from the bootstrap loader are never traced anyway
+			if (c.getClassLoader() == null || !instrumentation.isModifiableClass(c))
+				continue;
+
+			String className = c.getName().replace('.', '/');
+			if (oldFilter.shouldExclude(className) != filter.shouldExclude(className))
+				affectedSet.add(c);
+		}
+
+		List<Class<?>> affected = new ArrayList<Class<?>>(affectedSet);
+		int total = affected.size();
+		listener.retransformProgress(0, total);
+
+		for (int start = 0; start < total && running; start += batchSize)
+		{
+			if (start > 0 && !pendingFilters.isEmpty())
+			{
+				// newer filters are waiting; leave the rest to them
+				unfinished.addAll(affected.subList(start, total));
+				return;
+			}
+
+			List<Class<?>> batch = affected.subList(start, Math.min(start + batchSize, total));
+			retransform(batch);
+			listener.retransformProgress(start + batch.size(), total);
+		}
+	}
+
+	private void retransform(List<Class<?>> batch)
+	{
+		try
+		{
+			instrumentation.retransformClasses(batch.toArray(new Class<?>[batch.size()]));
+		}
+		catch (Throwable batchError)
+		{
+			// one bad class (e.g. one that has been unloaded in the meantime)
+			// fails the whole batch, so fall back to going one at a time
+			for (Class<?> c : batch)
+			{
+				try
+				{
+					instrumentation.retransformClasses(c);
+				}
+				catch (Throwable t)
+				{
+					listener.classTransformFailed(c.getName().replace('.', '/'),
+							c.getClassLoader(), t, "Cannot retransform class");
+				}
+			}
+		}
+	}
+}
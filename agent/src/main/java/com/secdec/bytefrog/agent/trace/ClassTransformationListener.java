@@ -75,4 +75,17 @@ public abstract class ClassTransformationListener
 	{
 		// default implementation is a No-Op
 	}
+
+	/**
+	 * Called as a {@link ClassRetransformer} works its way through the loaded
+	 * classes that are affected by a change of filters. Default implementation
+	 * is a No-Op.
+	 * 
+	 * @param classesDone The number of affected classes handled so far
+	 * @param classesTotal The total number of affected classes
+	 */
+	public void retransformProgress(int classesDone, int classesTotal)
+	{
+		// default implementation is a No-Op
+	}
 }
@@ -79,7 +79,7 @@ public class Trace
 	 */
 	public static void methodThrow(Throwable exception, String methodSignature, int sourceLine)
 	{
-		traceDataCollector.exception(exception.getClass().getName(), methodSignature, sourceLine);
+		traceDataCollector.exception(exception.getClass(), methodSignature, sourceLine);
 	}
 
 	/**
@@ -91,7 +91,54 @@ public class Trace
 	 */
 	public static void methodBubble(Throwable exception, String methodSignature)
 	{
-		traceDataCollector.bubbleException(exception.getClass().getName(), methodSignature);
+		traceDataCollector.bubbleException(exception.getClass(), methodSignature);
+	}
+
+	/**
+	 * Notifies the Agent system that the Target application is entering a
+	 * method.
+	 * @param methodId The id assigned to the method when it was instrumented
+	 */
+	public static void methodEntry(int methodId)
+	{
+		traceDataCollector.methodEntry(methodId);
+	}
+
+	/**
+	 * Notifies the Agent system that the Target application is exiting a
+	 * method. Exit is by a normal return.
+	 * @param methodId The id assigned to the currently-executing method when it
+	 *            was instrumented
+	 * @param sourceLine the line number, if available, of the exit
+	 */
+	public static void methodExit(int methodId, int sourceLine)
+	{
+		traceDataCollector.methodExit(methodId, sourceLine);
+	}
+
+	/**
+	 * Notifies the Agent system that the Target application has thrown an
+	 * exception. A bubble message will follow if the exception was unhandled.
+	 * @param exception The exception thrown.
+	 * @param methodId The id assigned to the currently-executing method when it
+	 *            was instrumented
+	 * @param sourceLine the line number, if available, of the exit
+	 */
+	public static void methodThrow(Throwable exception, int methodId, int sourceLine)
+	{
+		traceDataCollector.exception(exception.getClass(), methodId, sourceLine);
+	}
+
+	/**
+	 * Notifies the Agent system that the Target application has bubbled an
+	 * exception out of a method.
+	 * @param exception The exception bubbled.
+	 * @param methodId The id assigned to the method that bubbled the exception
+	 *            when it was instrumented
+	 */
+	public static void methodBubble(Throwable exception, int methodId)
+	{
+		traceDataCollector.bubbleException(exception.getClass(), methodId);
 	}
 
 	/**
@@ -22,13 +22,11 @@ package com.secdec.bytefrog.agent.trace;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
-import java.util.regex.Pattern;
 
+import com.secdec.bytefrog.agent.bytefrog.InstrumentedClassCache;
 import com.secdec.bytefrog.agent.bytefrog.Instrumentor;
+import com.secdec.bytefrog.agent.bytefrog.MethodRegistry;
+import com.secdec.bytefrog.agent.bytefrog.TrivialMethodFilter;
 
 /**
  * Transformer for instrumenting class files with trace calls.
@@ -36,14 +34,14 @@ import com.secdec.bytefrog.agent.bytefrog.Instrumentor;
  */
 public class TraceClassFileTransformer implements ClassFileTransformer
 {
-	private final Pattern selfExclusion;
-	private final List<Pattern> exclusions;
-	private final List<Pattern> inclusions;
+	private volatile ClassFilter classFilter;
 
-	private final Set<ClassLoader> knownClassLoaders = new HashSet<ClassLoader>();
-	private final Set<ClassLoader> failedClassLoaders = new HashSet<ClassLoader>();
+	private final ClassLoaderRegistry classLoaders = new ClassLoaderRegistry();
 
 	private final ClassTransformationListener classTransformationListener;
+	private final MethodRegistry methodRegistry;
+	private final TrivialMethodFilter trivialMethodFilter;
+	private volatile InstrumentedClassCache classCache;
 
 	/**
 	 * Constructor
@@ -52,8 +50,36 @@ public class TraceClassFileTransformer implements ClassFileTransformer
 	public TraceClassFileTransformer(Iterable<String> exclusions, Iterable<String> inclusions,
 			ClassTransformationListener transListener)
 	{
-		this.exclusions = new LinkedList<Pattern>();
-		this.inclusions = new LinkedList<Pattern>();
+		this(exclusions, inclusions, transListener, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param exclusions type exclusion regexes
+	 * @param methodRegistry registry that assigns ids to instrumented methods;
+	 *            if <code>null</code>, trace calls will pass method signatures
+	 */
+	public TraceClassFileTransformer(Iterable<String> exclusions, Iterable<String> inclusions,
+			ClassTransformationListener transListener, MethodRegistry methodRegistry)
+	{
+		this(exclusions, inclusions, transListener, methodRegistry, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param exclusions type exclusion regexes
+	 * @param methodRegistry registry that assigns ids to instrumented methods;
+	 *            if <code>null</code>, trace calls will pass method signatures
+	 * @param trivialMethodFilter filter for methods that shouldn't be
+	 *            instrumented; if <code>null</code>, every method is
+	 */
+	public TraceClassFileTransformer(Iterable<String> exclusions, Iterable<String> inclusions,
+			ClassTransformationListener transListener, MethodRegistry methodRegistry,
+			TrivialMethodFilter trivialMethodFilter)
+	{
+		this.methodRegistry = methodRegistry;
+		this.trivialMethodFilter = trivialMethodFilter;
+		this.classFilter = new ClassFilter(exclusions, inclusions);
 
 		if (transListener == null)
 		{
@@ -65,51 +91,32 @@ public class TraceClassFileTransformer implements ClassFileTransformer
 		{
 			this.classTransformationListener = transListener;
 		}
-
-		this.selfExclusion = Pattern.compile("^com/secdec/bytefrog/");
-
-		for (String exclusion : exclusions)
-		{
-			this.exclusions.add(Pattern.compile(exclusion));
-		}
-
-		for (String inclusion : inclusions)
-		{
-			this.inclusions.add(Pattern.compile(inclusion));
-		}
 	}
 
-	private boolean shouldExclude(String className)
+	/**
+	 * @return the filter currently deciding which classes get traced
+	 */
+	public ClassFilter getClassFilter()
 	{
-		if (selfExclusion.matcher(className).lookingAt())
-			return true;
-
-		for (Pattern inclusion : inclusions)
-		{
-			if (inclusion.matcher(className).lookingAt())
-				return false;
-		}
-
-		for (Pattern exclusion : exclusions)
-		{
-			if (exclusion.matcher(className).lookingAt())
-				return true;
-		}
+		return classFilter;
+	}
 
-		return false;
+	/**
+	 * Replaces the filter that decides which classes get traced. This only
+	 * affects classes that are loaded (or retransformed) from here on.
+	 */
+	public void setClassFilter(ClassFilter classFilter)
+	{
+		this.classFilter = classFilter;
 	}
 
-	private boolean checkTraceClass(ClassLoader loader)
+	/**
+	 * Sets the cache of instrumented classes to use. The cache is only used
+	 * when this transformer has a method registry.
+	 */
+	public void setClassCache(InstrumentedClassCache classCache)
 	{
-		try
-		{
-			loader.loadClass("com.secdec.bytefrog.agent.trace.Trace");
-			return true;
-		}
-		catch (ClassNotFoundException e)
-		{
-			return false;
-		}
+		this.classCache = classCache;
 	}
 
 	@Override
@@ -118,7 +125,7 @@ public class TraceClassFileTransformer implements ClassFileTransformer
 			throws IllegalClassFormatException
 	{
 		// Any excluded classes should not be transformed.
-		if (shouldExclude(className))
+		if (classFilter.shouldExclude(className))
 		{
 			classTransformationListener.classIgnored(className, loader);
 			return null; // no transformation
@@ -133,23 +140,10 @@ public class TraceClassFileTransformer implements ClassFileTransformer
 			return null;
 		}
 
-		// Keep track of all known ClassLoaders.
 		// Since we are adding calls to Trace's methods, we need to ensure
 		// that each ClassLoader knows how to access Trace. If a Class's loader
 		// cannot find Trace, then that Class can't be instrumented.
-
-		// If this is the first time we've seen this loader, do checks...
-		if (!knownClassLoaders.contains(loader))
-		{
-			knownClassLoaders.add(loader);
-
-			if (!checkTraceClass(loader))
-				failedClassLoaders.add(loader);
-		}
-
-		// If the current class belongs to a "failed" loader, we can't
-		// instrument it.
-		if (failedClassLoaders.contains(loader))
+		if (!classLoaders.canSeeTrace(loader))
 		{
 			classTransformationListener.classTransformFailed(className, loader, null,
 					"Cannot instrument class. Cannot access Trace class.");
@@ -158,7 +152,14 @@ public class TraceClassFileTransformer implements ClassFileTransformer
 
 		try
 		{
-			byte[] bytes = Instrumentor.instrument(className, classfileBuffer);
+			InstrumentedClassCache cache = classCache;
+			byte[] bytes;
+			if (cache != null && methodRegistry != null)
+				bytes = cache.instrument(className, classfileBuffer, methodRegistry,
+						trivialMethodFilter);
+			else
+				bytes = Instrumentor.instrument(className, classfileBuffer, methodRegistry,
+						trivialMethodFilter);
 
 			classTransformationListener.classTransformed(className, loader);
 
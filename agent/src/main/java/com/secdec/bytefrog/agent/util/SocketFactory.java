@@ -21,7 +21,9 @@ package com.secdec.bytefrog.agent.util;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 public class SocketFactory implements Serializable
 {
@@ -41,6 +43,16 @@ public class SocketFactory implements Serializable
 		return new Socket(host, port);
 	}
 
+	/**
+	 * Like {@link #connect()}, but the returned Socket is backed by a
+	 * (blocking) SocketChannel, which can be obtained with
+	 * <code>getChannel()</code>.
+	 */
+	public Socket connectChannel() throws IOException, SecurityException
+	{
+		return SocketChannel.open(new InetSocketAddress(host, port)).socket();
+	}
+
 	@Override
 	public String toString()
 	{
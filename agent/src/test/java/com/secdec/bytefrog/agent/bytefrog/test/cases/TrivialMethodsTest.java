@@ -0,0 +1,52 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.bytefrog.test.cases;
+
+/**
+ * A mix of trivial and non-trivial methods, for checking which ones get
+ * skipped during instrumentation.
+ */
+public class TrivialMethodsTest
+{
+	private int value;
+
+	public int getValue()
+	{
+		return value;
+	}
+
+	public void setValue(int value)
+	{
+		this.value = value;
+	}
+
+	public int sum(int count)
+	{
+		int total = 0;
+		for (int i = 0; i < count; i++)
+			total += value;
+		return total;
+	}
+
+	public String describe()
+	{
+		return String.valueOf(value).trim();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.bytefrog.test
+
+import java.io.File
+
+import scala.collection.mutable.HashMap
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.BeforeAndAfter
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.bytefrog.InstrumentedClassCache
+import com.secdec.bytefrog.agent.bytefrog.MethodRegistry
+import com.secdec.bytefrog.agent.bytefrog.test.cases.SimpleTest
+
+class InstrumentedClassCacheSpec extends FunSpec with ShouldMatchers with BeforeAndAfter {
+
+	/** Hands out ids in order, starting after any preassigned ones */
+	class CountingRegistry extends MethodRegistry {
+		val ids = HashMap[String, Int]()
+		val registered = ListBuffer[String]()
+		private var preassigned = Map[String, Int]()
+
+		def getMethodId(methodSignature: String) = ids.getOrElseUpdate(methodSignature,
+			preassigned.getOrElse(methodSignature, (ids.values ++ preassigned.values).foldLeft(0)(math.max) + 1))
+
+		def registerMethods(className: String, methodIds: Array[Int], methodSignatures: Array[String]) {
+			registered += className
+		}
+
+		def preassignMethodIds(methodIds: java.util.Map[String, Integer]) {
+			import scala.collection.JavaConverters._
+			preassigned = methodIds.asScala.map { case (sig, id) => sig -> id.intValue }.toMap
+		}
+	}
+
+	val className = "com/secdec/bytefrog/agent/bytefrog/test/cases/SimpleTest"
+	val classBytes = {
+		val stream = classOf[SimpleTest].getResourceAsStream("SimpleTest.class")
+		try Stream.continually(stream.read).takeWhile(_ != -1).map(_.toByte).toArray
+		finally stream.close
+	}
+
+	var directory: File = _
+
+	before {
+		directory = File.createTempFile("bytefrog-cache", "")
+		directory.delete
+		directory.mkdir
+	}
+
+	def deleteAll(file: File) {
+		if (file.isDirectory) file.listFiles foreach deleteAll
+		file.delete
+	}
+
+	after {
+		deleteAll(directory)
+	}
+
+	def openCache = InstrumentedClassCache.open(directory, "test")
+
+	describe("InstrumentedClassCache") {
+
+		it("should hand back the stored class when the method ids line up") {
+			val first = openCache.instrument(className, classBytes, new CountingRegistry, null)
+
+			val cache = openCache
+			val registry = new CountingRegistry
+			registry.preassignMethodIds(cache.getMethodIds)
+			val second = cache.instrument(className, classBytes, registry, null)
+
+			second should equal(first)
+			registry.registered should equal(List(className))
+		}
+
+		it("should remember the method ids of the classes it has stored") {
+			val registry = new CountingRegistry
+			openCache.instrument(className, classBytes, registry, null)
+
+			val ids = openCache.getMethodIds
+			ids.size should equal(registry.ids.size)
+			for ((sig, id) <- registry.ids) ids.get(sig) should equal(id)
+		}
+
+		it("should instrument the class again when the method ids don't line up") {
+			openCache.instrument(className, classBytes, new CountingRegistry, null)
+
+			val registry = new CountingRegistry
+			registry.getMethodId("Something.else;1;()V")
+			openCache.instrument(className, classBytes, registry, null)
+
+			// the class was still registered, and stored again under the new ids
+			registry.registered should equal(List(className))
+			val ids = openCache.getMethodIds
+			for ((sig, id) <- registry.ids if ids containsKey sig) ids.get(sig) should equal(id)
+			ids.size should equal(registry.ids.size - 1)
+		}
+
+		it("should only remember method ids from entries made with the same options") {
+			InstrumentedClassCache.open(directory, "other").instrument(className, classBytes, new CountingRegistry, null)
+
+			openCache.getMethodIds should be('empty)
+		}
+
+		it("should prune entries and other options that have gone unused for a while") {
+			val registry = new CountingRegistry
+			openCache.instrument(className, classBytes, registry, null)
+			InstrumentedClassCache.open(directory, "other").instrument(className, classBytes, new CountingRegistry, null)
+			val legacy = new File(directory, "old.bfc")
+			legacy.createNewFile
+
+			val longAgo = System.currentTimeMillis - 365L * 24 * 60 * 60 * 1000
+			for (dir <- directory.listFiles if dir.isDirectory; file <- dir.listFiles :+ dir)
+				file.setLastModified(longAgo)
+
+			val cache = openCache
+			cache.getMethodIds should be('empty)
+			legacy.exists should equal(false)
+			directory.listFiles.toList.filter(_.isDirectory).map(_.listFiles.size) should equal(List(0))
+		}
+	}
+}
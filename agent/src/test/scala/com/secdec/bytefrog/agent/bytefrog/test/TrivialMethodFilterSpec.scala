@@ -0,0 +1,65 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.bytefrog.test
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.bytefrog.TrivialMethodFilter
+import com.secdec.bytefrog.agent.bytefrog.test.cases.TrivialMethodsTest
+import com.secdec.bytefrog.asm.ClassReader
+
+class TrivialMethodFilterSpec extends FunSpec with ShouldMatchers {
+
+	def trivialMethods(filter: TrivialMethodFilter) = {
+		val cls = classOf[TrivialMethodsTest]
+		val stream = cls.getResourceAsStream(cls.getSimpleName + ".class")
+		try {
+			filter.findTrivialMethods(new ClassReader(stream))
+		} finally {
+			stream.close
+		}
+	}
+
+	describe("TrivialMethodFilter") {
+
+		it("should pick out accessors and empty constructors") {
+			val found = trivialMethods(new TrivialMethodFilter(8, false))
+
+			found should contain("getValue()I")
+			found should contain("setValue(I)V")
+			found should contain("<init>()V")
+		}
+
+		it("should not pick out methods that branch or make several calls") {
+			val found = trivialMethods(new TrivialMethodFilter(8, false))
+
+			found should not contain ("sum(I)I")
+			found should not contain ("describe()Ljava/lang/String;")
+		}
+
+		it("should not pick out anything when turned off") {
+			val filter = new TrivialMethodFilter(0, false)
+
+			filter.isEnabled should be(false)
+			trivialMethods(filter) should be('empty)
+		}
+	}
+}
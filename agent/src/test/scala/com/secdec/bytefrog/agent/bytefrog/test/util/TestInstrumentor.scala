@@ -24,13 +24,36 @@ import java.io.FileInputStream
 import java.io.IOException
 import java.net.URI
 
+import scala.collection.mutable.HashMap
+
 import com.secdec.bytefrog.agent.bytefrog.Instrumentor
+import com.secdec.bytefrog.agent.bytefrog.MethodRegistry
 
 /** A helper class that can find, instrument, and load classes. Any class loaded will be instrumented.
   *
   * @author robertf
   */
 class TestInstrumentor {
+	/** A method registry that just remembers which signature goes with each id */
+	object methodRegistry extends MethodRegistry {
+		private val ids = HashMap[String, Int]()
+		private val signatures = HashMap[Int, String]()
+
+		def getMethodId(methodSignature: String) = synchronized {
+			ids.getOrElseUpdate(methodSignature, {
+				val id = ids.size + 1
+				signatures(id) = methodSignature
+				id
+			})
+		}
+
+		def registerMethods(className: String, methodIds: Array[Int], methodSignatures: Array[String]) = ()
+
+		def preassignMethodIds(methodIds: java.util.Map[String, Integer]) = ()
+
+		def getSignature(methodId: Int) = synchronized { signatures(methodId) }
+	}
+
 	/** An internal class loader that will prefer to load its own instrumented versions */
 	private object instrumentingLoader extends ClassLoader(getClass.getClassLoader) {
 		private val system = ClassLoader.getSystemClassLoader
@@ -74,7 +97,7 @@ class TestInstrumentor {
 		private def findClassFile(name: String) = new File(getClass.getResource(s"/${name.replace('.', '/')}.class").toURI)
 
 		override def findClass(name: String): Class[_ <: Any] = {
-			val bytes = Instrumentor.instrument(name, new FileInputStream(findClassFile(name)))
+			val bytes = Instrumentor.instrument(name, new FileInputStream(findClassFile(name)), methodRegistry)
 			if (bytes != null)
 				defineClass(name, bytes, 0, bytes.length)
 			else
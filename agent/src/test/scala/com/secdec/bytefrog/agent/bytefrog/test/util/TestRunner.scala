@@ -32,6 +32,8 @@ import com.secdec.bytefrog.agent.trace.Trace
 class TestRunner {
 	private val instrumentor = new TestInstrumentor
 
+	def methodSignature(methodId: Int) = instrumentor.methodRegistry getSignature methodId
+
 	def runTest[T](arguments: java.lang.String*)(implicit dataCollector: TraceDataCollector, m: Manifest[T]) {
 		try {
 			Trace setTraceDataCollector dataCollector
@@ -64,12 +64,28 @@ class TestScript[T](script: Seq[TestScriptEntry])(implicit runner: TestRunner, m
 			data += MethodExit(trimMethod(method))
 		}
 
-		def exception(exception: String, method: String, line: Int) {
-			data += Exception(trimMethod(method), exception)
+		def exception(exception: Class[_ <: Throwable], method: String, line: Int) {
+			data += Exception(trimMethod(method), exception.getName)
 		}
 
-		def bubbleException(exception: String, method: String) {
-			data += ExceptionBubble(trimMethod(method), exception)
+		def bubbleException(exception: Class[_ <: Throwable], method: String) {
+			data += ExceptionBubble(trimMethod(method), exception.getName)
+		}
+
+		def methodEntry(methodId: Int) {
+			methodEntry(runner methodSignature methodId)
+		}
+
+		def methodExit(methodId: Int, line: Int) {
+			methodExit(runner methodSignature methodId, line)
+		}
+
+		def exception(exception: Class[_ <: Throwable], methodId: Int, line: Int) {
+			this.exception(exception, runner methodSignature methodId, line)
+		}
+
+		def bubbleException(exception: Class[_ <: Throwable], methodId: Int) {
+			this.bubbleException(exception, runner methodSignature methodId)
 		}
 
 		def marker(key: String, value: String) {
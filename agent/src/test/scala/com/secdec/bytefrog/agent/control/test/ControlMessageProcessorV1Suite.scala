@@ -159,6 +159,26 @@ class ControlMessageProcessorV1Suite extends FunSpec with ControlSimulation with
 			}
 		}
 
+		it("should call onFilterUpdate for filter update messages") {
+			enforceNoErrors
+
+			val exclusions = java.util.Arrays.asList("^com/foo/", "^com/bar/")
+			val inclusions = java.util.Arrays.asList("^com/foo/baz/")
+
+			// expect onFilterUpdate(exclusions, inclusions) one time
+			val configHandler = mock[ConfigurationHandler]
+			(configHandler.onFilterUpdate _).expects(exclusions, inclusions).once
+
+			val processor = new ControlMessageProcessorV1(mock[ConfigurationReader], mock[ControlMessageHandler], configHandler)
+
+			simulateHqWriteToAgent { stream =>
+				// HQ sends new filters
+				protocol.writeFilterUpdate(stream, exclusions, inclusions)
+			} { stream =>
+				processor.processIncomingMessage(stream)
+			}
+		}
+
 		it("should call onError for error messages") {
 			enforceNoErrors
 
@@ -0,0 +1,167 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data.test
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.data.AggregatingTraceDataCollector
+import com.secdec.bytefrog.agent.message.BufferService
+import com.secdec.bytefrog.agent.message.EventClock
+import com.secdec.bytefrog.agent.message.MessageDealer
+import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream
+
+class AggregatingTraceDataCollectorSpec extends FunSpec with ShouldMatchers {
+
+	case class Stats(methodId: Int, calls: Int, totalTime: Long, selfTime: Long, histogram: List[Int])
+
+	class RecordingProtocol extends MessageProtocolV1 {
+		val snapshots = ListBuffer[List[Stats]]()
+
+		override def writeMethodStats(out: DataOutputStream, relTime: Long, count: Int, sigIds: Array[Int],
+			calls: Array[Int], totalTimes: Array[Long], selfTimes: Array[Long], histograms: Array[Array[Int]]) {
+			snapshots += (for (i <- 0 until count)
+				yield Stats(sigIds(i), calls(i), totalTimes(i), selfTimes(i), histograms(i).toList)).toList
+		}
+	}
+
+	class ManualClock extends EventClock {
+		var time = 0L
+		def getTime = time
+	}
+
+	class FakeBufferService extends BufferService {
+		def innerObtain = new DataBufferOutputStream(new ByteArrayOutputStream)
+		def innerSend(buffer: DataBufferOutputStream) = ()
+	}
+
+	val clock = new ManualClock
+
+	def at[T](time: Long)(body: => T) = {
+		clock.time = time
+		body
+	}
+
+	def histogram(buckets: (Int, Int)*) = {
+		val h = Array.fill(AggregatingTraceDataCollector.HistogramBuckets)(0)
+		for ((bucket, count) <- buckets) h(bucket) = count
+		h.toList
+	}
+
+	def field(obj: AnyRef, name: String) = {
+		val f = obj.getClass.getDeclaredField(name)
+		f.setAccessible(true)
+		f.get(obj)
+	}
+
+	/** The histograms of the only thread that has used the collector, indexed by method id */
+	def histogramsOf(c: AggregatingTraceDataCollector) = {
+		val stats = field(c, "threadStats").asInstanceOf[java.util.Queue[AnyRef]].peek
+		field(field(stats, "totals"), "histograms").asInstanceOf[Array[Array[Int]]]
+	}
+
+	def collector(protocol: MessageProtocolV1) =
+		new AggregatingTraceDataCollector(new MessageDealer(protocol, new FakeBufferService, new MessageDealer.Options { setClock(clock) }), 1000)
+
+	describe("AggregatingTraceDataCollector") {
+
+		it("should report call counts, total and self times") {
+			val protocol = new RecordingProtocol
+			val c = collector(protocol)
+
+			at(0) { c.methodEntry(1) }
+			at(10) { c.methodEntry(2) }
+			at(14) { c.methodExit(2, 0) }
+			at(20) { c.methodExit(1, 0) }
+			c.snapshot
+
+			protocol.snapshots.toList should equal(List(List(
+				Stats(1, 1, 20, 16, histogram(5 -> 1)),
+				Stats(2, 1, 4, 4, histogram(3 -> 1)))))
+		}
+
+		it("should only report what changed since the last snapshot") {
+			val protocol = new RecordingProtocol
+			val c = collector(protocol)
+
+			at(0) { c.methodEntry(1) }
+			at(1) { c.methodExit(1, 0) }
+			c.snapshot
+			c.snapshot
+			at(2) { c.methodEntry(1) }
+			at(2) { c.methodExit(1, 0) }
+			c.snapshot
+
+			protocol.snapshots.toList should equal(List(
+				List(Stats(1, 1, 1, 1, histogram(1 -> 1))),
+				List(Stats(1, 1, 0, 0, histogram(0 -> 1)))))
+		}
+
+		it("should add up the calls made by different threads") {
+			val protocol = new RecordingProtocol
+			val c = collector(protocol)
+
+			val threads = for (i <- 1 to 3) yield new Thread(new Runnable {
+				def run = for (call <- 1 to 100) { c.methodEntry(7); c.methodExit(7, 0) }
+			})
+			threads.foreach(_.start)
+			threads.foreach(_.join)
+			c.snapshot
+
+			protocol.snapshots.flatten.map(_.calls).sum should equal(300)
+		}
+
+		it("should hold back calls whose histogram it can't see yet, until it can") {
+			val protocol = new RecordingProtocol
+			val c = collector(protocol)
+
+			at(0) { c.methodEntry(1) }
+			at(1) { c.methodExit(1, 0) }
+
+			// as if the snapshot thread saw the call before the histogram
+			val histograms = histogramsOf(c)
+			val hidden = histograms(1)
+			histograms(1) = null
+			c.snapshot
+			protocol.snapshots should be('empty)
+
+			histograms(1) = hidden
+			c.snapshot
+			protocol.snapshots.toList should equal(List(List(Stats(1, 1, 1, 1, histogram(1 -> 1)))))
+		}
+
+		it("should treat a bubbled exception as the end of a call") {
+			val protocol = new RecordingProtocol
+			val c = collector(protocol)
+
+			at(0) { c.methodEntry(3) }
+			at(8) { c.bubbleException(classOf[RuntimeException], 3) }
+			c.snapshot
+
+			protocol.snapshots.toList should equal(List(List(Stats(3, 1, 8, 8, histogram(4 -> 1)))))
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data.test
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.data.HotMethodThrottle
+import com.secdec.bytefrog.agent.data.MethodDemotionListener
+
+class HotMethodThrottleSpec extends FunSpec with ShouldMatchers {
+
+	class RecordingListener extends MethodDemotionListener {
+		val demotions = ListBuffer[(Int, Int)]()
+		def onMethodDemoted(methodId: Int, eventRate: Int) { demotions += methodId -> eventRate }
+	}
+
+	describe("HotMethodThrottle") {
+
+		it("should demote methods that are called more often than the threshold") {
+			val listener = new RecordingListener
+			val throttle = new HotMethodThrottle(100, 1000, listener)
+
+			for (i <- 1 to 150) throttle.admit(1)
+			for (i <- 1 to 50) throttle.admit(2)
+			throttle.check(1000)
+
+			listener.demotions.toList should equal(List(1 -> 150))
+			throttle.isDemoted(1) should be(true)
+			throttle.isDemoted(2) should be(false)
+
+			throttle.admit(1) should be(false)
+			throttle.admit(2) should be(true)
+		}
+
+		it("should count calls per check, not over the whole trace") {
+			val listener = new RecordingListener
+			val throttle = new HotMethodThrottle(100, 1000, listener)
+
+			for (check <- 1 to 3) {
+				for (i <- 1 to 80) throttle.admit(1)
+				throttle.check(1000)
+			}
+
+			listener.demotions should be('empty)
+		}
+
+		it("should only report a method once") {
+			val listener = new RecordingListener
+			val throttle = new HotMethodThrottle(10, 1000, listener)
+
+			for (i <- 1 to 20) throttle.admit(5000)
+			throttle.check(1000)
+			throttle.check(1000)
+
+			listener.demotions.toList should equal(List(5000 -> 20))
+		}
+	}
+}
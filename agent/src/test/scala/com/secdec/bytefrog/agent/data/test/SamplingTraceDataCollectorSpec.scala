@@ -0,0 +1,104 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data.test
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.TraceDataCollector
+import com.secdec.bytefrog.agent.data.MethodSampler
+import com.secdec.bytefrog.agent.data.SamplingTraceDataCollector
+import com.secdec.bytefrog.common.config.SamplingRule
+
+class SamplingTraceDataCollectorSpec extends FunSpec with ShouldMatchers {
+
+	class RecordingCollector extends TraceDataCollector {
+		val events = ListBuffer[String]()
+		def methodEntry(method: String) { events += s"enter $method" }
+		def methodExit(method: String, line: Int) { events += s"exit $method" }
+		def exception(exception: Class[_ <: Throwable], method: String, line: Int) { events += s"throw $method" }
+		def bubbleException(exception: Class[_ <: Throwable], method: String) { events += s"bubble $method" }
+		def methodEntry(methodId: Int) { events += s"enter $methodId" }
+		def methodExit(methodId: Int, line: Int) { events += s"exit $methodId" }
+		def exception(exception: Class[_ <: Throwable], methodId: Int, line: Int) { events += s"throw $methodId" }
+		def bubbleException(exception: Class[_ <: Throwable], methodId: Int) { events += s"bubble $methodId" }
+		def marker(key: String, value: String) { events += s"marker $key" }
+	}
+
+	val SampledMethod = 1
+	val OtherMethod = 2
+
+	def sampler(rules: SamplingRule*) = {
+		val sampler = new MethodSampler(rules.toList)
+		sampler.resolve(SampledMethod, "com/example/Sampled.run;1;()V")
+		sampler.resolve(OtherMethod, "com/example/Other.run;1;()V")
+		sampler
+	}
+
+	describe("SamplingTraceDataCollector") {
+
+		it("should trace one in every N calls to a sampled method") {
+			val recorder = new RecordingCollector
+			val collector = new SamplingTraceDataCollector(recorder, sampler(new SamplingRule("com/example/Sampled", 3, false)))
+
+			for (i <- 1 to 6) {
+				collector.methodEntry(SampledMethod)
+				collector.methodExit(SampledMethod, 0)
+			}
+
+			recorder.events.toList should equal(List("enter 1", "exit 1", "enter 1", "exit 1"))
+		}
+
+		it("should trace every call to methods that no rule matches") {
+			val recorder = new RecordingCollector
+			val collector = new SamplingTraceDataCollector(recorder, sampler(new SamplingRule("com/example/Sampled", 1000, true)))
+
+			for (i <- 1 to 3) {
+				collector.methodEntry(OtherMethod)
+				collector.methodExit(OtherMethod, 0)
+			}
+
+			recorder.events.size should equal(6)
+		}
+
+		it("should keep exits and exceptions consistent with the entry they belong to") {
+			val recorder = new RecordingCollector
+			val collector = new SamplingTraceDataCollector(recorder, sampler(new SamplingRule("com/example/Sampled", 2, false)))
+
+			// traced
+			collector.methodEntry(SampledMethod)
+
+			// skipped, with a traced call nested inside it
+			collector.methodEntry(SampledMethod)
+			collector.methodEntry(OtherMethod)
+			collector.methodExit(OtherMethod, 0)
+			collector.exception(classOf[RuntimeException], SampledMethod, 0)
+			collector.bubbleException(classOf[RuntimeException], SampledMethod)
+
+			collector.exception(classOf[RuntimeException], SampledMethod, 0)
+			collector.methodExit(SampledMethod, 0)
+
+			recorder.events.toList should equal(List("enter 1", "enter 2", "exit 2", "throw 1", "exit 1"))
+		}
+	}
+}
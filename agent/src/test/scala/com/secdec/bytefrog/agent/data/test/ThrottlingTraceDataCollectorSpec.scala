@@ -0,0 +1,94 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.data.test
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.TraceDataCollector
+import com.secdec.bytefrog.agent.data.HotMethodThrottle
+import com.secdec.bytefrog.agent.data.MethodDemotionListener
+import com.secdec.bytefrog.agent.data.ThrottlingTraceDataCollector
+
+class ThrottlingTraceDataCollectorSpec extends FunSpec with ShouldMatchers {
+
+	class RecordingCollector extends TraceDataCollector {
+		val events = ListBuffer[String]()
+		def methodEntry(method: String) { events += s"enter $method" }
+		def methodExit(method: String, line: Int) { events += s"exit $method" }
+		def exception(exception: Class[_ <: Throwable], method: String, line: Int) { events += s"throw $method" }
+		def bubbleException(exception: Class[_ <: Throwable], method: String) { events += s"bubble $method" }
+		def methodEntry(methodId: Int) { events += s"enter $methodId" }
+		def methodExit(methodId: Int, line: Int) { events += s"exit $methodId" }
+		def exception(exception: Class[_ <: Throwable], methodId: Int, line: Int) { events += s"throw $methodId" }
+		def bubbleException(exception: Class[_ <: Throwable], methodId: Int) { events += s"bubble $methodId" }
+		def marker(key: String, value: String) { events += s"marker $key" }
+	}
+
+	object IgnoringListener extends MethodDemotionListener {
+		def onMethodDemoted(methodId: Int, eventRate: Int) {}
+	}
+
+	val HotMethod = 1
+
+	/** A throttle that demotes a method once it has been called twice in a check */
+	def throttle = new HotMethodThrottle(1, 1000, IgnoringListener)
+
+	describe("ThrottlingTraceDataCollector") {
+
+		it("should stop passing along calls to a method once it is demoted") {
+			val recorder = new RecordingCollector
+			val hot = throttle
+			val collector = new ThrottlingTraceDataCollector(recorder, hot)
+
+			for (i <- 1 to 2) {
+				collector.methodEntry(HotMethod)
+				collector.methodExit(HotMethod, 0)
+			}
+			hot.check(1000)
+			collector.methodEntry(HotMethod)
+			collector.methodExit(HotMethod, 0)
+
+			recorder.events.toList should equal(List("enter 1", "exit 1", "enter 1", "exit 1"))
+		}
+
+		it("should still pass along the exits of calls that were in flight when their method was demoted") {
+			val recorder = new RecordingCollector
+			val hot = throttle
+			val collector = new ThrottlingTraceDataCollector(recorder, hot)
+
+			// two recursive calls get in, then the method is demoted under them
+			collector.methodEntry(HotMethod)
+			collector.methodEntry(HotMethod)
+			hot.check(1000)
+
+			collector.methodEntry(HotMethod)
+			collector.exception(classOf[RuntimeException], HotMethod, 0)
+			collector.bubbleException(classOf[RuntimeException], HotMethod)
+			collector.exception(classOf[RuntimeException], HotMethod, 0)
+			collector.bubbleException(classOf[RuntimeException], HotMethod)
+			collector.methodExit(HotMethod, 0)
+
+			recorder.events.toList should equal(List("enter 1", "enter 1", "throw 1", "bubble 1", "exit 1"))
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.message.test
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.message.BufferService
+import com.secdec.bytefrog.agent.message.MessageDealer
+import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream
+
+class ExceptionIdSpec extends FunSpec with ShouldMatchers {
+
+	class FakeBufferService extends BufferService {
+		def innerObtain = new DataBufferOutputStream(new ByteArrayOutputStream)
+		def innerSend(buffer: DataBufferOutputStream) = ()
+	}
+
+	/** Records the exception ids that get mapped, and the ones that events are sent with */
+	class RecordingProtocol extends MessageProtocolV1 {
+		val mapped = ListBuffer[(Int, String)]()
+		val sent = ListBuffer[Int]()
+
+		override def writeMapException(out: DataOutputStream, excId: Int, exception: String) {
+			mapped.synchronized { mapped += ((excId, exception)) }
+		}
+
+		override def writeException(out: DataOutputStream, relTime: Long, seq: Int, sigId: Int, excId: Int, lineNum: Int, threadId: Int) {
+			sent.synchronized { sent += excId }
+		}
+	}
+
+	def doOnSeparateThread(body: => Unit) = {
+		val t = new Thread(new Runnable { def run = body })
+		t.start
+		t.join
+	}
+
+	describe("Exception ids") {
+
+		it("should be reused for the same exception class, and only mapped once") {
+			val protocol = new RecordingProtocol
+			val md = new MessageDealer(protocol, new FakeBufferService)
+
+			md.sendException(classOf[IOException], "method", 1)
+			md.sendException(classOf[IOException], "method", 2)
+
+			protocol.sent.toList match {
+				case a1 :: a2 :: Nil => a1 should equal(a2)
+				case _ => fail
+			}
+			protocol.mapped.toList should equal(List((protocol.sent.head, classOf[IOException].getName)))
+			md.getCurrentThreadContext.getExceptionId(classOf[IOException]) should equal(protocol.sent.head)
+		}
+
+		it("should be different for different exception classes") {
+			val protocol = new RecordingProtocol
+			val md = new MessageDealer(protocol, new FakeBufferService)
+
+			md.sendException(classOf[IOException], "method", 1)
+			md.sendException(classOf[IllegalStateException], "method", 1)
+			md.sendException(classOf[IOException], "method", 1)
+
+			protocol.sent.toList match {
+				case a1 :: b :: a2 :: Nil =>
+					a1 should equal(a2)
+					a1 should not equal (b)
+				case _ => fail
+			}
+			protocol.mapped.size should be(2)
+		}
+
+		it("should start out uncached on a new thread, which then shares the existing id") {
+			val protocol = new RecordingProtocol
+			val md = new MessageDealer(protocol, new FakeBufferService)
+			md.sendException(classOf[IOException], "method", 1)
+
+			var cachedBefore: Option[Integer] = None
+			var cachedAfter: Option[Integer] = None
+			doOnSeparateThread {
+				cachedBefore = Some(md.getCurrentThreadContext.getExceptionId(classOf[IOException]))
+				md.sendException(classOf[IOException], "method", 1)
+				cachedAfter = Some(md.getCurrentThreadContext.getExceptionId(classOf[IOException]))
+			}
+
+			cachedBefore should equal(Some(null))
+			protocol.sent.toList match {
+				case a1 :: a2 :: Nil =>
+					a1 should equal(a2)
+					cachedAfter should equal(Some(a1))
+				case _ => fail
+			}
+			protocol.mapped.size should be(1)
+		}
+	}
+}
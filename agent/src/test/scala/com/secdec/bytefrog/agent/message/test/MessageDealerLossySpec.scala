@@ -0,0 +1,139 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.message.test
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.message.BufferService
+import com.secdec.bytefrog.agent.message.MessageDealer
+import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream
+
+class MessageDealerLossySpec extends FunSpec with ShouldMatchers {
+
+	case class Gap(seq: Int, fromSeq: Int, count: Int, threadId: Int)
+
+	class RecordingProtocol extends MessageProtocolV1 {
+		val sequences = ListBuffer[Int]()
+		val gaps = ListBuffer[Gap]()
+		var failNextExit = false
+
+		override def writeMethodEntry(out: DataOutputStream, relTime: Long, seq: Int, sigId: Int, threadId: Int) {
+			sequences += seq
+		}
+
+		override def writeMethodExit(out: DataOutputStream, relTime: Long, seq: Int, sigId: Int, lineNum: Int, threadId: Int) {
+			if (failNextExit) {
+				failNextExit = false
+				throw new IOException("exit failed")
+			}
+			sequences += seq
+		}
+
+		override def writeEventGap(out: DataOutputStream, relTime: Long, seq: Int, fromSeq: Int, count: Int, threadId: Int) {
+			sequences += seq
+			gaps += Gap(seq, fromSeq, count, threadId)
+		}
+	}
+
+	/** A buffer service that has no buffers to spare (without waiting) while it's `full` */
+	class FillableBufferService extends BufferService {
+		var full = false
+		def innerObtain = new DataBufferOutputStream(new ByteArrayOutputStream)
+		override def innerTryObtain = if (full) null else innerObtain
+		def innerSend(buffer: DataBufferOutputStream) = ()
+	}
+
+	def dealer(protocol: MessageProtocolV1, service: BufferService, lossy: Boolean) =
+		new MessageDealer(protocol, service, new MessageDealer.Options { setLossy(lossy) })
+
+	describe("MessageDealer with lossy backpressure") {
+
+		it("should drop events while no buffer is available, and send a gap ahead of the next one") {
+			val protocol = new RecordingProtocol
+			val service = new FillableBufferService
+			val lossyDealer = dealer(protocol, service, true)
+
+			lossyDealer.sendMethodEntry(1)
+			service.full = true
+			lossyDealer.sendMethodEntry(2)
+			lossyDealer.sendMethodExit(2, 5)
+			service.full = false
+			lossyDealer.sendMethodExit(1, 7)
+
+			// the dropped events never took sequence ids, so there are no holes
+			protocol.sequences.toList should equal(List(0, 1, 2))
+			protocol.gaps.toList should equal(List(Gap(1, 1, 2, 0)))
+			lossyDealer.getDroppedEventCount should equal(2)
+		}
+
+		it("should keep its dropped event count when the event after the gap fails to write") {
+			val protocol = new RecordingProtocol
+			val service = new FillableBufferService
+			val lossyDealer = dealer(protocol, service, true)
+
+			lossyDealer.sendMethodEntry(1)
+			service.full = true
+			lossyDealer.sendMethodEntry(2)
+			lossyDealer.sendMethodExit(2, 5)
+			service.full = false
+
+			protocol.failNextExit = true
+			intercept[IOException] { lossyDealer.sendMethodExit(1, 7) }
+			lossyDealer.sendMethodEntry(3)
+
+			// the first gap was truncated away with the failed exit, so it's sent again
+			protocol.gaps.toList.map(gap => (gap.fromSeq, gap.count)) should equal(List((1, 2), (1, 2)))
+		}
+
+		it("should wait for buffers when it isn't lossy") {
+			val protocol = new RecordingProtocol
+			val service = new FillableBufferService
+			val blockingDealer = dealer(protocol, service, false)
+
+			service.full = true
+			blockingDealer.sendMethodEntry(1)
+
+			protocol.sequences.toList should equal(List(0))
+			blockingDealer.getDroppedEventCount should equal(0)
+		}
+
+		it("should not count events as dropped while suspended") {
+			val protocol = new RecordingProtocol
+			val service = new FillableBufferService
+			val lossyDealer = dealer(protocol, service, true)
+
+			service.setSuspended(true)
+			lossyDealer.sendMethodEntry(1)
+			service.setSuspended(false)
+			lossyDealer.sendMethodEntry(2)
+
+			protocol.gaps should be('empty)
+			lossyDealer.getDroppedEventCount should equal(0)
+		}
+	}
+}
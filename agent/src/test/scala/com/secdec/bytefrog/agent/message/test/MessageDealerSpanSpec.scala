@@ -0,0 +1,120 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.message.test
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.message.BufferService
+import com.secdec.bytefrog.agent.message.EventClock
+import com.secdec.bytefrog.agent.message.MessageDealer
+import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream
+
+class MessageDealerSpanSpec extends FunSpec with ShouldMatchers {
+
+	case class Span(methodId: Int, startTime: Long, duration: Long, depth: Int, lineNum: Int)
+
+	class RecordingProtocol extends MessageProtocolV1 {
+		val spans = ListBuffer[Span]()
+		var entries = 0
+		var exits = 0
+
+		override def writeMethodEntry(out: DataOutputStream, relTime: Long, seq: Int, sigId: Int, threadId: Int) {
+			entries += 1
+		}
+
+		override def writeMethodExit(out: DataOutputStream, relTime: Long, seq: Int, sigId: Int, lineNum: Int, threadId: Int) {
+			exits += 1
+		}
+
+		override def writeMethodSpan(out: DataOutputStream, startTime: Long, seq: Int, sigId: Int, duration: Long, depth: Int, lineNum: Int, threadId: Int) {
+			spans += Span(sigId, startTime, duration, depth, lineNum)
+		}
+	}
+
+	/** A clock that only moves when it's told to */
+	class ManualClock extends EventClock {
+		var time = 0L
+		def getTime = time
+	}
+
+	class FakeBufferService extends BufferService {
+		def innerObtain = new DataBufferOutputStream(new ByteArrayOutputStream)
+		def innerSend(buffer: DataBufferOutputStream) = ()
+	}
+
+	val clock = new ManualClock
+
+	def spanDealer(protocol: MessageProtocolV1) =
+		new MessageDealer(protocol, new FakeBufferService, new MessageDealer.Options {
+			setClock(clock)
+			setSpanMode(true)
+		})
+
+	def at[T](time: Long)(body: => T) = {
+		clock.time = time
+		body
+	}
+
+	describe("MessageDealer in span mode") {
+
+		it("should send a single span per call, with its start, duration and depth") {
+			val protocol = new RecordingProtocol
+			val dealer = spanDealer(protocol)
+
+			at(10) { dealer.sendMethodEntry(1) }
+			at(20) { dealer.sendMethodEntry(2) }
+			at(30) { dealer.sendMethodExit(2, 5) }
+			at(40) { dealer.sendMethodExit(1, 7) }
+
+			protocol.entries should equal(0)
+			protocol.exits should equal(0)
+			protocol.spans.toList should equal(List(Span(2, 20, 10, 1, 5), Span(1, 10, 30, 0, 7)))
+		}
+
+		it("should recover when the exits of inner calls go missing") {
+			val protocol = new RecordingProtocol
+			val dealer = spanDealer(protocol)
+
+			at(10) { dealer.sendMethodEntry(1) }
+			at(20) { dealer.sendMethodEntry(2) }
+			at(30) { dealer.sendMethodExit(1, 7) }
+			at(40) { dealer.sendMethodExit(3, 9) } // never entered
+
+			protocol.spans.toList should equal(List(Span(1, 10, 20, 0, 7), Span(3, 40, 0, 0, 9)))
+		}
+
+		it("should close a method's span when an exception bubbles out of it") {
+			val protocol = new RecordingProtocol
+			val dealer = spanDealer(protocol)
+
+			at(10) { dealer.sendMethodEntry(1) }
+			at(20) { dealer.sendExceptionBubble(classOf[RuntimeException], 1) }
+
+			protocol.spans.toList should equal(List(Span(1, 10, 10, 0, -1)))
+		}
+	}
+}
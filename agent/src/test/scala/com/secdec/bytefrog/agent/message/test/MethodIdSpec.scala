@@ -50,7 +50,7 @@ class MethodIdSpec extends FunSpec with ShouldMatchers with MockFactory {
 		var ids = new ListBuffer[Int]
 
 		(protocol.writeMethodEntry _).expects(*, *, *, *, *).anyNumberOfTimes.onCall {
-			(_: DataOutputStream, _: Int, _: Int, id: Int, _: Int) =>
+			(_: DataOutputStream, _: Long, _: Int, id: Int, _: Int) =>
 				ids += id; ()
 		}
 
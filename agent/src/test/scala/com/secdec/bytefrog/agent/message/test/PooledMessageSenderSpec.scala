@@ -0,0 +1,118 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.message.test
+
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.message.PooledMessageSender
+import com.secdec.bytefrog.common.queue.BufferPool
+
+class PooledMessageSenderSpec extends FunSpec with ShouldMatchers {
+
+	def fillPool(numBuffers: Int) = {
+		val pool = new BufferPool(8, 16)
+		for (i <- 1 to numBuffers) {
+			val buffer = pool.acquireForWriting
+			buffer.writeLong(i)
+			buffer.writeLong(i)
+			pool.release(buffer)
+		}
+		pool
+	}
+
+	/** A gathering channel that records what is written to it, and how many writes it took */
+	class RecordingChannel extends GatheringByteChannel {
+		val sink = new ByteArrayOutputStream
+		var writes = 0
+
+		def write(srcs: Array[ByteBuffer], offset: Int, length: Int): Long = {
+			writes += 1
+			(for (src <- srcs.slice(offset, offset + length)) yield {
+				val n = src.remaining
+				while (src.hasRemaining) sink.write(src.get)
+				n.toLong
+			}).sum
+		}
+		def write(srcs: Array[ByteBuffer]): Long = write(srcs, 0, srcs.length)
+		def write(src: ByteBuffer): Int = write(Array(src)).toInt
+		def isOpen = true
+		def close = ()
+	}
+
+	def runUntil(sender: PooledMessageSender)(done: => Boolean) {
+		val thread = new Thread(sender)
+		thread.setDaemon(true)
+		thread.start
+
+		val deadline = System.currentTimeMillis + 5000
+		while (!done && System.currentTimeMillis < deadline) Thread.sleep(10)
+		while (!sender.isIdle && System.currentTimeMillis < deadline) Thread.sleep(10)
+
+		sender.shutdown
+		thread.interrupt
+		thread.join
+	}
+
+	describe("PooledMessageSender") {
+		it("should flush once for all of the buffers that are waiting") {
+			val sink = new ByteArrayOutputStream
+			var flushes = 0
+			val out = new OutputStream {
+				def write(b: Int) = sink.write(b)
+				override def flush = flushes += 1
+			}
+
+			val pool = fillPool(5)
+			runUntil(new PooledMessageSender(pool, out)) { sink.size == 80 }
+
+			sink.size should be(80)
+			flushes should be(1)
+		}
+
+		it("should send the buffers that are waiting with one gathering write") {
+			val channel = new RecordingChannel
+
+			val pool = fillPool(5)
+			runUntil(new PooledMessageSender(pool, new PooledMessageSender.Options(channel))) { channel.sink.size == 80 }
+
+			channel.sink.size should be(80)
+			channel.writes should be(1)
+		}
+
+		it("should leave partially filled buffers out of a batch") {
+			val channel = new RecordingChannel
+
+			val pool = fillPool(2)
+			val partial = pool.acquireForWriting
+			partial.writeLong(3)
+			pool.release(partial)
+			runUntil(new PooledMessageSender(pool, new PooledMessageSender.Options(channel))) { channel.sink.size == 40 }
+
+			channel.sink.size should be(40)
+			channel.writes should be(2)
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.message.test
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.message.BufferService
+import com.secdec.bytefrog.agent.message.MessageDealer
+import com.secdec.bytefrog.agent.message.StagingBufferService
+import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream
+
+class StagingBufferServiceSpec extends FunSpec with ShouldMatchers {
+
+	class RecordingBufferService extends BufferService {
+		val sent = ListBuffer[Array[Byte]]()
+		def innerObtain = new DataBufferOutputStream(new ByteArrayOutputStream)
+		def innerSend(buffer: DataBufferOutputStream) = sent.synchronized { sent += buffer.toByteArray }
+		def sentBytes = sent.synchronized { sent.flatten.toList }
+	}
+
+	def writeByte(service: BufferService, b: Int) {
+		val buffer = service.obtainBuffer
+		buffer.writeByte(b)
+		service.sendBuffer(buffer)
+	}
+
+	describe("StagingBufferService") {
+
+		it("should hold data back until a full chunk has been staged") {
+			val delegate = new RecordingBufferService
+			val service = new StagingBufferService(delegate, 4, 10000)
+
+			for (i <- 1 to 3) writeByte(service, i)
+			delegate.sent should be('empty)
+
+			writeByte(service, 4)
+			delegate.sent.size should equal(1)
+			delegate.sentBytes should equal(List[Byte](1, 2, 3, 4))
+		}
+
+		it("should send staged data on demand") {
+			val delegate = new RecordingBufferService
+			val service = new StagingBufferService(delegate, 100, 10000)
+
+			writeByte(service, 1)
+			service.flush
+			delegate.sentBytes should equal(List[Byte](1))
+		}
+
+		it("should flush staged data before suspending") {
+			val delegate = new RecordingBufferService
+			val service = new StagingBufferService(delegate, 100, 10000)
+
+			writeByte(service, 1)
+			writeByte(service, 2)
+			service.setSuspended(true)
+
+			delegate.sentBytes should equal(List[Byte](1, 2))
+			service.obtainBuffer should be(null)
+		}
+
+		it("should flush data left behind by threads that have died") {
+			val delegate = new RecordingBufferService
+			val service = new StagingBufferService(delegate, 100, 10)
+			service.start
+
+			val t = new Thread(new Runnable { def run = writeByte(service, 7) })
+			t.start
+			t.join
+
+			val deadline = System.currentTimeMillis + 5000
+			while (delegate.sentBytes.isEmpty && System.currentTimeMillis < deadline) Thread.sleep(10)
+			service.shutdown
+
+			delegate.sentBytes should equal(List[Byte](7))
+		}
+
+		it("should not let a nested blocking obtain make a non-blocking send wait") {
+			// a delegate that only has buffers for those willing to wait
+			var blockingObtains = 0
+			val delegate = new RecordingBufferService {
+				override def innerObtain = { blockingObtains += 1; super.innerObtain }
+				override def innerTryObtain: DataBufferOutputStream = null
+			}
+			val service = new StagingBufferService(delegate, 4, 10000)
+
+			val outer = service.tryObtainBuffer
+			writeByte(service, 1)
+			for (i <- 2 to 5) outer.writeByte(i)
+			service.sendBuffer(outer)
+
+			// the data stays staged, rather than waiting on the delegate
+			blockingObtains should equal(0)
+			delegate.sent should be('empty)
+		}
+
+		it("should keep the data staged ahead of a message that failed to write") {
+			// writes part of a method entry for method 2, then fails
+			val protocol = new MessageProtocolV1 {
+				override def writeMethodEntry(out: DataOutputStream, relTime: Long, seq: Int, sigId: Int, threadId: Int) {
+					out.writeByte(sigId)
+					if (sigId == 2) throw new IOException("failed to write")
+				}
+			}
+			val delegate = new RecordingBufferService
+			val service = new StagingBufferService(delegate, 100, 10000)
+			val dealer = new MessageDealer(protocol, service)
+
+			dealer.sendMethodEntry(1)
+			intercept[IOException] { dealer.sendMethodEntry(2) }
+			dealer.sendMethodEntry(3)
+			service.flush
+
+			// (the thread's name is mapped ahead of its first event)
+			delegate.sentBytes.takeRight(2) should equal(List[Byte](1, 3))
+		}
+	}
+}
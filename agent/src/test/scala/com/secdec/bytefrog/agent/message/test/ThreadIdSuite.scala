@@ -54,10 +54,14 @@ class ThreadIdSuite extends FunSpec with ShouldMatchers with AsyncAssertions wit
 		t.join
 	}
 
-	describe("ThreadId.getCurrent") {
+	/** A MessageDealer that checks thread names on every event */
+	def dealerCheckingNames(protocol: MessageProtocol, interval: Int = 1) =
+		new MessageDealer(protocol, new FakeBufferService, new MessageDealer.Options { setThreadNameCheckInterval(interval) })
+
+	describe("Thread ids") {
 		it("Should return the same id for a thread even when it changes names") {
 			val protocol = mock[MessageProtocol]
-			val md = new MessageDealer(protocol, new FakeBufferService)
+			val md = dealerCheckingNames(protocol)
 
 			(protocol.writeMapMethodSignature _).expects(*, *, *).anyNumberOfTimes
 			(protocol.writeMethodEntry _).expects(*, *, *, *, *).anyNumberOfTimes
@@ -69,12 +73,12 @@ class ThreadIdSuite extends FunSpec with ShouldMatchers with AsyncAssertions wit
 				var id2: Int = -1
 				inSequence {
 					(protocol.writeMapThreadName _).expects(*, *, *, *).once.onCall {
-						(_: DataOutputStream, threadId: Int, _: Int, _: String) =>
+						(_: DataOutputStream, threadId: Int, _: Long, _: String) =>
 							id1 = threadId
 					}
 
 					(protocol.writeMapThreadName _).expects(*, *, *, *).once.onCall {
-						(_: DataOutputStream, threadId: Int, _: Int, _: String) =>
+						(_: DataOutputStream, threadId: Int, _: Long, _: String) =>
 							id2 = threadId
 					}
 				}
@@ -106,7 +110,7 @@ class ThreadIdSuite extends FunSpec with ShouldMatchers with AsyncAssertions wit
 			doOnSeparateThread {
 				Thread.currentThread.setName("The Real Thread")
 				(protocol.writeMapThreadName _).expects(*, *, *, *).once.onCall {
-					(_: DataOutputStream, threadId: Int, _: Int, _: String) =>
+					(_: DataOutputStream, threadId: Int, _: Long, _: String) =>
 						id1 = threadId
 				}
 				md.sendMethodEntry("method")
@@ -117,7 +121,7 @@ class ThreadIdSuite extends FunSpec with ShouldMatchers with AsyncAssertions wit
 			doOnSeparateThread {
 				Thread.currentThread.setName("The Real Thread")
 				(protocol.writeMapThreadName _).expects(*, *, *, *).once.onCall {
-					(_: DataOutputStream, threadId: Int, _: Int, _: String) =>
+					(_: DataOutputStream, threadId: Int, _: Long, _: String) =>
 						id2 = threadId
 				}
 				md.sendMethodEntry("method")
@@ -130,7 +134,7 @@ class ThreadIdSuite extends FunSpec with ShouldMatchers with AsyncAssertions wit
 		}
 	}
 
-	describe("ThreadId's generated messages") {
+	describe("Thread ids' generated messages") {
 		it("Should generate a message the first time it maps each thread") {
 			val protocol = mock[MessageProtocol]
 			val md = new MessageDealer(protocol, new FakeBufferService)
@@ -149,7 +153,7 @@ class ThreadIdSuite extends FunSpec with ShouldMatchers with AsyncAssertions wit
 
 		it("Should generate a message whenever it maps a thread whose name has changed") {
 			val protocol = mock[MessageProtocol]
-			val md = new MessageDealer(protocol, new FakeBufferService)
+			val md = dealerCheckingNames(protocol)
 			(protocol.writeMapMethodSignature _).expects(*, *, *).anyNumberOfTimes
 			(protocol.writeMethodEntry _).expects(*, *, *, *, *).anyNumberOfTimes
 
@@ -171,6 +175,26 @@ class ThreadIdSuite extends FunSpec with ShouldMatchers with AsyncAssertions wit
 				md.sendMethodEntry("method3")
 			}
 		}
+
+		it("Should only notice a name change when the name is next checked") {
+			val protocol = mock[MessageProtocol]
+			val md = dealerCheckingNames(protocol, 3)
+			(protocol.writeMapMethodSignature _).expects(*, *, *).anyNumberOfTimes
+			(protocol.writeMethodEntry _).expects(*, *, *, *, *).anyNumberOfTimes
+
+			doOnSeparateThread {
+				val threadName = Thread.currentThread.getName
+				(protocol.writeMapThreadName _).expects(*, *, *, threadName).once
+				md.sendMethodEntry("method") //emit, and check again after 3 events
+
+				(protocol.writeMapThreadName _).expects(*, *, *, "Thread-A").once
+				Thread.currentThread.setName("Thread-A")
+				md.sendMethodEntry("method") //no emit
+				md.sendMethodEntry("method") //no emit
+				md.sendMethodEntry("method") //emit
+				md.sendMethodEntry("method") //no emit
+			}
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,80 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.trace.test
+
+import java.util.Arrays
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.trace.ClassFilter
+
+class ClassFilterSpec extends FunSpec with ShouldMatchers {
+
+	def filter(exclusions: String*)(inclusions: String*) =
+		new ClassFilter(Arrays.asList(exclusions: _*), Arrays.asList(inclusions: _*))
+
+	describe("ClassFilter") {
+
+		it("should exclude classes under an excluded prefix") {
+			val f = filter("^java/", "^com/foo/.*")()
+
+			f.shouldExclude("java/lang/Object") should be(true)
+			f.shouldExclude("com/foo/bar/Baz") should be(true)
+			f.shouldExclude("javax/swing/JFrame") should be(false)
+			f.shouldExclude("com/food/Apple") should be(false)
+		}
+
+		it("should let inclusions win over exclusions") {
+			val f = filter("^com/foo/")("^com/foo/keep/")
+
+			f.shouldExclude("com/foo/keep/Me") should be(false)
+			f.shouldExclude("com/foo/drop/Me") should be(true)
+		}
+
+		it("should tell apart classes in the same package when a rule names a class") {
+			val f = filter("^com/foo/Bar")()
+
+			// ask twice, so that a cached package decision would show up
+			for (i <- 1 to 2) {
+				f.shouldExclude("com/foo/Bar") should be(true)
+				f.shouldExclude("com/foo/BarBaz") should be(true)
+				f.shouldExclude("com/foo/Qux") should be(false)
+			}
+		}
+
+		it("should match rules that aren't plain prefixes as regexes") {
+			val f = filter("^org/.*/internal/")("^org/.*/internal/Api$")
+
+			for (i <- 1 to 2) {
+				f.shouldExclude("org/acme/internal/Impl") should be(true)
+				f.shouldExclude("org/acme/internal/Api") should be(false)
+				f.shouldExclude("org/acme/Public") should be(false)
+			}
+		}
+
+		it("should always exclude bytefrog's own classes") {
+			val f = filter()("^com/secdec/")
+
+			f.shouldExclude("com/secdec/bytefrog/agent/trace/Trace") should be(true)
+			f.shouldExclude("com/secdec/other/Thing") should be(false)
+		}
+	}
+}
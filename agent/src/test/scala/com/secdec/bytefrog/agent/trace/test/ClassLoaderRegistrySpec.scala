@@ -0,0 +1,68 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.agent.trace.test
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.agent.trace.ClassLoaderRegistry
+
+class ClassLoaderRegistrySpec extends FunSpec with ShouldMatchers {
+
+	/** A loader that only delegates to `parent`, counting how often it's asked for a class */
+	class CountingLoader(parent: ClassLoader) extends ClassLoader(parent) {
+		@volatile var loads = 0
+		override def loadClass(name: String, resolve: Boolean) = {
+			loads += 1
+			super.loadClass(name, resolve)
+		}
+	}
+
+	describe("ClassLoaderRegistry") {
+
+		it("should tell which loaders can see the Trace class") {
+			val registry = new ClassLoaderRegistry
+
+			registry.canSeeTrace(getClass.getClassLoader) should be(true)
+			registry.canSeeTrace(new CountingLoader(null)) should be(false)
+		}
+
+		it("should only probe each loader once") {
+			val registry = new ClassLoaderRegistry
+			val loader = new CountingLoader(getClass.getClassLoader)
+
+			for (i <- 1 to 5) registry.canSeeTrace(loader) should be(true)
+			loader.loads should equal(1)
+		}
+
+		it("should let go of loaders that have been collected") {
+			val registry = new ClassLoaderRegistry
+			registry.canSeeTrace(new CountingLoader(null))
+
+			val deadline = System.currentTimeMillis + 5000
+			while (registry.size > 0 && System.currentTimeMillis < deadline) {
+				System.gc
+				Thread.sleep(10)
+			}
+
+			registry.size should equal(0)
+		}
+	}
+}
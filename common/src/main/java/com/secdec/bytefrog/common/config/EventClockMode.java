@@ -0,0 +1,37 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.config;
+
+/**
+ * The clock that an agent uses to timestamp trace events.
+ * <ul>
+ * <li><code>Millis</code>: milliseconds since the trace started, read from
+ * the wall clock for every event</li>
+ * <li><code>Micros</code>: microseconds since the trace started, read from
+ * <code>System.nanoTime</code> for every event</li>
+ * <li><code>CoarseMicros</code>: microseconds since the trace started, as
+ * published periodically by a clock thread, so that recording an event
+ * doesn't have to read a clock at all</li>
+ * </ul>
+ */
+public enum EventClockMode
+{
+	Millis, Micros, CoarseMicros
+}
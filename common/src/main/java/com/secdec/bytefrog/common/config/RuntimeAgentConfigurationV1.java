@@ -20,6 +20,7 @@
 package com.secdec.bytefrog.common.config;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.secdec.bytefrog.common.util.StringUtil;
@@ -33,12 +34,34 @@ public class RuntimeAgentConfigurationV1 implements Serializable
 
 	private final byte runId;
 	private final int heartbeatInterval;
-	private final List<String> exclusions;
-	private final List<String> inclusions;
+	private List<String> exclusions;
+	private List<String> inclusions;
 	private final int bufferMemoryBudget;
 	private final int queueRetryCount;
 	private final int numDataSenders;
 
+	private boolean threadLocalBuffering = false;
+	private int threadBufferFlushInterval = 50;
+	private boolean ringBufferTransport = false;
+	private boolean directBuffers = false;
+	private boolean perThreadSequencing = false;
+	private EventClockMode eventClock = EventClockMode.Millis;
+	private int coarseClockResolution = 1000;
+	private int threadNameCheckInterval = 1000;
+	private List<SamplingRule> samplingRules = new ArrayList<SamplingRule>();
+	private int hotMethodThreshold = 0;
+	private int hotMethodWindow = 1000;
+	private int trivialMethodSize = 0;
+	private boolean skipSyntheticMethods = false;
+	private boolean reportIgnoredClasses = true;
+	private boolean spanMode = false;
+	private int aggregationInterval = 0;
+	private int compressionLevel = 0;
+	private int sharedMemoryRingSize = 0;
+	private int spillFileLimit = 0;
+	private boolean lossyBackpressure = false;
+	private int maxBufferMemoryBudget = 0;
+
 	public RuntimeAgentConfigurationV1(byte runId, int heartbeatInterval, List<String> exclusions,
 			List<String> inclusions, int bufferMemoryBudget, int queueRetryCount, int numDataSenders)
 	{
@@ -63,6 +86,28 @@ public class RuntimeAgentConfigurationV1 implements Serializable
 		sb.append(", bufferMemoryBudget=").append(bufferMemoryBudget);
 		sb.append(", queueRetryCount=").append(queueRetryCount);
 		sb.append(", numDataSenders=").append(numDataSenders);
+		sb.append(", threadLocalBuffering=").append(threadLocalBuffering);
+		sb.append(", threadBufferFlushInterval=").append(threadBufferFlushInterval);
+		sb.append(", ringBufferTransport=").append(ringBufferTransport);
+		sb.append(", directBuffers=").append(directBuffers);
+		sb.append(", perThreadSequencing=").append(perThreadSequencing);
+		sb.append(", eventClock=").append(eventClock);
+		sb.append(", coarseClockResolution=").append(coarseClockResolution);
+		sb.append(", threadNameCheckInterval=").append(threadNameCheckInterval);
+		sb.append(", sampling=");
+		sb.append(StringUtil.mkString(samplingRules, "[", ", ", "]"));
+		sb.append(", hotMethodThreshold=").append(hotMethodThreshold);
+		sb.append(", hotMethodWindow=").append(hotMethodWindow);
+		sb.append(", trivialMethodSize=").append(trivialMethodSize);
+		sb.append(", skipSyntheticMethods=").append(skipSyntheticMethods);
+		sb.append(", reportIgnoredClasses=").append(reportIgnoredClasses);
+		sb.append(", spanMode=").append(spanMode);
+		sb.append(", aggregationInterval=").append(aggregationInterval);
+		sb.append(", compressionLevel=").append(compressionLevel);
+		sb.append(", sharedMemoryRingSize=").append(sharedMemoryRingSize);
+		sb.append(", spillFileLimit=").append(spillFileLimit);
+		sb.append(", lossyBackpressure=").append(lossyBackpressure);
+		sb.append(", maxBufferMemoryBudget=").append(maxBufferMemoryBudget);
 		sb.append(")");
 		return sb.toString();
 	}
@@ -82,11 +127,21 @@ public class RuntimeAgentConfigurationV1 implements Serializable
 		return exclusions;
 	}
 
+	public void setExclusions(List<String> exclusions)
+	{
+		this.exclusions = exclusions;
+	}
+
 	public List<String> getInclusions()
 	{
 		return inclusions;
 	}
 
+	public void setInclusions(List<String> inclusions)
+	{
+		this.inclusions = inclusions;
+	}
+
 	public int getBufferMemoryBudget()
 	{
 		return bufferMemoryBudget;
@@ -102,4 +157,310 @@ public class RuntimeAgentConfigurationV1 implements Serializable
 		return numDataSenders;
 	}
 
+	/**
+	 * @return whether the agent should stage events in per-thread buffers
+	 *         before handing them to the shared buffer pool
+	 */
+	public boolean isThreadLocalBuffering()
+	{
+		return threadLocalBuffering;
+	}
+
+	public void setThreadLocalBuffering(boolean threadLocalBuffering)
+	{
+		this.threadLocalBuffering = threadLocalBuffering;
+	}
+
+	/**
+	 * @return the longest time (in milliseconds) that events may sit in a
+	 *         per-thread buffer before they are sent along
+	 */
+	public int getThreadBufferFlushInterval()
+	{
+		return threadBufferFlushInterval;
+	}
+
+	public void setThreadBufferFlushInterval(int threadBufferFlushInterval)
+	{
+		this.threadBufferFlushInterval = threadBufferFlushInterval;
+	}
+
+	/**
+	 * @return whether the agent should hand buffers to its data senders
+	 *         through a lock-free ring, rather than through a BufferPool
+	 */
+	public boolean isRingBufferTransport()
+	{
+		return ringBufferTransport;
+	}
+
+	public void setRingBufferTransport(boolean ringBufferTransport)
+	{
+		this.ringBufferTransport = ringBufferTransport;
+	}
+
+	/**
+	 * @return whether the agent should keep its data buffers in direct
+	 *         (off-heap) memory, and write them to its data connections
+	 *         through socket channels
+	 */
+	public boolean isDirectBuffers()
+	{
+		return directBuffers;
+	}
+
+	public void setDirectBuffers(boolean directBuffers)
+	{
+		this.directBuffers = directBuffers;
+	}
+
+	/**
+	 * @return whether each thread should number its own events, rather than
+	 *         all threads sharing a single sequence counter
+	 */
+	public boolean isPerThreadSequencing()
+	{
+		return perThreadSequencing;
+	}
+
+	public void setPerThreadSequencing(boolean perThreadSequencing)
+	{
+		this.perThreadSequencing = perThreadSequencing;
+	}
+
+	/**
+	 * @return the clock that the agent should timestamp events with. This also
+	 *         decides the unit of the timestamps that HQ receives.
+	 */
+	public EventClockMode getEventClock()
+	{
+		return eventClock;
+	}
+
+	public void setEventClock(EventClockMode eventClock)
+	{
+		this.eventClock = eventClock;
+	}
+
+	/**
+	 * @return for the {@link EventClockMode#CoarseMicros} clock, the number of
+	 *         microseconds between updates of the published time
+	 */
+	public int getCoarseClockResolution()
+	{
+		return coarseClockResolution;
+	}
+
+	public void setCoarseClockResolution(int coarseClockResolution)
+	{
+		this.coarseClockResolution = coarseClockResolution;
+	}
+
+	/**
+	 * @return the number of events each thread sends between checks for a
+	 *         new thread name
+	 */
+	public int getThreadNameCheckInterval()
+	{
+		return threadNameCheckInterval;
+	}
+
+	public void setThreadNameCheckInterval(int threadNameCheckInterval)
+	{
+		this.threadNameCheckInterval = threadNameCheckInterval;
+	}
+
+	/**
+	 * @return the rules that decide which methods only get some of their calls
+	 *         traced. The first rule that matches a method applies.
+	 */
+	public List<SamplingRule> getSamplingRules()
+	{
+		return samplingRules;
+	}
+
+	public void setSamplingRules(List<SamplingRule> samplingRules)
+	{
+		this.samplingRules = samplingRules;
+	}
+
+	/**
+	 * @return the number of calls per second above which a method stops
+	 *         being traced, or 0 to trace methods no matter how hot they get
+	 */
+	public int getHotMethodThreshold()
+	{
+		return hotMethodThreshold;
+	}
+
+	public void setHotMethodThreshold(int hotMethodThreshold)
+	{
+		this.hotMethodThreshold = hotMethodThreshold;
+	}
+
+	/**
+	 * @return the length of time (in milliseconds) over which method calls
+	 *         are counted before being compared against the hot method
+	 *         threshold
+	 */
+	public int getHotMethodWindow()
+	{
+		return hotMethodWindow;
+	}
+
+	public void setHotMethodWindow(int hotMethodWindow)
+	{
+		this.hotMethodWindow = hotMethodWindow;
+	}
+
+	/**
+	 * @return the largest number of instructions that a straight-line method
+	 *         can have and still be left uninstrumented, or 0 to instrument
+	 *         methods regardless of size
+	 */
+	public int getTrivialMethodSize()
+	{
+		return trivialMethodSize;
+	}
+
+	public void setTrivialMethodSize(int trivialMethodSize)
+	{
+		this.trivialMethodSize = trivialMethodSize;
+	}
+
+	/**
+	 * @return whether compiler-generated (synthetic and bridge) methods are
+	 *         left uninstrumented
+	 */
+	public boolean isSkipSyntheticMethods()
+	{
+		return skipSyntheticMethods;
+	}
+
+	public void setSkipSyntheticMethods(boolean skipSyntheticMethods)
+	{
+		this.skipSyntheticMethods = skipSyntheticMethods;
+	}
+
+	/**
+	 * @return whether HQ gets told about classes that were left
+	 *         uninstrumented because of the trace's filters
+	 */
+	public boolean isReportIgnoredClasses()
+	{
+		return reportIgnoredClasses;
+	}
+
+	public void setReportIgnoredClasses(boolean reportIgnoredClasses)
+	{
+		this.reportIgnoredClasses = reportIgnoredClasses;
+	}
+
+	/**
+	 * @return whether each method call is sent as a single span (start time
+	 *         and duration) when it exits, instead of as an entry and an exit
+	 */
+	public boolean isSpanMode()
+	{
+		return spanMode;
+	}
+
+	public void setSpanMode(boolean spanMode)
+	{
+		this.spanMode = spanMode;
+	}
+
+	/**
+	 * @return the time (in milliseconds) between snapshots of per-method
+	 *         statistics, which are sent instead of individual events; or 0
+	 *         to send every event
+	 */
+	public int getAggregationInterval()
+	{
+		return aggregationInterval;
+	}
+
+	public void setAggregationInterval(int aggregationInterval)
+	{
+		this.aggregationInterval = aggregationInterval;
+	}
+
+	/**
+	 * @return the Deflater level (1 to 9) that data buffers are compressed
+	 *         with before they are sent, or 0 to send them as they are.
+	 *         Compression is only used with protocol version 2 and up.
+	 */
+	public int getCompressionLevel()
+	{
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(int compressionLevel)
+	{
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @return the size (in bytes) of the shared memory ring that each data
+	 *         sender writes into for HQ to map, or 0 to send data over the
+	 *         data sockets. Rings are only used with protocol version 2 and
+	 *         up, and only work when HQ runs on the same machine.
+	 */
+	public int getSharedMemoryRingSize()
+	{
+		return sharedMemoryRingSize;
+	}
+
+	public void setSharedMemoryRingSize(int sharedMemoryRingSize)
+	{
+		this.sharedMemoryRingSize = sharedMemoryRingSize;
+	}
+
+	/**
+	 * @return the most bytes of trace data that may be spilled to disk when
+	 *         data can't be sent as fast as it is traced, rather than having
+	 *         traced threads wait; or 0 to never spill
+	 */
+	public int getSpillFileLimit()
+	{
+		return spillFileLimit;
+	}
+
+	public void setSpillFileLimit(int spillFileLimit)
+	{
+		this.spillFileLimit = spillFileLimit;
+	}
+
+	/**
+	 * @return whether traced threads should drop their events, rather than
+	 *         wait, when no buffer is available. HQ is told how many events
+	 *         each thread dropped.
+	 */
+	public boolean isLossyBackpressure()
+	{
+		return lossyBackpressure;
+	}
+
+	public void setLossyBackpressure(boolean lossyBackpressure)
+	{
+		this.lossyBackpressure = lossyBackpressure;
+	}
+
+	/**
+	 * @return the most memory (in bytes) that the buffer pool may grow to when
+	 *         data can't be sent as fast as it is traced; the pool starts out
+	 *         at <code>bufferMemoryBudget</code>, and shrinks back once things
+	 *         calm down. Values no larger than the budget keep the pool at a
+	 *         fixed size. Not used with the ring buffer transport or direct
+	 *         buffers.
+	 */
+	public int getMaxBufferMemoryBudget()
+	{
+		return maxBufferMemoryBudget;
+	}
+
+	public void setMaxBufferMemoryBudget(int maxBufferMemoryBudget)
+	{
+		this.maxBufferMemoryBudget = maxBufferMemoryBudget;
+	}
 }
@@ -0,0 +1,69 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.config;
+
+import java.io.Serializable;
+
+/**
+ * Tells the agent to only trace some of the calls to a set of methods. The
+ * <code>pattern</code> is a regex that is matched against the start of a
+ * method's signature (e.g. <code>com/example/Foo.bar;1;()V</code>), so a
+ * pattern like <code>com/example/</code> covers a whole package.
+ * 
+ * Matching methods have one in every <code>interval</code> calls traced. If
+ * <code>random</code> is set, each call is traced with a probability of
+ * <code>1 / interval</code> instead.
+ */
+public class SamplingRule implements Serializable
+{
+	private static final long serialVersionUID = 3170262740873623127L;
+
+	private final String pattern;
+	private final int interval;
+	private final boolean random;
+
+	public SamplingRule(String pattern, int interval, boolean random)
+	{
+		this.pattern = pattern;
+		this.interval = interval;
+		this.random = random;
+	}
+
+	@Override
+	public String toString()
+	{
+		return pattern + (random ? " ~1/" : " 1/") + interval;
+	}
+
+	public String getPattern()
+	{
+		return pattern;
+	}
+
+	public int getInterval()
+	{
+		return interval;
+	}
+
+	public boolean isRandom()
+	{
+		return random;
+	}
+}
@@ -35,8 +35,10 @@ public class StaticAgentConfiguration
 	 * <code>host:port;key=value;key2=value2;...</code> or
 	 * <code>host:port;logfile</code> (provided for backward compatibility).
 	 * 
-	 * Recognized configuration keys are log (for the agent log file) and
-	 * connectTimeout (to control the timeout when attempting to connect to HQ).
+	 * Recognized configuration keys are log (for the agent log file),
+	 * connectTimeout (to control the timeout when attempting to connect to HQ),
+	 * and classCache (a directory for caching instrumented classes between
+	 * runs).
 	 * 
 	 * @param options
 	 * @return A new configuration instance on success. <code>null</code> on
@@ -91,13 +93,15 @@ public class StaticAgentConfiguration
 			return null;
 		}
 
-		return new StaticAgentConfiguration(hqHost, hqPort, logFilename, connectTimeout);
+		return new StaticAgentConfiguration(hqHost, hqPort, logFilename, connectTimeout,
+				props.getProperty("classCache"));
 	}
 
 	private final int hqPort;
 	private final String hqHost;
 	private final String logFilename;
 	private final int connectTimeout;
+	private final String classCacheDirectory;
 
 	public StaticAgentConfiguration(String hqHost, int hqPort)
 	{
@@ -111,11 +115,18 @@ public class StaticAgentConfiguration
 
 	public StaticAgentConfiguration(String hqHost, int hqPort, String logFilename,
 			int connectTimeout)
+	{
+		this(hqHost, hqPort, logFilename, connectTimeout, null);
+	}
+
+	public StaticAgentConfiguration(String hqHost, int hqPort, String logFilename,
+			int connectTimeout, String classCacheDirectory)
 	{
 		this.hqHost = hqHost;
 		this.hqPort = hqPort;
 		this.logFilename = logFilename;
 		this.connectTimeout = connectTimeout;
+		this.classCacheDirectory = classCacheDirectory;
 	}
 
 	public String toOptionString()
@@ -124,6 +135,8 @@ public class StaticAgentConfiguration
 		if (logFilename != null)
 			props.setProperty("log", logFilename);
 		props.setProperty("connectTimeout", String.valueOf(connectTimeout));
+		if (classCacheDirectory != null)
+			props.setProperty("classCache", classCacheDirectory);
 
 		StringBuilder sb = new StringBuilder();
 		sb.append(hqHost);
@@ -169,4 +182,13 @@ public class StaticAgentConfiguration
 	{
 		return connectTimeout;
 	}
+
+	/**
+	 * @return the directory to cache instrumented classes in, or
+	 *         <code>null</code> if classes shouldn't be cached
+	 */
+	public String getClassCacheDirectory()
+	{
+		return classCacheDirectory;
+	}
 }
@@ -0,0 +1,181 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.connect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream;
+
+/**
+ * Compresses the contents of data buffers into self-contained blocks, which
+ * can be read back with a {@link CompressedBlockInputStream}. Each block is
+ * written as
+ * 
+ * <pre>
+ * [4 bytes: uncompressed length][4 bytes: stored length][stored bytes]
+ * </pre>
+ * 
+ * where the stored bytes are zlib-compressed, unless compressing didn't make
+ * them any smaller; in that case they are stored as they are, and both lengths
+ * are the same.
+ * 
+ * A BlockCompressor is meant to be used by a single sender thread. It keeps
+ * running totals of what it did, which may be read from any thread.
+ */
+public class BlockCompressor
+{
+	/**
+	 * The number of bytes in front of the stored bytes of each block
+	 */
+	public static final int HeaderSize = 8;
+
+	private final Deflater deflater;
+	private final RawBytes raw = new RawBytes();
+	private byte[] block = new byte[1024];
+
+	// only written by the sender thread, so there's no need for anything
+	// stronger than volatile
+	private volatile long bytesIn = 0;
+	private volatile long bytesOut = 0;
+	private volatile long compressionTime = 0;
+
+	/**
+	 * @param level The Deflater compression level to use, from 1 (fastest) to
+	 *            9 (smallest)
+	 */
+	public BlockCompressor(int level)
+	{
+		deflater = new Deflater(level);
+	}
+
+	/**
+	 * Compresses the contents of <code>buffer</code> into a block, which is
+	 * left at the start of {@link #getBlock()}. The buffer itself is not
+	 * changed.
+	 * 
+	 * @return the length of the block, including its header
+	 */
+	public int compress(DataBufferOutputStream buffer) throws IOException
+	{
+		long start = System.nanoTime();
+
+		raw.reset();
+		buffer.writeTo(raw);
+		int rawLength = raw.size();
+
+		// there's no point in storing more than the raw bytes
+		int limit = HeaderSize + rawLength;
+		if (block.length < limit)
+			block = new byte[Math.max(limit, block.length * 2)];
+
+		deflater.reset();
+		deflater.setInput(raw.bytes(), 0, rawLength);
+		deflater.finish();
+
+		int length = HeaderSize;
+		while (!deflater.finished() && length < limit)
+			length += deflater.deflate(block, length, limit - length);
+
+		if (!deflater.finished() || length == limit)
+		{
+			System.arraycopy(raw.bytes(), 0, block, HeaderSize, rawLength);
+			length = limit;
+		}
+
+		writeInt(rawLength, 0);
+		writeInt(length - HeaderSize, 4);
+
+		bytesIn += rawLength;
+		bytesOut += length;
+		compressionTime += System.nanoTime() - start;
+		return length;
+	}
+
+	/**
+	 * @return the array that the last call to <code>compress</code> left its
+	 *         block in
+	 */
+	public byte[] getBlock()
+	{
+		return block;
+	}
+
+	/**
+	 * @return the total number of bytes that were handed to
+	 *         <code>compress</code>
+	 */
+	public long getBytesIn()
+	{
+		return bytesIn;
+	}
+
+	/**
+	 * @return the total number of bytes in the blocks that came out of
+	 *         <code>compress</code>, headers included
+	 */
+	public long getBytesOut()
+	{
+		return bytesOut;
+	}
+
+	/**
+	 * @return the total time (in nanoseconds) spent in <code>compress</code>
+	 */
+	public long getCompressionTime()
+	{
+		return compressionTime;
+	}
+
+	/**
+	 * Releases the native resources held by the compressor. It can't be used
+	 * after this.
+	 */
+	public void end()
+	{
+		deflater.end();
+	}
+
+	private void writeInt(int value, int offset)
+	{
+		block[offset] = (byte) (value >>> 24);
+		block[offset + 1] = (byte) (value >>> 16);
+		block[offset + 2] = (byte) (value >>> 8);
+		block[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * A ByteArrayOutputStream that lets us at its array, so that buffer
+	 * contents only get copied once on the way to the Deflater.
+	 */
+	private static class RawBytes extends ByteArrayOutputStream
+	{
+		public RawBytes()
+		{
+			super(1024);
+		}
+
+		public byte[] bytes()
+		{
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.connect;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An InputStream that reads the blocks written by a {@link BlockCompressor}
+ * from an underlying stream, and gives back their uncompressed contents.
+ */
+public class CompressedBlockInputStream extends InputStream
+{
+	private final DataInputStream in;
+	private final Inflater inflater = new Inflater();
+
+	private byte[] stored = new byte[1024];
+	private byte[] block = new byte[1024];
+	private int position = 0;
+	private int limit = 0;
+
+	public CompressedBlockInputStream(InputStream in)
+	{
+		this.in = new DataInputStream(in);
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		while (position == limit)
+			if (!nextBlock())
+				return -1;
+
+		return block[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+
+		while (position == limit)
+			if (!nextBlock())
+				return -1;
+
+		int n = Math.min(len, limit - position);
+		System.arraycopy(block, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return limit - position;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+		inflater.end();
+	}
+
+	/**
+	 * Reads the next block into <code>block</code>.
+	 * 
+	 * @return <code>false</code> if the underlying stream ended cleanly
+	 *         before the block started
+	 */
+	private boolean nextBlock() throws IOException
+	{
+		int rawLength;
+		try
+		{
+			rawLength = in.readInt();
+		}
+		catch (EOFException e)
+		{
+			return false;
+		}
+		int storedLength = in.readInt();
+
+		if (rawLength < 0 || storedLength < 0 || storedLength > rawLength)
+			throw new IOException("Corrupt compressed block header");
+
+		if (block.length < rawLength)
+			block = new byte[Math.max(rawLength, block.length * 2)];
+
+		if (storedLength == rawLength)
+			in.readFully(block, 0, rawLength);
+		else
+		{
+			if (stored.length < storedLength)
+				stored = new byte[Math.max(storedLength, stored.length * 2)];
+			in.readFully(stored, 0, storedLength);
+			inflate(storedLength, rawLength);
+		}
+
+		position = 0;
+		limit = rawLength;
+		return true;
+	}
+
+	private void inflate(int storedLength, int rawLength) throws IOException
+	{
+		inflater.reset();
+		inflater.setInput(stored, 0, storedLength);
+
+		try
+		{
+			int length = 0;
+			while (length < rawLength)
+			{
+				int n = inflater.inflate(block, length, rawLength - length);
+				if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length += n;
+			}
+
+			if (length != rawLength)
+				throw new IOException("Compressed block was shorter than its header claims");
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Corrupt compressed block", e);
+		}
+	}
+}
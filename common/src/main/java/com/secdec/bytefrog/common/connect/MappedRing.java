@@ -0,0 +1,401 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.connect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer, single-consumer ring of bytes that lives in a
+ * memory-mapped file, so that an agent and HQ on the same machine can pass
+ * data along without going through a socket. The writing side uses this
+ * object as a WritableByteChannel; the reading side uses the InputStream
+ * from {@link #inputStream()}.
+ * 
+ * The file starts with a header that holds the capacity, a "closed" flag for
+ * each side, and the read and write positions (each on its own cache line),
+ * followed by the data area. Positions only ever grow; the offset of a
+ * position in the data area is the position modulo the capacity. Each side
+ * only writes its own position and flag, and reads the other side's.
+ * 
+ * A mapping doesn't order accesses between processes by itself, so every
+ * position update and every look at the other side's position goes through
+ * {@link #fence()}, a volatile store and load that HotSpot turns into a full
+ * memory barrier. That keeps the data in the ring from being seen before the
+ * position that covers it.
+ */
+public class MappedRing implements WritableByteChannel
+{
+	private static final int Magic = 0x62667267;
+
+	private static final int MagicOffset = 0;
+	private static final int CapacityOffset = 4;
+	private static final int WriterClosedOffset = 8;
+	private static final int ReaderClosedOffset = 12;
+	private static final int WritePositionOffset = 64;
+	private static final int ReadPositionOffset = 128;
+
+	/**
+	 * The size of the header that comes before the data area
+	 */
+	public static final int HeaderSize = 192;
+
+	/**
+	 * The name prefix and suffix of the temporary files that agents create
+	 * rings in. {@link #openTemporary(String)} only opens files named like this.
+	 */
+	public static final String FilePrefix = "bytefrog-";
+	public static final String FileSuffix = ".ring";
+
+	private static final int SpinCycles = 100;
+	private static final int YieldCycles = 200;
+	private static final int ShortParkCycles = 1000;
+	private static final long ShortParkNanos = 50 * 1000L;
+	private static final long LongParkNanos = 500 * 1000L;
+
+	private final File file;
+	private final MappedByteBuffer map;
+	private final ByteBuffer data;
+	private final int capacity;
+
+	// only touched by the side that owns each position
+	private long writePosition;
+	private long readPosition;
+
+	// may be set from other threads, to stop one that's waiting
+	private volatile boolean writerClosed = false;
+	private volatile boolean readerClosed = false;
+
+	private volatile int fence;
+
+	/**
+	 * Creates a new ring in <code>file</code>, replacing whatever was in it.
+	 * @param capacity The number of data bytes that the ring can hold
+	 */
+	public static MappedRing create(File file, int capacity) throws IOException
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException("ring capacity must be positive");
+
+		MappedByteBuffer map = map(file, HeaderSize + capacity, true);
+		map.putInt(CapacityOffset, capacity);
+		map.putInt(WriterClosedOffset, 0);
+		map.putInt(ReaderClosedOffset, 0);
+		map.putLong(WritePositionOffset, 0);
+		map.putLong(ReadPositionOffset, 0);
+		map.putInt(MagicOffset, Magic);
+		return new MappedRing(file, map, capacity);
+	}
+
+	/**
+	 * Opens a ring that was created (by another process) with
+	 * {@link #create(File, int)}.
+	 */
+	public static MappedRing open(File file) throws IOException
+	{
+		long length = file.length();
+		if (length < HeaderSize)
+			throw new IOException("not a ring file: " + file);
+
+		MappedByteBuffer map = map(file, length, false);
+		int capacity = map.getInt(CapacityOffset);
+		if (map.getInt(MagicOffset) != Magic || capacity <= 0 || capacity > length - HeaderSize)
+			throw new IOException("not a ring file: " + file);
+
+		return new MappedRing(file, map, capacity);
+	}
+
+	/**
+	 * Opens a ring at a path that another process sent over, as long as it's a
+	 * file that an agent would have created the ring in: one directly in the
+	 * temp directory, named with {@link #FilePrefix} and {@link #FileSuffix}.
+	 * Any other path is refused, so that a client can't get an arbitrary file
+	 * mapped and written to.
+	 */
+	public static MappedRing openTemporary(String path) throws IOException
+	{
+		File file = new File(path).getCanonicalFile();
+		File tempDir = new File(System.getProperty("java.io.tmpdir")).getCanonicalFile();
+		String name = file.getName();
+		if (!tempDir.equals(file.getParentFile()) || !name.startsWith(FilePrefix)
+				|| !name.endsWith(FileSuffix))
+			throw new IOException("refusing to map " + path + ", which isn't a "
+					+ FilePrefix + "*" + FileSuffix + " file in " + tempDir);
+
+		return open(file);
+	}
+
+	private static MappedByteBuffer map(File file, long length, boolean create)
+			throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			if (create)
+				raf.setLength(length);
+
+			// the mapping stays valid after the file is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private MappedRing(File file, MappedByteBuffer map, int capacity)
+	{
+		this.file = file;
+		this.map = map;
+		this.capacity = capacity;
+
+		map.position(HeaderSize);
+		map.limit(HeaderSize + capacity);
+		data = map.slice();
+
+		writePosition = map.getLong(WritePositionOffset);
+		readPosition = map.getLong(ReadPositionOffset);
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Copies all of <code>src</code> into the ring, waiting for the reader to
+	 * make room as needed.
+	 * 
+	 * @return the number of bytes written
+	 * @throws IOException if the reader closes its side while we're waiting,
+	 *             or if the thread is interrupted
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException
+	{
+		if (writerClosed)
+			throw new IOException("ring is closed");
+
+		int written = 0;
+		int tryCount = 0;
+		while (src.hasRemaining())
+		{
+			int free = capacity - (int) (writePosition - loadPosition(ReadPositionOffset));
+			if (free == 0)
+			{
+				if (map.getInt(ReaderClosedOffset) != 0)
+					throw new IOException("the reading side of the ring has been closed");
+				waitCycle(tryCount++);
+				continue;
+			}
+			tryCount = 0;
+
+			int offset = (int) (writePosition % capacity);
+			int length = Math.min(Math.min(free, src.remaining()), capacity - offset);
+
+			ByteBuffer chunk = src.duplicate();
+			chunk.limit(chunk.position() + length);
+			ByteBuffer target = data.duplicate();
+			target.position(offset);
+			target.put(chunk);
+			src.position(src.position() + length);
+
+			writePosition += length;
+			storePosition(WritePositionOffset, writePosition);
+			written += length;
+		}
+		return written;
+	}
+
+	/**
+	 * Reads up to <code>len</code> bytes from the ring, waiting until at least
+	 * one is available.
+	 * 
+	 * @return the number of bytes read, or -1 if the writer has closed the
+	 *         ring and everything in it has been read, or if the reading side
+	 *         has been closed
+	 * @throws InterruptedIOException if the thread is interrupted while
+	 *             waiting
+	 */
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+
+		int tryCount = 0;
+		while (true)
+		{
+			if (readerClosed)
+				return -1;
+
+			// check the flag before the position, so that nothing written
+			// before the close can be missed
+			boolean closed = map.getInt(WriterClosedOffset) != 0;
+			int available = (int) (loadPosition(WritePositionOffset) - readPosition);
+			if (available > 0)
+			{
+				int offset = (int) (readPosition % capacity);
+				int length = Math.min(Math.min(available, len), capacity - offset);
+
+				ByteBuffer source = data.duplicate();
+				source.position(offset);
+				source.get(b, off, length);
+
+				readPosition += length;
+				storePosition(ReadPositionOffset, readPosition);
+				return length;
+			}
+			else if (closed)
+				return -1;
+
+			waitCycle(tryCount++);
+		}
+	}
+
+	/**
+	 * Closes the writing side of the ring. The reader gets to read whatever is
+	 * left in the ring before it sees the end of the stream.
+	 */
+	@Override
+	public void close()
+	{
+		if (!writerClosed)
+		{
+			writerClosed = true;
+			fence();
+			map.putInt(WriterClosedOffset, 1);
+			fence();
+		}
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return !writerClosed;
+	}
+
+	/**
+	 * Closes the reading side of the ring. Anything left in it is dropped,
+	 * and a writer that is waiting for room will fail.
+	 */
+	public void closeReader()
+	{
+		if (!readerClosed)
+		{
+			readerClosed = true;
+			fence();
+			map.putInt(ReaderClosedOffset, 1);
+			fence();
+		}
+	}
+
+	/**
+	 * @return an InputStream that reads from this ring. Closing the stream
+	 *         closes the reading side of the ring.
+	 */
+	public InputStream inputStream()
+	{
+		return new InputStream()
+		{
+			private final byte[] single = new byte[1];
+
+			@Override
+			public int read() throws IOException
+			{
+				int n = MappedRing.this.read(single, 0, 1);
+				return n < 0 ? -1 : single[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				return MappedRing.this.read(b, off, len);
+			}
+
+			@Override
+			public int available()
+			{
+				if (readerClosed)
+					return 0;
+				return (int) (loadPosition(WritePositionOffset) - readPosition);
+			}
+
+			@Override
+			public void close()
+			{
+				closeReader();
+			}
+		};
+	}
+
+	private long loadPosition(int offset)
+	{
+		long position = map.getLong(offset);
+		fence();
+		return position;
+	}
+
+	private void storePosition(int offset, long position)
+	{
+		fence();
+		map.putLong(offset, position);
+		fence();
+	}
+
+	private void fence()
+	{
+		// HotSpot follows every volatile store with a full barrier
+		fence++;
+	}
+
+	/**
+	 * Internal helper to handle spinning/parking while waiting for the other
+	 * side of the ring.
+	 * @param cycleCount the current count of cycles we've been waiting
+	 */
+	private void waitCycle(int cycleCount) throws InterruptedIOException
+	{
+		// parking doesn't throw, so check for interruption ourselves
+		if (Thread.interrupted())
+			throw new InterruptedIOException();
+
+		if (cycleCount < SpinCycles)
+			return;
+		else if (cycleCount < YieldCycles)
+			Thread.yield();
+		else if (cycleCount < ShortParkCycles)
+			LockSupport.parkNanos(ShortParkNanos);
+		else
+			LockSupport.parkNanos(LongParkNanos);
+	}
+}
@@ -45,15 +45,32 @@ public class MessageConstantsV1
 	public static final byte MsgMapThreadName = 10;
 	public static final byte MsgMapMethodSignature = 11;
 	public static final byte MsgMapException = 12;
+	public static final byte MsgMapClassMethods = 13;
+	public static final byte MsgMapMethodSampling = 14;
+	public static final byte MsgFilterUpdate = 15;
 	public static final byte MsgMethodEntry = 20;
 	public static final byte MsgMethodExit = 21;
 	public static final byte MsgException = 22;
 	public static final byte MsgExceptionBubble = 23;
+	public static final byte MsgMethodSpan = 24;
+	public static final byte MsgMethodStats = 25;
+	public static final byte MsgEventGap = 27;
 	public static final byte MsgDataHello = 30;
 	public static final byte MsgDataHelloReply = 31;
 	public static final byte MsgClassTransformed = 40;
 	public static final byte MsgClassIgnored = 41;
 	public static final byte MsgClassTransformFailed = 42;
+	public static final byte MsgMethodDemoted = 43;
+	public static final byte MsgRetransformProgress = 44;
+	public static final byte MsgClassReports = 45;
 	public static final byte MsgMarker = 50;
 	public static final byte MsgError = 99;
+
+	/**
+	 * Flag that is OR'd into the type id of a message that carries a relative
+	 * timestamp (or a data break position), when that value doesn't fit in 4
+	 * bytes and is written as 8 bytes instead. A wide method span carries both
+	 * its start time and its duration as 8 bytes.
+	 */
+	public static final byte MsgWideFlag = (byte) 0x80;
 }
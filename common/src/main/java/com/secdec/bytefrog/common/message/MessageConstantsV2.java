@@ -0,0 +1,115 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.message;
+
+/**
+ * Defines the byte constants that message protocol version 2 adds to the ones
+ * in {@link MessageConstantsV1}.
+ */
+public class MessageConstantsV2
+{
+	private MessageConstantsV2()
+	{
+		// This class is not meant to be instantiated
+	}
+
+	/**
+	 * Starts a frame: a run of events that are each encoded relative to the
+	 * one before. The frame header carries the values that the first event is
+	 * encoded against.
+	 */
+	public static final byte MsgFrame = 26;
+
+	/**
+	 * Flag that is OR'd into the type id of an event in a frame, when the
+	 * event belongs to a different thread than the previous one. The new
+	 * thread id follows the type id. (Messages that aren't framed use
+	 * {@link MessageConstantsV1#MsgWideFlag} as usual.)
+	 */
+	public static final byte MsgThreadChangeFlag = (byte) 0x80;
+
+	/**
+	 * A data hello for a connection whose data goes through a shared memory
+	 * ring rather than the socket: [1 byte: runId][UTF: path of the ring file].
+	 * HQ answers with a DataHelloReply once it has mapped the ring, or with an
+	 * Error if it can't, in which case the agent falls back to a plain data
+	 * connection.
+	 */
+	public static final byte MsgDataHelloMapped = 32;
+
+	/**
+	 * A heartbeat that is followed by stats: [1 byte: count][8 bytes per stat],
+	 * indexed by the <code>HeartbeatStat</code> constants below. Stats are
+	 * running totals since the agent started (unless noted otherwise); indexes that a reader doesn't
+	 * know about should be skipped, and ones that are missing are unknown.
+	 */
+	public static final byte MsgHeartbeatStats = (byte) (MessageConstantsV1.MsgHeartbeat
+			| MessageConstantsV1.MsgWideFlag);
+
+	/**
+	 * The number of data bytes that went into compression
+	 */
+	public static final int HeartbeatStatBytesBeforeCompression = 0;
+
+	/**
+	 * The number of bytes that came out of compression, and were sent
+	 */
+	public static final int HeartbeatStatBytesAfterCompression = 1;
+
+	/**
+	 * The time (in nanoseconds) that sender threads spent compressing data
+	 */
+	public static final int HeartbeatStatCompressionTime = 2;
+
+	/**
+	 * The number of events that traced threads dropped rather than wait for a
+	 * buffer (see lossy backpressure)
+	 */
+	public static final int HeartbeatStatDroppedEvents = 3;
+
+	/**
+	 * The number of bytes currently allocated to the buffer pool, if it is
+	 * elastic (not a running total)
+	 */
+	public static final int HeartbeatStatBufferMemory = 4;
+
+	/**
+	 * The number of buffers currently in the buffer pool, if it is elastic (not
+	 * a running total)
+	 */
+	public static final int HeartbeatStatBufferCount = 5;
+
+	/**
+	 * The number of the buffer pool's buffers that currently hold data or are
+	 * being written or read, if it is elastic (not a running total)
+	 */
+	public static final int HeartbeatStatBuffersInUse = 6;
+
+	/**
+	 * The number of class transformation reports that the agent dropped
+	 * because too many were already waiting to be sent
+	 */
+	public static final int HeartbeatStatDroppedClassReports = 7;
+
+	/**
+	 * The number of heartbeat stats that this version knows about
+	 */
+	public static final int HeartbeatStatCount = 8;
+}
@@ -21,6 +21,7 @@ package com.secdec.bytefrog.common.message;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Defines the behavior of an object that can write messages to a
@@ -43,6 +44,9 @@ public interface MessageProtocol
 
 	public void writeDataHelloReply(DataOutputStream out) throws IOException;
 
+	public void writeFilterUpdate(DataOutputStream out, List<String> exclusions,
+			List<String> inclusions) throws IOException;
+
 	public void writeStart(DataOutputStream out) throws IOException;
 
 	public void writeStop(DataOutputStream out) throws IOException;
@@ -58,7 +62,16 @@ public interface MessageProtocol
 	public void writeHeartbeat(DataOutputStream out, AgentOperationMode mode, int sendBufferSize)
 			throws IOException;
 
-	public void writeDataBreak(DataOutputStream out, int sequenceId) throws IOException;
+	/**
+	 * Writes a heartbeat that also carries a set of running totals from the
+	 * agent, indexed by the <code>HeartbeatStat</code> constants in
+	 * {@link MessageConstantsV2}. Protocol versions that can't carry them
+	 * write a plain heartbeat instead.
+	 */
+	public void writeHeartbeat(DataOutputStream out, AgentOperationMode mode, int sendBufferSize,
+			long[] stats) throws IOException;
+
+	public void writeDataBreak(DataOutputStream out, long sequenceId) throws IOException;
 
 	public void writeClassTransformed(DataOutputStream out, String className) throws IOException;
 
@@ -67,7 +80,21 @@ public interface MessageProtocol
 
 	public void writeClassIgnored(DataOutputStream out, String className) throws IOException;
 
-	public void writeMapThreadName(DataOutputStream out, int threadId, int relTime,
+	/**
+	 * Writes a batch of class transformation reports. Each report's type is
+	 * one of the ClassTransformed, ClassIgnored, or ClassTransformFailed
+	 * message type ids.
+	 */
+	public void writeClassReports(DataOutputStream out, byte[] reportTypes, String[] classNames,
+			int count) throws IOException;
+
+	public void writeMethodDemoted(DataOutputStream out, int sigId, String signature,
+			int eventRate, long relTime) throws IOException;
+
+	public void writeRetransformProgress(DataOutputStream out, int classesDone, int classesTotal)
+			throws IOException;
+
+	public void writeMapThreadName(DataOutputStream out, int threadId, long relTime,
 			String threadName) throws IOException;
 
 	public void writeMapMethodSignature(DataOutputStream out, int sigId, String signature)
@@ -76,18 +103,50 @@ public interface MessageProtocol
 	public void writeMapException(DataOutputStream out, int excId, String exception)
 			throws IOException;
 
-	public void writeMethodEntry(DataOutputStream out, int relTime, int seq, int sigId, int threadId)
+	public void writeMapClassMethods(DataOutputStream out, String className, int[] sigIds,
+			String[] signatures) throws IOException;
+
+	public void writeMapMethodSampling(DataOutputStream out, int sigId, int interval)
 			throws IOException;
 
-	public void writeMethodExit(DataOutputStream out, int relTime, int seq, int sigId, int lineNum,
+	public void writeMethodEntry(DataOutputStream out, long relTime, int seq, int sigId, int threadId)
+			throws IOException;
+
+	public void writeMethodExit(DataOutputStream out, long relTime, int seq, int sigId, int lineNum,
 			int threadId) throws IOException;
 
-	public void writeException(DataOutputStream out, int relTime, int seq, int sigId, int excId,
+	public void writeException(DataOutputStream out, long relTime, int seq, int sigId, int excId,
 			int lineNum, int threadId) throws IOException;
 
-	public void writeExceptionBubble(DataOutputStream out, int relTime, int seq, int sigId,
+	public void writeExceptionBubble(DataOutputStream out, long relTime, int seq, int sigId,
 			int excId, int threadId) throws IOException;
 
-	public void writeMarker(DataOutputStream out, String key, String value, int relTime, int seq)
+	/**
+	 * Writes a whole method call as one record, for span mode. The span's
+	 * <code>startTime</code> is used as its timestamp.
+	 */
+	public void writeMethodSpan(DataOutputStream out, long startTime, int seq, int sigId,
+			long duration, int depth, int lineNum, int threadId) throws IOException;
+
+	/**
+	 * Writes aggregated statistics for the first <code>count</code> methods in
+	 * the given arrays. Each histogram only has its non-empty buckets written,
+	 * after a bit mask that says which ones they are; a <code>null</code>
+	 * histogram is written as an empty one.
+	 */
+	public void writeMethodStats(DataOutputStream out, long relTime, int count, int[] sigIds,
+			int[] calls, long[] totalTimes, long[] selfTimes, int[][] histograms)
+			throws IOException;
+
+	/**
+	 * Writes a note that <code>count</code> of the given thread's events were
+	 * dropped (rather than waited on) since <code>fromSeq</code> was the next
+	 * sequence id. The gap takes a sequence id of its own, like any other
+	 * event; the dropped events never got one.
+	 */
+	public void writeEventGap(DataOutputStream out, long relTime, int seq, int fromSeq, int count,
+			int threadId) throws IOException;
+
+	public void writeMarker(DataOutputStream out, String key, String value, long relTime, int seq)
 			throws IOException;
 }
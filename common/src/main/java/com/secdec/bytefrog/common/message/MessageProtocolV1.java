@@ -21,6 +21,7 @@ package com.secdec.bytefrog.common.message;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.List;
 
 public class MessageProtocolV1 implements MessageProtocol
 {
@@ -60,6 +61,15 @@ public class MessageProtocolV1 implements MessageProtocol
 		out.write(configBytes);
 	}
 
+	@Override
+	public void writeFilterUpdate(DataOutputStream out, List<String> exclusions,
+			List<String> inclusions) throws IOException
+	{
+		out.writeByte(MessageConstantsV1.MsgFilterUpdate);
+		writeStringList(out, exclusions);
+		writeStringList(out, inclusions);
+	}
+
 	@Override
 	public void writeDataHelloReply(DataOutputStream out) throws IOException
 	{
@@ -107,6 +117,23 @@ public class MessageProtocolV1 implements MessageProtocol
 			throws IOException
 	{
 		out.writeByte(MessageConstantsV1.MsgHeartbeat);
+		writeOperationMode(out, mode);
+		out.writeShort(sendBufferSize);
+	}
+
+	/**
+	 * Version 1 has no room for heartbeat stats, so they are left out.
+	 */
+	@Override
+	public void writeHeartbeat(DataOutputStream out, AgentOperationMode mode, int sendBufferSize,
+			long[] stats) throws IOException
+	{
+		writeHeartbeat(out, mode, sendBufferSize);
+	}
+
+	protected void writeOperationMode(DataOutputStream out, AgentOperationMode mode)
+			throws IOException
+	{
 		switch (mode)
 		{
 		case Initializing:
@@ -128,14 +155,13 @@ public class MessageProtocolV1 implements MessageProtocol
 			throw new IllegalStateException(
 					"Incomplete match on AgentOperationMode. This should never happen");
 		}
-		out.writeShort(sendBufferSize);
 	}
 
 	@Override
-	public void writeDataBreak(DataOutputStream out, int sequenceId) throws IOException
+	public void writeDataBreak(DataOutputStream out, long sequenceId) throws IOException
 	{
-		out.writeByte(MessageConstantsV1.MsgDataBreak);
-		out.writeInt(sequenceId);
+		writeType(out, MessageConstantsV1.MsgDataBreak, sequenceId);
+		writeWidened(out, sequenceId);
 	}
 
 	@Override
@@ -161,12 +187,45 @@ public class MessageProtocolV1 implements MessageProtocol
 	}
 
 	@Override
-	public void writeMapThreadName(DataOutputStream out, int threadId, int relTime,
+	public void writeClassReports(DataOutputStream out, byte[] reportTypes, String[] classNames,
+			int count) throws IOException
+	{
+		out.writeByte(MessageConstantsV1.MsgClassReports);
+		out.writeInt(count);
+		for (int i = 0; i < count; i++)
+		{
+			out.writeByte(reportTypes[i]);
+			out.writeUTF(classNames[i]);
+		}
+	}
+
+	@Override
+	public void writeMethodDemoted(DataOutputStream out, int sigId, String signature,
+			int eventRate, long relTime) throws IOException
+	{
+		out.writeByte(MessageConstantsV1.MsgMethodDemoted);
+		out.writeInt(sigId);
+		out.writeUTF(signature);
+		out.writeInt(eventRate);
+		out.writeLong(relTime);
+	}
+
+	@Override
+	public void writeRetransformProgress(DataOutputStream out, int classesDone, int classesTotal)
+			throws IOException
+	{
+		out.writeByte(MessageConstantsV1.MsgRetransformProgress);
+		out.writeInt(classesDone);
+		out.writeInt(classesTotal);
+	}
+
+	@Override
+	public void writeMapThreadName(DataOutputStream out, int threadId, long relTime,
 			String threadName) throws IOException
 	{
-		out.writeByte(MessageConstantsV1.MsgMapThreadName);
+		writeType(out, MessageConstantsV1.MsgMapThreadName, relTime);
 		out.writeShort(threadId);
-		out.writeInt(relTime);
+		writeWidened(out, relTime);
 		out.writeUTF(threadName);
 	}
 
@@ -189,22 +248,45 @@ public class MessageProtocolV1 implements MessageProtocol
 	}
 
 	@Override
-	public void writeMethodEntry(DataOutputStream out, int relTime, int seq, int sigId, int threadId)
+	public void writeMapClassMethods(DataOutputStream out, String className, int[] sigIds,
+			String[] signatures) throws IOException
+	{
+		out.writeByte(MessageConstantsV1.MsgMapClassMethods);
+		out.writeUTF(className);
+		out.writeShort(sigIds.length);
+		for (int i = 0; i < sigIds.length; i++)
+		{
+			out.writeInt(sigIds[i]);
+			out.writeUTF(signatures[i]);
+		}
+	}
+
+	@Override
+	public void writeMapMethodSampling(DataOutputStream out, int sigId, int interval)
+			throws IOException
+	{
+		out.writeByte(MessageConstantsV1.MsgMapMethodSampling);
+		out.writeInt(sigId);
+		out.writeInt(interval);
+	}
+
+	@Override
+	public void writeMethodEntry(DataOutputStream out, long relTime, int seq, int sigId, int threadId)
 			throws IOException
 	{
-		out.writeByte(MessageConstantsV1.MsgMethodEntry);
-		out.writeInt(relTime);
+		writeType(out, MessageConstantsV1.MsgMethodEntry, relTime);
+		writeWidened(out, relTime);
 		out.writeInt(seq);
 		out.writeInt(sigId);
 		out.writeShort(threadId);
 	}
 
 	@Override
-	public void writeMethodExit(DataOutputStream out, int relTime, int seq, int sigId, int lineNum,
+	public void writeMethodExit(DataOutputStream out, long relTime, int seq, int sigId, int lineNum,
 			int threadId) throws IOException
 	{
-		out.writeByte(MessageConstantsV1.MsgMethodExit);
-		out.writeInt(relTime);
+		writeType(out, MessageConstantsV1.MsgMethodExit, relTime);
+		writeWidened(out, relTime);
 		out.writeInt(seq);
 		out.writeInt(sigId);
 		out.writeShort(lineNum);
@@ -212,11 +294,11 @@ public class MessageProtocolV1 implements MessageProtocol
 	}
 
 	@Override
-	public void writeException(DataOutputStream out, int relTime, int seq, int methodSigId,
+	public void writeException(DataOutputStream out, long relTime, int seq, int methodSigId,
 			int excId, int lineNum, int threadId) throws IOException
 	{
-		out.writeByte(MessageConstantsV1.MsgException);
-		out.writeInt(relTime);
+		writeType(out, MessageConstantsV1.MsgException, relTime);
+		writeWidened(out, relTime);
 		out.writeInt(seq);
 		out.writeInt(methodSigId);
 		out.writeInt(excId);
@@ -225,11 +307,11 @@ public class MessageProtocolV1 implements MessageProtocol
 	}
 
 	@Override
-	public void writeExceptionBubble(DataOutputStream out, int relTime, int seq, int sigId,
+	public void writeExceptionBubble(DataOutputStream out, long relTime, int seq, int sigId,
 			int excId, int threadId) throws IOException
 	{
-		out.writeByte(MessageConstantsV1.MsgExceptionBubble);
-		out.writeInt(relTime);
+		writeType(out, MessageConstantsV1.MsgExceptionBubble, relTime);
+		writeWidened(out, relTime);
 		out.writeInt(seq);
 		out.writeInt(sigId);
 		out.writeInt(excId);
@@ -237,13 +319,113 @@ public class MessageProtocolV1 implements MessageProtocol
 	}
 
 	@Override
-	public void writeMarker(DataOutputStream out, String key, String value, int relTime, int seq)
+	public void writeMethodSpan(DataOutputStream out, long startTime, int seq, int sigId,
+			long duration, int depth, int lineNum, int threadId) throws IOException
+	{
+		// a wide span carries both its start time and its duration as 8 bytes
+		boolean wide = isWide(startTime) || isWide(duration);
+		out.writeByte(wide ? MessageConstantsV1.MsgMethodSpan | MessageConstantsV1.MsgWideFlag
+				: MessageConstantsV1.MsgMethodSpan);
+		if (wide)
+			out.writeLong(startTime);
+		else
+			out.writeInt((int) startTime);
+		out.writeInt(seq);
+		out.writeInt(sigId);
+		if (wide)
+			out.writeLong(duration);
+		else
+			out.writeInt((int) duration);
+		out.writeShort(depth);
+		out.writeShort(lineNum);
+		out.writeShort(threadId);
+	}
+
+	@Override
+	public void writeMethodStats(DataOutputStream out, long relTime, int count, int[] sigIds,
+			int[] calls, long[] totalTimes, long[] selfTimes, int[][] histograms)
+			throws IOException
+	{
+		writeType(out, MessageConstantsV1.MsgMethodStats, relTime);
+		writeWidened(out, relTime);
+		out.writeShort(count);
+		for (int i = 0; i < count; i++)
+		{
+			out.writeInt(sigIds[i]);
+			out.writeInt(calls[i]);
+			out.writeLong(totalTimes[i]);
+			out.writeLong(selfTimes[i]);
+
+			int[] histogram = histograms[i];
+			int buckets = histogram != null ? histogram.length : 0;
+			int mask = 0;
+			for (int bucket = 0; bucket < buckets; bucket++)
+				if (histogram[bucket] != 0)
+					mask |= 1 << bucket;
+			out.writeInt(mask);
+			for (int bucket = 0; bucket < buckets; bucket++)
+				if (histogram[bucket] != 0)
+					out.writeInt(histogram[bucket]);
+		}
+	}
+
+	@Override
+	public void writeEventGap(DataOutputStream out, long relTime, int seq, int fromSeq, int count,
+			int threadId) throws IOException
+	{
+		writeType(out, MessageConstantsV1.MsgEventGap, relTime);
+		writeWidened(out, relTime);
+		out.writeInt(seq);
+		out.writeInt(fromSeq);
+		out.writeInt(count);
+		out.writeShort(threadId);
+	}
+
+	@Override
+	public void writeMarker(DataOutputStream out, String key, String value, long relTime, int seq)
 			throws IOException
 	{
-		out.writeByte(MessageConstantsV1.MsgMarker);
-		out.writeInt(relTime);
+		writeType(out, MessageConstantsV1.MsgMarker, relTime);
+		writeWidened(out, relTime);
 		out.writeInt(seq);
 		out.writeUTF(key);
 		out.writeUTF(value);
 	}
+
+	private static boolean isWide(long value)
+	{
+		return value != (int) value;
+	}
+
+	/**
+	 * Writes a message type id, flagged with
+	 * {@link MessageConstantsV1#MsgWideFlag} if <code>value</code> has to be
+	 * written wide.
+	 */
+	private static void writeType(DataOutputStream out, byte type, long value) throws IOException
+	{
+		out.writeByte(isWide(value) ? type | MessageConstantsV1.MsgWideFlag : type);
+	}
+
+	/**
+	 * Writes <code>value</code> as 4 bytes if it fits, or 8 bytes otherwise.
+	 */
+	private static void writeWidened(DataOutputStream out, long value) throws IOException
+	{
+		if (isWide(value))
+			out.writeLong(value);
+		else
+			out.writeInt((int) value);
+	}
+
+	/**
+	 * Writes a count, followed by each of the strings.
+	 */
+	private static void writeStringList(DataOutputStream out, List<String> strings)
+			throws IOException
+	{
+		out.writeInt(strings.size());
+		for (String s : strings)
+			out.writeUTF(s);
+	}
 }
@@ -0,0 +1,246 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.message;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream;
+
+/**
+ * Version 2 of the message protocol. Everything but the event messages is
+ * written the same way as in version 1.
+ * 
+ * Events are grouped into frames. A frame header carries a base timestamp,
+ * sequence and thread id, and each event in the frame is written as
+ * variable-length deltas against the event before it (see {@link VarInt}).
+ * The thread id is only written when it changes. A frame is kept for as long
+ * as events keep getting written, back to back, into the same
+ * {@link DataBufferOutputStream}; anything else (another message, a reset,
+ * or a copy from another buffer) makes the next event start a new frame, so
+ * that each frame can be decoded on its own. Events written to any other kind
+ * of stream each get a frame of their own.
+ * 
+ * Line numbers, call depths and thread ids are sent as unsigned 16-bit values,
+ * like in version 1.
+ * 
+ * Heartbeats may also carry a set of stats from the agent, and data
+ * connections may ask for their data to go through a shared memory ring.
+ */
+public class MessageProtocolV2 extends MessageProtocolV1
+{
+	@Override
+	public byte protocolVersion()
+	{
+		return 2;
+	}
+
+	/**
+	 * Writes a data hello that asks HQ to read this connection's data from the
+	 * shared memory ring in the file at <code>ringPath</code>.
+	 */
+	public void writeDataHelloMapped(DataOutputStream out, byte runId, String ringPath)
+			throws IOException
+	{
+		out.writeByte(MessageConstantsV2.MsgDataHelloMapped);
+		out.writeByte(runId);
+		out.writeUTF(ringPath);
+	}
+
+	@Override
+	public void writeHeartbeat(DataOutputStream out, AgentOperationMode mode, int sendBufferSize,
+			long[] stats) throws IOException
+	{
+		if (stats == null || stats.length == 0)
+		{
+			writeHeartbeat(out, mode, sendBufferSize);
+			return;
+		}
+
+		out.writeByte(MessageConstantsV2.MsgHeartbeatStats);
+		writeOperationMode(out, mode);
+		out.writeShort(sendBufferSize);
+		out.writeByte(stats.length);
+		for (long stat : stats)
+			out.writeLong(stat);
+	}
+
+	@Override
+	public void writeMethodEntry(DataOutputStream out, long relTime, int seq, int sigId, int threadId)
+			throws IOException
+	{
+		Frame frame = writeEventHeader(out, MessageConstantsV1.MsgMethodEntry, relTime, seq,
+				threadId);
+		writeMethodId(out, frame, sigId);
+		frame.end = out.size();
+	}
+
+	@Override
+	public void writeMethodExit(DataOutputStream out, long relTime, int seq, int sigId, int lineNum,
+			int threadId) throws IOException
+	{
+		Frame frame = writeEventHeader(out, MessageConstantsV1.MsgMethodExit, relTime, seq,
+				threadId);
+		writeMethodId(out, frame, sigId);
+		VarInt.writeUnsignedInt(out, lineNum & 0xFFFF);
+		frame.end = out.size();
+	}
+
+	@Override
+	public void writeException(DataOutputStream out, long relTime, int seq, int methodSigId,
+			int excId, int lineNum, int threadId) throws IOException
+	{
+		Frame frame = writeEventHeader(out, MessageConstantsV1.MsgException, relTime, seq,
+				threadId);
+		writeMethodId(out, frame, methodSigId);
+		VarInt.writeUnsignedInt(out, excId);
+		VarInt.writeUnsignedInt(out, lineNum & 0xFFFF);
+		frame.end = out.size();
+	}
+
+	@Override
+	public void writeExceptionBubble(DataOutputStream out, long relTime, int seq, int sigId,
+			int excId, int threadId) throws IOException
+	{
+		Frame frame = writeEventHeader(out, MessageConstantsV1.MsgExceptionBubble, relTime, seq,
+				threadId);
+		writeMethodId(out, frame, sigId);
+		VarInt.writeUnsignedInt(out, excId);
+		frame.end = out.size();
+	}
+
+	@Override
+	public void writeMethodSpan(DataOutputStream out, long startTime, int seq, int sigId,
+			long duration, int depth, int lineNum, int threadId) throws IOException
+	{
+		Frame frame = writeEventHeader(out, MessageConstantsV1.MsgMethodSpan, startTime, seq,
+				threadId);
+		writeMethodId(out, frame, sigId);
+		VarInt.writeUnsignedLong(out, duration);
+		VarInt.writeUnsignedInt(out, depth & 0xFFFF);
+		VarInt.writeUnsignedInt(out, lineNum & 0xFFFF);
+		frame.end = out.size();
+	}
+
+	@Override
+	public void writeMarker(DataOutputStream out, String key, String value, long relTime, int seq)
+			throws IOException
+	{
+		// markers don't belong to a thread, so they leave the frame's thread alone
+		Frame frame = currentFrame(out);
+		if (frame == null)
+			frame = startFrame(out, relTime, seq, 0);
+
+		out.writeByte(MessageConstantsV1.MsgMarker);
+		writeDeltas(out, frame, relTime, seq);
+		out.writeUTF(key);
+		out.writeUTF(value);
+		frame.end = out.size();
+	}
+
+	/**
+	 * Writes an event's type id, its thread id if that changed, and its
+	 * timestamp and sequence deltas, starting a new frame first if needed.
+	 */
+	private static Frame writeEventHeader(DataOutputStream out, byte type, long relTime, int seq,
+			int threadId) throws IOException
+	{
+		threadId &= 0xFFFF;
+
+		Frame frame = currentFrame(out);
+		if (frame == null)
+			frame = startFrame(out, relTime, seq, threadId);
+
+		if (threadId != frame.threadId)
+		{
+			out.writeByte(type | MessageConstantsV2.MsgThreadChangeFlag);
+			VarInt.writeUnsignedInt(out, threadId);
+			frame.threadId = threadId;
+		}
+		else
+			out.writeByte(type);
+
+		writeDeltas(out, frame, relTime, seq);
+		return frame;
+	}
+
+	private static void writeDeltas(DataOutputStream out, Frame frame, long relTime, int seq)
+			throws IOException
+	{
+		VarInt.writeSignedLong(out, relTime - frame.timestamp);
+		VarInt.writeSignedInt(out, seq - frame.sequence);
+		frame.timestamp = relTime;
+		frame.sequence = seq;
+	}
+
+	private static void writeMethodId(DataOutputStream out, Frame frame, int methodId)
+			throws IOException
+	{
+		// an exit usually follows the entry of the same method
+		VarInt.writeSignedInt(out, methodId - frame.methodId);
+		frame.methodId = methodId;
+	}
+
+	/**
+	 * @return the frame that the next event written to <code>out</code> can
+	 *         be added to, or <code>null</code> if it needs a new one
+	 */
+	private static Frame currentFrame(DataOutputStream out)
+	{
+		if (out instanceof DataBufferOutputStream)
+		{
+			Object state = ((DataBufferOutputStream) out).getProtocolState();
+			if (state instanceof Frame && ((Frame) state).end == out.size())
+				return (Frame) state;
+		}
+		return null;
+	}
+
+	private static Frame startFrame(DataOutputStream out, long relTime, int seq, int threadId)
+			throws IOException
+	{
+		Frame frame = new Frame();
+		frame.timestamp = relTime;
+		frame.sequence = seq;
+		frame.threadId = threadId;
+
+		out.writeByte(MessageConstantsV2.MsgFrame);
+		VarInt.writeUnsignedLong(out, relTime);
+		VarInt.writeUnsignedInt(out, seq);
+		VarInt.writeUnsignedInt(out, threadId);
+
+		if (out instanceof DataBufferOutputStream)
+			((DataBufferOutputStream) out).setProtocolState(frame);
+		return frame;
+	}
+
+	/**
+	 * The values that the next event in a frame is encoded against, and the
+	 * size its buffer had after the last event.
+	 */
+	private static class Frame
+	{
+		long timestamp;
+		int sequence;
+		int threadId;
+		int methodId;
+		int end = -1;
+	}
+}
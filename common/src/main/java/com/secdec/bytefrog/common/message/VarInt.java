@@ -0,0 +1,130 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.message;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes variable-length integers, as used by
+ * {@link MessageProtocolV2}. Each byte holds 7 bits of the value, least
+ * significant first, with the high bit set on every byte but the last.
+ * "Signed" values are zigzag encoded first, so that small negative numbers
+ * stay small.
+ */
+public final class VarInt
+{
+	private VarInt()
+	{
+	}
+
+	public static void writeUnsignedInt(DataOutput out, int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	public static void writeUnsignedLong(DataOutput out, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public static void writeSignedInt(DataOutput out, int value) throws IOException
+	{
+		writeUnsignedInt(out, (value << 1) ^ (value >> 31));
+	}
+
+	public static void writeSignedLong(DataOutput out, long value) throws IOException
+	{
+		writeUnsignedLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	public static int readUnsignedInt(DataInput in) throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable-length int");
+	}
+
+	public static long readUnsignedLong(DataInput in) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable-length long");
+	}
+
+	public static int readSignedInt(DataInput in) throws IOException
+	{
+		int value = readUnsignedInt(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public static long readSignedLong(DataInput in) throws IOException
+	{
+		long value = readUnsignedLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * @return the number of bytes that <code>value</code> takes when written
+	 *         unsigned
+	 */
+	public static int sizeOfUnsigned(long value)
+	{
+		int size = 1;
+		while ((value & ~0x7FL) != 0)
+		{
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes that <code>value</code> takes when written
+	 *         signed
+	 */
+	public static int sizeOfSigned(long value)
+	{
+		return sizeOfUnsigned((value << 1) ^ (value >> 63));
+	}
+}
@@ -35,7 +35,7 @@ import java.util.concurrent.Semaphore;
  * high availability, even for a large number of producer and consumer threads.
  * @author DylanH
  */
-public class BufferPool
+public class BufferPool implements BufferTransport
 {
 	private final Semaphore emptySem;
 	private final Semaphore partialSem;
@@ -76,6 +76,20 @@ public class BufferPool
 	 */
 	public BufferPool(int numBuffers, int bufferLengthHint)
 	{
+		this(allocateBuffers(numBuffers, bufferLengthHint), bufferLengthHint);
+	}
+
+	/**
+	 * Constructs a new BufferPool around the given buffers, e.g. the buffers
+	 * of a {@link DirectBufferArena}. The buffers should be empty, and should
+	 * each have room for <code>bufferLengthHint</code> bytes.
+	 * 
+	 * @param buffers The buffers that make up the pool
+	 * @param bufferLengthHint See {@link #BufferPool(int, int)}
+	 */
+	public BufferPool(DataBufferOutputStream[] buffers, int bufferLengthHint)
+	{
+		int numBuffers = buffers.length;
 		this.fullThreshold = (int) (bufferLengthHint * 0.9);
 		this.totalNumBuffers = numBuffers;
 
@@ -90,12 +104,20 @@ public class BufferPool
 		partialBuffers = new ConcurrentLinkedQueue<DataBufferOutputStream>();
 		fullBuffers = new ConcurrentLinkedQueue<DataBufferOutputStream>();
 
-		for (int i = 0; i < numBuffers; i++)
+		for (DataBufferOutputStream buffer : buffers)
 		{
-			emptyBuffers.offer(new DataBufferOutputStream(bufferLengthHint));
+			emptyBuffers.offer(buffer);
 		}
 	}
 
+	private static DataBufferOutputStream[] allocateBuffers(int numBuffers, int bufferLength)
+	{
+		DataBufferOutputStream[] buffers = new DataBufferOutputStream[numBuffers];
+		for (int i = 0; i < numBuffers; i++)
+			buffers[i] = new DataBufferOutputStream(bufferLength);
+		return buffers;
+	}
+
 	/**
 	 * Acquires a Buffer from the pool, for the purpose of adding new data. This
 	 * method will prioritize partially-filled buffers over empty buffers, and
@@ -132,12 +154,37 @@ public class BufferPool
 			{
 				return emptyBuffers.poll();
 			}
-			// if both of those failed, "wait" and try again
+			// if both of those failed, "wait" and try again. a writer that
+			// has to wait only counts as one miss, however long it waits
 			else
+			{
+				if (tryCount == 0)
+				{
+					DataBufferOutputStream extra = onWriteMiss();
+					if (extra != null)
+						return extra;
+				}
 				waitCycle(tryCount++);
+			}
 		}
 	}
 
+	/**
+	 * Acquires a partially filled buffer if one is available, or else an empty
+	 * one, without waiting.
+	 */
+	public DataBufferOutputStream tryAcquireForWriting()
+	{
+		if (writeDisabled)
+			return null;
+		else if (partialSem.tryAcquire())
+			return partialBuffers.poll();
+		else if (emptySem.tryAcquire())
+			return emptyBuffers.poll();
+		else
+			return onWriteMiss();
+	}
+
 	/**
 	 * Equivalent to {@link #acquireForReading(boolean)} with an argument of
 	 * <code>false</code>
@@ -201,6 +248,31 @@ public class BufferPool
 		}
 	}
 
+	/**
+	 * Acquires a "full" buffer if one is available, or else a partially
+	 * filled one, without waiting.
+	 */
+	public DataBufferOutputStream tryAcquireForReading()
+	{
+		if (fullSem.tryAcquire())
+			return fullBuffers.poll();
+		else if (partialSem.tryAcquire())
+			return partialBuffers.poll();
+		else
+			return null;
+	}
+
+	/**
+	 * Acquires a "full" buffer if one is available, without waiting.
+	 */
+	public DataBufferOutputStream tryAcquireFullForReading()
+	{
+		if (fullSem.tryAcquire())
+			return fullBuffers.poll();
+		else
+			return null;
+	}
+
 	/**
 	 * Internal helper to handle spinning/sleeping while waiting for a buffer.
 	 * Yields the current thread for 20 cycles (somewhere between 0 and 20 ms),
@@ -234,10 +306,13 @@ public class BufferPool
 		if (size == 0)
 		{
 			// size == 0 means the buffer was empty
-			emptyBuffers.offer(buffer);
-			emptySem.release();
+			if (!retire(buffer))
+			{
+				emptyBuffers.offer(buffer);
+				emptySem.release();
+			}
 		}
-		else if (size < fullThreshold)
+		else if (size < fullThresholdOf(buffer))
 		{
 			// the buffer is partially full
 			partialBuffers.offer(buffer);
@@ -277,10 +352,60 @@ public class BufferPool
 	 */
 	public boolean isEmpty()
 	{
-		return emptySem.availablePermits() == totalNumBuffers && partialSem.availablePermits() == 0
+		return emptySem.availablePermits() == numBuffers() && partialSem.availablePermits() == 0
 				&& fullSem.availablePermits() == 0;
 	}
 
+	/**
+	 * @return the number of empty buffers that are available for writing
+	 */
+	protected int numEmptyBuffers()
+	{
+		return emptySem.availablePermits();
+	}
+
+	/**
+	 * @return the number of buffers that belong to this pool
+	 */
+	protected int numBuffers()
+	{
+		return totalNumBuffers;
+	}
+
+	/**
+	 * Called whenever a writer finds no buffer available: once for each call
+	 * to {@link #tryAcquireForWriting()} that comes up empty, and once when a
+	 * call to {@link #acquireForWriting()} starts waiting. Subclasses may
+	 * return a new buffer for the writer to use, which becomes part of the
+	 * pool once it is released.
+	 * 
+	 * @return an extra buffer, or <code>null</code> to keep waiting
+	 */
+	protected DataBufferOutputStream onWriteMiss()
+	{
+		return null;
+	}
+
+	/**
+	 * Called when an empty buffer is released. Subclasses may take it out of
+	 * the pool for good.
+	 * 
+	 * @return <code>true</code> if the buffer was retired, and shouldn't be
+	 *         put back
+	 */
+	protected boolean retire(DataBufferOutputStream buffer)
+	{
+		return false;
+	}
+
+	/**
+	 * @return the size at which the given buffer counts as "full"
+	 */
+	protected int fullThresholdOf(DataBufferOutputStream buffer)
+	{
+		return fullThreshold;
+	}
+
 	/**
 	 * Enables or disables the returning of writeable buffers. When this is set
 	 * to true, acquireForWriting() will return null rather than a valid value.
@@ -0,0 +1,117 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue;
+
+/**
+ * Describes an object that hands {@link DataBufferOutputStream}s back and
+ * forth between the threads that write trace data and the threads that send
+ * it. Writers acquire a buffer, fill it, and release it; readers acquire a
+ * filled buffer, drain it, reset it, and release it.
+ */
+public interface BufferTransport
+{
+	/**
+	 * Acquires a buffer for the purpose of adding new data, blocking until one
+	 * is available.
+	 * 
+	 * @return A buffer that is ready to have new data written to it, or
+	 *         <code>null</code> if writes are disabled.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 *             for a buffer.
+	 */
+	DataBufferOutputStream acquireForWriting() throws InterruptedException;
+
+	/**
+	 * Acquires a buffer for the purpose of adding new data, if one is
+	 * available right now.
+	 * 
+	 * @return A buffer that is ready to have new data written to it, or
+	 *         <code>null</code> if there is none to be had without waiting, or
+	 *         if writes are disabled.
+	 */
+	DataBufferOutputStream tryAcquireForWriting();
+
+	/**
+	 * Acquires a buffer for the purpose of reading data from it, blocking until
+	 * one is available. Readers should call <code>reset()</code> on the buffer
+	 * before releasing it.
+	 * 
+	 * @return A buffer with data in it.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 *             for a buffer.
+	 */
+	DataBufferOutputStream acquireForReading() throws InterruptedException;
+
+	/**
+	 * Acquires a buffer for the purpose of reading data from it, if one is
+	 * ready right now. This is meant for readers that have already acquired a
+	 * buffer and want to take whatever else is waiting along with it.
+	 * 
+	 * @return A buffer with data in it, or <code>null</code> if there is none
+	 *         to be had without waiting.
+	 */
+	DataBufferOutputStream tryAcquireForReading();
+
+	/**
+	 * Like {@link #tryAcquireForReading()}, but only returns a buffer that its
+	 * writers are done with, not one that could still be filled up further.
+	 * Readers that are collecting a batch use this, so that partially filled
+	 * buffers are left alone until they have waited long enough to be worth
+	 * sending as they are.
+	 * 
+	 * @return A buffer with data in it, or <code>null</code> if there is none
+	 *         to be had without waiting.
+	 */
+	DataBufferOutputStream tryAcquireFullForReading();
+
+	/**
+	 * Returns a buffer that was acquired from this transport, by either a
+	 * reader or a writer.
+	 * 
+	 * @param buffer The buffer to return.
+	 */
+	void release(DataBufferOutputStream buffer);
+
+	/**
+	 * @return The number of buffers that currently have data waiting to be
+	 *         read.
+	 */
+	int numReadableBuffers();
+
+	/**
+	 * @return The number of buffers that are currently available for writing.
+	 */
+	int numWritableBuffers();
+
+	/**
+	 * @return <code>true</code> if every buffer is empty and has been
+	 *         released.
+	 */
+	boolean isEmpty();
+
+	/**
+	 * Enables or disables the returning of writeable buffers. When writing is
+	 * disabled, <code>acquireForWriting()</code> returns <code>null</code>,
+	 * including for any writers that are currently waiting.
+	 * 
+	 * @param writeDisabled whether or not writing is disabled
+	 */
+	void setWriteDisabled(boolean writeDisabled);
+}
@@ -23,6 +23,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * OutputStream decorator for ByteArrayOutputStream. It provides all of the
@@ -36,6 +38,9 @@ public class DataBufferOutputStream extends DataOutputStream
 
 	private final ByteArrayOutputStream underlying;
 
+	// see getProtocolState()
+	private Object protocolState;
+
 	/**
 	 * Initialize this DataBuffer with an underlying ByteArrayOutputStream.
 	 * 
@@ -49,7 +54,22 @@ public class DataBufferOutputStream extends DataOutputStream
 
 	public DataBufferOutputStream(int capacity)
 	{
-		this(new ByteArrayOutputStream(capacity));
+		this(new ExposedByteArrayOutputStream(capacity));
+	}
+
+	/**
+	 * For subclasses that keep their bytes somewhere other than a
+	 * ByteArrayOutputStream. Such subclasses must override
+	 * {@link #writeTo(OutputStream)}, {@link #writeTo(WritableByteChannel)},
+	 * {@link #reset()}, {@link #truncate(int)}, {@link #toByteArray()} and
+	 * {@link #contents()}.
+	 * 
+	 * @param sink The stream that written bytes will go to
+	 */
+	protected DataBufferOutputStream(OutputStream sink)
+	{
+		super(sink);
+		this.underlying = null;
 	}
 
 	/**
@@ -63,6 +83,33 @@ public class DataBufferOutputStream extends DataOutputStream
 		underlying.writeTo(out);
 	}
 
+	/**
+	 * Writes the entire contents of this buffer to the given channel.
+	 * 
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException
+	{
+		ByteBuffer contents = contents();
+		while (contents.hasRemaining())
+			channel.write(contents);
+	}
+
+	/**
+	 * Returns a read-only view of everything written so far, e.g. for a
+	 * gathering write. The view is only valid until the next write or reset.
+	 * Buffers that were created with a capacity (rather than around a
+	 * ByteArrayOutputStream) don't have to copy their contents for this.
+	 */
+	public ByteBuffer contents()
+	{
+		if (underlying instanceof ExposedByteArrayOutputStream)
+			return ((ExposedByteArrayOutputStream) underlying).contents();
+		else
+			return ByteBuffer.wrap(underlying.toByteArray()).asReadOnlyBuffer();
+	}
+
 	/**
 	 * Delegates to <code>underlying.reset()</code>
 	 */
@@ -70,10 +117,80 @@ public class DataBufferOutputStream extends DataOutputStream
 	{
 		underlying.reset();
 		written = 0;
+		protocolState = null;
+	}
+
+	/**
+	 * Throws away everything written after the first <code>size</code> bytes,
+	 * e.g. to take back a message that couldn't be written completely without
+	 * losing the ones before it. Any protocol state is cleared, since it may
+	 * describe the bytes that were thrown away.
+	 * 
+	 * @param size The number of bytes to keep; usually what {@link #size()}
+	 *            returned before the write
+	 */
+	public void truncate(int size)
+	{
+		if (size >= size())
+			return;
+
+		if (underlying instanceof ExposedByteArrayOutputStream)
+			((ExposedByteArrayOutputStream) underlying).truncate(size);
+		else
+		{
+			byte[] kept = underlying.toByteArray();
+			underlying.reset();
+			underlying.write(kept, 0, size);
+		}
+		written = size;
+		protocolState = null;
 	}
 
 	public byte[] toByteArray()
 	{
 		return underlying.toByteArray();
 	}
+
+	/**
+	 * Returns whatever a MessageProtocol last stored with
+	 * {@link #setProtocolState(Object)}. Protocols that encode messages
+	 * relative to the ones before them keep track of that here, since each
+	 * buffer is written by one thread at a time. The state is cleared when the
+	 * buffer is reset, but not when something else is written to it; a
+	 * protocol has to check for that itself (e.g. by remembering the buffer's
+	 * size).
+	 * 
+	 * @return the protocol's state, or <code>null</code>
+	 */
+	public Object getProtocolState()
+	{
+		return protocolState;
+	}
+
+	public void setProtocolState(Object protocolState)
+	{
+		this.protocolState = protocolState;
+	}
+
+	/**
+	 * A ByteArrayOutputStream that lets us at its array, so that it can be
+	 * wrapped rather than copied.
+	 */
+	private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream
+	{
+		public ExposedByteArrayOutputStream(int capacity)
+		{
+			super(capacity);
+		}
+
+		public synchronized ByteBuffer contents()
+		{
+			return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+		}
+
+		public synchronized void truncate(int size)
+		{
+			count = size;
+		}
+	}
 }
@@ -0,0 +1,68 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single block of direct (off-heap) memory, carved up into equally sized
+ * {@link DirectDataBufferOutputStream}s. Allocating the buffers for a
+ * {@link BufferTransport} from an arena keeps the data that is waiting to be
+ * sent out of the traced application's heap, so it never has to be scanned or
+ * copied by the garbage collector.
+ */
+public class DirectBufferArena
+{
+	private final ByteBuffer slab;
+	private final DataBufferOutputStream[] buffers;
+
+	/**
+	 * @param numBuffers The number of buffers to carve out of the arena
+	 * @param bufferLength The capacity of each buffer, in bytes
+	 */
+	public DirectBufferArena(int numBuffers, int bufferLength)
+	{
+		slab = ByteBuffer.allocateDirect(numBuffers * bufferLength);
+		buffers = new DataBufferOutputStream[numBuffers];
+
+		for (int i = 0; i < numBuffers; i++)
+		{
+			slab.limit((i + 1) * bufferLength).position(i * bufferLength);
+			buffers[i] = new DirectDataBufferOutputStream(slab);
+		}
+		slab.clear();
+	}
+
+	/**
+	 * @return The buffers in this arena. Every call returns the same buffers.
+	 */
+	public DataBufferOutputStream[] getBuffers()
+	{
+		return buffers.clone();
+	}
+
+	/**
+	 * @return The total number of bytes allocated for this arena
+	 */
+	public int getCapacity()
+	{
+		return slab.capacity();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A DataBufferOutputStream whose bytes live in a direct (off-heap)
+ * ByteBuffer, usually a slice of a {@link DirectBufferArena}. Its contents can
+ * be handed to a channel without being copied onto the heap first.
+ * 
+ * The buffer has a fixed capacity. If a write doesn't fit, the contents are
+ * moved to a larger, separately allocated direct buffer; the original buffer
+ * is taken back up the next time this stream is reset, so the overflow only
+ * lives as long as the data that caused it.
+ */
+public class DirectDataBufferOutputStream extends DataBufferOutputStream
+{
+	private final ByteBuffer home;
+	private ByteBuffer current;
+
+	/**
+	 * @param buffer The direct buffer to write into. Everything between its
+	 *            position and limit is used.
+	 */
+	public DirectDataBufferOutputStream(ByteBuffer buffer)
+	{
+		this(buffer.slice(), new Sink());
+	}
+
+	private DirectDataBufferOutputStream(ByteBuffer home, Sink sink)
+	{
+		super(sink);
+		this.home = home;
+		this.current = home;
+		sink.owner = this;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException
+	{
+		ByteBuffer contents = contents();
+		byte[] chunk = new byte[Math.min(contents.remaining(), 8192)];
+		while (contents.hasRemaining())
+		{
+			int n = Math.min(contents.remaining(), chunk.length);
+			contents.get(chunk, 0, n);
+			out.write(chunk, 0, n);
+		}
+	}
+
+	/**
+	 * Writes the contents of this buffer straight from direct memory.
+	 */
+	@Override
+	public void writeTo(WritableByteChannel channel) throws IOException
+	{
+		ByteBuffer contents = contents();
+		while (contents.hasRemaining())
+			channel.write(contents);
+	}
+
+	@Override
+	public void reset()
+	{
+		current = home;
+		current.clear();
+		written = 0;
+		setProtocolState(null);
+	}
+
+	@Override
+	public void truncate(int size)
+	{
+		if (size >= size())
+			return;
+
+		current.position(size);
+		written = size;
+		setProtocolState(null);
+	}
+
+	@Override
+	public byte[] toByteArray()
+	{
+		ByteBuffer contents = contents();
+		byte[] bytes = new byte[contents.remaining()];
+		contents.get(bytes);
+		return bytes;
+	}
+
+	@Override
+	public ByteBuffer contents()
+	{
+		ByteBuffer contents = current.asReadOnlyBuffer();
+		contents.flip();
+		return contents;
+	}
+
+	private ByteBuffer ensureRemaining(int needed)
+	{
+		if (current.remaining() < needed)
+		{
+			int size = Math.max(current.capacity() * 2, current.position() + needed);
+			ByteBuffer grown = ByteBuffer.allocateDirect(size);
+			current.flip();
+			grown.put(current);
+			current = grown;
+		}
+		return current;
+	}
+
+	/**
+	 * The stream that DataOutputStream writes through. It is created before
+	 * its owner (which has to pass it to the super constructor), so the owner
+	 * fills itself in afterwards.
+	 */
+	private static class Sink extends OutputStream
+	{
+		DirectDataBufferOutputStream owner;
+
+		@Override
+		public void write(int b)
+		{
+			owner.ensureRemaining(1).put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			owner.ensureRemaining(len).put(b, off, len);
+		}
+	}
+}
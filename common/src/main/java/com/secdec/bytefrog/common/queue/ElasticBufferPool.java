@@ -0,0 +1,203 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link BufferPool} that starts out with a fixed set of buffers, and grows
+ * past it (up to a memory limit) when writers keep finding no buffer
+ * available. Each extra buffer is twice the length of the one before it, up to
+ * <code>8 * bufferLength</code>, so that a long burst is taken in with few
+ * buffers. Once writers haven't had to wait for a while, extra buffers are
+ * retired as they come back empty, until only the initial set is left.
+ */
+public class ElasticBufferPool extends BufferPool
+{
+	/**
+	 * The number of misses (within <code>idleTime</code> of each other) after
+	 * which the pool grows. A writer that has to wait for a buffer counts as
+	 * one miss, no matter how long it waits.
+	 */
+	public static final int DefaultGrowThreshold = 20;
+
+	/**
+	 * The time (in milliseconds) without a miss after which the pool shrinks.
+	 */
+	public static final long DefaultIdleTime = 2000;
+
+	private final int initialBuffers;
+	private final int bufferLength;
+	private final int maxBufferLength;
+	private final int memoryLimit;
+	private final int growThreshold;
+	private final long idleTime;
+
+	private final Object sizeLock = new Object();
+	private volatile int numBuffers;
+	private volatile int allocatedBytes;
+	private int nextBufferLength;
+
+	private final AtomicInteger misses = new AtomicInteger();
+	private volatile long lastMiss = 0;
+
+	/**
+	 * @param numBuffers The number of buffers to start with, which the pool
+	 *            never shrinks below
+	 * @param bufferLength The length of each of the initial buffers
+	 * @param memoryLimit The most bytes that the pool's buffers may take up
+	 *            altogether
+	 */
+	public ElasticBufferPool(int numBuffers, int bufferLength, int memoryLimit)
+	{
+		this(numBuffers, bufferLength, memoryLimit, DefaultGrowThreshold, DefaultIdleTime);
+	}
+
+	/**
+	 * @param numBuffers
+	 * @param bufferLength
+	 * @param memoryLimit
+	 * @param growThreshold The number of times writers may find no buffer
+	 *            available before the pool grows
+	 * @param idleTime The time (in milliseconds) that writers have to go
+	 *            without waiting before the pool starts to shrink
+	 */
+	public ElasticBufferPool(int numBuffers, int bufferLength, int memoryLimit,
+			int growThreshold, long idleTime)
+	{
+		super(numBuffers, bufferLength);
+		this.initialBuffers = numBuffers;
+		this.bufferLength = bufferLength;
+		this.maxBufferLength = bufferLength * 8;
+		this.memoryLimit = memoryLimit;
+		this.growThreshold = Math.max(growThreshold, 1);
+		this.idleTime = idleTime;
+
+		this.numBuffers = numBuffers;
+		this.allocatedBytes = numBuffers * bufferLength;
+		this.nextBufferLength = bufferLength;
+	}
+
+	@Override
+	protected int numBuffers()
+	{
+		return numBuffers;
+	}
+
+	/**
+	 * @return the number of bytes allocated to the pool's buffers
+	 */
+	public int getAllocatedBytes()
+	{
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return the number of buffers that currently belong to the pool
+	 */
+	public int getBufferCount()
+	{
+		return numBuffers;
+	}
+
+	/**
+	 * @return the number of buffers that aren't sitting empty, i.e. that have
+	 *         data waiting or are being written or read
+	 */
+	public int getBuffersInUse()
+	{
+		return Math.max(numBuffers - numEmptyBuffers(), 0);
+	}
+
+	@Override
+	protected DataBufferOutputStream onWriteMiss()
+	{
+		long now = System.currentTimeMillis();
+		if (now - lastMiss > idleTime)
+			misses.set(0);
+		lastMiss = now;
+
+		if (misses.incrementAndGet() < growThreshold)
+			return null;
+
+		misses.set(0);
+		return grow();
+	}
+
+	@Override
+	protected boolean retire(DataBufferOutputStream buffer)
+	{
+		if (!(buffer instanceof ExtraBuffer)
+				|| System.currentTimeMillis() - lastMiss <= idleTime)
+			return false;
+
+		synchronized (sizeLock)
+		{
+			numBuffers--;
+			allocatedBytes -= ((ExtraBuffer) buffer).capacity;
+
+			// start over from small buffers the next time there's a burst
+			nextBufferLength = bufferLength;
+		}
+		return true;
+	}
+
+	@Override
+	protected int fullThresholdOf(DataBufferOutputStream buffer)
+	{
+		if (buffer instanceof ExtraBuffer)
+			return ((ExtraBuffer) buffer).fullThreshold;
+		else
+			return super.fullThresholdOf(buffer);
+	}
+
+	private DataBufferOutputStream grow()
+	{
+		synchronized (sizeLock)
+		{
+			int length = nextBufferLength;
+			if (allocatedBytes + length > memoryLimit)
+				length = bufferLength;
+			if (allocatedBytes + length > memoryLimit)
+				return null;
+
+			numBuffers++;
+			allocatedBytes += length;
+			nextBufferLength = Math.min(length * 2, maxBufferLength);
+			return new ExtraBuffer(length);
+		}
+	}
+
+	/**
+	 * A buffer that was added on top of the initial set, and may be retired.
+	 */
+	private static class ExtraBuffer extends DataBufferOutputStream
+	{
+		final int capacity;
+		final int fullThreshold;
+
+		public ExtraBuffer(int capacity)
+		{
+			super(capacity);
+			this.capacity = capacity;
+			this.fullThreshold = (int) (capacity * 0.9);
+		}
+	}
+}
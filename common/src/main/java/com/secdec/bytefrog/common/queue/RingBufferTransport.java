@@ -0,0 +1,420 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link BufferTransport} backed by a fixed, preallocated ring of buffers.
+ * Any number of writers and readers may use the ring concurrently without
+ * locks: each slot carries a sequence number, and writers and readers each
+ * advance their own cursor with a single compare-and-set.
+ * 
+ * A writer <em>claims</em> the slot at the write cursor once the slot has
+ * been freed by the reader from the previous lap, fills its buffer, and
+ * <em>commits</em> it by releasing it. A reader claims the slot at the read
+ * cursor once it has been committed, drains the buffer, and frees the slot by
+ * releasing it. Buffers are therefore read in the same order they were
+ * claimed.
+ * 
+ * Like a {@link BufferPool}, the ring doesn't send a buffer along until it is
+ * nearly full: a writer that releases a buffer below the fill threshold
+ * leaves its slot open, and the next writer gets the same buffer to add to.
+ * Readers that find the next slot held open take it as it is, but only once
+ * they've waited a while for it to fill (or right away, if they won't wait).
+ * 
+ * Threads that have to wait for a slot spin briefly, then yield, and then park
+ * for short periods, rather than sleeping for whole milliseconds.
+ */
+public class RingBufferTransport implements BufferTransport
+{
+	private static final int SpinCycles = 100;
+	private static final int YieldCycles = 200;
+	private static final int ShortParkCycles = 1000;
+	private static final long ShortParkNanos = 50 * 1000L;
+	private static final long LongParkNanos = 500 * 1000L;
+
+	// readers take a slot that's held open after this many wait cycles
+	// (somewhere around 40ms)
+	private static final int PartialWaitCycles = ShortParkCycles;
+
+	private static final int Idle = 0;
+	private static final int Writing = 1;
+	private static final int Open = 2;
+
+	private final int capacity;
+	private final int fullThreshold;
+	private final Slot[] slots;
+	private final ConcurrentLinkedQueue<Slot> openSlots = new ConcurrentLinkedQueue<Slot>();
+
+	// only written during construction, so it is safe to read concurrently
+	private final IdentityHashMap<DataBufferOutputStream, Slot> slotsByBuffer;
+
+	/**
+	 * For the slot at index <code>i</code>, a sequence equal to a position
+	 * <code>p</code> (where <code>p % capacity == i</code>) means the slot is
+	 * free for the writer claiming <code>p</code>; a sequence equal to
+	 * <code>p + 1</code> means the slot has been committed, and is ready for
+	 * the reader claiming <code>p</code>.
+	 */
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong writeCursor = new AtomicLong();
+	private final AtomicLong readCursor = new AtomicLong();
+	private final AtomicLong freedCount = new AtomicLong();
+
+	private volatile boolean writeDisabled = false;
+
+	/**
+	 * Constructs a new ring with the given number of preallocated buffers.
+	 * 
+	 * @param numBuffers The number of slots in the ring.
+	 * @param bufferLengthHint The number of bytes initially allocated to each
+	 *            buffer. Like {@link BufferPool}, this is not a hard limit;
+	 *            a buffer is considered full at 90% of it.
+	 */
+	public RingBufferTransport(int numBuffers, int bufferLengthHint)
+	{
+		this(allocateBuffers(numBuffers, bufferLengthHint), bufferLengthHint);
+	}
+
+	/**
+	 * Constructs a new ring around the given buffers, e.g. the buffers of a
+	 * {@link DirectBufferArena}. The buffers should be empty, and should each
+	 * have room for <code>bufferLengthHint</code> bytes.
+	 * 
+	 * @param buffers The buffers that make up the ring, one per slot.
+	 * @param bufferLengthHint See {@link #RingBufferTransport(int, int)}
+	 */
+	public RingBufferTransport(DataBufferOutputStream[] buffers, int bufferLengthHint)
+	{
+		int numBuffers = buffers.length;
+		if (numBuffers < 1)
+			throw new IllegalArgumentException("A ring needs at least one buffer");
+
+		this.capacity = numBuffers;
+		this.fullThreshold = (int) (bufferLengthHint * 0.9);
+		this.slots = new Slot[numBuffers];
+		this.slotsByBuffer = new IdentityHashMap<DataBufferOutputStream, Slot>(numBuffers);
+		this.sequences = new AtomicLongArray(numBuffers);
+
+		for (int i = 0; i < numBuffers; i++)
+		{
+			slots[i] = new Slot(i, buffers[i]);
+			slotsByBuffer.put(buffers[i], slots[i]);
+			sequences.set(i, i);
+		}
+	}
+
+	private static DataBufferOutputStream[] allocateBuffers(int numBuffers, int bufferLength)
+	{
+		DataBufferOutputStream[] buffers = new DataBufferOutputStream[Math.max(numBuffers, 0)];
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i] = new DataBufferOutputStream(bufferLength);
+		return buffers;
+	}
+
+	@Override
+	public DataBufferOutputStream acquireForWriting() throws InterruptedException
+	{
+		int tryCount = 0;
+
+		while (true)
+		{
+			if (writeDisabled)
+				return null;
+
+			// keep adding to a buffer that's been left open, if there is one
+			Slot open = takeOpenSlot();
+			if (open != null)
+				return open.buffer;
+
+			long pos = writeCursor.get();
+			int index = (int) (pos % capacity);
+			long seq = sequences.get(index);
+
+			if (seq == pos)
+			{
+				if (writeCursor.compareAndSet(pos, pos + 1))
+					return slots[index].claim(pos, false);
+			}
+			else if (seq < pos)
+			{
+				// the ring is full; wait for a reader to free the slot
+				waitCycle(tryCount++);
+			}
+
+			// otherwise, another writer got this position first; try again
+		}
+	}
+
+	@Override
+	public DataBufferOutputStream tryAcquireForWriting()
+	{
+		while (true)
+		{
+			if (writeDisabled)
+				return null;
+
+			// keep adding to a buffer that's been left open, if there is one
+			Slot open = takeOpenSlot();
+			if (open != null)
+				return open.buffer;
+
+			long pos = writeCursor.get();
+			int index = (int) (pos % capacity);
+			long seq = sequences.get(index);
+
+			if (seq == pos)
+			{
+				if (writeCursor.compareAndSet(pos, pos + 1))
+					return slots[index].claim(pos, false);
+			}
+			else if (seq < pos)
+				return null;
+
+			// otherwise, another writer got this position first; try again
+		}
+	}
+
+	@Override
+	public DataBufferOutputStream acquireForReading() throws InterruptedException
+	{
+		int tryCount = 0;
+
+		while (true)
+		{
+			long pos = readCursor.get();
+			int index = (int) (pos % capacity);
+			long seq = sequences.get(index);
+
+			if (seq == pos + 1)
+			{
+				if (readCursor.compareAndSet(pos, pos + 1))
+					return slots[index].claim(pos, true);
+			}
+			else if (seq < pos + 1)
+			{
+				// nothing has been committed here yet; take the slot as it is
+				// if it's been held open for long enough
+				if (tryCount < PartialWaitCycles || !commitOpenSlot(index, pos))
+					waitCycle(tryCount++);
+			}
+
+			// otherwise, another reader got this position first; try again
+		}
+	}
+
+	/**
+	 * Acquires the next slot for reading if it has been committed, or if it is
+	 * being held open for more writes. Slots are read in order, so this
+	 * returns <code>null</code> while the next one is still being written,
+	 * even if later ones are ready.
+	 */
+	@Override
+	public DataBufferOutputStream tryAcquireForReading()
+	{
+		return tryAcquireForReading(true);
+	}
+
+	/**
+	 * Acquires the next slot for reading if it has been committed, but not if
+	 * it is only being held open.
+	 */
+	@Override
+	public DataBufferOutputStream tryAcquireFullForReading()
+	{
+		return tryAcquireForReading(false);
+	}
+
+	private DataBufferOutputStream tryAcquireForReading(boolean takeOpen)
+	{
+		while (true)
+		{
+			long pos = readCursor.get();
+			int index = (int) (pos % capacity);
+			long seq = sequences.get(index);
+
+			if (seq == pos + 1)
+			{
+				if (readCursor.compareAndSet(pos, pos + 1))
+					return slots[index].claim(pos, true);
+			}
+			else if (seq < pos + 1 && !(takeOpen && commitOpenSlot(index, pos)))
+				return null;
+
+			// otherwise, another reader got this position first (or we just
+			// committed it); try again
+		}
+	}
+
+	/**
+	 * Commits the buffer if it was acquired for writing, or frees its slot if
+	 * it was acquired for reading. A buffer that was written to, but isn't
+	 * full yet, is held open for the next writer instead of being committed.
+	 */
+	@Override
+	public void release(DataBufferOutputStream buffer)
+	{
+		Slot slot = slotsByBuffer.get(buffer);
+		if (slot == null)
+			throw new IllegalArgumentException("buffer does not belong to this ring");
+
+		if (slot.reading)
+		{
+			sequences.set(slot.index, slot.position + capacity);
+			freedCount.incrementAndGet();
+		}
+		else if (slot.buffer.size() < fullThreshold)
+		{
+			slot.state.set(Open);
+			openSlots.offer(slot);
+		}
+		else
+		{
+			slot.state.set(Idle);
+			sequences.set(slot.index, slot.position + 1);
+		}
+	}
+
+	/**
+	 * Takes a slot that is being held open, for a writer. The queue may still
+	 * hold slots that were since committed by a reader; those are skipped.
+	 */
+	private Slot takeOpenSlot()
+	{
+		Slot slot;
+		while ((slot = openSlots.poll()) != null)
+		{
+			if (slot.state.compareAndSet(Open, Writing))
+				return slot;
+		}
+		return null;
+	}
+
+	/**
+	 * Commits the slot at <code>index</code> on behalf of its writer, if it is
+	 * being held open for <code>position</code>.
+	 * 
+	 * @return <code>true</code> if the slot was committed
+	 */
+	private boolean commitOpenSlot(int index, long position)
+	{
+		Slot slot = slots[index];
+		if (slot.state.get() != Open || !slot.state.compareAndSet(Open, Idle))
+			return false;
+
+		if (slot.position != position)
+		{
+			// can't happen while the ring is used properly, but don't leave the
+			// slot stranded if it does
+			slot.state.set(Open);
+			openSlots.offer(slot);
+			return false;
+		}
+
+		sequences.set(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * @return The number of slots that have been claimed by writers, but not
+	 *         yet by readers. This includes slots that are still being
+	 *         written.
+	 */
+	@Override
+	public int numReadableBuffers()
+	{
+		return (int) (writeCursor.get() - readCursor.get());
+	}
+
+	@Override
+	public int numWritableBuffers()
+	{
+		return capacity - (int) (writeCursor.get() - freedCount.get());
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return writeCursor.get() == freedCount.get();
+	}
+
+	@Override
+	public void setWriteDisabled(boolean writeDisabled)
+	{
+		this.writeDisabled = writeDisabled;
+	}
+
+	/**
+	 * Internal helper to handle spinning/parking while waiting for a slot.
+	 * @param cycleCount the current count of cycles we've been waiting
+	 */
+	private void waitCycle(int cycleCount) throws InterruptedException
+	{
+		// parking doesn't throw, so check for interruption ourselves
+		if (Thread.interrupted())
+			throw new InterruptedException();
+
+		if (cycleCount < SpinCycles)
+			return;
+		else if (cycleCount < YieldCycles)
+			Thread.yield();
+		else if (cycleCount < ShortParkCycles)
+			LockSupport.parkNanos(ShortParkNanos);
+		else
+			LockSupport.parkNanos(LongParkNanos);
+	}
+
+	/**
+	 * A ring slot, which remembers which position its buffer was last claimed
+	 * for. Only the thread that claimed the slot touches these fields; the
+	 * sequence updates (or the <code>state</code> of a slot that is held
+	 * open) publish them to the next claimant.
+	 */
+	private static final class Slot
+	{
+		public final int index;
+		public final DataBufferOutputStream buffer;
+		public final AtomicInteger state = new AtomicInteger(Idle);
+		public long position;
+		public boolean reading;
+
+		public Slot(int index, DataBufferOutputStream buffer)
+		{
+			this.index = index;
+			this.buffer = buffer;
+		}
+
+		public DataBufferOutputStream claim(long position, boolean reading)
+		{
+			this.position = position;
+			this.reading = reading;
+			if (!reading)
+				state.set(Writing);
+			return buffer;
+		}
+	}
+}
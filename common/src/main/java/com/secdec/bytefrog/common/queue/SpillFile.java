@@ -0,0 +1,210 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
+/**
+ * A first-in, first-out queue of byte records that lives on disk, in a series
+ * of memory-mapped segment files. Records are appended to the newest segment,
+ * and read back from the oldest one; segments that have been read through are
+ * deleted, except for the last one, which is reused. The total size of the
+ * segments is bounded, so appending fails once the limit has been reached.
+ * 
+ * A SpillFile is not thread-safe.
+ */
+public class SpillFile
+{
+	private final File directory;
+	private final int segmentSize;
+	private final long limit;
+
+	// oldest first
+	private final LinkedList<Segment> segments = new LinkedList<Segment>();
+	private long mappedBytes = 0;
+	private int recordCount = 0;
+	private byte[] scratch = new byte[0];
+
+	/**
+	 * @param directory The directory to create segment files in, or
+	 *            <code>null</code> for the default temporary directory
+	 * @param segmentSize The size of each segment file. Records that don't fit
+	 *            into a segment of this size get a segment of their own.
+	 * @param limit The most bytes that the segment files may take up in total
+	 */
+	public SpillFile(File directory, int segmentSize, long limit)
+	{
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.limit = limit;
+	}
+
+	/**
+	 * @return <code>false</code> if no more segments may be created and the
+	 *         newest one is full; <code>true</code> if there may be room for
+	 *         another record.
+	 */
+	public boolean hasRoom()
+	{
+		Segment tail = segments.peekLast();
+		return (tail != null && tail.writeRemaining() > 4) || mappedBytes + segmentSize <= limit;
+	}
+
+	/**
+	 * @return <code>true</code> if there are no records to read
+	 */
+	public boolean isEmpty()
+	{
+		return recordCount == 0;
+	}
+
+	/**
+	 * Appends the remaining bytes of <code>contents</code> as a new record. The
+	 * position of <code>contents</code> is left as it was.
+	 * 
+	 * @return <code>true</code> if the record was appended, or
+	 *         <code>false</code> if there is no room for it
+	 * @throws IOException if a new segment file could not be created
+	 */
+	public boolean append(ByteBuffer contents) throws IOException
+	{
+		int length = contents.remaining();
+		Segment tail = segments.peekLast();
+		if (tail == null || tail.writeRemaining() < 4 + length)
+		{
+			int size = Math.max(segmentSize, 4 + length);
+			if (mappedBytes + size > limit)
+				return false;
+
+			tail = new Segment(directory, size);
+			segments.addLast(tail);
+			mappedBytes += size;
+		}
+
+		tail.map.putInt(tail.writeOffset, length);
+		ByteBuffer target = tail.map.duplicate();
+		target.position(tail.writeOffset + 4);
+		target.put(contents.duplicate());
+
+		tail.writeOffset += 4 + length;
+		recordCount++;
+		return true;
+	}
+
+	/**
+	 * Reads the oldest record, writing its bytes to <code>out</code>.
+	 * 
+	 * @return <code>false</code> if there was no record to read
+	 */
+	public boolean readNext(OutputStream out) throws IOException
+	{
+		if (recordCount == 0)
+			return false;
+
+		Segment head = segments.getFirst();
+		int length = head.map.getInt(head.readOffset);
+		if (scratch.length < length)
+			scratch = new byte[length];
+
+		ByteBuffer source = head.map.duplicate();
+		source.position(head.readOffset + 4);
+		source.get(scratch, 0, length);
+		head.readOffset += 4 + length;
+		recordCount--;
+
+		// drop segments that have been read through, but keep the newest one
+		// around to write into again
+		if (head.readOffset == head.writeOffset)
+		{
+			if (segments.size() > 1 || head.map.capacity() > segmentSize)
+			{
+				segments.removeFirst();
+				mappedBytes -= head.map.capacity();
+				head.file.delete();
+			}
+			else
+			{
+				head.readOffset = 0;
+				head.writeOffset = 0;
+			}
+		}
+
+		out.write(scratch, 0, length);
+		return true;
+	}
+
+	/**
+	 * Deletes all of the segment files, along with any records in them.
+	 */
+	public void close()
+	{
+		for (Segment segment : segments)
+			segment.file.delete();
+		segments.clear();
+		mappedBytes = 0;
+		recordCount = 0;
+	}
+
+	private static class Segment
+	{
+		public final File file;
+		public final MappedByteBuffer map;
+		public int writeOffset = 0;
+		public int readOffset = 0;
+
+		public Segment(File directory, int size) throws IOException
+		{
+			file = File.createTempFile("bytefrog-spill-", ".seg", directory);
+
+			boolean mapped = false;
+			RandomAccessFile raf = null;
+			try
+			{
+				raf = new RandomAccessFile(file, "rw");
+				raf.setLength(size);
+
+				// the mapping stays valid after the file is closed
+				map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+				mapped = true;
+			}
+			finally
+			{
+				if (raf != null)
+					raf.close();
+
+				// don't leave the file behind if it can't be used
+				if (!mapped)
+					file.delete();
+			}
+		}
+
+		public int writeRemaining()
+		{
+			return map.capacity() - writeOffset;
+		}
+	}
+}
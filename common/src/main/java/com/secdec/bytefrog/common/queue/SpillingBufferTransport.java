@@ -0,0 +1,323 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link BufferTransport} that keeps writers from waiting on slow readers.
+ * When a writer finds no buffer available in the underlying transport, the
+ * oldest buffer that is waiting to be read is moved into a {@link SpillFile},
+ * and then reset and handed to the writer. Readers get the spilled data back
+ * (in buffers that belong to this transport) before anything that is still in
+ * the underlying transport, so data is read in the same order it would have
+ * been without spilling.
+ * 
+ * Buffers that can't be spilled (because the spill file can't be written)
+ * stay in line in memory instead. Writers only wait once the spill file is
+ * full, or when there is nothing waiting to be read that could be moved.
+ * 
+ * To keep the order straight, readers take buffers from the underlying
+ * transport one at a time under a lock, and take whatever is readable, rather
+ * than holding out for full buffers. A reader that finds nothing to read waits
+ * on the same lock until a writer releases a buffer.
+ */
+public class SpillingBufferTransport implements BufferTransport
+{
+	// how long an idle reader waits before looking again without being woken,
+	// in case data turned up without a buffer being released
+	private static final long MaxReaderWaitMillis = 100;
+
+	// a backlog entry for a record in the spill file
+	private static final Object SpilledRecord = new Object();
+
+	private final BufferTransport inner;
+	private final SpillFile spill;
+	private final int bufferLengthHint;
+
+	// guards the backlog, the spill file, and readers' access to the inner
+	// transport
+	private final Object lock = new Object();
+
+	// data that is older than anything in the inner transport, oldest first.
+	// Entries are either SpilledRecord or buffers from the inner transport.
+	private final LinkedList<Object> backlog = new LinkedList<Object>();
+	private volatile int backlogSize = 0;
+	private boolean spillFailed = false;
+
+	// the number of buffers released by writers, and the number of readers
+	// waiting for that to change (only changed under the lock)
+	private final AtomicLong writerReleases = new AtomicLong();
+	private volatile int waitingReaders = 0;
+
+	private final ConcurrentLinkedQueue<SpareBuffer> spares = new ConcurrentLinkedQueue<SpareBuffer>();
+
+	private volatile boolean writeDisabled = false;
+
+	/**
+	 * @param inner The transport that buffers normally go through
+	 * @param spill The spill file to move waiting buffers into
+	 * @param bufferLengthHint The initial size of the buffers that spilled
+	 *            data is read back into
+	 */
+	public SpillingBufferTransport(BufferTransport inner, SpillFile spill, int bufferLengthHint)
+	{
+		this.inner = inner;
+		this.spill = spill;
+		this.bufferLengthHint = bufferLengthHint;
+	}
+
+	@Override
+	public DataBufferOutputStream acquireForWriting() throws InterruptedException
+	{
+		while (true)
+		{
+			if (writeDisabled)
+				return null;
+
+			DataBufferOutputStream buffer = inner.tryAcquireForWriting();
+			if (buffer != null)
+				return buffer;
+
+			// readers have fallen behind, so make room; if there's no way to,
+			// wait for them like usual
+			if (!spillOldest())
+				return inner.acquireForWriting();
+		}
+	}
+
+	@Override
+	public DataBufferOutputStream tryAcquireForWriting()
+	{
+		if (writeDisabled)
+			return null;
+
+		DataBufferOutputStream buffer = inner.tryAcquireForWriting();
+		if (buffer == null && spillOldest())
+			buffer = inner.tryAcquireForWriting();
+		return buffer;
+	}
+
+	/**
+	 * Moves the oldest buffer that is waiting to be read from the inner
+	 * transport to the back of the backlog, spilling it to disk if possible.
+	 * 
+	 * @return <code>true</code> if a buffer was spilled, and has been released
+	 *         back to the inner transport for writing
+	 */
+	private boolean spillOldest()
+	{
+		synchronized (lock)
+		{
+			if (spillFailed || !spill.hasRoom())
+				return false;
+
+			DataBufferOutputStream oldest = inner.tryAcquireForReading();
+			if (oldest == null)
+				return false;
+
+			try
+			{
+				if (spill.append(oldest.contents()))
+				{
+					addToBacklog(SpilledRecord);
+					oldest.reset();
+					inner.release(oldest);
+					return true;
+				}
+			}
+			catch (IOException e)
+			{
+				// stop trying, and keep everything in memory from here on
+				spillFailed = true;
+			}
+
+			// it has been taken out of line, so keep its place in the backlog
+			addToBacklog(oldest);
+			return false;
+		}
+	}
+
+	@Override
+	public DataBufferOutputStream acquireForReading() throws InterruptedException
+	{
+		while (true)
+		{
+			long releases = writerReleases.get();
+			DataBufferOutputStream buffer = tryAcquireForReading();
+			if (buffer != null)
+				return buffer;
+
+			synchronized (lock)
+			{
+				waitingReaders++;
+				try
+				{
+					// a writer that releases a buffer after this check sees
+					// that we're waiting, and wakes us up
+					if (writerReleases.get() == releases)
+						lock.wait(MaxReaderWaitMillis);
+				}
+				finally
+				{
+					waitingReaders--;
+				}
+			}
+		}
+	}
+
+	@Override
+	public DataBufferOutputStream tryAcquireForReading()
+	{
+		return tryAcquireForReading(false);
+	}
+
+	/**
+	 * Everything in the backlog has already been taken out of the inner
+	 * transport, so it counts as full.
+	 */
+	@Override
+	public DataBufferOutputStream tryAcquireFullForReading()
+	{
+		return tryAcquireForReading(true);
+	}
+
+	private DataBufferOutputStream tryAcquireForReading(boolean fullOnly)
+	{
+		synchronized (lock)
+		{
+			if (backlog.isEmpty())
+				return fullOnly ? inner.tryAcquireFullForReading() : inner.tryAcquireForReading();
+
+			Object oldest = backlog.removeFirst();
+			backlogSize--;
+			if (oldest != SpilledRecord)
+				return (DataBufferOutputStream) oldest;
+
+			SpareBuffer spare = spares.poll();
+			if (spare == null)
+				spare = new SpareBuffer(bufferLengthHint);
+
+			try
+			{
+				spill.readNext(spare);
+			}
+			catch (IOException e)
+			{
+				// the spare keeps its bytes in memory, so this can't happen
+				throw new IllegalStateException(e);
+			}
+			return spare;
+		}
+	}
+
+	private void addToBacklog(Object entry)
+	{
+		backlog.addLast(entry);
+		backlogSize++;
+	}
+
+	/**
+	 * Releases buffers to the inner transport, except for the ones that
+	 * spilled data was read back into, which are kept for reuse. Releasing a
+	 * buffer with data in it wakes up any readers that are waiting.
+	 */
+	@Override
+	public void release(DataBufferOutputStream buffer)
+	{
+		if (buffer instanceof SpareBuffer)
+		{
+			buffer.reset();
+			spares.offer((SpareBuffer) buffer);
+			return;
+		}
+
+		boolean written = buffer.size() > 0;
+		inner.release(buffer);
+		if (written)
+		{
+			writerReleases.incrementAndGet();
+			if (waitingReaders > 0)
+			{
+				synchronized (lock)
+				{
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of buffers (or spilled records) that are waiting to
+	 *         be read, including the ones in the backlog
+	 */
+	@Override
+	public int numReadableBuffers()
+	{
+		return inner.numReadableBuffers() + backlogSize;
+	}
+
+	@Override
+	public int numWritableBuffers()
+	{
+		return inner.numWritableBuffers();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return backlogSize == 0 && inner.isEmpty();
+	}
+
+	@Override
+	public void setWriteDisabled(boolean writeDisabled)
+	{
+		this.writeDisabled = writeDisabled;
+		inner.setWriteDisabled(writeDisabled);
+	}
+
+	/**
+	 * Deletes the spill file. Anything that is still in it is lost.
+	 */
+	public void close()
+	{
+		synchronized (lock)
+		{
+			spill.close();
+			backlog.removeAll(Collections.singleton(SpilledRecord));
+			backlogSize = backlog.size();
+		}
+	}
+
+	/**
+	 * A buffer that spilled data is read back into
+	 */
+	private static class SpareBuffer extends DataBufferOutputStream
+	{
+		public SpareBuffer(int capacity)
+		{
+			super(capacity);
+		}
+	}
+}
@@ -44,6 +44,11 @@ class StaticAgentConfigurationSuite extends FunSpec with ShouldMatchers {
 				'hqPort(12345),
 				'logFilename("mylog"))
 		}
+
+		it("should pick up the class cache directory from a key/value option string") {
+			val result = StaticAgentConfiguration.parseOptionString("host:12345;log=mylog;classCache=/tmp/bytefrog")
+			result.getClassCacheDirectory should equal("/tmp/bytefrog")
+		}
 	}
 
 	describe("StaticAgentConfiguration options") {
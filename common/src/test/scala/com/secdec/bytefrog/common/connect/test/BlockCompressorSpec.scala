@@ -0,0 +1,83 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.connect.test
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.common.connect.BlockCompressor
+import com.secdec.bytefrog.common.connect.CompressedBlockInputStream
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream
+
+class BlockCompressorSpec extends FunSpec with ShouldMatchers {
+
+	def compressAll(compressor: BlockCompressor, buffers: Seq[DataBufferOutputStream]) = {
+		val out = new ByteArrayOutputStream
+		for (buffer <- buffers)
+			out.write(compressor.getBlock, 0, compressor.compress(buffer))
+		out.toByteArray
+	}
+
+	def readAll(bytes: Array[Byte]) = {
+		val in = new CompressedBlockInputStream(new ByteArrayInputStream(bytes))
+		val out = new ByteArrayOutputStream
+		val chunk = new Array[Byte](100)
+		Iterator.continually { in.read(chunk) } takeWhile { _ >= 0 } foreach { out.write(chunk, 0, _) }
+		out.toByteArray
+	}
+
+	describe("BlockCompressor") {
+		it("should write blocks that read back as the original buffers") {
+			val buffers = for (i <- 1 to 3) yield {
+				val buffer = new DataBufferOutputStream(1024)
+				for (j <- 0 until 200) buffer.writeInt(j % 7 * i)
+				buffer
+			}
+			val compressor = new BlockCompressor(1)
+
+			val bytes = compressAll(compressor, buffers)
+			readAll(bytes).toList should equal(buffers.flatMap(_.toByteArray).toList)
+
+			compressor.getBytesIn should be(2400)
+			compressor.getBytesOut should be(bytes.length)
+			bytes.length should be < 600
+		}
+
+		it("should store data that doesn't compress as it is") {
+			val buffer = new DataBufferOutputStream(64)
+			val random = new java.util.Random(42)
+			for (i <- 0 until 64) buffer.writeByte(random.nextInt)
+			val compressor = new BlockCompressor(9)
+
+			val bytes = compressAll(compressor, List(buffer))
+			bytes.length should be(BlockCompressor.HeaderSize + 64)
+
+			val in = new DataInputStream(new ByteArrayInputStream(bytes))
+			in.readInt should be(64)
+			in.readInt should be(64)
+
+			readAll(bytes).toList should equal(buffer.toByteArray.toList)
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.connect.test
+
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.common.connect.MappedRing
+
+class MappedRingSpec extends FunSpec with ShouldMatchers {
+
+	def tempFile = {
+		val file = File.createTempFile("bytefrog-test-", ".ring")
+		file.deleteOnExit
+		file
+	}
+
+	def readAll(ring: MappedRing) = {
+		val in = ring.inputStream
+		val out = new ByteArrayOutputStream
+		val chunk = new Array[Byte](13)
+		Iterator.continually { in.read(chunk) } takeWhile { _ >= 0 } foreach { out.write(chunk, 0, _) }
+		out.toByteArray
+	}
+
+	describe("MappedRing") {
+		it("should pass bytes from the writer to a reader of the same file, in order") {
+			val file = tempFile
+			val writer = MappedRing.create(file, 37)
+			val reader = MappedRing open file
+
+			// much more than fits, so the ring has to wrap around many times
+			val bytes = Array.tabulate[Byte](10000) { i => (i * 31).toByte }
+			val t = new Thread(new Runnable {
+				def run {
+					for (chunk <- bytes grouped 100) writer.write(ByteBuffer wrap chunk)
+					writer.close
+				}
+			})
+			t.start
+
+			readAll(reader).toList should equal(bytes.toList)
+			t.join
+		}
+
+		it("should let the reader drain the ring after the writer closes") {
+			val file = tempFile
+			val writer = MappedRing.create(file, 64)
+			val reader = MappedRing open file
+
+			writer.write(ByteBuffer wrap Array[Byte](1, 2, 3))
+			writer.close
+
+			readAll(reader).toList should equal(List[Byte](1, 2, 3))
+			reader.inputStream.read should equal(-1)
+		}
+
+		it("should fail a waiting writer once the reader closes") {
+			val file = tempFile
+			val writer = MappedRing.create(file, 8)
+			val reader = MappedRing open file
+
+			reader.inputStream.close
+			intercept[IOException] {
+				writer.write(ByteBuffer wrap new Array[Byte](20))
+			}
+		}
+
+		it("should refuse to open a file that isn't a ring") {
+			intercept[IOException] {
+				MappedRing open tempFile
+			}
+		}
+
+		it("should open a ring from a path sent over by an agent, if it's an agent ring file") {
+			val file = tempFile
+			val writer = MappedRing.create(file, 64)
+			val reader = MappedRing openTemporary file.getPath
+
+			writer.write(ByteBuffer wrap Array[Byte](4, 5))
+			writer.close
+			readAll(reader).toList should equal(List[Byte](4, 5))
+		}
+
+		it("should refuse to open a path sent over that isn't an agent ring file in the temp directory") {
+			val misnamed = File.createTempFile("other-", ".ring")
+			misnamed.deleteOnExit
+			MappedRing.create(misnamed, 64)
+
+			val elsewhere = new File(tempFile.getParentFile, "nested")
+			elsewhere.mkdir
+			elsewhere.deleteOnExit
+			val nested = File.createTempFile(MappedRing.FilePrefix, MappedRing.FileSuffix, elsewhere)
+			nested.deleteOnExit
+			MappedRing.create(nested, 64)
+
+			for (path <- List(misnamed.getPath, nested.getPath, "/etc/passwd")) {
+				intercept[IOException] {
+					MappedRing openTemporary path
+				}
+			}
+		}
+	}
+}
@@ -199,6 +199,30 @@ class MessageProtocolV1Suite extends FunSuite with BeforeAndAfter {
 		assert(result(0) == 41)
 	}
 
+	test("writeMethodDemoted should write a valid message") {
+		protocol.writeMethodDemoted(dataOutputStream, 7, "Bar.baz;1;()V", 250000, 123456L)
+		dataOutputStream.flush
+		val result = byteBuffer.toByteArray
+
+		// 1 + 4 + (2 + 13) + 4 + 8
+		assert(result.length == 32)
+		assert(result(0) == 43)
+	}
+
+	test("writeRetransformProgress should write a valid message") {
+		protocol.writeRetransformProgress(dataOutputStream, 100, 250)
+		dataOutputStream.flush
+		val result = byteBuffer.toByteArray
+
+		assert(result.length == 9)
+		assert(result(0) == 44)
+
+		val stream = new DataInputStream(new ByteArrayInputStream(result))
+		stream.skipBytes(1)
+		assert(stream.readInt == 100)
+		assert(stream.readInt == 250)
+	}
+
 	for (
 		heartbeatMode <- Array(
 			(AgentOperationMode.Initializing, 'I'),
@@ -317,6 +341,49 @@ class MessageProtocolV1Suite extends FunSuite with BeforeAndAfter {
 		assert(exceptionResult == exception, "exception should contain given value")
 	}
 
+	test("writeMapClassMethods should write a valid map class methods message") {
+		val className = "com/example/Thing"
+		val signatureIDs = Array(5, 6, 900)
+		val signatures = Array("com/example/Thing.<init>;1;()V", "com/example/Thing.a;1;()V", "com/example/Thing.b;9;(I)I")
+
+		protocol.writeMapClassMethods(dataOutputStream, className, signatureIDs, signatures)
+		dataOutputStream.flush
+		val result = byteBuffer.toByteArray
+
+		assert(result(0) == 13, "message type ID should be 13")
+
+		val stream = new DataInputStream(new ByteArrayInputStream(result))
+		stream.skipBytes(1)
+		val classNameResult = stream.readUTF
+		val countResult = stream.readUnsignedShort
+		val methodsResult = for (i <- 0 until countResult) yield (stream.readInt, stream.readUTF)
+
+		assert(classNameResult == className, "class name should contain given value")
+		assert(countResult == 3, "method count should be 3")
+		assert(methodsResult == (signatureIDs zip signatures).toSeq, "methods should contain given values")
+		assert(stream.available == 0, "message should not contain anything else")
+	}
+
+	test("writeMapMethodSampling should write a valid map method sampling message") {
+		val signatureID = 785932
+		val interval = 100
+
+		protocol.writeMapMethodSampling(dataOutputStream, signatureID, interval)
+		dataOutputStream.flush
+		val result = byteBuffer.toByteArray
+
+		assert(result.length == 9, "message should be 9 bytes long")
+		assert(result(0) == 14, "message type ID should be 14")
+
+		val stream = new DataInputStream(new ByteArrayInputStream(result))
+		stream.skipBytes(1)
+		val signatureIDResult = stream.readInt
+		val intervalResult = stream.readInt
+
+		assert(signatureIDResult == signatureID, "signature ID should contain given value")
+		assert(intervalResult == interval, "sampling interval should contain given value")
+	}
+
 	test("writeMethodEntry should write a valid method entry message") {
 		val relTime = 376433
 		val sequence: Short = 372
@@ -372,6 +439,52 @@ class MessageProtocolV1Suite extends FunSuite with BeforeAndAfter {
 		assert(threadIDResult == threadID, "thread ID should contain given value")
 	}
 
+	test("writeMethodSpan should write a valid method span message") {
+		val startTime = 376433
+		val sequence = 372
+		val signatureID = 785932
+		val duration = 1200L
+		val depth = 3
+		val lineNumber = 34
+		val threadID = 13
+
+		protocol.writeMethodSpan(dataOutputStream, startTime, sequence, signatureID, duration, depth, lineNumber, threadID)
+		dataOutputStream.flush
+		val result = byteBuffer.toByteArray
+
+		assert(result.length == 23, "message should be 23 bytes long")
+		assert(result(0) == 24, "message type ID should be 24")
+
+		val stream = new DataInputStream(new ByteArrayInputStream(result))
+		stream.skipBytes(1)
+		assert(stream.readInt == startTime, "start time should contain given value")
+		assert(stream.readInt == sequence, "sequence should contain given value")
+		assert(stream.readInt == signatureID, "signature ID should contain given value")
+		assert(stream.readInt == duration, "duration should contain given value")
+		assert(stream.readShort == depth, "depth should contain given value")
+		assert(stream.readShort == lineNumber, "line number should contain given value")
+		assert(stream.readShort == threadID, "thread ID should contain given value")
+	}
+
+	test("writeMethodSpan should write a span that's too long for 4 bytes wide") {
+		val startTime = 376433
+		val duration = Int.MaxValue.toLong + 1200L
+
+		protocol.writeMethodSpan(dataOutputStream, startTime, 372, 785932, duration, 3, 34, 13)
+		dataOutputStream.flush
+		val result = byteBuffer.toByteArray
+
+		assert(result.length == 31, "message should be 31 bytes long")
+		assert(result(0) == (24 | 0x80).toByte, "message type ID should be 24, flagged as wide")
+
+		val stream = new DataInputStream(new ByteArrayInputStream(result))
+		stream.skipBytes(1)
+		assert(stream.readLong == startTime, "start time should contain given value")
+		assert(stream.readInt == 372, "sequence should contain given value")
+		assert(stream.readInt == 785932, "signature ID should contain given value")
+		assert(stream.readLong == duration, "duration should contain given value")
+	}
+
 	test("writeException should write a valid exception message") {
 		val relTime = 376433
 		val sequence: Short = 372
@@ -457,4 +570,43 @@ class MessageProtocolV1Suite extends FunSuite with BeforeAndAfter {
 		assert(reKey == key, "incorrect key")
 		assert(reValue == value, "incorrect value")
 	}
-}
\ No newline at end of file
+
+	test("writeMethodStats should write a missing histogram as an empty one") {
+		val histograms: Array[Array[Int]] = Array(null)
+
+		protocol.writeMethodStats(dataOutputStream, 100, 1, Array(7), Array(3), Array(30L), Array(20L), histograms)
+		dataOutputStream.flush
+		val result = byteBuffer.toByteArray
+
+		assert(result.length == 35, "message should be 35 bytes long")
+
+		val stream = new DataInputStream(new ByteArrayInputStream(result))
+		stream.skipBytes(7)
+		assert(stream.readInt == 7, "signature ID should contain given value")
+		assert(stream.readInt == 3, "call count should contain given value")
+		stream.skipBytes(16)
+		assert(stream.readInt == 0, "bucket mask should be empty")
+	}
+
+	test("writeMethodEntry should write a wide timestamp when it doesn't fit in an int") {
+		val relTime = 3L * Int.MaxValue
+		val sequence = 372
+		val signatureID = 785932
+		val threadID = 13
+
+		protocol.writeMethodEntry(dataOutputStream, relTime, sequence, signatureID, threadID)
+		dataOutputStream.flush
+		val result = byteBuffer.toByteArray
+
+		assert(result.length == 19, "message should be 19 bytes long")
+		assert(result(0) == (20 | MessageConstantsV1.MsgWideFlag).toByte, "message type ID should be 20, flagged as wide")
+
+		val stream = new DataInputStream(new ByteArrayInputStream(result))
+		stream.skipBytes(1)
+		val relTimeResult = stream.readLong
+		val sequenceResult = stream.readInt
+
+		assert(relTimeResult == relTime, "relative timestamp should contain given value")
+		assert(sequenceResult == sequence, "sequence should contain given value")
+	}
+}
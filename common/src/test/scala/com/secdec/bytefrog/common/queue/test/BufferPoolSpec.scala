@@ -334,5 +334,55 @@ class BufferPoolSpec extends FunSpec with ShouldMatchers with Conductors {
 				}
 			}
 		}
+
+		describe("tryAcquireForReading") {
+			it("should take full buffers, then partial ones, without waiting") {
+				val pool = new BufferPool(3, 10)
+
+				val partial = pool.acquireForWriting
+				val full = pool.acquireForWriting
+				partial.writeByte(1)
+				full.writeLong(2)
+				full.writeShort(3)
+				pool.release(partial)
+				pool.release(full)
+
+				pool.tryAcquireForReading should be theSameInstanceAs (full)
+				pool.tryAcquireForReading should be theSameInstanceAs (partial)
+				pool.tryAcquireForReading should be(null)
+			}
+		}
+
+		describe("tryAcquireFullForReading") {
+			it("should take full buffers only") {
+				val pool = new BufferPool(3, 10)
+
+				val partial = pool.acquireForWriting
+				val full = pool.acquireForWriting
+				partial.writeByte(1)
+				full.writeLong(2)
+				full.writeShort(3)
+				pool.release(partial)
+				pool.release(full)
+
+				pool.tryAcquireFullForReading should be theSameInstanceAs (full)
+				pool.tryAcquireFullForReading should be(null)
+				pool.tryAcquireForReading should be theSameInstanceAs (partial)
+			}
+		}
+
+		describe("tryAcquireForWriting") {
+			it("should take partial buffers, then empty ones, without waiting") {
+				val pool = new BufferPool(2, 10)
+
+				val partial = pool.acquireForWriting
+				partial.writeByte(1)
+				pool.release(partial)
+
+				pool.tryAcquireForWriting should be theSameInstanceAs (partial)
+				pool.tryAcquireForWriting should not be (null)
+				pool.tryAcquireForWriting should be(null)
+			}
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,78 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue.test
+
+import java.io.ByteArrayOutputStream
+import java.nio.channels.Channels
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.common.queue.DirectBufferArena
+
+class DirectBufferArenaSpec extends FunSpec with ShouldMatchers {
+
+	describe("DirectBufferArena") {
+		it("should carve out independent buffers") {
+			val arena = new DirectBufferArena(3, 8)
+			val Array(a, b, c) = arena.getBuffers
+
+			arena.getCapacity should be(24)
+
+			a.writeByte(1)
+			b.writeByte(2)
+			b.writeByte(3)
+
+			a.toByteArray.toList should equal(List[Byte](1))
+			b.toByteArray.toList should equal(List[Byte](2, 3))
+			c.size should be(0)
+		}
+
+		it("should keep writes that don't fit in a buffer's slice of the arena") {
+			val arena = new DirectBufferArena(2, 4)
+			val Array(a, b) = arena.getBuffers
+
+			a.writeLong(0x0102030405060708L)
+			b.writeByte(9)
+
+			a.toByteArray.toList should equal(List[Byte](1, 2, 3, 4, 5, 6, 7, 8))
+			b.toByteArray.toList should equal(List[Byte](9))
+
+			a.reset
+			a.size should be(0)
+			a.writeByte(10)
+			a.toByteArray.toList should equal(List[Byte](10))
+		}
+
+		it("should write buffer contents to channels and streams") {
+			val arena = new DirectBufferArena(1, 16)
+			val buffer = arena.getBuffers()(0)
+			buffer.writeInt(42)
+
+			val viaChannel = new ByteArrayOutputStream
+			buffer.writeTo(Channels.newChannel(viaChannel))
+			val viaStream = new ByteArrayOutputStream
+			buffer.writeTo(viaStream)
+
+			viaChannel.toByteArray.toList should equal(List[Byte](0, 0, 0, 42))
+			viaStream.toByteArray.toList should equal(List[Byte](0, 0, 0, 42))
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue.test
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.common.queue.ElasticBufferPool
+
+class ElasticBufferPoolSpec extends FunSpec with ShouldMatchers {
+
+	describe("ElasticBufferPool") {
+		it("should start out with only its initial buffers") {
+			val pool = new ElasticBufferPool(2, 100, 10000)
+
+			pool.getBufferCount should be(2)
+			pool.getAllocatedBytes should be(200)
+			pool.getBuffersInUse should be(0)
+			pool.isEmpty should be(true)
+		}
+
+		it("should grow, with longer and longer buffers, once writers keep missing") {
+			val pool = new ElasticBufferPool(1, 100, 10000, 3, 60000)
+			pool.acquireForWriting should not be (null)
+
+			pool.tryAcquireForWriting should be(null)
+			pool.tryAcquireForWriting should be(null)
+			val first = pool.tryAcquireForWriting
+			first should not be (null)
+
+			for (i <- 1 to 2) pool.tryAcquireForWriting should be(null)
+			pool.tryAcquireForWriting should not be (null)
+
+			pool.getBufferCount should be(3)
+			pool.getAllocatedBytes should be(100 + 100 + 200)
+			pool.getBuffersInUse should be(3)
+		}
+
+		it("should count a writer that waits as one miss, however long it waits") {
+			val pool = new ElasticBufferPool(1, 100, 10000, 2, 60000)
+			val initial = pool.acquireForWriting
+
+			val waiter = new Thread(new Runnable {
+				def run = pool.acquireForWriting
+			})
+			waiter.start
+			Thread.sleep(50)
+			pool.getBufferCount should be(1)
+
+			pool.release(initial)
+			waiter.join
+			pool.tryAcquireForWriting should not be (null)
+			pool.getBufferCount should be(2)
+		}
+
+		it("should not grow past its memory limit") {
+			val pool = new ElasticBufferPool(1, 100, 250, 1, 60000)
+			pool.acquireForWriting should not be (null)
+
+			pool.tryAcquireForWriting should not be (null)
+			pool.tryAcquireForWriting should be(null)
+			pool.getAllocatedBytes should be(200)
+		}
+
+		it("should retire extra buffers once writers stop missing") {
+			val pool = new ElasticBufferPool(1, 100, 10000, 1, 50)
+			val initial = pool.acquireForWriting
+			val extra = pool.tryAcquireForWriting
+			extra should not be (null)
+			pool.getBufferCount should be(2)
+
+			Thread.sleep(100)
+			pool.release(extra)
+			pool.release(initial)
+
+			pool.getBufferCount should be(1)
+			pool.getAllocatedBytes should be(100)
+			pool.isEmpty should be(true)
+		}
+
+		it("should keep extra buffers while writers are still missing") {
+			val pool = new ElasticBufferPool(1, 100, 10000, 1, 60000)
+			pool.acquireForWriting
+			val extra = pool.tryAcquireForWriting
+
+			pool.release(extra)
+			pool.getBufferCount should be(2)
+			pool.numWritableBuffers should be(1)
+		}
+
+		it("should treat extra buffers as full according to their own length") {
+			val pool = new ElasticBufferPool(1, 10, 10000, 1, 60000)
+			pool.acquireForWriting
+			pool.tryAcquireForWriting
+			val extra = pool.tryAcquireForWriting // 20 bytes long
+			extra.write(new Array[Byte](9))
+
+			// 9 bytes would fill one of the initial buffers, but not this one
+			pool.release(extra)
+			pool.numWritableBuffers should be(1)
+			pool.numReadableBuffers should be(1)
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue.test
+
+import org.scalatest.FunSpec
+import org.scalatest.concurrent.Conductors
+import org.scalatest.matchers.ShouldMatchers
+import org.scalatest.time.SpanSugar.convertIntToGrainOfTime
+
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream
+import com.secdec.bytefrog.common.queue.RingBufferTransport
+
+class RingBufferTransportSpec extends FunSpec with ShouldMatchers with Conductors {
+	override implicit def patienceConfig = PatienceConfig(timeout = 5000.millis)
+
+	/** Fills a 16 byte buffer past the point where the ring considers it full */
+	def fill(buffer: DataBufferOutputStream, value: Int) = for (i <- 1 to 15) buffer.writeByte(value)
+
+	def firstByte(buffer: DataBufferOutputStream) = buffer.toByteArray.head
+
+	describe("RingBufferTransport") {
+		it("should start empty") {
+			val ring = new RingBufferTransport(4, 16)
+
+			ring.isEmpty should be(true)
+			ring.numReadableBuffers should be(0)
+			ring.numWritableBuffers should be(4)
+		}
+
+		it("should hand out buffers to readers in the order they were claimed by writers") {
+			val ring = new RingBufferTransport(4, 16)
+
+			val first = ring.acquireForWriting
+			val second = ring.acquireForWriting
+
+			// commit out of order; the reader should still see the first claim first
+			fill(second, 2)
+			ring.release(second)
+			fill(first, 1)
+			ring.release(first)
+
+			val read1 = ring.acquireForReading
+			firstByte(read1) should equal(1)
+			read1.reset
+			ring.release(read1)
+
+			val read2 = ring.acquireForReading
+			firstByte(read2) should equal(2)
+			read2.reset
+			ring.release(read2)
+
+			ring.isEmpty should be(true)
+		}
+
+		it("should return null to writers once writing is disabled") {
+			val ring = new RingBufferTransport(1, 16)
+			ring.setWriteDisabled(true)
+
+			ring.acquireForWriting should be(null)
+		}
+
+		it("should block writers while the ring is full") {
+			val conductor = new Conductor
+			import conductor._
+
+			val ring = new RingBufferTransport(1, 16)
+
+			thread("writer-1") {
+				val buffer = ring.acquireForWriting
+				fill(buffer, 1)
+				ring.release(buffer)
+			}
+
+			thread("writer-2") {
+				waitForBeat(1)
+
+				val buffer = ring.acquireForWriting
+				buffer should not be (null)
+
+				beat should be(2)
+			}
+
+			thread("reader") {
+				waitForBeat(2)
+
+				val buffer = ring.acquireForReading
+				buffer.reset
+				ring.release(buffer)
+			}
+		}
+
+		it("should not hand out buffers to writers that won't wait while the ring is full") {
+			val ring = new RingBufferTransport(1, 16)
+
+			val buffer = ring.tryAcquireForWriting
+			buffer should not be (null)
+			fill(buffer, 1)
+			ring.release(buffer)
+
+			ring.tryAcquireForWriting should be(null)
+		}
+
+		it("should only hand out committed buffers to readers that won't wait") {
+			val ring = new RingBufferTransport(4, 16)
+
+			val first = ring.acquireForWriting
+			val second = ring.acquireForWriting
+			fill(second, 2)
+			ring.release(second)
+
+			// the next slot in line is still being written
+			ring.tryAcquireForReading should be(null)
+
+			fill(first, 1)
+			ring.release(first)
+
+			firstByte(ring.tryAcquireForReading) should equal(1)
+			firstByte(ring.tryAcquireForReading) should equal(2)
+			ring.tryAcquireForReading should be(null)
+		}
+
+		it("should keep handing a partly filled buffer to writers until it is full") {
+			val ring = new RingBufferTransport(2, 16)
+
+			val buffer = ring.acquireForWriting
+			buffer.writeByte(1)
+			ring.release(buffer)
+			ring.numReadableBuffers should be(1)
+
+			val again = ring.acquireForWriting
+			again should be theSameInstanceAs (buffer)
+			for (i <- 1 to 14) again.writeByte(1)
+			ring.release(again)
+
+			val read = ring.tryAcquireForReading
+			read should be theSameInstanceAs (buffer)
+			read.size should be(15)
+		}
+
+		it("should let readers that won't wait take a buffer that is held open") {
+			val ring = new RingBufferTransport(2, 16)
+
+			val buffer = ring.acquireForWriting
+			buffer.writeByte(1)
+			ring.release(buffer)
+
+			ring.tryAcquireForReading should be theSameInstanceAs (buffer)
+			(ring.acquireForWriting eq buffer) should be(false)
+		}
+
+		it("should not hand a buffer that is held open to readers that only want full ones") {
+			val ring = new RingBufferTransport(2, 16)
+
+			val buffer = ring.acquireForWriting
+			buffer.writeByte(1)
+			ring.release(buffer)
+			ring.tryAcquireFullForReading should be(null)
+
+			val again = ring.acquireForWriting
+			for (i <- 1 to 14) again.writeByte(1)
+			ring.release(again)
+			ring.tryAcquireFullForReading should be theSameInstanceAs (buffer)
+		}
+
+		it("should let waiting readers take a buffer that is held open, after a while") {
+			val ring = new RingBufferTransport(2, 16)
+
+			val buffer = ring.acquireForWriting
+			buffer.writeByte(1)
+			ring.release(buffer)
+
+			val read = ring.acquireForReading
+			read should be theSameInstanceAs (buffer)
+			read.toByteArray.toList should equal(List[Byte](1))
+		}
+
+		it("should block readers until a buffer is committed") {
+			val conductor = new Conductor
+			import conductor._
+
+			val ring = new RingBufferTransport(2, 16)
+
+			thread("reader") {
+				val buffer = ring.acquireForReading
+				firstByte(buffer) should equal(7)
+
+				beat should be(1)
+			}
+
+			thread("writer") {
+				val buffer = ring.acquireForWriting
+				fill(buffer, 7)
+
+				waitForBeat(1)
+				ring.release(buffer)
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.common.queue.test
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.common.queue.BufferPool
+import com.secdec.bytefrog.common.queue.BufferTransport
+import com.secdec.bytefrog.common.queue.RingBufferTransport
+import com.secdec.bytefrog.common.queue.SpillFile
+import com.secdec.bytefrog.common.queue.SpillingBufferTransport
+
+class SpillingBufferTransportSpec extends FunSpec with ShouldMatchers {
+
+	def spilling(inner: BufferTransport, limit: Int = 4096) =
+		new SpillingBufferTransport(inner, new SpillFile(null, 64, limit), 16)
+
+	// fills a buffer past the "full" threshold of a 16 byte pool
+	def write(transport: BufferTransport, value: Int) = {
+		val buffer = transport.tryAcquireForWriting
+		if (buffer != null) {
+			for (i <- 1 to 15) buffer.writeByte(value)
+			transport.release(buffer)
+		}
+		buffer != null
+	}
+
+	def read(transport: BufferTransport, count: Int = Int.MaxValue) = {
+		val values = ListBuffer[Int]()
+		val buffers = Iterator.continually { transport.tryAcquireForReading } take count
+		buffers takeWhile { _ != null } foreach { buffer =>
+			buffer.size should equal(15)
+			values += buffer.toByteArray()(0)
+			buffer.reset
+			transport.release(buffer)
+		}
+		values.toList
+	}
+
+	describe("SpillingBufferTransport") {
+		it("should keep handing out buffers to writers when nobody is reading") {
+			val transport = spilling(new BufferPool(2, 16))
+
+			for (i <- 0 until 20) write(transport, i) should be(true)
+			transport.numReadableBuffers should equal(20)
+		}
+
+		it("should give spilled data back to readers in the order it was written") {
+			for (inner <- List(new BufferPool(2, 16), new RingBufferTransport(2, 16))) {
+				val transport = spilling(inner)
+
+				for (i <- 0 until 20) write(transport, i)
+				read(transport) should equal((0 until 20).toList)
+				transport.isEmpty should be(true)
+			}
+		}
+
+		it("should keep the order when writers and readers take turns") {
+			val transport = spilling(new RingBufferTransport(2, 16))
+
+			for (i <- 0 until 5) write(transport, i)
+			val first = read(transport, 3)
+			for (i <- 5 until 10) write(transport, i)
+
+			first ++ read(transport) should equal((0 until 10).toList)
+		}
+
+		it("should stop making room for writers once the spill file is full") {
+			// 2 buffers in the pool, plus 3 spilled records in each of 2 segments
+			val transport = spilling(new BufferPool(2, 16), 128)
+
+			val written = (Iterator.from(0) takeWhile { write(transport, _) }).size
+
+			written should equal(8)
+			read(transport) should equal((0 until 8).toList)
+		}
+
+		it("should wake up a waiting reader as soon as a writer releases a buffer") {
+			for (inner <- List(new BufferPool(2, 16), new RingBufferTransport(2, 16))) {
+				val transport = spilling(inner)
+				var value = -1
+				val reader = new Thread(new Runnable {
+					def run {
+						val buffer = transport.acquireForReading
+						value = buffer.toByteArray()(0)
+					}
+				})
+				reader.start
+				Thread.sleep(50)
+
+				write(transport, 7)
+				reader.join(50)
+				reader.isAlive should be(false)
+				value should equal(7)
+			}
+		}
+	}
+}
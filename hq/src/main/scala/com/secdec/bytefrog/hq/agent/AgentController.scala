@@ -61,9 +61,17 @@ class AgentController(protected val traceErrorController: TraceErrorController,
 	/** An observable stream of names of classes that get ignored by the Agent */
 	def classIgnoreEvents: EventStream[String] = classIgnoreEventSource
 
+	/** An observable stream of methods that the Agent stopped tracing because they were too hot */
+	def methodDemotions: EventStream[MethodDemoted] = methodDemotionSource
+	private val methodDemotionSource = new EventSource[MethodDemoted]
+
+	/** An observable stream of progress reports from the Agent retransforming classes after a filter update */
+	def retransformProgress: EventStream[RetransformProgress] = retransformProgressSource
+	private val retransformProgressSource = new EventSource[RetransformProgress]
+
 	/** An observable stream of data breaks reported by Agent */
-	def dataBreaks: EventStream[Int] = dataBreaksSource
-	private val dataBreaksSource = new EventSource[Int]
+	def dataBreaks: EventStream[Long] = dataBreaksSource
+	private val dataBreaksSource = new EventSource[Long]
 
 	/** Observable stream of new agent states */
 	def agentStateChange = stateManager.agentStateChange
@@ -81,7 +89,7 @@ class AgentController(protected val traceErrorController: TraceErrorController,
 
 	override protected def doLoop() = agentControlConnection.recieve() match {
 		// received a heartbeat
-		case hb @ Heartbeat(mode, bufferSize) =>
+		case hb @ Heartbeat(mode, bufferSize, _) =>
 			if (mode == AgentOperationMode.Shutdown &&
 				_lastHeartbeat != null && _lastHeartbeat.operationMode != mode) {
 				stateManager.handleCommand(AgentStateCommand.ReceivedShutdown)
@@ -98,9 +106,10 @@ class AgentController(protected val traceErrorController: TraceErrorController,
 			shutdown
 			traceErrorController.reportTraceError(ConditionalError("Control connection closed"))
 
-		case ClassTransformed(className) => classTransformEventSource fire className
-		case ClassIgnored(className) => classIgnoreEventSource fire className
-		case ClassTransformFailed(className) => classTransformFailEventSource fire className
+		case report: ClassReport => fireClassReport(report)
+		case ClassReports(reports) => reports foreach fireClassReport
+		case demotion: MethodDemoted => methodDemotionSource fire demotion
+		case progress: RetransformProgress => retransformProgressSource fire progress
 
 		case DataBreak(seq) => dataBreaksSource fire seq
 
@@ -110,6 +119,12 @@ class AgentController(protected val traceErrorController: TraceErrorController,
 			traceErrorController.reportTraceError(UnexpectedError("Bad control message"))
 	}
 
+	private def fireClassReport(report: ClassReport) = report match {
+		case ClassTransformed(className) => classTransformEventSource fire className
+		case ClassIgnored(className) => classIgnoreEventSource fire className
+		case ClassTransformFailed(className) => classTransformFailEventSource fire className
+	}
+
 	override protected def postLoop = {
 		complete
 		agentControlConnection.close
@@ -136,4 +151,8 @@ class AgentController(protected val traceErrorController: TraceErrorController,
 
 	/** Suspend tracing (i.e., keep running, but stop collecting data) */
 	def suspendTracing() = stateManager.handleCommand(AgentStateCommand.Suspend)
+
+	/** Replace the Agent's inclusion/exclusion rules without interrupting the trace */
+	def updateFilters(exclusions: List[String], inclusions: List[String]) =
+		agentControlConnection.send(FilterUpdate(exclusions, inclusions))
 }
\ No newline at end of file
@@ -25,10 +25,35 @@ import java.io.FileOutputStream
 import java.io.OutputStream
 import java.util.Properties
 
+import com.secdec.bytefrog.common.config.EventClockMode
+
 /** Covers low-level agent configuration.
   */
 case class AgentConfiguration(
 	heartbeatInterval: Integer = 1000,
 	bufferMemoryBudget: Integer = 50 * 512,
 	poolRetryCount: Integer = 5,
-	numDataSenders: Integer = 1)
\ No newline at end of file
+	numDataSenders: Integer = 1,
+	threadLocalBuffering: Boolean = false,
+	threadBufferFlushInterval: Integer = 50,
+	ringBufferTransport: Boolean = false,
+	directBuffers: Boolean = false,
+	perThreadSequencing: Boolean = false,
+	eventClock: EventClockMode = EventClockMode.Millis,
+	coarseClockResolution: Integer = 1000,
+	threadNameCheckInterval: Integer = 1000,
+	hotMethodThreshold: Integer = 0,
+	hotMethodWindow: Integer = 1000,
+	reportIgnoredClasses: Boolean = true,
+	spanMode: Boolean = false,
+	aggregationInterval: Integer = 0,
+	compressionLevel: Integer = 0,
+	sharedMemoryRingSize: Integer = 0,
+	spillFileLimit: Integer = 0,
+	lossyBackpressure: Boolean = false,
+	maxBufferMemoryBudget: Integer = 0) {
+
+	// only the agent's heap buffer pool can grow past the budget
+	require(maxBufferMemoryBudget <= bufferMemoryBudget || !(directBuffers || ringBufferTransport),
+		"maxBufferMemoryBudget can't be used with directBuffers or ringBufferTransport")
+}
\ No newline at end of file
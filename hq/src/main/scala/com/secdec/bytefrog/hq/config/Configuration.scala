@@ -20,6 +20,7 @@
 package com.secdec.bytefrog.hq.config
 
 import com.secdec.bytefrog.common.config.RuntimeAgentConfigurationV1
+import com.secdec.bytefrog.common.config.SamplingRule
 
 /** Builds a RuntimeAgentConfiguration with a given trace configuration and agent
   * configuration.
@@ -29,11 +30,13 @@ object Configuration {
 
 		val exclusions = new java.util.ArrayList[String]
 		val inclusions = new java.util.ArrayList[String]
+		val sampling = new java.util.ArrayList[SamplingRule]
 
 		for (exc <- traceSettings.exclusions) exclusions add exc
 		for (inc <- traceSettings.inclusions) inclusions add inc
+		for (rule <- traceSettings.sampling) sampling add rule
 
-		new RuntimeAgentConfigurationV1(
+		val config = new RuntimeAgentConfigurationV1(
 			runId,
 			agentConfiguration.heartbeatInterval,
 			exclusions,
@@ -41,5 +44,29 @@ object Configuration {
 			agentConfiguration.bufferMemoryBudget,
 			agentConfiguration.poolRetryCount,
 			agentConfiguration.numDataSenders)
+
+		config setThreadLocalBuffering agentConfiguration.threadLocalBuffering
+		config setThreadBufferFlushInterval agentConfiguration.threadBufferFlushInterval
+		config setRingBufferTransport agentConfiguration.ringBufferTransport
+		config setDirectBuffers agentConfiguration.directBuffers
+		config setPerThreadSequencing agentConfiguration.perThreadSequencing
+		config setEventClock agentConfiguration.eventClock
+		config setCoarseClockResolution agentConfiguration.coarseClockResolution
+		config setThreadNameCheckInterval agentConfiguration.threadNameCheckInterval
+		config setSamplingRules sampling
+		config setHotMethodThreshold agentConfiguration.hotMethodThreshold
+		config setHotMethodWindow agentConfiguration.hotMethodWindow
+		config setReportIgnoredClasses agentConfiguration.reportIgnoredClasses
+		config setSpanMode agentConfiguration.spanMode
+		config setAggregationInterval agentConfiguration.aggregationInterval
+		config setCompressionLevel agentConfiguration.compressionLevel
+		config setSharedMemoryRingSize agentConfiguration.sharedMemoryRingSize
+		config setSpillFileLimit agentConfiguration.spillFileLimit
+		config setLossyBackpressure agentConfiguration.lossyBackpressure
+		config setMaxBufferMemoryBudget agentConfiguration.maxBufferMemoryBudget
+		config setTrivialMethodSize traceSettings.trivialMethodSize
+		config setSkipSyntheticMethods traceSettings.skipSyntheticMethods
+
+		config
 	}
 }
\ No newline at end of file
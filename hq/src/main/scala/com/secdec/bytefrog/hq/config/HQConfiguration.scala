@@ -23,4 +23,5 @@ package com.secdec.bytefrog.hq.config
   */
 case class HQConfiguration(
 	dataQueueMaximumSize: Int = 1024,
-	sortQueueInitialSize: Int = 512)
\ No newline at end of file
+	sortQueueInitialSize: Int = 512,
+	threadMergeWindow: Int = 100)
\ No newline at end of file
@@ -19,6 +19,17 @@
 
 package com.secdec.bytefrog.hq.config
 
+import com.secdec.bytefrog.common.config.SamplingRule
+
+/** Decides what gets traced. Classes are picked with `exclusions` and `inclusions`;
+  * `sampling` rules then decide whether only some of the calls to a method get traced.
+  * Methods with no branches, at most one call, and no more than `trivialMethodSize`
+  * instructions (0 turns this off) are left uninstrumented, as are synthetic and bridge
+  * methods if `skipSyntheticMethods` is set.
+  */
 case class TraceSettings(
 	exclusions: List[String] = Nil,
-	inclusions: List[String] = Nil)
\ No newline at end of file
+	inclusions: List[String] = Nil,
+	sampling: List[SamplingRule] = Nil,
+	trivialMethodSize: Int = 0,
+	skipSyntheticMethods: Boolean = false)
\ No newline at end of file
@@ -19,13 +19,19 @@
 
 package com.secdec.bytefrog.hq.connect
 
+import java.io.IOException
 import java.util.concurrent.TimeoutException
 
 import scala.concurrent.Await
 import scala.concurrent.duration.DurationInt
+import scala.util.Failure
+import scala.util.Try
 
 import com.secdec.bytefrog.common.connect.Connection
+import com.secdec.bytefrog.common.connect.MappedRing
+import com.secdec.bytefrog.common.connect.SocketConnection
 import com.secdec.bytefrog.common.message.MessageConstantsV1
+import com.secdec.bytefrog.common.message.MessageConstantsV2
 import com.secdec.bytefrog.hq.protocol.ControlMessage._
 import com.secdec.bytefrog.hq.protocol._
 
@@ -56,16 +62,25 @@ class ClientGreeter(
 		val firstByte = client.input.readByte
 		val secondByte = client.input.readByte
 
-		//the 2 bytes should either be [Hello, protocolVersion] or [DataHello, runId]
+		//the 2 bytes should either be [Hello, protocolVersion], [DataHello, runId],
+		//or [DataHelloMapped, runId] followed by the path of the ring file
 		(firstByte, secondByte) match {
 			case (MessageConstantsV1.MsgHello, protocolVersion) => handleHello(protocolVersion)
 			case (MessageConstantsV1.MsgDataHello, runId) => handleDataHello(runId)
+			case (MessageConstantsV2.MsgDataHelloMapped, runId) =>
+				handleDataHello(runId, Some(client.input.readUTF))
 			case _ =>
 				latestProtocol.writeError(client.output, "Unexpected Input Format")
 				client.close
 		}
 	}
 
+	/** Whether the client connected from this machine. Only local clients get their rings mapped. */
+	protected def clientIsLocal: Boolean = client match {
+		case socketConnection: SocketConnection => socketConnection.socket.getInetAddress.isLoopbackAddress
+		case _ => false
+	}
+
 	/** Handle the client connection as an incoming control connection. As long as the
 	  * `senderOpt` is defined, the client will be added to the `controlConnector` in
 	  * order to receive a Configuration message, which will be used to reply to the
@@ -76,9 +91,17 @@ class ClientGreeter(
 	  * 		an error to the client.
 	  */
 	def handleHello(protocolVersion: Int): Unit = {
+		/* Agents from protocol version 2 on offer the newest version they speak, and
+		 * expect a hello back with the version to use, which is the newest one that
+		 * both sides know. Version 1 agents get no such reply.
+		 */
+		val version =
+			if (protocolVersion >= 2) math.min(protocolVersion, latestProtocolVersion)
+			else protocolVersion
+
 		val readerWriterOpt = for {
-			reader <- getControlMessageReader(protocolVersion)
-			writer <- getControlMessageSender(protocolVersion)
+			reader <- getControlMessageReader(version)
+			writer <- getControlMessageSender(version)
 		} yield (reader, writer)
 
 		readerWriterOpt match {
@@ -88,8 +111,14 @@ class ClientGreeter(
 				client.close
 			case Some((receiver, sender)) =>
 
+				if (protocolVersion >= 2) {
+					for (protocol <- getMessageProtocol(version))
+						protocol.writeHello(client.output)
+					client.output.flush
+				}
+
 				val controlConnection = new ControlConnection(
-					protocolVersion,
+					version,
 					client,
 					receiver,
 					sender)
@@ -121,8 +150,13 @@ class ClientGreeter(
 	  *
 	  * @param runId A byte identifier which should uniquely identify the Trace that the client should
 	  * be connected to.
+	  * @param ringPath The path of the shared memory ring file that the client writes its data into,
+	  * if it asked for one. Rings are only mapped for clients on the loopback interface, and only
+	  * from agent ring files in the temp directory (see `MappedRing.openTemporary`). If the ring
+	  * can't be mapped, the client is sent an error and closed, and is expected to come back with a
+	  * plain data hello.
 	  */
-	def handleDataHello(runId: Byte): Unit = {
+	def handleDataHello(runId: Byte, ringPath: Option[String] = None): Unit = {
 		val traceFuture = traceRegistry getTrace runId
 
 		try {
@@ -148,18 +182,39 @@ class ClientGreeter(
 					client.close
 
 				case Some((controlSender, dataParser)) =>
-					// turn the client into a data connection
-					val dataConnection = new DataConnection(client, dataParser)
-
-					// hand off the connection to the trace
-					if (trace addDataConnection dataConnection) {
-						controlSender.sendMessages(client)(DataHelloReply)
-					} else {
-						// Failed to add the data connection to the trace.
-						// Send an error and close the connection.
-						controlSender.sendMessages(client)(
-							Error("Failed to associate the data connection with the trace"))
-						client.close
+					val ringTry = ringPath map { path =>
+						Try {
+							if (!clientIsLocal)
+								throw new IOException("the client didn't connect from this machine")
+							MappedRing openTemporary path
+						}
+					}
+
+					ringTry match {
+						case Some(Failure(e)) =>
+							// Couldn't or wouldn't map the ring (e.g. the agent is on another machine).
+							// Send an error and close the connection.
+							controlSender.sendMessages(client)(
+								Error("Failed to map the shared memory ring: " + e.getMessage))
+							client.close
+
+						case _ =>
+							// turn the client into a data connection; data that goes
+							// through a ring is never compressed
+							val ring = ringTry map { _.get }
+							val dataConnection = new DataConnection(client, dataParser,
+								trace.compressedData && ring.isEmpty, ring)
+
+							// hand off the connection to the trace
+							if (trace addDataConnection dataConnection) {
+								controlSender.sendMessages(client)(DataHelloReply)
+							} else {
+								// Failed to add the data connection to the trace.
+								// Send an error and close the connection.
+								controlSender.sendMessages(client)(
+									Error("Failed to associate the data connection with the trace"))
+								client.close
+							}
 					}
 			}
 		} catch {
@@ -19,7 +19,11 @@
 
 package com.secdec.bytefrog.hq.connect
 
+import java.io.DataInputStream
+
+import com.secdec.bytefrog.common.connect.CompressedBlockInputStream
 import com.secdec.bytefrog.common.connect.Connection
+import com.secdec.bytefrog.common.connect.MappedRing
 import com.secdec.bytefrog.hq.protocol.DataMessageHandler
 import com.secdec.bytefrog.hq.protocol.DataMessageParser
 
@@ -30,14 +34,22 @@ import com.secdec.bytefrog.hq.protocol.DataMessageParser
   *
   * @param connection the underlying [[Connection]] to be used
   * @param eventReader a [[DataEventReader]] that will be used to parse incoming data events
+  * @param compressed whether the Agent sends its data as compressed blocks
+  * @param ring the shared memory ring that the Agent writes its data into, if
+  * it doesn't send data through the connection itself
   */
-class DataConnection(connection: Connection, parser: DataMessageParser) {
+class DataConnection(
+	connection: Connection,
+	parser: DataMessageParser,
+	compressed: Boolean = false,
+	ring: Option[MappedRing] = None) {
 
-	/** Closes the underlying connection.
+	/** Closes the underlying connection (and the reading side of the ring, if there is one).
 	  * After closing, calls to `readEvent` are expected to fail, though
 	  * in the case of buffered streams, there is no guarantee of failure.
 	  */
 	def close: Unit = {
+		ring foreach { _.closeReader }
 		connection.close
 	}
 
@@ -46,6 +58,15 @@ class DataConnection(connection: Connection, parser: DataMessageParser) {
 	  * connection is closed or reaches EOF.
 	  */
 	def readEvents(handler: DataMessageHandler): Unit = {
-		parser.parse(connection.input, handler)
+		val source = ring match {
+			case Some(r) => new DataInputStream(r.inputStream)
+			case None => connection.input
+		}
+
+		val input =
+			if (compressed) new DataInputStream(new CompressedBlockInputStream(source))
+			else source
+
+		parser.parse(input, handler)
 	}
 }
\ No newline at end of file
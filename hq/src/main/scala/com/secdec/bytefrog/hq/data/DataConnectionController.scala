@@ -43,7 +43,7 @@ class DataConnectionController(dataConnection: DataConnection, dataCollector: Da
 		import DataMessage._
 		import DataMessageContent._
 
-		override def handleMapThreadName(threadName: String, threadId: Int, timestamp: Int) {
+		override def handleMapThreadName(threadName: String, threadId: Int, timestamp: Long) {
 			dataCollector ! UnsequencedData(MapThreadName(threadName, threadId, timestamp))
 		}
 
@@ -51,27 +51,44 @@ class DataConnectionController(dataConnection: DataConnection, dataCollector: Da
 			dataCollector ! UnsequencedData(MapMethodSignature(methodSig, methodId))
 		}
 
+		override def handleMapMethodSampling(methodId: Int, interval: Int) {
+			dataCollector ! UnsequencedData(MapMethodSampling(methodId, interval))
+		}
+
 		override def handleMapException(exception: String, exceptionId: Int) {
 			dataCollector ! UnsequencedData(MapException(exception, exceptionId))
 		}
 
-		override def handleMethodEntry(methodId: Int, timestamp: Int, sequenceId: Int, threadId: Int) {
+		override def handleMethodEntry(methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int) {
 			dataCollector ! SequencedData(timestamp, sequenceId, MethodEntry(methodId, timestamp, threadId))
 		}
 
-		override def handleMethodExit(methodId: Int, timestamp: Int, sequenceId: Int, lineNum: Int, threadId: Int) {
+		override def handleMethodExit(methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int) {
 			dataCollector ! SequencedData(timestamp, sequenceId, MethodExit(methodId, timestamp, lineNum, threadId))
 		}
 
-		override def handleExceptionMessage(exception: Int, methodId: Int, timestamp: Int, sequenceId: Int, lineNum: Int, threadId: Int) {
+		override def handleMethodSpan(methodId: Int, startTime: Long, duration: Long, depth: Int, sequenceId: Int, lineNum: Int, threadId: Int) {
+			// spans are sequenced when the method exits, so that's when they're ordered
+			dataCollector ! SequencedData(startTime + duration, sequenceId, MethodSpan(methodId, startTime, duration, depth, lineNum, threadId))
+		}
+
+		override def handleExceptionMessage(exception: Int, methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int) {
 			dataCollector ! SequencedData(timestamp, sequenceId, Exception(exception, methodId, timestamp, lineNum, threadId))
 		}
 
-		override def handleExceptionBubble(exception: Int, methodId: Int, timestamp: Int, sequenceId: Int, threadId: Int) {
+		override def handleExceptionBubble(exception: Int, methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int) {
 			dataCollector ! SequencedData(timestamp, sequenceId, ExceptionBubble(exception, methodId, timestamp, threadId))
 		}
 
-		override def handleMarkerMessage(timestamp: Int, sequence: Int, key: String, value: String) {
+		override def handleEventGap(fromSequence: Int, count: Int, timestamp: Long, sequenceId: Int, threadId: Int) {
+			dataCollector ! SequencedData(timestamp, sequenceId, EventGap(fromSequence, count, timestamp, threadId))
+		}
+
+		override def handleMethodStats(timestamp: Long, methods: Seq[MethodStats]) {
+			dataCollector ! UnsequencedData(MethodStatsSnapshot(timestamp, methods.toList))
+		}
+
+		override def handleMarkerMessage(timestamp: Long, sequence: Int, key: String, value: String) {
 			dataCollector ! SequencedData(timestamp, sequence, Marker(key, value, timestamp))
 		}
 
@@ -22,15 +22,18 @@ package com.secdec.bytefrog.hq.data.collection
 import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.PriorityBlockingQueue
 import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
 
 import scala.collection.mutable.ArrayBuffer
 import scala.collection.mutable.Queue
 
+import com.secdec.bytefrog.common.config.EventClockMode
 import com.secdec.bytefrog.hq.data.DataConnectionController
 import com.secdec.bytefrog.hq.data.processing.DataRouter
 import com.secdec.bytefrog.hq.errors.TraceErrorController
 import com.secdec.bytefrog.hq.errors.UnexpectedError
 import com.secdec.bytefrog.hq.protocol.DataMessage
+import com.secdec.bytefrog.hq.protocol.DataMessageContent
 import com.secdec.bytefrog.hq.trace.players.LoopPlayer
 
 /** DataCollector is responsible for collecting semi-sorted data fed into it, and feeding it back out in
@@ -46,9 +49,20 @@ import com.secdec.bytefrog.hq.trace.players.LoopPlayer
   * ended, so we need not be concerned with player stopping. For immediate halt cases, cleanup is
   * implemented.
   *
+  * When the agent uses per-thread sequencing, sequence IDs only mean something within a thread, so the
+  * global reorder is replaced by a `ThreadMerger`, which orders each thread's data separately and merges
+  * the threads by timestamp. The merge window is given in milliseconds, and is scaled to the unit of
+  * the agent's `eventClock` before being compared to timestamps.
+  *
+  * An agent with lossy backpressure drops events instead of waiting for buffers. Dropped events never
+  * take a sequence ID, so there is nothing to wait for; each thread's drops show up as an `EventGap`
+  * in their place, which is routed like any other event and counted here, so that the loss can be
+  * reported once the trace is done.
+  *
   * @author robertf
   */
-class DataCollector(traceErrorController: TraceErrorController, dataRouter: DataRouter, initialSortQueueSize: Int, maximumDataQueueSize: Int)
+class DataCollector(traceErrorController: TraceErrorController, dataRouter: DataRouter, initialSortQueueSize: Int, maximumDataQueueSize: Int,
+	perThreadSequencing: Boolean = false, threadMergeWindow: Int = 100, eventClock: EventClockMode = EventClockMode.Millis)
 	extends LoopPlayer {
 
 	private val dataQueue = new ConcurrentLinkedQueue[DataMessage]
@@ -57,10 +71,17 @@ class DataCollector(traceErrorController: TraceErrorController, dataRouter: Data
 	private var complete = false
 
 	private val dataBreaks = Queue[Int]()
+	private var droppedEvents = 0L
 
 	private var currentSeq = 0;
 	private val sortQueue = new PriorityBlockingQueue[DataMessage.SequencedData](initialSortQueueSize, DataOrdering)
 
+	private val threadMerger =
+		if (perThreadSequencing) {
+			val mergeWindow = ThreadMerger.windowFor(threadMergeWindow, eventClock)
+			Some(new ThreadMerger(mergeWindow, maximumDataQueueSize, routeMessage, () => dataRouter.routeDataBreak))
+		} else None
+
 	private val connections = ArrayBuffer.empty[DataConnectionController]
 
 	def registerDataConnection(connection: DataConnectionController) = connections.synchronized {
@@ -90,18 +111,33 @@ class DataCollector(traceErrorController: TraceErrorController, dataRouter: Data
 		dataQueueReadSem.release
 	}
 
-	def reportDataBreak(sequence: Int) {
+	def reportDataBreak(sequence: Long): Unit = threadMerger match {
+		// with per-thread sequencing, the agent reports the break's timestamp instead
+		case Some(merger) => merger.synchronized { merger reportDataBreak sequence }
+		case None => reportSequencedDataBreak(sequence.toInt)
+	}
+
+	private def reportSequencedDataBreak(sequence: Int) {
 		for (last <- dataBreaks.lastOption) assert(sequence > last)
 		if (sequence <= currentSeq) throw new IllegalStateException("Told about a data break too late")
 		dataBreaks enqueue sequence
 	}
 
 	protected def doLoop = {
-		dataQueueReadSem.acquire
+		threadMerger match {
+			case Some(merger) =>
+				// when the data stops coming in for a while, don't keep the last of it waiting for more
+				while (!dataQueueReadSem.tryAcquire(threadMergeWindow, TimeUnit.MILLISECONDS))
+					merger.synchronized { merger pump true }
+
+			case None =>
+				dataQueueReadSem.acquire
+		}
+
 		if (!complete) {
 			dataQueue.poll match {
 				case d: DataMessage.SequencedData =>
-					sortQueue put d
+					sort(d)
 					pumpQueue
 
 				case d: DataMessage.UnsequencedData =>
@@ -114,7 +150,7 @@ class DataCollector(traceErrorController: TraceErrorController, dataRouter: Data
 			while (dataQueueReadSem.tryAcquire) {
 				dataQueue.poll match {
 					case d: DataMessage.SequencedData =>
-						sortQueue put d
+						sort(d)
 
 					case d: DataMessage.UnsequencedData =>
 						routeMessage(d)
@@ -127,7 +163,17 @@ class DataCollector(traceErrorController: TraceErrorController, dataRouter: Data
 		}
 	}
 
-	private def pumpQueue {
+	private def sort(data: DataMessage.SequencedData) = threadMerger match {
+		case Some(merger) => merger.synchronized { merger put data }
+		case None => sortQueue put data
+	}
+
+	private def pumpQueue: Unit = threadMerger match {
+		case Some(merger) => merger.synchronized { merger pump false }
+		case None => pumpSortQueue
+	}
+
+	private def pumpSortQueue {
 		while (!sortQueue.isEmpty && sortQueue.peek.sequence == currentSeq) {
 			for (nextBreak <- dataBreaks.headOption)
 				if (currentSeq == nextBreak) {
@@ -143,14 +189,28 @@ class DataCollector(traceErrorController: TraceErrorController, dataRouter: Data
 	private def finishProcessing {
 		// pump the queue one last time
 		pumpQueue
+		for (merger <- threadMerger) merger.synchronized { merger pump true }
 
 		// make sure the sort queue is empty (it should be)
-		if (!sortQueue.isEmpty)
+		if (!sortQueue.isEmpty || threadMerger.exists(!_.isEmpty))
 			traceErrorController.reportTraceError(UnexpectedError("Incomplete data detected (data queue not empty after processing ended)."))
 
+		if (droppedEvents > 0)
+			traceErrorController.reportTraceWarning(UnexpectedError(s"The agent dropped $droppedEvents events rather than wait for buffers."))
+
 		dataRouter.finish
 		shutdown
 	}
 
-	private def routeMessage(message: DataMessage) = dataRouter route message.content
+	private def routeMessage(message: DataMessage) = {
+		message.content match {
+			case DataMessageContent.EventGap(_, count, _, _) => droppedEvents += count
+			case _ =>
+		}
+
+		dataRouter route message.content
+	}
+
+	/** The number of events the agent dropped, as reported by the gaps routed so far */
+	def droppedEventCount = droppedEvents
 }
\ No newline at end of file
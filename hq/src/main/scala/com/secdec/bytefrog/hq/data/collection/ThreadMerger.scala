@@ -0,0 +1,142 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.hq.data.collection
+
+import java.util.Comparator
+import java.util.PriorityQueue
+
+import scala.collection.mutable.HashMap
+import scala.collection.mutable.Queue
+
+import com.secdec.bytefrog.common.config.EventClockMode
+import com.secdec.bytefrog.hq.protocol.DataMessage.SequencedData
+import com.secdec.bytefrog.hq.protocol.DataMessageContent._
+
+/** Puts sequenced data back in order when the agent numbers each thread's events separately
+  * (per-thread sequencing). Each thread's events are released strictly in sequence order; the
+  * threads are then merged by timestamp, with the event timestamps acting as a coarse epoch that is
+  * shared by all threads.
+  *
+  * Since a thread's events may arrive later than another thread's, an event that is next in line
+  * for its thread is held until the latest timestamp seen is at least `mergeWindow` past its own
+  * (in the unit of the timestamps, i.e. milliseconds or microseconds depending on the agent's event
+  * clock), until more than `maxHeld` events are being held, or until a flush. Events from
+  * different threads that arrive further apart than that may be released slightly out of
+  * timestamp order, but never out of order within a thread.
+  *
+  * Markers don't belong to a thread; they are sequenced on their own, as if by a separate thread.
+  *
+  * This class is not thread safe; it is meant to be used by the DataCollector's thread only.
+  */
+class ThreadMerger(mergeWindow: Long, maxHeld: Int, route: SequencedData => Unit, routeDataBreak: () => Unit) {
+	import ThreadMerger._
+
+	private val nextSequence = HashMap.empty[Int, Int]
+	private val waiting = HashMap.empty[Int, PriorityQueue[SequencedData]]
+	private val ready = new PriorityQueue[SequencedData](16, MergeOrdering)
+	private val dataBreaks = Queue[Long]()
+
+	private var held = 0
+	private var latestTimestamp = Long.MinValue
+
+	def isEmpty = held == 0
+
+	/** Takes in a data point. Nothing is routed until `pump` is called. */
+	def put(data: SequencedData) {
+		held += 1
+		latestTimestamp = math.max(latestTimestamp, data.timestamp)
+
+		val thread = threadOf(data)
+		if (data.sequence == nextSequence.getOrElse(thread, 0))
+			ready add data
+		else
+			waiting.getOrElseUpdate(thread, new PriorityQueue[SequencedData](16, DataOrdering)) add data
+	}
+
+	/** Notes a data break. With per-thread sequencing, a data break is placed by timestamp; it is
+	  * routed just before the first event that is at least as late as the break.
+	  */
+	def reportDataBreak(timestamp: Long) {
+		dataBreaks enqueue timestamp
+	}
+
+	/** Routes everything that is ready to go.
+	  * @param flush If true, don't wait for the merge window; route everything that is next in line
+	  * for its thread.
+	  */
+	def pump(flush: Boolean) {
+		while (!ready.isEmpty && (flush || held > maxHeld || ready.peek.timestamp <= latestTimestamp - mergeWindow)) {
+			val data = ready.poll
+			held -= 1
+
+			while (!dataBreaks.isEmpty && dataBreaks.head <= data.timestamp) {
+				dataBreaks.dequeue
+				routeDataBreak()
+			}
+
+			// the thread's next event (if we have it) is now in line
+			val thread = threadOf(data)
+			val next = data.sequence + 1
+			nextSequence(thread) = next
+			for (queue <- waiting get thread) {
+				if (!queue.isEmpty && queue.peek.sequence == next)
+					ready add queue.poll
+				if (queue.isEmpty)
+					waiting -= thread
+			}
+
+			route(data)
+		}
+	}
+}
+
+object ThreadMerger {
+	/** The thread id that markers are sequenced under */
+	val MarkerThread = -1
+
+	/** Converts a merge window in milliseconds to the unit of the timestamps made by `clock` */
+	def windowFor(windowMillis: Int, clock: EventClockMode): Long = clock match {
+		case EventClockMode.Micros | EventClockMode.CoarseMicros => windowMillis * 1000L
+		case _ => windowMillis
+	}
+
+	def threadOf(data: SequencedData) = data.content match {
+		case MethodEntry(_, _, threadId) => threadId
+		case MethodExit(_, _, _, threadId) => threadId
+		case MethodSpan(_, _, _, _, _, threadId) => threadId
+		case Exception(_, _, _, _, threadId) => threadId
+		case ExceptionBubble(_, _, _, threadId) => threadId
+		case EventGap(_, _, _, threadId) => threadId
+		case _ => MarkerThread
+	}
+
+	/** Orders data that is next in line for its thread by timestamp, breaking ties consistently. */
+	object MergeOrdering extends Comparator[SequencedData] {
+		def compare(x1: SequencedData, x2: SequencedData): Int = {
+			val tc = x1.timestamp compare x2.timestamp
+			if (tc != 0) tc
+			else {
+				val thc = threadOf(x1) compare threadOf(x2)
+				if (thc != 0) thc
+				else DataOrdering.compare(x1, x2)
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.hq.data.processing
+
+import scala.collection.mutable.HashMap
+
+import com.secdec.bytefrog.hq.protocol.DataMessageContent
+import com.secdec.bytefrog.hq.protocol.DataMessageContent._
+
+/** A DataProcessor that adds up the per-method statistics snapshots sent by an agent in
+  * aggregation mode, giving a profile of the whole trace. Method signatures are picked up
+  * from the usual mapping messages. Individual events are ignored.
+  *
+  * The profile can be looked at while the trace is still running.
+  */
+class MethodStatsAccumulator extends DataProcessor {
+	import MethodStatsAccumulator._
+
+	private val signatures = HashMap.empty[Int, String]
+	private val totals = HashMap.empty[Int, Totals]
+
+	private var _snapshotCount = 0
+	def snapshotCount = synchronized { _snapshotCount }
+
+	def processMessage(message: DataMessageContent) = synchronized {
+		message match {
+			case MapMethodSignature(methodSig, methodId) =>
+				signatures(methodId) = methodSig
+
+			case MapClassMethods(_, methods) =>
+				for (MapMethodSignature(methodSig, methodId) <- methods)
+					signatures(methodId) = methodSig
+
+			case MethodStatsSnapshot(_, methods) =>
+				for (stats <- methods)
+					totals.getOrElseUpdate(stats.methodId, new Totals) += stats
+				_snapshotCount += 1
+
+			case _ =>
+		}
+	}
+
+	def processDataBreak() = ()
+
+	def finishProcessing() = ()
+
+	def cleanup() = ()
+
+	/** The accumulated statistics for every method that has been called so far,
+	  * busiest (by total time) first.
+	  */
+	def profile: List[MethodProfile] = synchronized {
+		val profiles = for ((methodId, t) <- totals) yield MethodProfile(
+			methodId, signatures get methodId,
+			t.calls, t.totalTime, t.selfTime, t.histogram.toVector)
+
+		profiles.toList.sortBy(-_.totalTime)
+	}
+}
+
+object MethodStatsAccumulator {
+
+	/** Everything known about the calls to a single method over the course of a trace. The
+	  * `histogram` buckets are the same as in [[DataMessageContent.MethodStats]].
+	  */
+	case class MethodProfile(
+		methodId: Int,
+		signature: Option[String],
+		calls: Long,
+		totalTime: Long,
+		selfTime: Long,
+		histogram: Vector[Long])
+
+	private class Totals {
+		var calls = 0L
+		var totalTime = 0L
+		var selfTime = 0L
+		var histogram = new Array[Long](0)
+
+		def +=(stats: MethodStats) = {
+			calls += stats.calls
+			totalTime += stats.totalTime
+			selfTime += stats.selfTime
+
+			if (stats.histogram.length > histogram.length)
+				histogram = histogram.padTo(stats.histogram.length, 0L)
+			for ((count, bucket) <- stats.histogram.zipWithIndex)
+				histogram(bucket) += count
+		}
+	}
+}
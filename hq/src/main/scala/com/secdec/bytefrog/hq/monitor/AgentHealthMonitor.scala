@@ -49,8 +49,17 @@ class AgentHealthMonitor(
 	def checkHealth = {
 		if (controller.lastHeartbeat != null) {
 			i += 1
-			if (i % 10 == 0) // print status every 10s
-				println(s"Agent is in ${controller.lastHeartbeat.operationMode}, [expected ${controller.currentState}], send queue size = ${controller.lastHeartbeat.sendQueueSize}")
+			if (i % 10 == 0) { // print status every 10s
+				val hb = controller.lastHeartbeat
+				val compression = for (ratio <- hb.compressionRatio; time <- hb.compressionTime)
+					yield f", compressed to ${ratio * 100}%.1f%% in $time ms"
+				val dropped = for (count <- hb.droppedEvents if count > 0) yield s", $count events dropped"
+				val droppedReports = for (count <- hb.droppedClassReports if count > 0)
+					yield s", $count class reports dropped"
+				val buffers = for ((inUse, count, memory) <- hb.bufferOccupancy)
+					yield s", $inUse/$count buffers in use (${memory / 1024} KB)"
+				println(s"Agent is in ${hb.operationMode}, [expected ${controller.currentState}], send queue size = ${hb.sendQueueSize}${compression getOrElse ""}${dropped getOrElse ""}${droppedReports getOrElse ""}${buffers getOrElse ""}")
+			}
 		}
 
 		val time = System.currentTimeMillis
@@ -24,6 +24,7 @@ import java.io.ObjectOutputStream
 
 import com.secdec.bytefrog.common.config.RuntimeAgentConfigurationV1
 import com.secdec.bytefrog.common.message.AgentOperationMode
+import com.secdec.bytefrog.common.message.MessageConstantsV2
 
 /** Common base trait for objects/classes that represent a "control" message.
   * Control messages are ones that are sent between HQ and the Agent; essentially
@@ -37,13 +38,65 @@ sealed trait ControlMessage
   */
 object ControlMessage {
 	case class Error(errorMessage: String) extends ControlMessage
-	case class Heartbeat(operationMode: AgentOperationMode, sendQueueSize: Integer) extends ControlMessage
 
-	case class ClassTransformed(className: String) extends ControlMessage
-	case class ClassTransformFailed(className: String) extends ControlMessage
-	case class ClassIgnored(className: String) extends ControlMessage
+	/** A sign of life from the Agent. Version 2 Agents also send `stats`: running totals indexed
+	  * by the `HeartbeatStat` constants in `MessageConstantsV2`.
+	  */
+	case class Heartbeat(operationMode: AgentOperationMode, sendQueueSize: Integer, stats: IndexedSeq[Long] = Vector.empty) extends ControlMessage {
+
+		/** Looks up one of the heartbeat's stats, if the Agent sent it */
+		def stat(index: Int): Option[Long] = stats.lift(index)
+
+		/** The ratio of compressed data size to uncompressed size, if the Agent compresses its data */
+		def compressionRatio: Option[Double] = for {
+			before <- stat(MessageConstantsV2.HeartbeatStatBytesBeforeCompression) if before > 0
+			after <- stat(MessageConstantsV2.HeartbeatStatBytesAfterCompression)
+		} yield after.toDouble / before
+
+		/** The time (in milliseconds) the Agent has spent compressing its data */
+		def compressionTime: Option[Long] =
+			stat(MessageConstantsV2.HeartbeatStatCompressionTime) map { _ / 1000000 }
+
+		/** The number of events the Agent's threads have dropped rather than wait for a buffer */
+		def droppedEvents: Option[Long] = stat(MessageConstantsV2.HeartbeatStatDroppedEvents)
+
+		/** The number of class transformation reports the Agent dropped because too many were queued */
+		def droppedClassReports: Option[Long] = stat(MessageConstantsV2.HeartbeatStatDroppedClassReports)
+
+		/** The number of buffers in use, out of how many, and the bytes allocated to them, if the
+		  * Agent's buffer pool is elastic
+		  */
+		def bufferOccupancy: Option[(Long, Long, Long)] = for {
+			count <- stat(MessageConstantsV2.HeartbeatStatBufferCount) if count > 0
+			inUse <- stat(MessageConstantsV2.HeartbeatStatBuffersInUse)
+			memory <- stat(MessageConstantsV2.HeartbeatStatBufferMemory)
+		} yield (inUse, count, memory)
+	}
+
+	/** What happened to a class when the Agent went to instrument it */
+	sealed trait ClassReport extends ControlMessage {
+		def className: String
+	}
+
+	case class ClassTransformed(className: String) extends ClassReport
+	case class ClassTransformFailed(className: String) extends ClassReport
+	case class ClassIgnored(className: String) extends ClassReport
 
-	case class DataBreak(sequenceId: Int) extends ControlMessage
+	/** A batch of [[ClassReport]]s, in the order the Agent made them */
+	case class ClassReports(reports: List[ClassReport]) extends ControlMessage
+
+	/** The Agent stopped tracing a method because it was producing more than its share of
+	  * events (`eventRate` is in events per second). Events for the method that come after
+	  * `timestamp` won't be sent, so any of its calls still open at that point won't exit.
+	  */
+	case class MethodDemoted(methodId: Int, methodSig: String, eventRate: Int, timestamp: Long) extends ControlMessage
+
+	/** Progress the Agent has made retransforming the loaded classes affected by a
+	  * [[FilterUpdate]]. A report with `classesDone == classesTotal` means it's finished.
+	  */
+	case class RetransformProgress(classesDone: Int, classesTotal: Int) extends ControlMessage
+
+	case class DataBreak(sequenceId: Long) extends ControlMessage
 
 	case object DataHelloReply extends ControlMessage
 
@@ -54,6 +107,11 @@ object ControlMessage {
 	case object Suspend extends ControlMessage
 	case object Unsuspend extends ControlMessage
 
+	/** Replaces the inclusion/exclusion rules of a running trace. The Agent retransforms
+	  * the loaded classes that are affected, reporting its progress as it goes.
+	  */
+	case class FilterUpdate(exclusions: List[String], inclusions: List[String]) extends ControlMessage
+
 	case object Unknown extends ControlMessage
 	case object EOF extends ControlMessage
 
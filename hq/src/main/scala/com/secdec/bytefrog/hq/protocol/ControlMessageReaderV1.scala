@@ -26,6 +26,7 @@ import java.net.SocketException
 
 import com.secdec.bytefrog.common.message.AgentOperationMode
 import com.secdec.bytefrog.common.message.MessageConstantsV1
+import com.secdec.bytefrog.common.message.MessageConstantsV2
 
 /** Convenient singleton instance of the ControlMessageReaderV1 class.
   * This is okay to do because the ControlMessageReaderV1 class doesn't
@@ -52,6 +53,21 @@ class ControlMessageReaderV1 extends ControlMessageReader {
 		}
 	}
 
+	// a data break whose position didn't fit in 4 bytes
+	private val DataBreakWide = (MessageConstantsV1.MsgDataBreak | MessageConstantsV1.MsgWideFlag).toByte
+
+	private def readClassReports(stream: DataInputStream): List[ControlMessage.ClassReport] = {
+		val count = stream.readInt
+		List.fill(count) {
+			stream.readByte match {
+				case MessageConstantsV1.MsgClassTransformed => ControlMessage.ClassTransformed(stream.readUTF)
+				case MessageConstantsV1.MsgClassIgnored => ControlMessage.ClassIgnored(stream.readUTF)
+				case MessageConstantsV1.MsgClassTransformFailed => ControlMessage.ClassTransformFailed(stream.readUTF)
+				case _ => throw new IOException("unknown class report type")
+			}
+		}
+	}
+
 	def readMessage(stream: DataInputStream): ControlMessage = try {
 		stream.readByte match {
 			case MessageConstantsV1.MsgError => ControlMessage.Error(stream.readUTF)
@@ -60,10 +76,21 @@ class ControlMessageReaderV1 extends ControlMessageReader {
 					case HeartbeatOperationMode(mode) => mode
 					case _ => throw new IllegalArgumentException("unknown heartbeat operation mode")
 				}, stream.readUnsignedShort)
+			// only sent by version 2 agents
+			case MessageConstantsV2.MsgHeartbeatStats => ControlMessage.Heartbeat(
+				stream.readByte match {
+					case HeartbeatOperationMode(mode) => mode
+					case _ => throw new IllegalArgumentException("unknown heartbeat operation mode")
+				}, stream.readUnsignedShort, Vector.fill(stream.readUnsignedByte) { stream.readLong })
 			case MessageConstantsV1.MsgClassTransformed => ControlMessage.ClassTransformed(stream.readUTF)
 			case MessageConstantsV1.MsgClassTransformFailed => ControlMessage.ClassTransformFailed(stream.readUTF)
 			case MessageConstantsV1.MsgClassIgnored => ControlMessage.ClassIgnored(stream.readUTF)
+			case MessageConstantsV1.MsgClassReports => ControlMessage.ClassReports(readClassReports(stream))
+			case MessageConstantsV1.MsgMethodDemoted => ControlMessage.MethodDemoted(
+				stream.readInt, stream.readUTF, stream.readInt, stream.readLong)
+			case MessageConstantsV1.MsgRetransformProgress => ControlMessage.RetransformProgress(stream.readInt, stream.readInt)
 			case MessageConstantsV1.MsgDataBreak => ControlMessage.DataBreak(stream.readInt)
+			case DataBreakWide => ControlMessage.DataBreak(stream.readLong)
 			case _ => ControlMessage.Unknown
 		}
 	} catch {
@@ -21,6 +21,9 @@ package com.secdec.bytefrog.hq.protocol
 
 import java.io.DataOutputStream
 
+import scala.collection.JavaConverters._
+
+import com.secdec.bytefrog.common.message.MessageConstantsV1
 import com.secdec.bytefrog.common.message.MessageProtocolV1
 import ControlMessage._
 
@@ -43,7 +46,7 @@ class ControlMessageSenderV1 extends ControlMessageSender {
 
 		//yes, Heartbeat won't be written from HQ, but the compiler will make sure that
 		//we implement a case for every possible ControlMessage, so I'm implementing it anyway.
-		case Heartbeat(opMode, qSize) => protocol.writeHeartbeat(out, opMode, qSize)
+		case Heartbeat(opMode, qSize, _) => protocol.writeHeartbeat(out, opMode, qSize)
 
 		// keeping the compiler happy, but this should never be called in practice
 		case ClassTransformed(name) => protocol.writeClassTransformed(out, name)
@@ -54,6 +57,21 @@ class ControlMessageSenderV1 extends ControlMessageSender {
 		// keeping the compiler happy, but this should never be called in practice
 		case ClassTransformFailed(name) => protocol.writeClassTransformFailed(out, name)
 
+		// keeping the compiler happy, but this should never be called in practice
+		case ClassReports(reports) =>
+			val reportTypes = reports.map {
+				case ClassTransformed(_) => MessageConstantsV1.MsgClassTransformed
+				case ClassIgnored(_) => MessageConstantsV1.MsgClassIgnored
+				case ClassTransformFailed(_) => MessageConstantsV1.MsgClassTransformFailed
+			}
+			protocol.writeClassReports(out, reportTypes.toArray, reports.map(_.className).toArray, reports.size)
+
+		// keeping the compiler happy, but this should never be called in practice
+		case MethodDemoted(id, sig, rate, time) => protocol.writeMethodDemoted(out, id, sig, rate, time)
+
+		// keeping the compiler happy, but this should never be called in practice
+		case RetransformProgress(done, total) => protocol.writeRetransformProgress(out, done, total)
+
 		// keeping the compiler happy, but this should never be called in practice
 		case DataBreak(seq) => protocol.writeDataBreak(out, seq)
 
@@ -71,6 +89,8 @@ class ControlMessageSenderV1 extends ControlMessageSender {
 		case Suspend => protocol.writeSuspend(out)
 		case Unsuspend => protocol.writeUnsuspend(out)
 
+		case FilterUpdate(exclusions, inclusions) => protocol.writeFilterUpdate(out, exclusions.asJava, inclusions.asJava)
+
 		//note: `Configuration` has a type parameter `A`, but we only care about the
 		// `toByteArray` method here, so no need to worry about the `A`.
 		case cfg: Configuration[_] => protocol.writeConfiguration(out, cfg.toByteArray)
@@ -67,11 +67,15 @@ class DataEventReaderV1 extends DataEventReader {
 			//read 1 byte: [type ID]
 			copyBytes(1, from, to)
 
+			//timestamps take 4 more bytes if the type ID is flagged as wide
+			val wide = (buffer(0) & MessageConstantsV1.MsgWideFlag) != 0
+			val extra = if (wide) 4 else 0
+
 			//attempt to read one of the 5 data message types
-			buffer(0) match {
+			(buffer(0) & ~MessageConstantsV1.MsgWideFlag).toByte match {
 				case MessageConstantsV1.MsgMapThreadName =>
 					//[2 bytes: thread ID][4 bytes: rel timestamp][2 bytes: string length][n bytes: String]
-					copyBytes(6, from, to)
+					copyBytes(6 + extra, from, to)
 					copyUTF(from, to)
 					DataEventType.MapThreadName
 				case MessageConstantsV1.MsgMapMethodSignature =>
@@ -79,27 +83,63 @@ class DataEventReaderV1 extends DataEventReader {
 					copyBytes(4, from, to)
 					copyUTF(from, to)
 					DataEventType.MapMethodName
+				case MessageConstantsV1.MsgMapClassMethods =>
+					//[2 bytes: string length][n bytes: class name][2 bytes: method count]
+					//then for each method: [4 bytes: sig ID][2 bytes: string length][n bytes: String]
+					copyUTF(from, to)
+					val numMethods = from.readUnsignedShort
+					to.writeShort(numMethods)
+					for (i <- 0 until numMethods) {
+						copyBytes(4, from, to)
+						copyUTF(from, to)
+					}
+					DataEventType.MapClassMethods
+				case MessageConstantsV1.MsgMapMethodSampling =>
+					//[4 bytes: sig ID][4 bytes: sampling interval]
+					copyBytes(8, from, to)
+					DataEventType.MapMethodSampling
 				case MessageConstantsV1.MsgMethodEntry =>
 					//[4 bytes: timestamp][4 bytes: current sequence][4 bytes: method id][2 bytes: thread ID]
-					copyBytes(14, from, to)
+					copyBytes(14 + extra, from, to)
 					DataEventType.MethodEntry
 				case MessageConstantsV1.MsgMethodExit =>
 					//[4 bytes: timestamp][4 bytes: current sequence][4 bytes: method ID][2 bytes: line num][2 bytes: thread ID]
-					copyBytes(16, from, to)
+					copyBytes(16 + extra, from, to)
 					DataEventType.MethodExit
+				case MessageConstantsV1.MsgMethodSpan =>
+					//[4 or 8 bytes: start time][4 bytes: current sequence][4 bytes: method ID][4 or 8 bytes: duration][2 bytes: depth][2 bytes: line num][2 bytes: thread ID]
+					copyBytes(22 + 2 * extra, from, to)
+					DataEventType.MethodSpan
 				case MessageConstantsV1.MsgException =>
 					//[4 bytes: timestamp][4 bytes: current sequence][4 bytes: method ID][2 bytes: string length][n bytes: String][2 bytes: line num][2 bytes: thread ID]
-					copyBytes(12, from, to)
+					copyBytes(12 + extra, from, to)
 					copyUTF(from, to)
 					copyBytes(4, from, to)
 					DataEventType.ExceptionEvent
 				case MessageConstantsV1.MsgExceptionBubble =>
 					//[4 bytes: relative timestamp][4 bytes: current sequence][4 bytes: method signature ID][2 bytes: thread ID]
-					copyBytes(14, from, to)
+					copyBytes(14 + extra, from, to)
 					DataEventType.ExceptionBubbleEvent
+				case MessageConstantsV1.MsgEventGap =>
+					//[4 bytes: timestamp][4 bytes: current sequence][4 bytes: from sequence][4 bytes: count][2 bytes: thread ID]
+					copyBytes(18 + extra, from, to)
+					DataEventType.EventGap
+				case MessageConstantsV1.MsgMethodStats =>
+					//[4 bytes: timestamp][2 bytes: method count]
+					//then for each method: [24 bytes: method ID, calls, total and self time][4 bytes: bucket mask][4 bytes per non-empty bucket]
+					copyBytes(4 + extra, from, to)
+					val numMethods = from.readUnsignedShort
+					to.writeShort(numMethods)
+					for (i <- 0 until numMethods) {
+						copyBytes(24, from, to)
+						val mask = from.readInt
+						to.writeInt(mask)
+						copyBytes(4 * Integer.bitCount(mask), from, to)
+					}
+					DataEventType.MethodStats
 				case MessageConstantsV1.MsgMarker =>
 					//[4 bytes: timestamp][4 bytes: seq][utf: key][utf: value]
-					copyBytes(8, from, to)
+					copyBytes(8 + extra, from, to)
 					copyUTF(from, to)
 					copyUTF(from, to)
 					DataEventType.Marker
@@ -31,10 +31,15 @@ sealed trait DataEventType
 object DataEventType {
 	case object MethodEntry extends DataEventType
 	case object MethodExit extends DataEventType
+	case object MethodSpan extends DataEventType
 	case object ExceptionEvent extends DataEventType
 	case object ExceptionBubbleEvent extends DataEventType
+	case object EventGap extends DataEventType
 	case object MapMethodName extends DataEventType
+	case object MapClassMethods extends DataEventType
+	case object MapMethodSampling extends DataEventType
 	case object MapThreadName extends DataEventType
+	case object MethodStats extends DataEventType
 	case object Marker extends DataEventType
 
 	case object Unknown extends DataEventType
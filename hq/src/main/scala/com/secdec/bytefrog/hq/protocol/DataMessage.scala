@@ -26,7 +26,7 @@ sealed trait DataMessage {
 }
 
 object DataMessage {
-	case class SequencedData(timestamp: Int, sequence: Int, val content: DataMessageContent) extends DataMessage
+	case class SequencedData(timestamp: Long, sequence: Int, val content: DataMessageContent) extends DataMessage
 	case class UnsequencedData(val content: DataMessageContent) extends DataMessage
 }
 
@@ -42,7 +42,7 @@ object DataMessageContent {
 	case class MapThreadName(
 		threadName: String,
 		threadId: Int,
-		timestamp: Int)
+		timestamp: Long)
 		extends DataMessageContent
 
 	case class MapMethodSignature(
@@ -50,6 +50,17 @@ object DataMessageContent {
 		methodId: Int)
 		extends DataMessageContent
 
+	case class MapClassMethods(
+		className: String,
+		methods: List[MapMethodSignature])
+		extends DataMessageContent
+
+	/** Only about one in every `interval` calls to the method is traced */
+	case class MapMethodSampling(
+		methodId: Int,
+		interval: Int)
+		extends DataMessageContent
+
 	case class MapException(
 		exception: String,
 		exceptionId: Int)
@@ -57,13 +68,23 @@ object DataMessageContent {
 
 	case class MethodEntry(
 		methodId: Int,
-		timestamp: Int,
+		timestamp: Long,
 		threadId: Int)
 		extends DataMessageContent
 
 	case class MethodExit(
 		methodId: Int,
-		timestamp: Int,
+		timestamp: Long,
+		lineNum: Int,
+		threadId: Int)
+		extends DataMessageContent
+
+	/** A whole method call, sent in place of an entry/exit pair in span mode */
+	case class MethodSpan(
+		methodId: Int,
+		startTime: Long,
+		duration: Long,
+		depth: Int,
 		lineNum: Int,
 		threadId: Int)
 		extends DataMessageContent
@@ -71,7 +92,7 @@ object DataMessageContent {
 	case class Exception(
 		exceptionId: Int,
 		methodId: Int,
-		timestamp: Int,
+		timestamp: Long,
 		lineNum: Int,
 		threadId: Int)
 		extends DataMessageContent
@@ -79,13 +100,43 @@ object DataMessageContent {
 	case class ExceptionBubble(
 		exceptionId: Int,
 		methodId: Int,
-		timestamp: Int,
+		timestamp: Long,
+		threadId: Int)
+		extends DataMessageContent
+
+	/** Stands in for `count` events that a thread dropped (in lossy mode) rather than wait for a
+	  * buffer. They were dropped since `fromSequence` was the next sequence ID in line; they never
+	  * took sequence IDs of their own, so nothing is missing from the sequence.
+	  */
+	case class EventGap(
+		fromSequence: Int,
+		count: Int,
+		timestamp: Long,
 		threadId: Int)
 		extends DataMessageContent
 
+	/** The per-method statistics that an agent in aggregation mode gathered since its last
+	  * snapshot. These are sent instead of individual events.
+	  */
+	case class MethodStatsSnapshot(
+		timestamp: Long,
+		methods: List[MethodStats])
+		extends DataMessageContent
+
+	/** The calls made to a single method since the last snapshot. Bucket 0 of the `histogram`
+	  * counts the calls that took no time, and bucket `n` counts the calls that took at least
+	  * 2^(n-1) clock units; trailing empty buckets are left off.
+	  */
+	case class MethodStats(
+		methodId: Int,
+		calls: Int,
+		totalTime: Long,
+		selfTime: Long,
+		histogram: Vector[Int])
+
 	case class Marker(
 		key: String,
 		value: String,
-		timestamp: Int)
+		timestamp: Long)
 		extends DataMessageContent
 }
\ No newline at end of file
@@ -21,32 +21,62 @@ package com.secdec.bytefrog.hq.protocol
 
 /** Describes a collection of callback methods to be used by a `DataMessageParser`
   * while parsing a stream of data messages.
+  *
+  * Timestamps are relative to the start of the trace. Their unit depends on the
+  * agent's configured event clock: milliseconds by default, or microseconds.
   */
 trait DataMessageHandler {
 
 	/** This method is called by a parser when it encounters a MapThreadName message. */
-	def handleMapThreadName(threadName: String, threadId: Int, timestamp: Int): Unit
+	def handleMapThreadName(threadName: String, threadId: Int, timestamp: Long): Unit
 
 	/** This method is called by a parser when it encounters a MapMethodSignature message */
 	def handleMapMethodSignature(methodSig: String, methodId: Int): Unit
 
+	/** This method is called by a parser when it encounters a MapClassMethods message, which
+	  * carries the (signature, id) mappings for all of the instrumented methods in a class.
+	  */
+	def handleMapClassMethods(className: String, methods: Seq[(String, Int)]): Unit
+
+	/** This method is called by a parser when it encounters a MapMethodSampling message, which
+	  * means that only about one in every `interval` calls to the method is traced.
+	  */
+	def handleMapMethodSampling(methodId: Int, interval: Int): Unit
+
 	/** This method is called by a parser when it encounters a MapException message */
 	def handleMapException(exception: String, exceptionId: Int): Unit
 
 	/** This method is called by a parser when it encounters a MethodEntry message */
-	def handleMethodEntry(methodId: Int, timestamp: Int, sequenceId: Int, threadId: Int): Unit
+	def handleMethodEntry(methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int): Unit
 
 	/** This method is called by a parser when it encounters a MethodExit message */
-	def handleMethodExit(methodId: Int, timestamp: Int, sequenceId: Int, lineNum: Int, threadId: Int): Unit
+	def handleMethodExit(methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int): Unit
+
+	/** This method is called by a parser when it encounters a MethodSpan message, which stands in
+	  * for a whole MethodEntry/MethodExit pair when the agent runs in span mode. `depth` is the
+	  * number of traced methods the thread was already in when the call started. A `lineNum` of
+	  * 65535 means that the method exited by throwing an exception.
+	  */
+	def handleMethodSpan(methodId: Int, startTime: Long, duration: Long, depth: Int, sequenceId: Int, lineNum: Int, threadId: Int): Unit
 
 	/** This method is called by a parser when it encounters an Exception message */
-	def handleExceptionMessage(exceptionId: Int, methodId: Int, timestamp: Int, sequenceId: Int, lineNum: Int, threadId: Int): Unit
+	def handleExceptionMessage(exceptionId: Int, methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int): Unit
 
 	/** This method is called by a parser when it encounters a bubbled exception */
-	def handleExceptionBubble(exceptionId: Int, methodId: Int, timestamp: Int, sequenceId: Int, threadId: Int)
+	def handleExceptionBubble(exceptionId: Int, methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int)
+
+	/** This method is called by a parser when it encounters an EventGap message, which says that
+	  * `count` of the thread's events were dropped since `fromSequence` was the next sequence ID.
+	  */
+	def handleEventGap(fromSequence: Int, count: Int, timestamp: Long, sequenceId: Int, threadId: Int): Unit
+
+	/** This method is called by a parser when it encounters a MethodStats message, which carries
+	  * a snapshot of per-method statistics from an agent in aggregation mode.
+	  */
+	def handleMethodStats(timestamp: Long, methods: Seq[DataMessageContent.MethodStats]): Unit
 
 	/** This method is called by a parser when it encounters a marker message */
-	def handleMarkerMessage(timestamp: Int, sequence: Int, key: String, value: String)
+	def handleMarkerMessage(timestamp: Long, sequence: Int, key: String, value: String)
 
 	/** This method is called by a parser when it encounters an error while parsing a stream */
 	def handleParserError(error: Throwable): Unit
@@ -62,17 +92,27 @@ trait DataMessageHandler {
   * methods are implemented as a no-op.
   */
 class DefaultDataMessageHandler extends DataMessageHandler {
-	def handleMapThreadName(threadName: String, threadId: Int, timestamp: Int) = ()
+	def handleMapThreadName(threadName: String, threadId: Int, timestamp: Long) = ()
 	def handleMapMethodSignature(methodSig: String, methodId: Int) = ()
+	def handleMapClassMethods(className: String, methods: Seq[(String, Int)]) = {
+		// most handlers only care about the individual mappings
+		for ((methodSig, methodId) <- methods) handleMapMethodSignature(methodSig, methodId)
+	}
+	def handleMapMethodSampling(methodId: Int, interval: Int) = ()
 	def handleMapException(exception: String, exceptionId: Int) = ()
 
-	def handleMethodEntry(methodId: Int, timestamp: Int, sequenceId: Int, threadId: Int) = ()
-	def handleMethodExit(methodId: Int, timestamp: Int, sequenceId: Int, lineNum: Int, threadId: Int) = ()
+	def handleMethodEntry(methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int) = ()
+	def handleMethodExit(methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int) = ()
+	def handleMethodSpan(methodId: Int, startTime: Long, duration: Long, depth: Int, sequenceId: Int, lineNum: Int, threadId: Int) = ()
+
+	def handleExceptionMessage(exceptionId: Int, methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int) = ()
+	def handleExceptionBubble(exceptionId: Int, methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int) = ()
+
+	def handleEventGap(fromSequence: Int, count: Int, timestamp: Long, sequenceId: Int, threadId: Int) = ()
 
-	def handleExceptionMessage(exceptionId: Int, methodId: Int, timestamp: Int, sequenceId: Int, lineNum: Int, threadId: Int) = ()
-	def handleExceptionBubble(exceptionId: Int, methodId: Int, timestamp: Int, sequenceId: Int, threadId: Int) = ()
+	def handleMethodStats(timestamp: Long, methods: Seq[DataMessageContent.MethodStats]) = ()
 
-	def handleMarkerMessage(timestamp: Int, sequence: Int, key: String, value: String) = ()
+	def handleMarkerMessage(timestamp: Long, sequence: Int, key: String, value: String) = ()
 
 	def handleParserError(error: Throwable) = ()
 	def handleParserEOF = ()
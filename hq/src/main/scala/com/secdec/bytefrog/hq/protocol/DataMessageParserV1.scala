@@ -59,30 +59,52 @@ class DataMessageParserV1 extends DataMessageParser {
 	  * be called many times by `parse`.
 	  */
 	def readMessage(stream: DataInputStream, handler: DataMessageHandler, parseDataBreaks: Boolean): Int = {
-		//read in the "message type id" byte
-		val typeId = stream.readByte
+		// we read the message type byte, plus whatever the message content takes
+		readMessageContent(stream.readByte, stream, handler, parseDataBreaks) + 1
+	}
+
+	/** Read the rest of a message whose type id byte (`flaggedTypeId`) has already
+	  * been read, returning the number of bytes read after it.
+	  */
+	protected def readMessageContent(flaggedTypeId: Byte, stream: DataInputStream, handler: DataMessageHandler, parseDataBreaks: Boolean): Int = {
+		//timestamps are 8 bytes wide if the type id is flagged
+		val wide = (flaggedTypeId & MsgWideFlag) != 0
+		val typeId = (flaggedTypeId & ~MsgWideFlag).toByte
 
-		// we read the message type byte, plus whatever the delegate reads
-		(typeId match {
-			case MsgMapThreadName => readMapThreadName(stream, handler)
+		typeId match {
+			case MsgMapThreadName => readMapThreadName(stream, handler, wide)
 			case MsgMapMethodSignature => readMapMethodSignature(stream, handler)
 			case MsgMapException => readMapException(stream, handler)
-			case MsgMethodEntry => readMethodEntry(stream, handler)
-			case MsgMethodExit => readMethodExit(stream, handler)
-			case MsgException => readException(stream, handler)
-			case MsgExceptionBubble => readExceptionBubble(stream, handler)
-			case MsgMarker => readMarker(stream, handler)
-			case MsgDataBreak if parseDataBreaks => readDataBreak(stream, handler)
-			case _ => throw new IOException(s"Unexpected message type id: $typeId")
-		}) + 1
+			case MsgMapClassMethods => readMapClassMethods(stream, handler)
+			case MsgMapMethodSampling => readMapMethodSampling(stream, handler)
+			case MsgMethodEntry => readMethodEntry(stream, handler, wide)
+			case MsgMethodExit => readMethodExit(stream, handler, wide)
+			case MsgMethodSpan => readMethodSpan(stream, handler, wide)
+			case MsgException => readException(stream, handler, wide)
+			case MsgExceptionBubble => readExceptionBubble(stream, handler, wide)
+			case MsgEventGap => readEventGap(stream, handler, wide)
+			case MsgMethodStats => readMethodStats(stream, handler, wide)
+			case MsgMarker => readMarker(stream, handler, wide)
+			case MsgDataBreak if parseDataBreaks => readDataBreak(stream, handler, wide)
+			case _ => throw new IOException(s"Unexpected message type id: $flaggedTypeId")
+		}
 	}
 
-	protected def readMapThreadName(stream: DataInputStream, handler: DataMessageHandler): Int = {
+	/** Reads a relative timestamp (or data break position), which takes 8 bytes if the message
+	  * type was flagged as wide, or 4 bytes otherwise.
+	  */
+	protected def readWidened(stream: DataInputStream, wide: Boolean): Long =
+		if (wide) stream.readLong else stream.readInt
+
+	/** The number of extra bytes taken by a wide value */
+	protected def widening(wide: Boolean) = if (wide) 4 else 0
+
+	protected def readMapThreadName(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
 		//[2 bytes: thread ID]
 		val threadId = stream.readUnsignedShort
 
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = readWidened(stream, wide)
 
 		//[2 bytes: length of encoded thread name][n bytes: encoded thread name]
 		stream mark 2
@@ -93,7 +115,7 @@ class DataMessageParserV1 extends DataMessageParser {
 		handler.handleMapThreadName(threadName, threadId, timestamp)
 
 		// read 8 bytes, plus thread name length
-		8 + threadNameLen
+		8 + threadNameLen + widening(wide)
 	}
 
 	protected def readMapMethodSignature(stream: DataInputStream, handler: DataMessageHandler): Int = {
@@ -112,6 +134,79 @@ class DataMessageParserV1 extends DataMessageParser {
 		6 + methodSigLen
 	}
 
+	protected def readMapClassMethods(stream: DataInputStream, handler: DataMessageHandler): Int = {
+		//[2 bytes: length of encoded class name][n bytes: encoded class name]
+		stream mark 2
+		val classNameLen = stream.readUnsignedShort()
+		stream.reset
+		val className = stream.readUTF
+
+		//[2 bytes: number of methods]
+		val numMethods = stream.readUnsignedShort
+
+		var readBytes = 4 + classNameLen
+		val methods = for (i <- 0 until numMethods) yield {
+			//[4 bytes: assigned signature ID]
+			val methodId = stream.readInt
+
+			//[2 bytes: length of encoded signature][n bytes: encoded signature]
+			stream mark 2
+			val methodSigLen = stream.readUnsignedShort()
+			stream.reset
+			val methodSig = stream.readUTF
+
+			readBytes += 6 + methodSigLen
+			methodSig -> methodId
+		}
+
+		handler.handleMapClassMethods(className, methods)
+
+		readBytes
+	}
+
+	protected def readMethodStats(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = readWidened(stream, wide)
+
+		//[2 bytes: number of methods]
+		val numMethods = stream.readUnsignedShort
+
+		var readBytes = 6 + widening(wide)
+		val methods = for (i <- 0 until numMethods) yield {
+			//[4 bytes: method signature ID][4 bytes: calls][8 bytes: total time][8 bytes: self time]
+			val methodId = stream.readInt
+			val calls = stream.readInt
+			val totalTime = stream.readLong
+			val selfTime = stream.readLong
+
+			//[4 bytes: mask of non-empty histogram buckets][4 bytes per non-empty bucket: count]
+			val mask = stream.readInt
+			val histogram = Vector.tabulate(32 - Integer.numberOfLeadingZeros(mask)) { bucket =>
+				if ((mask & (1 << bucket)) != 0) stream.readInt else 0
+			}
+
+			readBytes += 28 + 4 * Integer.bitCount(mask)
+			DataMessageContent.MethodStats(methodId, calls, totalTime, selfTime, histogram)
+		}
+
+		handler.handleMethodStats(timestamp, methods)
+
+		readBytes
+	}
+
+	protected def readMapMethodSampling(stream: DataInputStream, handler: DataMessageHandler): Int = {
+		//[4 bytes: method signature ID]
+		val methodId = stream.readInt
+
+		//[4 bytes: sampling interval]
+		val interval = stream.readInt
+
+		handler.handleMapMethodSampling(methodId, interval)
+
+		// read 8 bytes
+		8
+	}
+
 	protected def readMapException(stream: DataInputStream, handler: DataMessageHandler): Int = {
 		//[4 bytes: assigned exception ID]
 		val exceptionId = stream.readInt
@@ -128,9 +223,9 @@ class DataMessageParserV1 extends DataMessageParser {
 		6 + exceptionLen
 	}
 
-	protected def readMethodEntry(stream: DataInputStream, handler: DataMessageHandler): Int = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readMethodEntry(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = readWidened(stream, wide)
 
 		//[4 bytes: current sequence]
 		val sequenceId = stream.readInt
@@ -144,12 +239,12 @@ class DataMessageParserV1 extends DataMessageParser {
 		handler.handleMethodEntry(methodId, timestamp, sequenceId, threadId)
 
 		// read 14 bytes
-		14
+		14 + widening(wide)
 	}
 
-	protected def readMethodExit(stream: DataInputStream, handler: DataMessageHandler): Int = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readMethodExit(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = readWidened(stream, wide)
 
 		//[4 bytes: current sequence]
 		val sequenceId = stream.readInt
@@ -166,12 +261,62 @@ class DataMessageParserV1 extends DataMessageParser {
 		handler.handleMethodExit(methodId, timestamp, sequenceId, lineNum, threadId)
 
 		// read 14 bytes
-		14
+		14 + widening(wide)
 	}
 
-	protected def readException(stream: DataInputStream, handler: DataMessageHandler): Int = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readMethodSpan(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		//[4 or 8 bytes: relative start time]
+		val startTime = readWidened(stream, wide)
+
+		//[4 bytes: current sequence]
+		val sequenceId = stream.readInt
+
+		//[4 bytes: method signature ID]
+		val methodId = stream.readInt
+
+		//[4 or 8 bytes: duration]
+		val duration = readWidened(stream, wide)
+
+		//[2 bytes: call depth]
+		val depth = stream.readUnsignedShort
+
+		//[2 bytes: line number]
+		val lineNum = stream.readUnsignedShort
+
+		//[2 bytes: thread ID]
+		val threadId = stream.readUnsignedShort
+
+		handler.handleMethodSpan(methodId, startTime, duration, depth, sequenceId, lineNum, threadId)
+
+		// read 22 bytes, plus the widening of both the start time and the duration
+		22 + 2 * widening(wide)
+	}
+
+	protected def readEventGap(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = readWidened(stream, wide)
+
+		//[4 bytes: current sequence]
+		val sequenceId = stream.readInt
+
+		//[4 bytes: sequence the gap starts from]
+		val fromSequence = stream.readInt
+
+		//[4 bytes: dropped event count]
+		val count = stream.readInt
+
+		//[2 bytes: thread ID]
+		val threadId = stream.readUnsignedShort
+
+		handler.handleEventGap(fromSequence, count, timestamp, sequenceId, threadId)
+
+		// read 18 bytes
+		18 + widening(wide)
+	}
+
+	protected def readException(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = readWidened(stream, wide)
 
 		//[4 bytes: current sequence]
 		val sequenceId = stream.readInt
@@ -191,12 +336,12 @@ class DataMessageParserV1 extends DataMessageParser {
 		handler.handleExceptionMessage(exceptionId, methodId, timestamp, sequenceId, lineNum, threadId)
 
 		// read 18 bytes, plus length of exception
-		18
+		18 + widening(wide)
 	}
 
-	protected def readExceptionBubble(stream: DataInputStream, handler: DataMessageHandler): Int = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readExceptionBubble(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = readWidened(stream, wide)
 
 		//[4 bytes: current sequence]
 		val sequenceId = stream.readInt
@@ -213,12 +358,12 @@ class DataMessageParserV1 extends DataMessageParser {
 		handler.handleExceptionBubble(exceptionId, methodId, timestamp, sequenceId, threadId)
 
 		// read 16 bytes
-		16
+		16 + widening(wide)
 	}
 
-	protected def readMarker(stream: DataInputStream, handler: DataMessageHandler): Int = {
-		// 8 bytes for timestamp + sequence
-		val timestamp = stream.readInt
+	protected def readMarker(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		// 8 bytes for timestamp + sequence (12 if the timestamp is wide)
+		val timestamp = readWidened(stream, wide)
 		val sequence = stream.readInt
 
 		val key = stream.readUTF
@@ -227,13 +372,13 @@ class DataMessageParserV1 extends DataMessageParser {
 		handler.handleMarkerMessage(timestamp, sequence, key, value)
 
 		// 8 bytes + (2 + key.length) + (2 + value.length)
-		12 + key.length + value.length
+		12 + key.length + value.length + widening(wide)
 	}
 
-	protected def readDataBreak(stream: DataInputStream, handler: DataMessageHandler): Int = {
-		val sequenceId = stream.readInt
+	protected def readDataBreak(stream: DataInputStream, handler: DataMessageHandler, wide: Boolean): Int = {
+		val sequenceId = readWidened(stream, wide)
 		handler.handleDataBreak
 
-		4
+		4 + widening(wide)
 	}
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.hq.protocol
+
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.IOException
+
+import com.secdec.bytefrog.common.message.MessageConstantsV1._
+import com.secdec.bytefrog.common.message.MessageConstantsV2._
+import com.secdec.bytefrog.common.message.VarInt
+
+/** Convenient singleton version of the DataMessageParserV2 class */
+object DataMessageParserV2 extends DataMessageParserV2
+
+/** A DataMessageParser implementation that assumes the data in each input stream
+  * was put there by a MessageProtocol Version 2 implementation.
+  *
+  * Version 2 groups events into frames, with each event encoded as deltas against
+  * the one before it, so the events in a stream can only be understood by reading
+  * it from the start with `parse`. Every other message is read the same way as in
+  * version 1.
+  *
+  * This implementation is thread-safe; the frame state is local to each call to
+  * `parse`.
+  */
+class DataMessageParserV2 extends DataMessageParserV1 {
+
+	/** The values that the next event in a frame is decoded against */
+	protected class Frame(var timestamp: Long, var sequence: Int, var threadId: Int) {
+		var methodId = 0
+	}
+
+	override def parse(data: DataInputStream, handler: DataMessageHandler, progressHandler: Long => Unit, parseDataBreaks: Boolean): Unit = {
+		var readBytes = 0L
+		var frame: Frame = null
+
+		try {
+			//read forever, breaking out of the loop via EOF or IOExceptions
+			while (true) {
+				val flaggedTypeId = data.readByte
+				val typeId = (flaggedTypeId & ~MsgThreadChangeFlag).toByte
+
+				readBytes += 1 + (typeId match {
+					case MsgFrame =>
+						frame = readFrame(data)
+						frameSize(frame)
+
+					case MsgMethodEntry | MsgMethodExit | MsgException | MsgExceptionBubble | MsgMethodSpan if frame != null =>
+						readFramedEvent(flaggedTypeId, data, handler, frame)
+
+					case MsgMarker if frame != null =>
+						readFramedMarker(data, handler, frame)
+
+					case MsgMethodEntry | MsgMethodExit | MsgException | MsgExceptionBubble | MsgMethodSpan | MsgMarker =>
+						throw new IOException(s"Event outside of a frame: $flaggedTypeId")
+
+					case _ => readMessageContent(flaggedTypeId, data, handler, parseDataBreaks)
+				})
+				progressHandler(readBytes)
+			}
+		} catch {
+			case e: EOFException => handler.handleParserEOF
+			case e: IOException => handler.handleParserError(e)
+		}
+	}
+
+	protected def readFrame(stream: DataInputStream): Frame = {
+		//[varint: timestamp][varint: sequence][varint: thread ID]
+		val timestamp = VarInt.readUnsignedLong(stream)
+		val sequence = VarInt.readUnsignedInt(stream)
+		val threadId = VarInt.readUnsignedInt(stream)
+		new Frame(timestamp, sequence, threadId)
+	}
+
+	private def frameSize(frame: Frame) =
+		VarInt.sizeOfUnsigned(frame.timestamp) +
+			VarInt.sizeOfUnsigned(frame.sequence & 0xFFFFFFFFL) +
+			VarInt.sizeOfUnsigned(frame.threadId)
+
+	protected def readFramedEvent(flaggedTypeId: Byte, stream: DataInputStream, handler: DataMessageHandler, frame: Frame): Int = {
+		var readBytes = 0
+
+		def readUnsigned() = {
+			val value = VarInt.readUnsignedInt(stream)
+			readBytes += VarInt.sizeOfUnsigned(value & 0xFFFFFFFFL)
+			value
+		}
+
+		//[varint: thread ID], only if it changed
+		if ((flaggedTypeId & MsgThreadChangeFlag) != 0)
+			frame.threadId = readUnsigned()
+
+		//[varint deltas: timestamp, sequence, method signature ID]
+		val timestampDelta = VarInt.readSignedLong(stream)
+		val sequenceDelta = VarInt.readSignedInt(stream)
+		val methodIdDelta = VarInt.readSignedInt(stream)
+		readBytes += VarInt.sizeOfSigned(timestampDelta) + VarInt.sizeOfSigned(sequenceDelta) + VarInt.sizeOfSigned(methodIdDelta)
+
+		frame.timestamp += timestampDelta
+		frame.sequence += sequenceDelta
+		frame.methodId += methodIdDelta
+
+		val timestamp = frame.timestamp
+		val sequenceId = frame.sequence
+		val methodId = frame.methodId
+		val threadId = frame.threadId
+
+		(flaggedTypeId & ~MsgThreadChangeFlag).toByte match {
+			case MsgMethodEntry =>
+				handler.handleMethodEntry(methodId, timestamp, sequenceId, threadId)
+
+			case MsgMethodExit =>
+				//[varint: line number]
+				val lineNum = readUnsigned()
+				handler.handleMethodExit(methodId, timestamp, sequenceId, lineNum, threadId)
+
+			case MsgException =>
+				//[varint: exception ID][varint: line number]
+				val exceptionId = readUnsigned()
+				val lineNum = readUnsigned()
+				handler.handleExceptionMessage(exceptionId, methodId, timestamp, sequenceId, lineNum, threadId)
+
+			case MsgExceptionBubble =>
+				//[varint: exception ID]
+				val exceptionId = readUnsigned()
+				handler.handleExceptionBubble(exceptionId, methodId, timestamp, sequenceId, threadId)
+
+			case MsgMethodSpan =>
+				//[varint: duration][varint: call depth][varint: line number]
+				val duration = VarInt.readUnsignedLong(stream)
+				readBytes += VarInt.sizeOfUnsigned(duration)
+				val depth = readUnsigned()
+				val lineNum = readUnsigned()
+				handler.handleMethodSpan(methodId, timestamp, duration, depth, sequenceId, lineNum, threadId)
+		}
+
+		readBytes
+	}
+
+	protected def readFramedMarker(stream: DataInputStream, handler: DataMessageHandler, frame: Frame): Int = {
+		//[varint deltas: timestamp, sequence]
+		val timestampDelta = VarInt.readSignedLong(stream)
+		val sequenceDelta = VarInt.readSignedInt(stream)
+		frame.timestamp += timestampDelta
+		frame.sequence += sequenceDelta
+
+		val key = stream.readUTF
+		val value = stream.readUTF
+
+		handler.handleMarkerMessage(frame.timestamp, frame.sequence, key, value)
+
+		VarInt.sizeOfSigned(timestampDelta) + VarInt.sizeOfSigned(sequenceDelta) + 4 + key.length + value.length
+	}
+}
@@ -32,20 +32,27 @@ class DataMessageReaderV1 extends DataMessageReader {
 
 	def readMessage(stream: DataInputStream): Input[DataMessage] = {
 		try {
-			//read in the "message type id" byte
-			val typeId = stream.readByte
+			//read in the "message type id" byte; timestamps are 8 bytes wide if it's flagged
+			val flaggedTypeId = stream.readByte
+			val wide = (flaggedTypeId & MsgWideFlag) != 0
+			val typeId = (flaggedTypeId & ~MsgWideFlag).toByte
 
 			typeId match {
-				case MsgMapThreadName => Data { readMapThreadName(stream) }
+				case MsgMapThreadName => Data { readMapThreadName(stream, wide) }
 				case MsgMapMethodSignature => Data { readMapMethodSignature(stream) }
 				case MsgMapException => Data { readMapException(stream) }
-				case MsgMethodEntry => Data { readMethodEntry(stream) }
-				case MsgMethodExit => Data { readMethodExit(stream) }
-				case MsgException => Data { readException(stream) }
-				case MsgExceptionBubble => Data { readExceptionBubble(stream) }
-				case MsgMarker => Data { readMarker(stream) }
+				case MsgMapClassMethods => Data { readMapClassMethods(stream) }
+				case MsgMapMethodSampling => Data { readMapMethodSampling(stream) }
+				case MsgMethodEntry => Data { readMethodEntry(stream, wide) }
+				case MsgMethodExit => Data { readMethodExit(stream, wide) }
+				case MsgMethodSpan => Data { readMethodSpan(stream, wide) }
+				case MsgException => Data { readException(stream, wide) }
+				case MsgExceptionBubble => Data { readExceptionBubble(stream, wide) }
+				case MsgEventGap => Data { readEventGap(stream, wide) }
+				case MsgMethodStats => Data { readMethodStats(stream, wide) }
+				case MsgMarker => Data { readMarker(stream, wide) }
 				case _ => Error {
-					new IOException(s"Unexpected message type id: $typeId")
+					new IOException(s"Unexpected message type id: $flaggedTypeId")
 				}
 			}
 		} catch {
@@ -54,12 +61,12 @@ class DataMessageReaderV1 extends DataMessageReader {
 		}
 	}
 
-	protected def readMapThreadName(stream: DataInputStream) = {
+	protected def readMapThreadName(stream: DataInputStream, wide: Boolean) = {
 		//[2 bytes: thread ID]
 		val threadId = stream.readUnsignedShort
 
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = if (wide) stream.readLong else stream.readInt
 
 		//[2 bytes: length of encoded thread name][n bytes: encoded thread name]
 		val threadName = stream.readUTF
@@ -77,6 +84,36 @@ class DataMessageReaderV1 extends DataMessageReader {
 		DataMessage.UnsequencedData(DataMessageContent.MapMethodSignature(methodSig, methodId))
 	}
 
+	protected def readMapClassMethods(stream: DataInputStream) = {
+		//[2 bytes: length of encoded class name][n bytes: encoded class name]
+		val className = stream.readUTF
+
+		//[2 bytes: number of methods]
+		val numMethods = stream.readUnsignedShort
+
+		val methods = List.fill(numMethods) {
+			//[4 bytes: assigned signature ID]
+			val methodId = stream.readInt
+
+			//[2 bytes: length of encoded signature][n bytes: encoded signature]
+			val methodSig = stream.readUTF
+
+			DataMessageContent.MapMethodSignature(methodSig, methodId)
+		}
+
+		DataMessage.UnsequencedData(DataMessageContent.MapClassMethods(className, methods))
+	}
+
+	protected def readMapMethodSampling(stream: DataInputStream) = {
+		//[4 bytes: method signature ID]
+		val methodId = stream.readInt
+
+		//[4 bytes: sampling interval]
+		val interval = stream.readInt
+
+		DataMessage.UnsequencedData(DataMessageContent.MapMethodSampling(methodId, interval))
+	}
+
 	protected def readMapException(stream: DataInputStream) = {
 		//[4 bytes: assigned exception ID]
 		val exceptionId = stream.readInt
@@ -87,9 +124,9 @@ class DataMessageReaderV1 extends DataMessageReader {
 		DataMessage.UnsequencedData(DataMessageContent.MapException(exception, exceptionId))
 	}
 
-	protected def readMethodEntry(stream: DataInputStream) = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readMethodEntry(stream: DataInputStream, wide: Boolean) = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = if (wide) stream.readLong else stream.readInt
 
 		//[4 bytes: current sequence]
 		val sequenceId = stream.readInt
@@ -105,9 +142,9 @@ class DataMessageReaderV1 extends DataMessageReader {
 			DataMessageContent.MethodEntry(methodId, timestamp, threadId))
 	}
 
-	protected def readMethodExit(stream: DataInputStream) = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readMethodExit(stream: DataInputStream, wide: Boolean) = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = if (wide) stream.readLong else stream.readInt
 
 		//[4 bytes: current sequence]
 		val sequenceId = stream.readInt
@@ -126,9 +163,58 @@ class DataMessageReaderV1 extends DataMessageReader {
 			DataMessageContent.MethodExit(methodId, timestamp, lineNum, threadId))
 	}
 
-	protected def readException(stream: DataInputStream) = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readMethodSpan(stream: DataInputStream, wide: Boolean) = {
+		//[4 or 8 bytes: relative start time]
+		val startTime = if (wide) stream.readLong else stream.readInt
+
+		//[4 bytes: current sequence]
+		val sequenceId = stream.readInt
+
+		//[4 bytes: method signature ID]
+		val methodId = stream.readInt
+
+		//[4 or 8 bytes: duration]
+		val duration = if (wide) stream.readLong else stream.readInt
+
+		//[2 bytes: call depth]
+		val depth = stream.readUnsignedShort
+
+		//[2 bytes: line number]
+		val lineNum = stream.readUnsignedShort
+
+		//[2 bytes: thread ID]
+		val threadId = stream.readUnsignedShort
+
+		// spans are sequenced when the method exits, so that's when they're ordered
+		DataMessage.SequencedData(
+			startTime + duration, sequenceId,
+			DataMessageContent.MethodSpan(methodId, startTime, duration, depth, lineNum, threadId))
+	}
+
+	protected def readEventGap(stream: DataInputStream, wide: Boolean) = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = if (wide) stream.readLong else stream.readInt
+
+		//[4 bytes: current sequence]
+		val sequenceId = stream.readInt
+
+		//[4 bytes: sequence the gap starts from]
+		val fromSequence = stream.readInt
+
+		//[4 bytes: dropped event count]
+		val count = stream.readInt
+
+		//[2 bytes: thread ID]
+		val threadId = stream.readUnsignedShort
+
+		DataMessage.SequencedData(
+			timestamp, sequenceId,
+			DataMessageContent.EventGap(fromSequence, count, timestamp, threadId))
+	}
+
+	protected def readException(stream: DataInputStream, wide: Boolean) = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = if (wide) stream.readLong else stream.readInt
 
 		//[4 bytes: current sequence]
 		val sequenceId = stream.readInt
@@ -150,9 +236,9 @@ class DataMessageReaderV1 extends DataMessageReader {
 			DataMessageContent.Exception(exceptionId, methodId, timestamp, lineNum, threadId))
 	}
 
-	protected def readExceptionBubble(stream: DataInputStream) = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readExceptionBubble(stream: DataInputStream, wide: Boolean) = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = if (wide) stream.readLong else stream.readInt
 
 		//[4 bytes: current sequence]
 		val sequenceId = stream.readInt
@@ -171,9 +257,35 @@ class DataMessageReaderV1 extends DataMessageReader {
 			DataMessageContent.ExceptionBubble(exceptionId, methodId, timestamp, threadId))
 	}
 
-	protected def readMarker(stream: DataInputStream) = {
-		//[4 bytes: relative timestamp]
-		val timestamp = stream.readInt
+	protected def readMethodStats(stream: DataInputStream, wide: Boolean) = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = if (wide) stream.readLong else stream.readInt
+
+		//[2 bytes: number of methods]
+		val numMethods = stream.readUnsignedShort
+
+		val methods = for (i <- 0 until numMethods) yield {
+			//[4 bytes: method signature ID][4 bytes: calls][8 bytes: total time][8 bytes: self time]
+			val methodId = stream.readInt
+			val calls = stream.readInt
+			val totalTime = stream.readLong
+			val selfTime = stream.readLong
+
+			//[4 bytes: mask of non-empty histogram buckets][4 bytes per non-empty bucket: count]
+			val mask = stream.readInt
+			val histogram = Vector.tabulate(32 - Integer.numberOfLeadingZeros(mask)) { bucket =>
+				if ((mask & (1 << bucket)) != 0) stream.readInt else 0
+			}
+
+			DataMessageContent.MethodStats(methodId, calls, totalTime, selfTime, histogram)
+		}
+
+		DataMessage.UnsequencedData(DataMessageContent.MethodStatsSnapshot(timestamp, methods.toList))
+	}
+
+	protected def readMarker(stream: DataInputStream, wide: Boolean) = {
+		//[4 or 8 bytes: relative timestamp]
+		val timestamp = if (wide) stream.readLong else stream.readInt
 
 		//[4 bytes: current sequence]
 		val sequence = stream.readInt
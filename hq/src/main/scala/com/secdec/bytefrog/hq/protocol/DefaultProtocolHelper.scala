@@ -21,10 +21,11 @@ package com.secdec.bytefrog.hq.protocol
 
 import com.secdec.bytefrog.common.message.MessageProtocol
 import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.common.message.MessageProtocolV2
 
 object DefaultProtocolHelper extends ProtocolHelper {
 
-	def latestProtocolVersion = 1
+	def latestProtocolVersion = 2
 
 	/** Returns a `MessageProtocol` instance associated with the given `version`, as
 	  * an option.
@@ -34,6 +35,7 @@ object DefaultProtocolHelper extends ProtocolHelper {
 	  */
 	def getMessageProtocol(version: Int): Option[MessageProtocol] = version match {
 		case 1 => Some(new MessageProtocolV1)
+		case 2 => Some(new MessageProtocolV2)
 		case _ => None
 	}
 
@@ -44,18 +46,19 @@ object DefaultProtocolHelper extends ProtocolHelper {
 	  * `None` if no such class exists.
 	  */
 	def getControlMessageSender(version: Int): Option[ControlMessageSender] = version match {
-		case 1 => Some(ControlMessageSenderV1)
+		case 1 | 2 => Some(ControlMessageSenderV1)
 		case _ => None
 	}
 
 	def getControlMessageReader(version: Int): Option[ControlMessageReader] = version match {
-		case 1 => Some(ControlMessageReaderV1)
+		case 1 | 2 => Some(ControlMessageReaderV1)
 		case _ => None
 	}
 
 	def getDataEventReader(version: Int): Option[DataEventReader] = version match {
 		//event reader V1 isn't thread safe, so return a new instance each time
 		case 1 => Some(new DataEventReaderV1)
+		// version 2 events are only understood by DataMessageParserV2
 		case _ => None
 	}
 
@@ -66,6 +69,7 @@ object DefaultProtocolHelper extends ProtocolHelper {
 
 	def getDataMessageParser(version: Int): Option[DataMessageParser] = version match {
 		case 1 => Some(DataMessageParserV1)
+		case 2 => Some(DataMessageParserV2)
 		case _ => None
 	}
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import scala.collection.mutable.ListBuffer
 import scala.concurrent.ExecutionContext.Implicits.global
 import scala.concurrent.Future
 
+import com.secdec.bytefrog.common.config.EventClockMode
 import com.secdec.bytefrog.hq.agent.AgentController
 import com.secdec.bytefrog.hq.config._
 import com.secdec.bytefrog.hq.connect._
@@ -69,7 +70,8 @@ object Trace {
 				for {
 					controlConnection <- controlFuture
 				} yield {
-					val trace = new Trace(runId, controlConnection, hqConfiguration, monitorConfiguration)
+					val trace = new Trace(runId, controlConnection, hqConfiguration, monitorConfiguration, agentConfiguration.perThreadSequencing,
+						agentConfiguration.compressionLevel > 0, agentConfiguration.eventClock)
 					server.traceRegistry registerTrace trace
 					trace
 				}
@@ -98,8 +100,13 @@ object TraceEndReason {
   * @param controlConnection The main connection to the attached Agent.
   * @param hqConfig The HQ configuration.
   * @param monitorConfig The HQ monitor configuration.
+  * @param initialPerThreadSequencing Whether the agent was configured to sequence events per thread.
+  * @param initialDataCompression Whether the agent was configured to compress its data.
+  * @param initialEventClock The clock the agent was configured to timestamp its events with.
   */
-class Trace(val runId: Byte, controlConnection: ControlConnection, hqConfig: HQConfiguration, monitorConfig: MonitorConfiguration)
+class Trace(val runId: Byte, controlConnection: ControlConnection, hqConfig: HQConfiguration, monitorConfig: MonitorConfiguration,
+	initialPerThreadSequencing: Boolean = false, initialDataCompression: Boolean = false,
+	initialEventClock: EventClockMode = EventClockMode.Millis)
 	extends HasTraceSegmentBuilder with Observing with Startable[TraceDataManager] with Completable[TraceEndReason] {
 
 	// The trace output settings are provided upon trace startup
@@ -121,6 +128,15 @@ class Trace(val runId: Byte, controlConnection: ControlConnection, hqConfig: HQC
 		kill
 	}
 
+	// how the agent numbers its events; may change with a reconfiguration before the trace starts
+	@volatile private var perThreadSequencing = initialPerThreadSequencing
+
+	// whether the agent compresses its data; may change with a reconfiguration before the trace starts
+	@volatile private var dataCompression = initialDataCompression
+
+	// the unit of the agent's event timestamps; may change with a reconfiguration before the trace starts
+	@volatile private var eventClock = initialEventClock
+
 	// a health monitor manager
 	private val status = new TraceStatus
 
@@ -135,6 +151,8 @@ class Trace(val runId: Byte, controlConnection: ControlConnection, hqConfig: HQC
 	def classTransformEvents: EventStream[String] = agentController.classTransformEvents
 	def classTransformFailEvents: EventStream[String] = agentController.classTransformFailEvents
 	def classIgnoreEvents: EventStream[String] = agentController.classIgnoreEvents
+	def methodDemotions: EventStream[ControlMessage.MethodDemoted] = agentController.methodDemotions
+	def retransformProgress: EventStream[ControlMessage.RetransformProgress] = agentController.retransformProgress
 
 	def agentStateChange = agentController.agentStateChange
 
@@ -144,6 +162,11 @@ class Trace(val runId: Byte, controlConnection: ControlConnection, hqConfig: HQC
 	/** The version of the underlying messaging protocol used by the connections to the Agent */
 	val protocolVersion = controlConnection.protocolVersion
 
+	/** Whether data connections from the Agent carry compressed blocks. Agents only compress
+	  * their data when asked to, and from protocol version 2 on.
+	  */
+	def compressedData = dataCompression && protocolVersion >= 2
+
 	private lazy val dataRouter = {
 		val router = new DataRouter(errorController)
 
@@ -157,7 +180,8 @@ class Trace(val runId: Byte, controlConnection: ControlConnection, hqConfig: HQC
 	}
 
 	private lazy val dataCollector = {
-		val collector = new DataCollector(errorController, dataRouter, hqConfig.sortQueueInitialSize, hqConfig.dataQueueMaximumSize)
+		val collector = new DataCollector(errorController, dataRouter, hqConfig.sortQueueInitialSize, hqConfig.dataQueueMaximumSize,
+			perThreadSequencing, hqConfig.threadMergeWindow, eventClock)
 		players += collector
 		collector
 	}
@@ -245,6 +269,9 @@ class Trace(val runId: Byte, controlConnection: ControlConnection, hqConfig: HQC
 		val configMsg = ControlMessage.Configuration(config)
 
 		controlConnection.send(configMsg)
+		perThreadSequencing = agentConfig.perThreadSequencing
+		dataCompression = agentConfig.compressionLevel > 0
+		eventClock = agentConfig.eventClock
 	}
 
 	/** Stops the current trace by detaching the agent. Data processing is finished normally. */
@@ -288,4 +315,10 @@ class Trace(val runId: Byte, controlConnection: ControlConnection, hqConfig: HQC
 
 	/** Tell agent to resume execution and tracing */
 	def resume() = agentController.resumeTracing
+
+	/** Tell agent to switch to new inclusion/exclusion rules. Classes that are already loaded
+	  * get retransformed in the background; watch `retransformProgress` to see when that's done.
+	  */
+	def updateFilters(exclusions: List[String], inclusions: List[String]) =
+		agentController.updateFilters(exclusions, inclusions)
 }
\ No newline at end of file
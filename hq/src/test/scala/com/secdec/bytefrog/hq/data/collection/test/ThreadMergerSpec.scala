@@ -0,0 +1,101 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.hq.data.collection.test
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.common.config.EventClockMode
+import com.secdec.bytefrog.hq.data.collection.ThreadMerger
+import com.secdec.bytefrog.hq.protocol.DataMessage.SequencedData
+import com.secdec.bytefrog.hq.protocol.DataMessageContent.MethodEntry
+
+class ThreadMergerSpec extends FunSpec with ShouldMatchers {
+
+	class Recorder(window: Long = 10) {
+		val routed = ListBuffer[Any]()
+		val merger = new ThreadMerger(window, 100, d => routed += d, () => routed += "break")
+	}
+
+	def entry(thread: Int, sequence: Int, timestamp: Int) =
+		SequencedData(timestamp, sequence, MethodEntry(0, timestamp, thread))
+
+	describe("ThreadMerger") {
+		it("should put each thread's data back in sequence order") {
+			val r = new Recorder
+			val data = List(entry(1, 2, 5), entry(1, 0, 3), entry(1, 1, 4))
+			data foreach r.merger.put
+
+			r.merger pump true
+			r.routed should equal(List(entry(1, 0, 3), entry(1, 1, 4), entry(1, 2, 5)))
+			r.merger.isEmpty should be(true)
+		}
+
+		it("should merge threads by timestamp") {
+			val r = new Recorder
+			r.merger put entry(2, 0, 7)
+			r.merger put entry(1, 0, 3)
+			r.merger put entry(1, 1, 9)
+
+			r.merger pump true
+			r.routed should equal(List(entry(1, 0, 3), entry(2, 0, 7), entry(1, 1, 9)))
+		}
+
+		it("should hold data until it falls out of the merge window") {
+			val r = new Recorder
+			r.merger put entry(1, 0, 100)
+			r.merger pump false
+			r.routed should be('empty)
+
+			r.merger put entry(2, 0, 110)
+			r.merger pump false
+			r.routed should equal(List(entry(1, 0, 100)))
+		}
+
+		it("should scale the merge window to microsecond timestamps") {
+			ThreadMerger.windowFor(10, EventClockMode.Millis) should equal(10)
+			ThreadMerger.windowFor(10, EventClockMode.Micros) should equal(10000)
+			ThreadMerger.windowFor(10, EventClockMode.CoarseMicros) should equal(10000)
+
+			// 500us apart is well within a 10ms window
+			val r = new Recorder(ThreadMerger.windowFor(10, EventClockMode.Micros))
+			r.merger put entry(1, 0, 100000)
+			r.merger put entry(2, 0, 100500)
+			r.merger pump false
+			r.routed should be('empty)
+
+			r.merger put entry(2, 1, 110500)
+			r.merger pump false
+			r.routed should equal(List(entry(1, 0, 100000), entry(2, 0, 100500)))
+		}
+
+		it("should place data breaks by timestamp") {
+			val r = new Recorder
+			r.merger put entry(1, 0, 3)
+			r.merger put entry(1, 1, 8)
+			r.merger reportDataBreak 5
+
+			r.merger pump true
+			r.routed should equal(List(entry(1, 0, 3), "break", entry(1, 1, 8)))
+		}
+	}
+}
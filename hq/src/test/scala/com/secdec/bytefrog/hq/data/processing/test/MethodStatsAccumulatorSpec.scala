@@ -0,0 +1,79 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.hq.data.processing.test
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.hq.data.processing.MethodStatsAccumulator
+import com.secdec.bytefrog.hq.data.processing.MethodStatsAccumulator.MethodProfile
+import com.secdec.bytefrog.hq.protocol.DataMessage
+import com.secdec.bytefrog.hq.protocol.DataMessageContent._
+import com.secdec.bytefrog.hq.protocol.DataMessageReaderV1
+import com.secdec.bytefrog.hq.protocol.IO
+
+class MethodStatsAccumulatorSpec extends FunSpec with ShouldMatchers {
+
+	describe("MethodStats messages") {
+		it("should be read back the way the agent wrote them") {
+			val bytes = new ByteArrayOutputStream
+			val histograms = Array(Array(0, 2, 0, 1, 0, 0), Array(5))
+			new MessageProtocolV1().writeMethodStats(new DataOutputStream(bytes), 1234, 2,
+				Array(7, 9), Array(3, 5), Array(40L, 0L), Array(25L, 0L), histograms)
+
+			val stream = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray))
+			DataMessageReaderV1.readMessage(stream) should equal(IO.Data(DataMessage.UnsequencedData(
+				MethodStatsSnapshot(1234, List(
+					MethodStats(7, 3, 40, 25, Vector(0, 2, 0, 1)),
+					MethodStats(9, 5, 0, 0, Vector(5)))))))
+		}
+	}
+
+	describe("MethodStatsAccumulator") {
+		it("should add up snapshots per method") {
+			val acc = new MethodStatsAccumulator
+
+			acc.processMessage(MapMethodSignature("a.b.C.foo()V", 7))
+			acc.processMessage(MethodStatsSnapshot(100, List(
+				MethodStats(7, 3, 40, 25, Vector(0, 2, 0, 1)),
+				MethodStats(9, 5, 10, 10, Vector(5)))))
+			acc.processMessage(MethodStatsSnapshot(200, List(
+				MethodStats(7, 1, 20, 20, Vector(0, 0, 0, 0, 1)))))
+
+			acc.snapshotCount should equal(2)
+			acc.profile should equal(List(
+				MethodProfile(7, Some("a.b.C.foo()V"), 4, 60, 45, Vector[Long](0, 2, 0, 1, 1)),
+				MethodProfile(9, None, 5, 10, 10, Vector[Long](5))))
+		}
+
+		it("should ignore individual events") {
+			val acc = new MethodStatsAccumulator
+			acc.processMessage(MethodEntry(7, 100, 1))
+			acc.processMessage(MethodExit(7, 110, 3, 1))
+			acc.profile should be('empty)
+		}
+	}
+}
@@ -30,6 +30,7 @@ import org.scalamock.scalatest.MockFactory
 
 import com.secdec.bytefrog.common.message.AgentOperationMode
 import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.common.message.MessageProtocolV2
 import com.secdec.bytefrog.hq.protocol.ControlMessage._
 import com.secdec.bytefrog.hq.protocol.ControlMessageReaderV1
 
@@ -67,6 +68,20 @@ class ControlMessageReaderV1Spec extends FunSpec with ShouldMatchers with MockFa
 			}
 		}
 
+		it("Should read the stats that come with version 2 Heartbeats") {
+			val reader = newReader
+			val input = makeInput { out =>
+				new MessageProtocolV2().writeHeartbeat(out, AgentOperationMode.Tracing, 3, Array(1000L, 250L, 4000000L))
+			}
+			val heartbeat = Heartbeat(AgentOperationMode.Tracing, 3, Vector(1000L, 250L, 4000000L))
+			reader.readMessage(input) shouldBe heartbeat
+
+			heartbeat.compressionRatio shouldBe Some(0.25)
+			heartbeat.compressionTime shouldBe Some(4)
+			heartbeat.droppedClassReports shouldBe None
+			Heartbeat(AgentOperationMode.Tracing, 3, Vector.tabulate(8)(_.toLong)).droppedClassReports shouldBe Some(7)
+		}
+
 		it("Should identify ClassTransformed messages") {
 			val reader = newReader
 			val input = makeInput { out =>
@@ -91,6 +106,20 @@ class ControlMessageReaderV1Spec extends FunSpec with ShouldMatchers with MockFa
 			reader.readMessage(input) shouldBe ClassIgnored("foo/bar/Baz")
 		}
 
+		it("Should identify batched class reports") {
+			import com.secdec.bytefrog.common.message.MessageConstantsV1._
+			val reader = newReader
+			val input = makeInput { out =>
+				protocol.writeClassReports(out,
+					Array(MsgClassTransformed, MsgClassIgnored, MsgClassTransformFailed),
+					Array("ClassA", "ClassB", "ClassC"), 3)
+			}
+			reader.readMessage(input) shouldBe ClassReports(List(
+				ClassTransformed("ClassA"),
+				ClassIgnored("ClassB"),
+				ClassTransformFailed("ClassC")))
+		}
+
 		it("Should be able to read several messages in a row without problems") {
 			val reader = newReader
 			val input = makeInput { out =>
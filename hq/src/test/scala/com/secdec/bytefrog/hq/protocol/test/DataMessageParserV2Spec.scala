@@ -0,0 +1,154 @@
+/*
+ * bytefrog: a tracing framework for the JVM. For more information
+ * see http://code-pulse.com/bytefrog
+ *
+ * Copyright (C) 2014 Applied Visions - http://securedecisions.avi.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.secdec.bytefrog.hq.protocol.test
+
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+
+import scala.collection.mutable.ListBuffer
+
+import org.scalatest.FunSpec
+import org.scalatest.matchers.ShouldMatchers
+
+import com.secdec.bytefrog.common.message.MessageProtocolV1
+import com.secdec.bytefrog.common.message.MessageProtocolV2
+import com.secdec.bytefrog.common.queue.DataBufferOutputStream
+import com.secdec.bytefrog.hq.protocol.DataMessageParserV2
+import com.secdec.bytefrog.hq.protocol.DefaultDataMessageHandler
+
+class DataMessageParserV2Spec extends FunSpec with ShouldMatchers {
+
+	class RecordingHandler extends DefaultDataMessageHandler {
+		val events = ListBuffer[Any]()
+		var error: Option[Throwable] = None
+
+		override def handleMapMethodSignature(methodSig: String, methodId: Int) { events += (("map", methodSig, methodId)) }
+		override def handleMethodEntry(methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int) {
+			events += (("entry", methodId, timestamp, sequenceId, threadId))
+		}
+		override def handleMethodExit(methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int) {
+			events += (("exit", methodId, timestamp, sequenceId, lineNum, threadId))
+		}
+		override def handleMethodSpan(methodId: Int, startTime: Long, duration: Long, depth: Int, sequenceId: Int, lineNum: Int, threadId: Int) {
+			events += (("span", methodId, startTime, duration, depth, sequenceId, lineNum, threadId))
+		}
+		override def handleExceptionMessage(exceptionId: Int, methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int) {
+			events += (("exception", exceptionId, methodId, timestamp, sequenceId, lineNum, threadId))
+		}
+		override def handleExceptionBubble(exceptionId: Int, methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int) {
+			events += (("bubble", exceptionId, methodId, timestamp, sequenceId, threadId))
+		}
+		override def handleEventGap(fromSequence: Int, count: Int, timestamp: Long, sequenceId: Int, threadId: Int) {
+			events += (("gap", fromSequence, count, timestamp, sequenceId, threadId))
+		}
+		override def handleMarkerMessage(timestamp: Long, sequence: Int, key: String, value: String) {
+			events += (("marker", timestamp, sequence, key, value))
+		}
+		override def handleParserError(e: Throwable) = error = Some(e)
+	}
+
+	def parse(buffers: DataBufferOutputStream*) = {
+		val bytes = buffers.flatMap(_.toByteArray).toArray
+		val handler = new RecordingHandler
+		var readBytes = 0L
+		DataMessageParserV2.parse(new DataInputStream(new ByteArrayInputStream(bytes)), handler, readBytes = _)
+
+		handler.error should equal(None)
+		readBytes should equal(bytes.length)
+		handler.events.toList
+	}
+
+	val protocol = new MessageProtocolV2
+
+	describe("DataMessageParserV2") {
+		it("should read back the events in a frame") {
+			val out = new DataBufferOutputStream(256)
+			protocol.writeMethodEntry(out, 1000, 5, 42, 3)
+			protocol.writeMethodEntry(out, 1001, 6, 43, 3)
+			protocol.writeMethodExit(out, 1003, 7, 43, 12, 3)
+			protocol.writeMethodEntry(out, 1004, 8, 42, 4)
+			protocol.writeMarker(out, "key", "value", 1005, 9)
+			protocol.writeException(out, 1011, 10, 42, 2, 5, 4)
+			protocol.writeExceptionBubble(out, 1012, 11, 42, 2, 3)
+			protocol.writeMethodSpan(out, 990, 12, 41, 30, 1, 70000, 3)
+
+			parse(out) should equal(List(
+				("entry", 42, 1000L, 5, 3),
+				("entry", 43, 1001L, 6, 3),
+				("exit", 43, 1003L, 7, 12, 3),
+				("entry", 42, 1004L, 8, 4),
+				("marker", 1005L, 9, "key", "value"),
+				("exception", 2, 42, 1011L, 10, 5, 4),
+				("bubble", 2, 42, 1012L, 11, 3),
+				("span", 41, 990L, 30L, 1, 12, 70000 & 0xFFFF, 3)))
+		}
+
+		it("should read back a span that's too long for an int") {
+			val out = new DataBufferOutputStream(256)
+			val duration = Int.MaxValue.toLong * 3
+			protocol.writeMethodSpan(out, 990, 12, 41, duration, 1, 20, 3)
+
+			parse(out) should equal(List(("span", 41, 990L, duration, 1, 12, 20, 3)))
+		}
+
+		it("should start a new frame after other messages and in each buffer") {
+			val first = new DataBufferOutputStream(256)
+			protocol.writeMethodEntry(first, 100, 1, 7, 1)
+			protocol.writeMapMethodSignature(first, 8, "a.b.C.foo()V")
+			protocol.writeMethodEntry(first, 101, 2, 8, 1)
+
+			val second = new DataBufferOutputStream(256)
+			protocol.writeMethodExit(second, 102, 3, 8, 20, 1)
+
+			parse(first, second) should equal(List(
+				("entry", 7, 100L, 1, 1),
+				("map", "a.b.C.foo()V", 8),
+				("entry", 8, 101L, 2, 1),
+				("exit", 8, 102L, 3, 20, 1)))
+		}
+
+		it("should read an event gap in among framed events") {
+			val out = new DataBufferOutputStream(256)
+			protocol.writeMethodEntry(out, 100, 1, 7, 1)
+			protocol.writeEventGap(out, 5000000000L, 2, 2, 17, 1)
+			protocol.writeMethodExit(out, 5000000001L, 3, 7, 20, 1)
+
+			parse(out) should equal(List(
+				("entry", 7, 100L, 1, 1),
+				("gap", 2, 17, 5000000000L, 2, 1),
+				("exit", 7, 5000000001L, 3, 20, 1)))
+		}
+
+		it("should take less space than version 1 for a run of events") {
+			val v1 = new MessageProtocolV1
+			val out1 = new DataBufferOutputStream(1024)
+			val out2 = new DataBufferOutputStream(1024)
+
+			for (i <- 0 until 20) {
+				v1.writeMethodEntry(out1, 1000 + i, 2 * i, 42, 3)
+				v1.writeMethodExit(out1, 1000 + i, 2 * i + 1, 42, 10, 3)
+				protocol.writeMethodEntry(out2, 1000 + i, 2 * i, 42, 3)
+				protocol.writeMethodExit(out2, 1000 + i, 2 * i + 1, 42, 10, 3)
+			}
+
+			out2.size should be < (out1.size / 2)
+		}
+	}
+}
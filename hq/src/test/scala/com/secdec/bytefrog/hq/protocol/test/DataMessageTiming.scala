@@ -105,14 +105,14 @@ object DataMessageTiming {
 	def pushParserTest(data: DataInputStream): Counts = {
 		val c = new Counts
 		val handler = new DefaultDataMessageHandler {
-			override def handleMapThreadName(threadName: String, threadId: Int, timestamp: Int) = c.mappedThreads.inc
+			override def handleMapThreadName(threadName: String, threadId: Int, timestamp: Long) = c.mappedThreads.inc
 			override def handleMapMethodSignature(methodSig: String, methodId: Int) = c.mappedMethods.inc
 			override def handleMapException(exc: String, excId: Int) = c.mappedExceptions.inc
-			override def handleMethodEntry(methodId: Int, timestamp: Int, sequenceId: Int, threadId: Int) = c.methodEntries.inc
-			override def handleMethodExit(methodId: Int, timestamp: Int, sequenceId: Int, lineNum: Int, threadId: Int) = c.methodExits.inc
-			override def handleExceptionMessage(exception: Int, methodId: Int, timestamp: Int, sequenceId: Int, lineNum: Int, threadId: Int) =
+			override def handleMethodEntry(methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int) = c.methodEntries.inc
+			override def handleMethodExit(methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int) = c.methodExits.inc
+			override def handleExceptionMessage(exception: Int, methodId: Int, timestamp: Long, sequenceId: Int, lineNum: Int, threadId: Int) =
 				c.exceptions.inc
-			override def handleExceptionBubble(exception: Int, methodId: Int, timestamp: Int, sequenceId: Int, threadId: Int) = c.exceptionBubbles.inc
+			override def handleExceptionBubble(exception: Int, methodId: Int, timestamp: Long, sequenceId: Int, threadId: Int) = c.exceptionBubbles.inc
 
 			override def handleParserError(error: Throwable) = throw error
 			override def handleParserEOF = ()